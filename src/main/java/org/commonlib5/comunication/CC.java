@@ -107,8 +107,21 @@ public class CC
    */
   public static String fmtCommBuffer(byte[] buffer, int offset, int len)
   {
-    StringBuilder sb = new StringBuilder(128);
+    return fmtCommBuffer(new StringBuilder(128), buffer, offset, len).toString();
+  }
 
+  /**
+   * Formatta una buffer di byte sostituendo ai caratteri di comunicazione
+   * i rispettivi mnemonici. La codifica è di tipo ASCII.
+   * Il risultato viene accodato a uno StringBuilder esistente.
+   * @param sb destinazione della stringa formattata
+   * @param buffer byte da stampare
+   * @param offset primo byte da stampare nel buffer
+   * @param len numero di byte da stampare
+   * @return sb per comodità
+   */
+  public static StringBuilder fmtCommBuffer(StringBuilder sb, byte[] buffer, int offset, int len)
+  {
     while(len-- > 0 && offset < buffer.length)
     {
       int c = buffer[offset++];
@@ -121,7 +134,7 @@ public class CC
         sb.append("[???]");
     }
 
-    return sb.toString();
+    return sb;
   }
 
   public static String fmtByte(int c)
@@ -23,6 +23,7 @@ import org.commonlib5.io.MonitorInputStream;
 import org.commonlib5.io.MonitorOutputStream;
 import org.commonlib5.io.MonitorStreamQueue;
 import org.commonlib5.io.MonitorStreamStorage;
+import org.commonlib5.utils.BytePattern;
 import org.commonlib5.utils.CommonFileUtils;
 import org.commonlib5.utils.SimpleTimer;
 
@@ -386,22 +387,28 @@ abstract public class AbstractPort
   public boolean skipPattern(byte[] pattern)
      throws IOException
   {
-    int i = 0, c = 0;
-
-    do
-    {
-      for(i = 0; i < pattern.length; i++)
-      {
-        if((c = inputStream.read()) == -1)
-          return false;
+    // la sequenza vuota è sempre trovata
+    if(pattern.length == 0)
+      return true;
 
-        if(c != pattern[i])
-          break;
-      }
-    }
-    while(i < pattern.length);
+    return skipPattern(new BytePattern(pattern));
+  }
 
-    return true;
+  /**
+   * Ricerca di pattern nei byte ricevuti dalla seriale.
+   * Lo stream viene letto fino a trovare la pattern indicata.
+   * Se la pattern viene trovata la posizione dello stream sarà al byte immediatamente successivo.
+   * Ogni byte ricevuto è letto una sola volta: le corrispondenze
+   * parziali non fanno perdere l'inizio di una pattern.
+   * La chiamata è bloccante.
+   * @param pattern sequenza di byte precompilata
+   * @return vero se la pattern è stata trovata
+   * @throws IOException
+   */
+  public boolean skipPattern(BytePattern pattern)
+     throws IOException
+  {
+    return pattern.skip(inputStream);
   }
 
   /**
@@ -28,6 +28,7 @@ public class FileSystemPort extends AbstractPort
 {
   protected File inFile, outFile;
   protected byte[] inputData = null;
+  protected InputStream inputSource = null;
 
   @Override
   public void initComm(String sData)
@@ -36,14 +37,13 @@ public class FileSystemPort extends AbstractPort
     super.initComm(sData);
 
     // imposta gli stream di input/output
-    if(inputData != null)
-      setStream(
-         new ByteArrayInputStream(inputData),
-         new FileOutputStream(outFile));
+    OutputStream os = outFile == null ? OutputStream.nullOutputStream() : new FileOutputStream(outFile);
+    if(inputSource != null)
+      setStream(inputSource, os);
+    else if(inputData != null)
+      setStream(new ByteArrayInputStream(inputData), os);
     else
-      setStream(
-         new FileInputStream(inFile),
-         new FileOutputStream(outFile));
+      setStream(new FileInputStream(inFile), os);
   }
 
   public void setParams(File inFile, File outFile)
@@ -57,4 +57,17 @@ public class FileSystemPort extends AbstractPort
     this.inputData = inputData;
     this.outFile = outFile;
   }
+
+  /**
+   * Imposta uno stream come sorgente dei dati ricevuti.
+   * Ad esempio MonitorCaptureInputStream riproduce sulla porta
+   * il traffico di una cattura.
+   * @param inputSource sorgente dei dati in ingresso
+   * @param outFile file per i dati trasmessi (null per scartarli)
+   */
+  public void setParams(InputStream inputSource, File outFile)
+  {
+    this.inputSource = inputSource;
+    this.outFile = outFile;
+  }
 }
@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ByteBufferInputStream con dimensione limitata.
+ * I dati sono conservati in un buffer circolare di dimensione fissa:
+ * lo spazio dei bytes letti viene riutilizzato senza copie né
+ * riallocazioni, per cui è adatto a sessioni di lunga durata
+ * (ad esempio i dati ricevuti da un dispositivo).
+ * <p>
+ * Quando il buffer è pieno addToBuffer() attende che il consumatore
+ * liberi spazio oppure, se così configurato, solleva BufferOverflowException
+ * senza aggiungere nessun dato.
+ * <p>
+ * La sincronizzazione usa un lock con due condizioni distinte:
+ * un produttore sveglia solo i lettori in attesa di dati e un lettore
+ * solo i produttori in attesa di spazio.
+ * La chiusura sveglia tutti i thread in attesa: i lettori ricevono
+ * fine stream, i produttori trovano il buffer vuoto.
+ * <p>
+ * mark()/reset() non sono supportati; unread() reinserisce i bytes
+ * in testa se c'è spazio sufficiente.
+ *
+ * @author Nicola De Nisco
+ */
+public class BoundedByteBufferInputStream extends ByteBufferInputStream
+{
+  private final byte[] anello;
+  private final boolean blockingAdd;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition nonVuoto = lock.newCondition();
+  private final Condition nonPieno = lock.newCondition();
+  private int testa = 0, occupati = 0;
+  private boolean chiuso = false;
+
+  /**
+   * Crea un buffer bloccante sia in lettura che in scrittura.
+   * @param capacity dimensione del buffer
+   */
+  public BoundedByteBufferInputStream(int capacity)
+  {
+    this(capacity, true, true);
+  }
+
+  /**
+   * Crea un nuovo buffer.
+   * @param capacity dimensione del buffer
+   * @param blocking se vero la lettura con buffer vuoto è bloccante
+   * @param blockingAdd se vero addToBuffer() con buffer pieno è bloccante,
+   * altrimenti solleva BufferOverflowException
+   */
+  public BoundedByteBufferInputStream(int capacity, boolean blocking, boolean blockingAdd)
+  {
+    super(blocking);
+    if(capacity <= 0)
+      throw new IllegalArgumentException("Dimensione non valida: " + capacity);
+
+    this.anello = new byte[capacity];
+    this.blockingAdd = blockingAdd;
+  }
+
+  public int getCapacity()
+  {
+    return anello.length;
+  }
+
+  public boolean isBlockingAdd()
+  {
+    return blockingAdd;
+  }
+
+  /**
+   * Spazio libero nel buffer.
+   * @return numero di bytes che possono essere aggiunti senza attesa
+   */
+  public int getSpaceLeft()
+  {
+    lock.lock();
+    try
+    {
+      return anello.length - occupati;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int available()
+  {
+    lock.lock();
+    try
+    {
+      return occupati;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Attende dei dati da leggere; il lock deve essere acquisito.
+   * @return bytes disponibili, 0 se scaduto il timeout, -1 a fine stream
+   */
+  private int attendi(boolean timed, long nanos)
+     throws InterruptedException
+  {
+    while(occupati == 0)
+    {
+      if(chiuso || (!timed && !isBlocking()))
+        return -1;
+
+      if(!timed)
+        nonVuoto.await();
+      else if(nanos <= 0)
+        return 0;
+      else
+        nanos = nonVuoto.awaitNanos(nanos);
+    }
+
+    return occupati;
+  }
+
+  /**
+   * Libera lo spazio dei bytes letti; il lock deve essere acquisito.
+   */
+  private void consumati(int n)
+  {
+    testa = (testa + n) % anello.length;
+    occupati -= n;
+    nonPieno.signal();
+    if(occupati > 0)
+      nonVuoto.signal();
+  }
+
+  private int leggi(byte[] buffer, int offset, int length, boolean timed, long nanos)
+  {
+    lock.lock();
+    try
+    {
+      int disponibili = attendi(timed, nanos);
+      if(disponibili <= 0)
+        return disponibili;
+
+      int numBytes = Math.min(disponibili, length);
+      int primo = Math.min(numBytes, anello.length - testa);
+      System.arraycopy(anello, testa, buffer, offset, primo);
+      if(numBytes > primo)
+        System.arraycopy(anello, 0, buffer, offset + primo, numBytes - primo);
+
+      consumati(numBytes);
+      return numBytes;
+    }
+    catch(InterruptedException ex)
+    {
+      return -1;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int read()
+  {
+    lock.lock();
+    try
+    {
+      if(attendi(false, 0) <= 0)
+        return -1;
+
+      int rv = anello[testa] & 0xFF;
+      consumati(1);
+      return rv;
+    }
+    catch(InterruptedException ex)
+    {
+      return -1;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length)
+  {
+    if(length == 0)
+      return 0;
+
+    return leggi(buffer, offset, length, false, 0);
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length, long timeout, TimeUnit unit)
+  {
+    if(length == 0)
+      return 0;
+
+    return leggi(buffer, offset, length, true, unit.toNanos(timeout));
+  }
+
+  @Override
+  public long skip(long num)
+  {
+    lock.lock();
+    try
+    {
+      int numBytes = (int) Math.min(occupati, num < 0 ? 0L : num);
+      if(numBytes > 0)
+        consumati(numBytes);
+      return numBytes;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void addToBuffer(int toAdd)
+  {
+    addToBuffer(new byte[]
+    {
+      (byte) toAdd
+    }, 0, 1);
+  }
+
+  @Override
+  public void addToBuffer(byte[] toAdd)
+  {
+    addToBuffer(toAdd, 0, toAdd.length);
+  }
+
+  /**
+   * Aggiunge byte al buffer.
+   * Se il buffer è pieno attende che il consumatore liberi spazio;
+   * l'attesa termina anche con la chiusura dello stream.
+   * @param toAdd array con dati da aggiungere
+   * @param apos posizione iniziale da copiare
+   * @param alength numero di byte da copiare
+   * @throws BufferOverflowException se il buffer non è bloccante
+   * e non c'è spazio sufficiente: nessun dato viene aggiunto
+   */
+  @Override
+  public void addToBuffer(byte[] toAdd, int apos, int alength)
+  {
+    lock.lock();
+    try
+    {
+      if(!blockingAdd && alength > anello.length - occupati)
+        throw new BufferOverflowException();
+
+      while(alength > 0)
+      {
+        while(occupati == anello.length)
+          nonPieno.awaitUninterruptibly();
+
+        int coda = (testa + occupati) % anello.length;
+        int numBytes = Math.min(alength, Math.min(anello.length - occupati, anello.length - coda));
+        System.arraycopy(toAdd, apos, anello, coda, numBytes);
+        occupati += numBytes;
+        apos += numBytes;
+        alength -= numBytes;
+        nonVuoto.signal();
+      }
+
+      if(occupati < anello.length)
+        nonPieno.signal();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Imposta lo stato di bloccante/non bloccante della lettura.
+   * I lettori in attesa vengono svegliati: passando a non bloccante
+   * ritornano fine stream se non ci sono dati.
+   * @param blocking vero per lettura bloccante
+   */
+  @Override
+  public void setBlocking(boolean blocking)
+  {
+    lock.lock();
+    try
+    {
+      super.setBlocking(blocking);
+      nonVuoto.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Chiude lo stream.
+   * Il contenuto viene scartato e tutti i thread in attesa svegliati:
+   * la lettura con buffer vuoto ritorna fine stream anche se bloccante.
+   * È ancora possibile aggiungere dati dopo la chiusura.
+   * @throws IOException
+   */
+  @Override
+  public void close()
+     throws IOException
+  {
+    lock.lock();
+    try
+    {
+      chiuso = true;
+      testa = occupati = 0;
+      nonVuoto.signalAll();
+      nonPieno.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void mark(int readlimit)
+  {
+  }
+
+  @Override
+  public boolean markSupported()
+  {
+    return false;
+  }
+
+  @Override
+  public void reset()
+     throws IOException
+  {
+    throw new IOException("mark/reset non supportati.");
+  }
+
+  @Override
+  public void unread(int b)
+     throws IOException
+  {
+    unread(new byte[]
+    {
+      (byte) b
+    }, 0, 1);
+  }
+
+  @Override
+  public void unread(byte[] b)
+     throws IOException
+  {
+    unread(b, 0, b.length);
+  }
+
+  /**
+   * Reinserisce bytes in testa al buffer.
+   * @param b array con i dati da reinserire
+   * @param off posizione iniziale in b
+   * @param len numero di bytes
+   * @throws IOException se non c'è spazio sufficiente
+   */
+  @Override
+  public void unread(byte[] b, int off, int len)
+     throws IOException
+  {
+    lock.lock();
+    try
+    {
+      if(len > anello.length - occupati)
+        throw new IOException("Push back buffer is full");
+
+      testa = (testa - len + anello.length) % anello.length;
+      int primo = Math.min(len, anello.length - testa);
+      System.arraycopy(b, off, anello, testa, primo);
+      if(len > primo)
+        System.arraycopy(b, off + primo, anello, 0, len - primo);
+
+      occupati += len;
+      if(len > 0)
+        nonVuoto.signal();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    lock.lock();
+    try
+    {
+      byte[] b = new byte[occupati];
+      int primo = Math.min(occupati, anello.length - testa);
+      System.arraycopy(anello, testa, b, 0, primo);
+      System.arraycopy(anello, 0, b, primo, occupati - primo);
+      return new String(b);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+}
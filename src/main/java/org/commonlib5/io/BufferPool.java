@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool di array di bytes riutilizzabili.
+ * Gli array sono suddivisi in classi di dimensione (potenze di due
+ * da MIN_SIZE a MAX_SIZE): acquire() ritorna un array della classe
+ * che contiene la dimensione richiesta, quindi eventualmente più grande;
+ * release() lo restituisce al pool per un successivo riutilizzo.
+ * La memoria trattenuta dal pool è limitata: oltre il limite gli array
+ * restituiti vengono abbandonati al garbage collector.
+ * <p>
+ * Il pool è thread safe. Un array restituito con release() non deve
+ * più essere utilizzato, né restituito una seconda volta.
+ * ByteBufferOutputStream e ByteBufferInputStream utilizzano un pool
+ * se indicato nel costruttore.
+ *
+ * @author Nicola De Nisco
+ */
+public class BufferPool
+{
+  public static final int MIN_SIZE = 256;
+  public static final int MAX_SIZE = 1024 * 1024;
+  public static final long DEFAULT_MAX_RETAINED = 16L * 1024 * 1024;
+  private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+  private static final int NUM_CLASSI = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+  private static final BufferPool shared = new BufferPool(DEFAULT_MAX_RETAINED);
+
+  private final ConcurrentLinkedQueue<byte[]>[] classi;
+  private final AtomicLong retained = new AtomicLong();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder discarded = new LongAdder();
+  private volatile long maxRetained;
+
+  /**
+   * Costruisce un pool.
+   * @param maxRetained massimo numero di bytes trattenuti dal pool
+   */
+  public BufferPool(long maxRetained)
+  {
+    this.maxRetained = maxRetained;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ConcurrentLinkedQueue<byte[]>[] tmp = new ConcurrentLinkedQueue[NUM_CLASSI];
+    for(int i = 0; i < NUM_CLASSI; i++)
+      tmp[i] = new ConcurrentLinkedQueue<>();
+    classi = tmp;
+  }
+
+  /**
+   * Ritorna il pool condiviso da tutta la JVM.
+   * @return pool condiviso
+   */
+  public static BufferPool getShared()
+  {
+    return shared;
+  }
+
+  /**
+   * Indice della classe per la dimensione richiesta.
+   * @param size dimensione
+   * @return indice della classe o -1 se oltre MAX_SIZE
+   */
+  static int classe(int size)
+  {
+    if(size > MAX_SIZE)
+      return -1;
+    if(size <= MIN_SIZE)
+      return 0;
+
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+  }
+
+  /**
+   * Preleva un array dal pool.
+   * Il contenuto dell'array non è azzerato.
+   * Oltre MAX_SIZE l'array è allocato della dimensione esatta.
+   * @param size dimensione minima dell'array
+   * @return array di almeno size bytes
+   */
+  public byte[] acquire(int size)
+  {
+    int idx = classe(size);
+    if(idx < 0)
+    {
+      misses.increment();
+      return new byte[size];
+    }
+
+    byte[] rv = classi[idx].poll();
+    if(rv != null)
+    {
+      retained.addAndGet(-rv.length);
+      hits.increment();
+      return rv;
+    }
+
+    misses.increment();
+    return new byte[MIN_SIZE << idx];
+  }
+
+  /**
+   * Restituisce un array al pool.
+   * Array di dimensione diversa da quella delle classi (ovvero non
+   * ottenuti con acquire()) o oltre il limite di memoria trattenuta
+   * vengono ignorati.
+   * @param b array da restituire (può essere null)
+   */
+  public void release(byte[] b)
+  {
+    if(b == null)
+      return;
+
+    int idx = classe(b.length);
+    if(idx < 0 || (MIN_SIZE << idx) != b.length)
+      return;
+
+    if(retained.addAndGet(b.length) > maxRetained)
+    {
+      retained.addAndGet(-b.length);
+      discarded.increment();
+      return;
+    }
+
+    classi[idx].offer(b);
+  }
+
+  /**
+   * Svuota il pool. I contatori non vengono azzerati.
+   */
+  public void clear()
+  {
+    for(ConcurrentLinkedQueue<byte[]> q : classi)
+    {
+      byte[] b;
+      while((b = q.poll()) != null)
+        retained.addAndGet(-b.length);
+    }
+  }
+
+  /**
+   * Azzera i contatori hit/miss/discarded.
+   */
+  public void resetStatistiche()
+  {
+    hits.reset();
+    misses.reset();
+    discarded.reset();
+  }
+
+  public long getHits()
+  {
+    return hits.sum();
+  }
+
+  public long getMisses()
+  {
+    return misses.sum();
+  }
+
+  /**
+   * Numero di array abbandonati perché oltre il limite di memoria trattenuta.
+   * @return numero di array
+   */
+  public long getDiscarded()
+  {
+    return discarded.sum();
+  }
+
+  /**
+   * Memoria trattenuta dal pool.
+   * @return numero di bytes negli array disponibili
+   */
+  public long getRetained()
+  {
+    return retained.get();
+  }
+
+  public long getMaxRetained()
+  {
+    return maxRetained;
+  }
+
+  public void setMaxRetained(long maxRetained)
+  {
+    this.maxRetained = maxRetained;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "BufferPool{" + "retained=" + getRetained() + "/" + maxRetained
+       + ", hits=" + getHits() + ", misses=" + getMisses() + ", discarded=" + getDiscarded() + '}';
+  }
+}
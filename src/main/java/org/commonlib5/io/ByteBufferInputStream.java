@@ -19,6 +19,7 @@ package org.commonlib5.io;
 
 import java.io.IOException;
 import java.io.PushbackInputStream;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementazione di un buffer di bytes utilizzabile
@@ -32,6 +33,14 @@ import java.io.PushbackInputStream;
  * quando il buffer e' vuoto letture dallo stream provocano
  * il blocco del thread che legge, oppure non bloccante
  * (read ritorna 0 quando lo stream e' vuoto).
+ * <p>
+ * Se costruito con un BufferPool il buffer interno viene prelevato
+ * dal pool (quindi con spazio libero per le aggiunte successive)
+ * e restituito al pool da close() o quando sostituito da uno più grande.
+ * <p>
+ * Il buffer non ha limiti di dimensione; per sessioni di lunga durata
+ * con un produttore più veloce del consumatore vedi
+ * BoundedByteBufferInputStream.
  * @author Nicola De Nisco
  */
 public class ByteBufferInputStream extends PushbackInputStream
@@ -56,12 +65,18 @@ public class ByteBufferInputStream extends PushbackInputStream
    */
   protected int count;
 
+  /**
+   * Pool per il buffer interno (null se non utilizzato).
+   */
+  protected final BufferPool pool;
+
   /**
    * Create a new ByteBufferInputStream.
    */
   public ByteBufferInputStream()
   {
     super(null);
+    this.pool = null;
     this.blocking = true;
     buf = null;
     count = 0;
@@ -74,8 +89,19 @@ public class ByteBufferInputStream extends PushbackInputStream
    * @param blocking se vero il comportamento e' bloccante
    */
   public ByteBufferInputStream(boolean blocking)
+  {
+    this(blocking, (BufferPool) null);
+  }
+
+  /**
+   * Crea un nuovo buffer che utilizza un pool per il buffer interno.
+   * @param blocking se vero il comportamento e' bloccante
+   * @param pool pool da cui prelevare il buffer interno (può essere null)
+   */
+  public ByteBufferInputStream(boolean blocking, BufferPool pool)
   {
     super(null);
+    this.pool = pool;
     this.blocking = blocking;
     buf = null;
     count = 0;
@@ -185,6 +211,40 @@ public class ByteBufferInputStream extends PushbackInputStream
     return numBytes;
   }
 
+  /**
+   * Legge bytes dallo stream attendendo al massimo il tempo indicato.
+   * L'attesa avviene anche se lo stream non è bloccante.
+   *
+   * @param buffer The array into which the bytes read should be stored.
+   * @param offset The offset into the array to start storing bytes
+   * @param length The requested number of bytes to read
+   * @param timeout tempo massimo di attesa
+   * @param unit unità di misura di timeout
+   * @return The actual number of bytes read, 0 if the timeout expired
+   * or -1 if the wait has been interrupted.
+   */
+  public synchronized int read(byte[] buffer, int offset, int length, long timeout, TimeUnit unit)
+  {
+    long scadenza = System.nanoTime() + unit.toNanos(timeout);
+    while(pos >= count)
+    {
+      long millis = TimeUnit.NANOSECONDS.toMillis(scadenza - System.nanoTime());
+      if(millis <= 0)
+        return 0;
+
+      try
+      {
+        wait(millis);
+      }
+      catch(InterruptedException ex)
+      {
+        return -1;
+      }
+    }
+
+    return read(buffer, offset, length);
+  }
+
   /**
    * This method attempts to skip the requested number of bytes in the
    * input stream. It does this by advancing the <code>pos</code>
@@ -235,6 +295,8 @@ public class ByteBufferInputStream extends PushbackInputStream
    * L'array di byte passato viene copiato nel buffer interno
    * dopo che questi e' stato allargato di conseguenza.
    * Non ci sono limiti alla dimensione interna del buffer.
+   * Se il buffer interno ha spazio sufficiente (solo con un pool)
+   * i dati vengono accodati senza riallocarlo.
    * @param toAdd array con dati da aggiungere
    * @param apos posizione iniziale da copiare
    * @param alength numero di byte da copiare
@@ -246,15 +308,35 @@ public class ByteBufferInputStream extends PushbackInputStream
 
     int avail = available();
     int newSize = avail + alength;
-    byte[] newBuf = new byte[newSize];
+
+    if(buf != null && newSize <= buf.length)
+    {
+      // spazio sufficiente: compatta solo se necessario
+      if(count + alength > buf.length)
+      {
+        System.arraycopy(buf, pos, buf, 0, avail);
+        pos = 0;
+        count = avail;
+      }
+
+      System.arraycopy(toAdd, apos, buf, count, alength);
+      mark = pos;
+      count += alength;
+      notify();
+      return;
+    }
+
+    byte[] newBuf = pool == null ? new byte[newSize] : pool.acquire(newSize);
 
     if(buf != null && avail != 0)
       System.arraycopy(buf, pos, newBuf, 0, avail);
     System.arraycopy(toAdd, apos, newBuf, avail, alength);
 
+    if(pool != null)
+      pool.release(buf);
     buf = newBuf;
     pos = mark = 0;
-    count = newBuf.length;
+    count = newSize;
 
     notify();
   }
@@ -270,6 +352,8 @@ public class ByteBufferInputStream extends PushbackInputStream
   public synchronized void close()
      throws IOException
   {
+    if(pool != null)
+      pool.release(buf);
     buf = null;
     count = 0;
     mark = 0;
@@ -327,16 +411,19 @@ public class ByteBufferInputStream extends PushbackInputStream
 
   /**
    * Imposta lo stato di bloccante/non bloccante del buffer.
+   * I lettori in attesa vengono svegliati: passando a non bloccante
+   * ritornano fine stream se non ci sono dati.
    * @param blocking vero per funzione bloccante.
    */
-  public void setBlocking(boolean blocking)
+  public synchronized void setBlocking(boolean blocking)
   {
     this.blocking = blocking;
+    notifyAll();
   }
 
   @Override
   public synchronized String toString()
   {
-    return buf == null ? "" : new String(buf, pos, buf.length);
+    return buf == null ? "" : new String(buf, pos, count - pos);
   }
 }
@@ -20,7 +20,13 @@ package org.commonlib5.io;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import org.commonlib5.utils.BytePattern;
 
 /**
  * Output stream che scrive in un array di bytes.
@@ -29,8 +35,22 @@ import java.nio.charset.Charset;
  * Il contenuto può essere letto per copia o con
  * un accesso diretto al buffer interno.
  * La dimensione iniziale è BUFFER_SIZE e durante la scrittura
- * il buffer si ridimensiona a passi di BUFFER_STEP per contenere i dati.
+ * il buffer raddoppia (almeno di BUFFER_STEP) per contenere i dati.
  * Il buffer non ha limiti di espansione fino all'esaurimento della memoria.
+ * <p>
+ * In modalità segmentata (vedi ByteBufferOutputStream(int, boolean))
+ * i dati sono accumulati in una lista di blocchi di dimensione crescente
+ * fino a MAX_SEGMENT: la scrittura non ricopia mai i dati già scritti.
+ * writeTo() e getBytes() leggono direttamente i blocchi; i metodi
+ * che richiedono un accesso diretto al buffer (array(), indexOf(),
+ * delete(), toString(), ecc.) lo compattano in un unico blocco
+ * una sola volta, dopo di che la scrittura prosegue a segmenti.
+ * <p>
+ * Se costruito con un BufferPool tutti i blocchi sono prelevati dal pool
+ * e vi sono restituiti da close(), reset() e clear() (blocchi in eccesso)
+ * o quando sostituiti da un blocco più grande: i dati vanno letti prima
+ * di chiamare close() e l'array ritornato da array() non è più valido
+ * dopo close() o reset().
  *
  * @author Nicola De Nisco
  */
@@ -38,19 +58,88 @@ public class ByteBufferOutputStream extends OutputStream
 {
   public static final int BUFFER_SIZE = 4096;
   public static final int BUFFER_STEP = 4096;
+  public static final int MAX_SEGMENT = 1024 * 1024;
+  /** dimensione minima dell'array per cui indexOf() compila la sequenza */
+  public static final int MIN_SOURCE_BMH = 1024;
   protected int count = 0;
   protected byte[] buffer = null;
+  /** blocchi pieni in modalità segmentata (null se non segmentato) */
+  protected ArrayList<byte[]> segmenti = null;
+  /** byte contenuti nei blocchi pieni; buffer contiene i successivi */
+  protected int countSegmenti = 0;
+  /** pool dei blocchi (null se non utilizzato) */
+  protected final BufferPool pool;
+  private static final byte[] VUOTO = new byte[0];
 
   public ByteBufferOutputStream()
   {
+    pool = null;
     buffer = new byte[BUFFER_SIZE];
   }
 
   public ByteBufferOutputStream(int initialSize)
   {
+    pool = null;
     buffer = new byte[initialSize];
   }
 
+  /**
+   * Costruttore con modalità a segmenti.
+   * @param initialSize dimensione del primo blocco
+   * @param segmented vero per accumulare i dati in blocchi
+   * senza ricopiarli ad ogni ridimensionamento
+   */
+  public ByteBufferOutputStream(int initialSize, boolean segmented)
+  {
+    this(null, initialSize, segmented);
+  }
+
+  /**
+   * Costruttore con pool dei blocchi.
+   * @param pool pool da cui prelevare i blocchi (può essere null)
+   * @param initialSize dimensione del primo blocco
+   * @param segmented vero per accumulare i dati in blocchi
+   * senza ricopiarli ad ogni ridimensionamento
+   */
+  public ByteBufferOutputStream(BufferPool pool, int initialSize, boolean segmented)
+  {
+    this.pool = pool;
+    buffer = alloca(Math.max(initialSize, 16));
+    if(segmented)
+      segmenti = new ArrayList<>();
+  }
+
+  private byte[] alloca(int size)
+  {
+    return pool == null ? new byte[size] : pool.acquire(size);
+  }
+
+  private void libera(byte[] b)
+  {
+    if(pool != null)
+      pool.release(b);
+  }
+
+  private void liberaSegmenti()
+  {
+    if(segmenti != null)
+    {
+      for(byte[] seg : segmenti)
+        libera(seg);
+      segmenti.clear();
+      countSegmenti = 0;
+    }
+  }
+
+  /**
+   * Ritorna vero se il buffer è in modalità segmentata.
+   * @return vero se segmentato
+   */
+  public boolean isSegmented()
+  {
+    return segmenti != null;
+  }
+
   /**
    * Scrive dati nel buffer.
    * I dati vengono copiati all'interno del buffer
@@ -63,6 +152,15 @@ public class ByteBufferOutputStream extends OutputStream
   synchronized public void write(int b)
      throws IOException
   {
+    if(segmenti != null)
+    {
+      if(count - countSegmenti == buffer.length)
+        nuovoSegmento();
+
+      buffer[count++ - countSegmenti] = (byte) b;
+      return;
+    }
+
     while(count >= buffer.length)
     {
       resize();
@@ -100,6 +198,26 @@ public class ByteBufferOutputStream extends OutputStream
   synchronized public void write(byte[] b, int off, int len)
      throws IOException
   {
+    if(segmenti != null)
+    {
+      while(len > 0)
+      {
+        int pos = count - countSegmenti;
+        if(pos == buffer.length)
+        {
+          nuovoSegmento();
+          pos = 0;
+        }
+
+        int toCopy = Math.min(len, buffer.length - pos);
+        System.arraycopy(b, off, buffer, pos, toCopy);
+        count += toCopy;
+        off += toCopy;
+        len -= toCopy;
+      }
+      return;
+    }
+
     while((count + len) > buffer.length)
     {
       resize();
@@ -111,19 +229,83 @@ public class ByteBufferOutputStream extends OutputStream
 
   /**
    * Ridimensiona il buffer.
-   * Il buffer viene riallocato aumentando al dimensione
-   * di BUFFER_STEP bytes; i dati sono copiati nel nuovo
-   * buffer.
+   * Il buffer viene riallocato raddoppiando la dimensione
+   * (con un incremento minimo di BUFFER_STEP bytes);
+   * i dati sono copiati nel nuovo buffer.
+   * La crescita geometrica rende costante il costo medio
+   * di ogni scrittura anche per contenuti molto grandi.
    * @throws IOException
    */
   protected void resize()
      throws IOException
   {
-    byte[] bnew = new byte[buffer.length + BUFFER_STEP];
+    byte[] bnew = alloca(nuovaDimensione(buffer.length, buffer.length + BUFFER_STEP));
     System.arraycopy(buffer, 0, bnew, 0, count);
+    libera(buffer);
     buffer = bnew;
   }
 
+  private static int nuovaDimensione(int attuale, int minima)
+     throws IOException
+  {
+    if(minima < 0)
+      throw new IOException("Buffer troppo grande.");
+
+    long dim = Math.max((long) attuale * 2, minima);
+    return (int) Math.min(dim, Integer.MAX_VALUE - 8);
+  }
+
+  /**
+   * Modalità segmentata: il blocco corrente è pieno;
+   * viene accodato ai blocchi pieni e ne viene allocato uno nuovo
+   * di dimensione doppia (fino a MAX_SEGMENT).
+   * @throws IOException
+   */
+  protected void nuovoSegmento()
+     throws IOException
+  {
+    if(count > Integer.MAX_VALUE - 8 - MAX_SEGMENT)
+      throw new IOException("Buffer troppo grande.");
+
+    if(buffer.length == 0)
+    {
+      buffer = alloca(BUFFER_SIZE);
+      return;
+    }
+
+    segmenti.add(buffer);
+    countSegmenti += buffer.length;
+    buffer = alloca((int) Math.min(buffer.length * 2L, MAX_SEGMENT));
+  }
+
+  /**
+   * Modalità segmentata: riunisce tutti i blocchi in un unico buffer
+   * con spazio libero per le scritture successive.
+   * Dopo la chiamata buffer contiene tutti i dati da 0 a count.
+   */
+  protected void compatta()
+  {
+    if(segmenti == null || segmenti.isEmpty())
+      return;
+
+    byte[] bnew = alloca((int) Math.min((long) count + buffer.length, Integer.MAX_VALUE - 8));
+    copiaSegmenti(bnew);
+    System.arraycopy(buffer, 0, bnew, countSegmenti, count - countSegmenti);
+    libera(buffer);
+    buffer = bnew;
+    liberaSegmenti();
+  }
+
+  private void copiaSegmenti(byte[] dest)
+  {
+    int pos = 0;
+    for(byte[] seg : segmenti)
+    {
+      System.arraycopy(seg, 0, dest, pos, seg.length);
+      pos += seg.length;
+    }
+  }
+
   /**
    * Restituisce il contenuto del buffer.
    * Viene creato un array della lunghezza corretta ovvero
@@ -139,7 +321,9 @@ public class ByteBufferOutputStream extends OutputStream
       return null;
 
     byte[] bnew = new byte[count];
-    System.arraycopy(buffer, 0, bnew, 0, count);
+    if(segmenti != null)
+      copiaSegmenti(bnew);
+    System.arraycopy(buffer, 0, bnew, countSegmenti, count - countSegmenti);
     return bnew;
   }
 
@@ -153,7 +337,46 @@ public class ByteBufferOutputStream extends OutputStream
   synchronized public void writeTo(OutputStream os)
      throws IOException
   {
-    os.write(buffer, 0, count);
+    if(segmenti != null)
+    {
+      for(byte[] seg : segmenti)
+        os.write(seg);
+    }
+
+    os.write(buffer, 0, count - countSegmenti);
+  }
+
+  /**
+   * Scrive il contenuto del buffer in un canale.
+   * Tutti i blocchi vengono passati al canale con una sola
+   * scrittura gathering, senza ricopiarli.
+   * Il canale deve essere in modalità bloccante: un canale
+   * non bloccante potrebbe non accettare dati e la scrittura
+   * completa non sarebbe possibile senza attesa attiva.
+   * Il buffer non viene pulito. Occorre chimare il metodo clear()
+   * per azzerarne il contenuto.
+   * @param ch destinazione del contenuto (bloccante)
+   * @return numero di bytes scritti
+   * @throws IOException
+   * @throws IllegalBlockingModeException se il canale non è bloccante
+   */
+  synchronized public long writeTo(GatheringByteChannel ch)
+     throws IOException
+  {
+    if(ch instanceof SelectableChannel && !((SelectableChannel) ch).isBlocking())
+      throw new IllegalBlockingModeException();
+
+    int numSeg = segmenti == null ? 0 : segmenti.size();
+    ByteBuffer[] bufs = new ByteBuffer[numSeg + 1];
+    for(int i = 0; i < numSeg; i++)
+      bufs[i] = ByteBuffer.wrap(segmenti.get(i));
+    bufs[numSeg] = ByteBuffer.wrap(buffer, 0, count - countSegmenti);
+
+    long scritti = 0;
+    while(scritti < count)
+      scritti += ch.write(bufs);
+
+    return scritti;
   }
 
   /**
@@ -165,6 +388,7 @@ public class ByteBufferOutputStream extends OutputStream
    */
   synchronized public byte[] array()
   {
+    compatta();
     return buffer;
   }
 
@@ -188,10 +412,33 @@ public class ByteBufferOutputStream extends OutputStream
    */
   synchronized public void reset()
   {
-    buffer = new byte[BUFFER_SIZE];
+    liberaSegmenti();
+    libera(buffer);
+    buffer = alloca(BUFFER_SIZE);
     count = 0;
   }
 
+  /**
+   * Chiude lo stream.
+   * Se costruito con un BufferPool i blocchi vengono restituiti
+   * al pool e i dati sono persi; è comunque possibile scrivere
+   * ancora sullo stream dopo la chiamata di close.
+   * Senza pool non ha nessun effetto.
+   * @throws IOException
+   */
+  @Override
+  synchronized public void close()
+     throws IOException
+  {
+    if(pool != null)
+    {
+      liberaSegmenti();
+      libera(buffer);
+      buffer = VUOTO;
+      count = 0;
+    }
+  }
+
   /**
    * Azzeramento rapido del buffer.
    * Imposta a 0 il puntatore di inserimento,
@@ -199,11 +446,13 @@ public class ByteBufferOutputStream extends OutputStream
    * buffer. Il buffer interno non viene toccato,
    * di conseguenza dimensioni e dati precedenti
    * sono ancora gli stessi dopo la chiamata del
-   * metodo.
+   * metodo. In modalità segmentata viene conservato
+   * solo l'ultimo blocco (il più grande).
    */
   synchronized public void clear()
   {
     count = 0;
+    liberaSegmenti();
   }
 
   /**
@@ -212,6 +461,7 @@ public class ByteBufferOutputStream extends OutputStream
    */
   synchronized public void deleteHead(int numBytes)
   {
+    compatta();
     if(numBytes >= buffer.length || numBytes >= count)
     {
       count = 0;
@@ -229,6 +479,7 @@ public class ByteBufferOutputStream extends OutputStream
    */
   synchronized public void deleteTail(int numBytes)
   {
+    compatta();
     if(numBytes >= buffer.length || numBytes >= count)
     {
       count = 0;
@@ -255,6 +506,8 @@ public class ByteBufferOutputStream extends OutputStream
     if(position >= count)
       return;
 
+    compatta();
+
     if(position + numBytes >= count)
     {
       count = position;
@@ -273,22 +526,26 @@ public class ByteBufferOutputStream extends OutputStream
   @Override
   public synchronized String toString()
   {
+    compatta();
     return new String(buffer, 0, count);
   }
 
   public synchronized String toString(String encoding)
      throws UnsupportedEncodingException
   {
+    compatta();
     return new String(buffer, 0, count, encoding);
   }
 
   public synchronized String toString(Charset encoding)
   {
+    compatta();
     return new String(buffer, 0, count, encoding);
   }
 
   public synchronized String toString(int offset, int lenght, Charset encoding)
   {
+    compatta();
     return new String(buffer, offset, lenght, encoding);
   }
 
@@ -299,6 +556,7 @@ public class ByteBufferOutputStream extends OutputStream
 
   public synchronized int indexOf(byte test, int fromIndex)
   {
+    compatta();
     if(fromIndex < count)
     {
       for(int i = fromIndex; i < count; i++)
@@ -318,6 +576,7 @@ public class ByteBufferOutputStream extends OutputStream
    */
   public synchronized int indexOf(byte[] test)
   {
+    compatta();
     return indexOf(buffer, 0, count, test, 0, test.length, 0);
   }
 
@@ -330,11 +589,39 @@ public class ByteBufferOutputStream extends OutputStream
    */
   public synchronized int indexOf(byte[] test, int fromIndex)
   {
+    compatta();
     return indexOf(buffer, 0, count, test, 0, test.length, fromIndex);
   }
 
+  /**
+   * Cerca la prima occorrenza della sequenza precompilata all'interno del buffer.
+   * Da preferire quando la stessa sequenza viene cercata molte volte.
+   * @param test sequenza da cercare
+   * @return posizione o -1 per non trovato
+   */
+  public synchronized int indexOf(BytePattern test)
+  {
+    return indexOf(test, 0);
+  }
+
+  /**
+   * Cerca la prima occorrenza della sequenza precompilata all'interno del buffer.
+   * La ricerca avviene a cominciare dal byte indicato
+   * @param test sequenza da cercare
+   * @param fromIndex indice del primo byte all'interno del buffer
+   * @return posizione o -1 per non trovato
+   */
+  public synchronized int indexOf(BytePattern test, int fromIndex)
+  {
+    compatta();
+    return test.indexOf(buffer, 0, count, fromIndex);
+  }
+
   /**
    * Cerca un array di bytes all'interno di un'altro array di bytes.
+   * Per ricerche in array grandi utilizza BytePattern;
+   * se la sequenza viene cercata più volte conviene
+   * precompilarla con BytePattern e usare direttamente quella.
    * @param source array dove cercare
    * @param sourceOffset
    * @param sourceCount
@@ -356,6 +643,9 @@ public class ByteBufferOutputStream extends OutputStream
     if(targetCount == 0)
       return fromIndex;
 
+    if(targetCount >= BytePattern.MIN_BMH && sourceCount - fromIndex >= MIN_SOURCE_BMH)
+      return new BytePattern(target, targetOffset, targetCount).indexOf(source, sourceOffset, sourceCount, fromIndex);
+
     byte first = target[targetOffset];
     int max = sourceOffset + (sourceCount - targetCount);
 
@@ -19,6 +19,10 @@ package org.commonlib5.io;
 
 import java.io.*;
 import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Implements the Circular Buffer producer/consumer model for bytes.
@@ -32,6 +36,24 @@ import java.nio.BufferOverflowException;
  * classes and connecting them.
  * <p>
  * This class is thread safe.
+ * <p>
+ * When there is exactly one thread writing and one thread reading
+ * (for example a serial port reader feeding a protocol decoder) the
+ * buffer can be created in single producer/single consumer mode
+ * (see {@link #CircularByteBuffer(int, boolean, boolean)}): reads and writes
+ * use only volatile counters, without locks, and a blocked reader or
+ * writer is parked and woken up as soon as data or space is available,
+ * instead of polling every 100 ms.
+ * <p>
+ * Besides the streams, the buffer can be filled and drained with
+ * ByteBuffers and NIO channels (see {@link #read(ByteBuffer)},
+ * {@link #write(ByteBuffer)}, {@link #fillFrom(ReadableByteChannel)},
+ * {@link #drainTo(WritableByteChannel)} and the channel views).
+ * Data is copied directly between the ring and the ByteBuffer, in at most
+ * two pieces around the wrap point. The ring can be backed by a direct
+ * ByteBuffer (see {@link #CircularByteBuffer(int, boolean, boolean, boolean)})
+ * so that socket and file channels can fill and drain it without the
+ * temporary direct buffer the JDK uses for heap buffers.
  *
  * @author Stephen Ostermiller http://ostermiller.org/contact.pl?regarding=Java+Utilities
  * @since ostermillerutils 1.00.00
@@ -69,10 +91,28 @@ public class CircularByteBuffer
    * wrapping around the end of the buffer. The bytes that have
    * been saved to support a reset() of the InputStream go from markPosition
    * to readPosition, wrapping around the end of the buffer.
+   * <p>
+   * Null if the buffer is backed by direct memory (see directBuffer).
    *
    * @since ostermillerutils 1.00.00
    */
   protected byte[] buffer;
+  /**
+   * The circular buffer when backed by direct memory, null otherwise.
+   * Only absolute get/put may be used on it: the position and the limit
+   * are not meaningful.
+   */
+  protected ByteBuffer directBuffer;
+  /**
+   * Length of the circular buffer (heap or direct).
+   */
+  protected int capacity;
+  /**
+   * Views of the circular buffer used for bulk transfers by the consumer
+   * and by the producer respectively; in SPSC mode each one is touched
+   * by a single thread, otherwise only while holding the lock.
+   */
+  private ByteBuffer readView, writeView;
   /**
    * Index of the first byte available to be read.
    *
@@ -116,25 +156,61 @@ public class CircularByteBuffer
    *
    * @since ostermillerutils 1.00.00
    */
-  protected InputStream in = new CircularByteBufferInputStream();
+  protected InputStream in;
   /**
    * true if the close() method has been called on the InputStream
    *
    * @since ostermillerutils 1.00.00
    */
-  protected boolean inputStreamClosed = false;
+  protected volatile boolean inputStreamClosed = false;
   /**
    * The OutputStream that can fill this buffer.
    *
    * @since ostermillerutils 1.00.00
    */
-  protected OutputStream out = new CircularByteBufferOutputStream();
+  protected OutputStream out;
   /**
    * true if the close() method has been called on the OutputStream
    *
    * @since ostermillerutils 1.00.00
    */
-  protected boolean outputStreamClosed = false;
+  protected volatile boolean outputStreamClosed = false;
+  /**
+   * True if this buffer is in single producer/single consumer mode.
+   */
+  protected final boolean spsc;
+  /**
+   * SPSC mode: total number of bytes read; written only by the consumer.
+   */
+  protected volatile long spscHead = 0;
+  /**
+   * SPSC mode: total number of bytes written; written only by the producer.
+   */
+  protected volatile long spscTail = 0;
+  /**
+   * SPSC mode: last value of spscTail seen by the consumer.
+   */
+  private long spscCachedTail = 0;
+  /**
+   * SPSC mode: last value of spscHead seen by the producer.
+   */
+  private long spscCachedHead = 0;
+  /**
+   * SPSC mode: consumer thread parked waiting for data.
+   */
+  private volatile Thread spscReader = null;
+  /**
+   * SPSC mode: producer thread parked waiting for space.
+   */
+  private volatile Thread spscWriter = null;
+  /**
+   * SPSC mode: busy wait iterations before yielding.
+   */
+  private static final int SPSC_SPIN = 64;
+  /**
+   * SPSC mode: busy wait and yield iterations before parking a thread.
+   */
+  private static final int SPSC_YIELD = SPSC_SPIN + 32;
 
   /**
    * Make this buffer ready for reuse. The contents of the buffer
@@ -150,6 +226,7 @@ public class CircularByteBuffer
       readPosition = 0;
       writePosition = 0;
       markPosition = 0;
+      spscHead = spscTail = spscCachedHead = spscCachedTail = 0;
       outputStreamClosed = false;
       inputStreamClosed = false;
     }
@@ -205,6 +282,9 @@ public class CircularByteBuffer
    */
   public int getAvailable()
   {
+    if(spsc)
+      return (int) (spscTail - spscHead);
+
     synchronized(this)
     {
       return available();
@@ -226,6 +306,9 @@ public class CircularByteBuffer
    */
   public int getSpaceLeft()
   {
+    if(spsc)
+      return capacity - (int) (spscTail - spscHead);
+
     synchronized(this)
     {
       return spaceLeft();
@@ -248,7 +331,7 @@ public class CircularByteBuffer
   {
     synchronized(this)
     {
-      return buffer.length;
+      return capacity;
     }
   }
 
@@ -259,7 +342,7 @@ public class CircularByteBuffer
    */
   private void resize()
   {
-    byte[] newBuffer = new byte[buffer.length * 2];
+    byte[] newBuffer = new byte[capacity * 2];
     int marked = marked();
     int available = available();
     if(markPosition <= writePosition)
@@ -272,12 +355,13 @@ public class CircularByteBuffer
     }
     else
     {
-      int length1 = buffer.length - markPosition;
+      int length1 = capacity - markPosition;
       System.arraycopy(buffer, markPosition, newBuffer, 0, length1);
       int length2 = writePosition;
       System.arraycopy(buffer, 0, newBuffer, length1, length2);
     }
     buffer = newBuffer;
+    initViews();
     markPosition = 0;
     readPosition = marked;
     writePosition = marked + available;
@@ -298,7 +382,7 @@ public class CircularByteBuffer
       return (markPosition - writePosition - 1);
     }
     // space at the beginning and end.
-    return ((buffer.length - 1) - (writePosition - markPosition));
+    return ((capacity - 1) - (writePosition - markPosition));
   }
 
   /**
@@ -316,7 +400,7 @@ public class CircularByteBuffer
       return (writePosition - readPosition);
     }
     // space at the beginning and end.
-    return (buffer.length - (readPosition - writePosition));
+    return (capacity - (readPosition - writePosition));
   }
 
   /**
@@ -334,7 +418,7 @@ public class CircularByteBuffer
       return (readPosition - markPosition);
     }
     // space at the beginning and end.
-    return (buffer.length - (markPosition - readPosition));
+    return (capacity - (markPosition - readPosition));
   }
 
   /**
@@ -422,19 +506,548 @@ public class CircularByteBuffer
    */
   public CircularByteBuffer(int size, boolean blockingWrite)
   {
-    if(size == INFINITE_SIZE)
+    this(size, blockingWrite, false);
+  }
+
+  /**
+   * Create a new buffer with the given capacity, blocking behavior
+   * and concurrency mode.
+   * <p>
+   * In single producer/single consumer mode exactly one thread may write
+   * to the OutputStream and exactly one thread may read from the InputStream;
+   * the size is rounded up to a power of two, the buffer can not be of
+   * INFINITE_SIZE and the InputStream does not support mark()/reset().
+   *
+   * @param size desired capacity of the buffer in bytes or CircularByteBuffer.INFINITE_SIZE.
+   * @param blockingWrite true writing to a full buffer should block
+   * until space is available, false if an exception should
+   * be thrown instead.
+   * @param spsc true for the lock-free single producer/single consumer mode
+   * @throws IllegalArgumentException if spsc is true and size is INFINITE_SIZE
+   */
+  public CircularByteBuffer(int size, boolean blockingWrite, boolean spsc)
+  {
+    this(size, blockingWrite, spsc, false);
+  }
+
+  /**
+   * Create a new buffer with the given capacity, blocking behavior,
+   * concurrency mode and backing memory.
+   * <p>
+   * A buffer backed by direct memory can not be of INFINITE_SIZE;
+   * it is most useful with {@link #fillFrom(ReadableByteChannel)} and
+   * {@link #drainTo(WritableByteChannel)} on socket or file channels.
+   *
+   * @param size desired capacity of the buffer in bytes or CircularByteBuffer.INFINITE_SIZE.
+   * @param blockingWrite true writing to a full buffer should block
+   * until space is available, false if an exception should
+   * be thrown instead.
+   * @param spsc true for the lock-free single producer/single consumer mode
+   * @param direct true to back the buffer with a direct ByteBuffer
+   * @throws IllegalArgumentException if spsc or direct is true and size is INFINITE_SIZE
+   */
+  public CircularByteBuffer(int size, boolean blockingWrite, boolean spsc, boolean direct)
+  {
+    this.spsc = spsc;
+    if(spsc)
     {
-      buffer = new byte[DEFAULT_SIZE];
-      infinite = true;
+      if(size <= 0)
+        throw new IllegalArgumentException("Single producer/single consumer mode requires a fixed size.");
+
+      size = size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+      in = new SpscInputStream();
+      out = new SpscOutputStream();
     }
     else
     {
-      buffer = new byte[size];
-      infinite = false;
+      if(size == INFINITE_SIZE)
+      {
+        if(direct)
+          throw new IllegalArgumentException("A direct buffer requires a fixed size.");
+
+        size = DEFAULT_SIZE;
+        infinite = true;
+      }
+      else
+      {
+        infinite = false;
+      }
+      in = new CircularByteBufferInputStream();
+      out = new CircularByteBufferOutputStream();
     }
+
+    if(direct)
+      directBuffer = ByteBuffer.allocateDirect(size);
+    else
+      buffer = new byte[size];
+
+    initViews();
     this.blockingWrite = blockingWrite;
   }
 
+  /**
+   * True if this buffer is backed by direct memory.
+   *
+   * @return true if backed by a direct ByteBuffer
+   */
+  public boolean isDirect()
+  {
+    return directBuffer != null;
+  }
+
+  /**
+   * Set capacity and views after the circular buffer has been (re)allocated.
+   */
+  private void initViews()
+  {
+    ByteBuffer bb = buffer != null ? ByteBuffer.wrap(buffer) : directBuffer;
+    capacity = bb.capacity();
+    readView = bb.duplicate();
+    writeView = bb.duplicate();
+  }
+
+  private byte getByte(int pos)
+  {
+    return buffer != null ? buffer[pos] : directBuffer.get(pos);
+  }
+
+  private void putByte(int pos, byte b)
+  {
+    if(buffer != null)
+      buffer[pos] = b;
+    else
+      directBuffer.put(pos, b);
+  }
+
+  /**
+   * Copy len bytes starting at pos from the ring to an array,
+   * in two pieces if they wrap around the end of the buffer.
+   */
+  private void copyOut(int pos, byte[] dst, int off, int len)
+  {
+    int firstLen = Math.min(len, capacity - pos);
+    if(buffer != null)
+    {
+      System.arraycopy(buffer, pos, dst, off, firstLen);
+      if(len > firstLen)
+        System.arraycopy(buffer, 0, dst, off + firstLen, len - firstLen);
+    }
+    else
+    {
+      readView.limit(pos + firstLen).position(pos);
+      readView.get(dst, off, firstLen);
+      if(len > firstLen)
+      {
+        readView.limit(len - firstLen).position(0);
+        readView.get(dst, off + firstLen, len - firstLen);
+      }
+    }
+  }
+
+  /**
+   * Copy len bytes from an array to the ring starting at pos,
+   * in two pieces if they wrap around the end of the buffer.
+   */
+  private void copyIn(int pos, byte[] src, int off, int len)
+  {
+    int firstLen = Math.min(len, capacity - pos);
+    if(buffer != null)
+    {
+      System.arraycopy(src, off, buffer, pos, firstLen);
+      if(len > firstLen)
+        System.arraycopy(src, off + firstLen, buffer, 0, len - firstLen);
+    }
+    else
+    {
+      writeView.limit(pos + firstLen).position(pos);
+      writeView.put(src, off, firstLen);
+      if(len > firstLen)
+      {
+        writeView.limit(len - firstLen).position(0);
+        writeView.put(src, off + firstLen, len - firstLen);
+      }
+    }
+  }
+
+  /**
+   * Copy len bytes starting at pos from the ring to a ByteBuffer.
+   */
+  private int copyOut(int pos, ByteBuffer dst, int len)
+  {
+    int firstLen = Math.min(len, capacity - pos);
+    readView.limit(pos + firstLen).position(pos);
+    dst.put(readView);
+    if(len > firstLen)
+    {
+      readView.limit(len - firstLen).position(0);
+      dst.put(readView);
+    }
+    return len;
+  }
+
+  /**
+   * Copy len bytes from a ByteBuffer to the ring starting at pos.
+   */
+  private int copyIn(int pos, ByteBuffer src, int len)
+  {
+    int limit = src.limit();
+    int firstLen = Math.min(len, capacity - pos);
+    writeView.limit(pos + firstLen).position(pos);
+    src.limit(src.position() + firstLen);
+    writeView.put(src);
+    if(len > firstLen)
+    {
+      writeView.limit(len - firstLen).position(0);
+      src.limit(src.position() + len - firstLen);
+      writeView.put(src);
+    }
+    src.limit(limit);
+    return len;
+  }
+
+  /**
+   * Read from a channel into the ring starting at pos, at most len bytes.
+   * The second piece is read only if the first one has been filled.
+   *
+   * @return bytes read or -1 at end of stream of the channel
+   */
+  private int channelIn(int pos, ReadableByteChannel ch, int len)
+     throws IOException
+  {
+    int firstLen = Math.min(len, capacity - pos);
+    writeView.limit(pos + firstLen).position(pos);
+    int n = ch.read(writeView);
+    if(n == firstLen && len > firstLen)
+    {
+      writeView.limit(len - firstLen).position(0);
+      int n2 = ch.read(writeView);
+      if(n2 > 0)
+        n += n2;
+    }
+    return n;
+  }
+
+  /**
+   * Write to a channel len bytes of the ring starting at pos.
+   * The second piece is written only if the first one has been
+   * completely accepted by the channel.
+   *
+   * @return bytes written
+   */
+  private int channelOut(int pos, WritableByteChannel ch, int len)
+     throws IOException
+  {
+    int firstLen = Math.min(len, capacity - pos);
+    readView.limit(pos + firstLen).position(pos);
+    int n = ch.write(readView);
+    if(n == firstLen && len > firstLen)
+    {
+      readView.limit(len - firstLen).position(0);
+      n += ch.write(readView);
+    }
+    return n;
+  }
+
+  /**
+   * True if this buffer is in single producer/single consumer mode.
+   *
+   * @return true for the lock-free mode
+   */
+  public boolean isSpsc()
+  {
+    return spsc;
+  }
+
+  /**
+   * Transfer of bytes between the ring and somewhere else.
+   */
+  @FunctionalInterface
+  private interface Transfer
+  {
+    /**
+     * @param pos index in the ring of the first byte
+     * @param len maximum number of bytes to transfer (may wrap around the end)
+     * @return bytes actually transferred or -1 at end of stream
+     */
+    int apply(int pos, int len)
+       throws IOException;
+  }
+
+  /**
+   * Consumer side: wait until some bytes are available, then
+   * transfer at most max bytes from the read position.
+   *
+   * @return bytes transferred or -1 at end of stream
+   */
+  private int consume(int max, Transfer op)
+     throws IOException
+  {
+    if(spsc)
+    {
+      long head = spscHead;
+      int available = spscReadable(head, max);
+      if(available == 0)
+        return -1;
+
+      int n = op.apply((int) head & (capacity - 1), Math.min(max, available));
+      if(n > 0)
+        spscConsumed(head + n);
+      return n;
+    }
+
+    while(true)
+    {
+      synchronized(this)
+      {
+        if(inputStreamClosed)
+          throw new IOException("InputStream has been closed; cannot read from a closed InputStream.");
+        int available = available();
+        if(available > 0)
+        {
+          int n = op.apply(readPosition, Math.min(max, available));
+          if(n > 0)
+          {
+            readPosition = (readPosition + n) % capacity;
+            ensureMark();
+          }
+          return n;
+        }
+        else if(outputStreamClosed)
+        {
+          return -1;
+        }
+      }
+      try
+      {
+        Thread.sleep(100);
+      }
+      catch(Exception x)
+      {
+        throw new IOException("Blocking read operation interrupted.");
+      }
+    }
+  }
+
+  /**
+   * Producer side: wait until there is some space, then
+   * transfer at most max bytes to the write position.
+   *
+   * @param min bytes that must fit in a non blocking buffer
+   * @return bytes transferred or -1 at end of stream of the source
+   * @throws BufferOverflowException if the buffer does not allow blocking
+   * writes and there is less than min bytes of space
+   */
+  private int produce(int min, int max, Transfer op)
+     throws IOException
+  {
+    if(spsc)
+    {
+      long tail = spscTail;
+      if(!blockingWrite && min > capacity - (int) (tail - (spscCachedHead = spscHead)))
+      {
+        spscWritable(tail);
+        throw new BufferOverflowException();
+      }
+
+      int space;
+      while((space = spscWritable(tail)) == 0)
+        spscCachedHead = spscAwaitSpace(tail);
+
+      int n = op.apply((int) tail & (capacity - 1), Math.min(max, space));
+      if(n > 0)
+        spscProduced(tail + n);
+      return n;
+    }
+
+    while(true)
+    {
+      synchronized(this)
+      {
+        if(outputStreamClosed)
+          throw new IOException("OutputStream has been closed; cannot write to a closed OutputStream.");
+        if(inputStreamClosed)
+          throw new IOException("Buffer closed by InputStream; cannot write to a closed buffer.");
+        int spaceLeft = spaceLeft();
+        while(infinite && spaceLeft < min)
+        {
+          resize();
+          spaceLeft = spaceLeft();
+        }
+
+        if(!blockingWrite && spaceLeft < min)
+          throw new BufferOverflowException();
+
+        if(spaceLeft > 0)
+        {
+          int n = op.apply(writePosition, Math.min(max, spaceLeft));
+          if(n > 0)
+            writePosition = (writePosition + n) % capacity;
+          return n;
+        }
+      }
+      try
+      {
+        Thread.sleep(100);
+      }
+      catch(Exception x)
+      {
+        throw new IOException("Waiting for available space in buffer interrupted.");
+      }
+    }
+  }
+
+  /**
+   * Read bytes into a ByteBuffer.
+   * This method will block until some input is available,
+   * an I/O error occurs, or the end of the stream is reached.
+   * It is an alternative to the InputStream: the same rules apply.
+   *
+   * @param dst destination buffer
+   * @return The number of bytes read, or -1 if the end of
+   * the stream has been reached
+   * @throws IOException if the InputStream is closed.
+   */
+  public int read(ByteBuffer dst)
+     throws IOException
+  {
+    if(!dst.hasRemaining())
+      return 0;
+
+    return consume(dst.remaining(), (pos, len) -> copyOut(pos, dst, len));
+  }
+
+  /**
+   * Write all the remaining bytes of a ByteBuffer.
+   * If the buffer allows blocking writes, this method will block until
+   * all the data has been written.
+   * It is an alternative to the OutputStream: the same rules apply.
+   *
+   * @param src source buffer
+   * @return The number of bytes written
+   * @throws BufferOverflowException if buffer does not allow blocking writes
+   * and there is not enough space; no data will have been written.
+   * @throws IOException if the OutputStream is closed, or the write is interrupted.
+   */
+  public int write(ByteBuffer src)
+     throws IOException
+  {
+    int total = src.remaining();
+    while(src.hasRemaining())
+      produce(total, src.remaining(), (pos, len) -> copyIn(pos, src, len));
+
+    return total;
+  }
+
+  /**
+   * Fill the free space of the buffer reading once from a channel.
+   * The channel reads directly into the ring (in at most two pieces):
+   * with a direct buffer a socket or file channel does not need
+   * any intermediate copy. If the buffer is full this method blocks
+   * until there is some space.
+   * <p>
+   * In synchronized mode the read from the channel is done holding
+   * the lock of this buffer: with a blocking channel the consumer is
+   * blocked too. The single producer/single consumer mode has no such limit.
+   *
+   * @param ch source channel
+   * @return The number of bytes read, possibly zero for a non blocking channel,
+   * or -1 if the channel has reached end of stream
+   * @throws BufferOverflowException if buffer does not allow blocking writes
+   * and it is full.
+   * @throws IOException if the OutputStream is closed or the channel fails.
+   */
+  public int fillFrom(ReadableByteChannel ch)
+     throws IOException
+  {
+    return produce(1, Integer.MAX_VALUE, (pos, len) -> channelIn(pos, ch, len));
+  }
+
+  /**
+   * Drain the buffer writing once to a channel.
+   * The channel writes directly from the ring (in at most two pieces).
+   * If the buffer is empty this method blocks until some bytes are available.
+   * <p>
+   * In synchronized mode the write to the channel is done holding
+   * the lock of this buffer: with a blocking channel the producer is
+   * blocked too. The single producer/single consumer mode has no such limit.
+   *
+   * @param ch destination channel
+   * @return The number of bytes written, possibly zero for a non blocking channel,
+   * or -1 if the end of the stream has been reached
+   * @throws IOException if the InputStream is closed or the channel fails.
+   */
+  public int drainTo(WritableByteChannel ch)
+     throws IOException
+  {
+    return consume(Integer.MAX_VALUE, (pos, len) -> channelOut(pos, ch, len));
+  }
+
+  /**
+   * Retrieve a channel that can be used to empty this buffer.
+   * Reading from the channel is the same as {@link #read(ByteBuffer)},
+   * closing it closes the InputStream.
+   *
+   * @return the consumer for this buffer.
+   */
+  public ReadableByteChannel getReadableChannel()
+  {
+    return new ReadableByteChannel()
+    {
+      @Override
+      public int read(ByteBuffer dst)
+         throws IOException
+      {
+        return CircularByteBuffer.this.read(dst);
+      }
+
+      @Override
+      public boolean isOpen()
+      {
+        return !inputStreamClosed;
+      }
+
+      @Override
+      public void close()
+         throws IOException
+      {
+        in.close();
+      }
+    };
+  }
+
+  /**
+   * Retrieve a channel that can be used to fill this buffer.
+   * Writing to the channel is the same as {@link #write(ByteBuffer)},
+   * closing it closes the OutputStream.
+   *
+   * @return the producer for this buffer.
+   */
+  public WritableByteChannel getWritableChannel()
+  {
+    return new WritableByteChannel()
+    {
+      @Override
+      public int write(ByteBuffer src)
+         throws IOException
+      {
+        return CircularByteBuffer.this.write(src);
+      }
+
+      @Override
+      public boolean isOpen()
+      {
+        return !outputStreamClosed;
+      }
+
+      @Override
+      public void close()
+         throws IOException
+      {
+        out.close();
+      }
+    };
+  }
+
   /**
    * Class for reading from a circular byte buffer.
    *
@@ -502,7 +1115,7 @@ public class CircularByteBuffer
       synchronized(CircularByteBuffer.this)
       {
         //if (inputStreamClosed) throw new IOException("InputStream has been closed; cannot mark a closed InputStream.");
-        if(buffer.length - 1 > readAheadLimit)
+        if(capacity - 1 > readAheadLimit)
         {
           markSize = readAheadLimit;
           markPosition = readPosition;
@@ -547,9 +1160,9 @@ public class CircularByteBuffer
           int available = CircularByteBuffer.this.available();
           if(available > 0)
           {
-            int result = buffer[readPosition] & 0xff;
+            int result = getByte(readPosition) & 0xff;
             readPosition++;
-            if(readPosition == buffer.length)
+            if(readPosition == capacity)
             {
               readPosition = 0;
             }
@@ -619,19 +1232,18 @@ public class CircularByteBuffer
           if(available > 0)
           {
             int length = Math.min(len, available);
-            int firstLen = Math.min(length, buffer.length - readPosition);
+            int firstLen = Math.min(length, capacity - readPosition);
             int secondLen = length - firstLen;
-            System.arraycopy(buffer, readPosition, cbuf, off, firstLen);
+            copyOut(readPosition, cbuf, off, length);
             if(secondLen > 0)
             {
-              System.arraycopy(buffer, 0, cbuf, off + firstLen, secondLen);
               readPosition = secondLen;
             }
             else
             {
               readPosition += length;
             }
-            if(readPosition == buffer.length)
+            if(readPosition == capacity)
             {
               readPosition = 0;
             }
@@ -702,7 +1314,7 @@ public class CircularByteBuffer
           if(available > 0)
           {
             int length = Math.min((int) n, available);
-            int firstLen = Math.min(length, buffer.length - readPosition);
+            int firstLen = Math.min(length, capacity - readPosition);
             int secondLen = length - firstLen;
             if(secondLen > 0)
             {
@@ -712,7 +1324,7 @@ public class CircularByteBuffer
             {
               readPosition += length;
             }
-            if(readPosition == buffer.length)
+            if(readPosition == capacity)
             {
               readPosition = 0;
             }
@@ -848,23 +1460,19 @@ public class CircularByteBuffer
             throw new BufferOverflowException();
 
           int realLen = Math.min(len, spaceLeft);
-          int firstLen = Math.min(realLen, buffer.length - writePosition);
-          int secondLen = Math.min(realLen - firstLen, buffer.length - markPosition - 1);
+          int firstLen = Math.min(realLen, capacity - writePosition);
+          int secondLen = Math.min(realLen - firstLen, capacity - markPosition - 1);
           int written = firstLen + secondLen;
-          if(firstLen > 0)
-          {
-            System.arraycopy(cbuf, off, buffer, writePosition, firstLen);
-          }
+          copyIn(writePosition, cbuf, off, written);
           if(secondLen > 0)
           {
-            System.arraycopy(cbuf, off + firstLen, buffer, 0, secondLen);
             writePosition = secondLen;
           }
           else
           {
             writePosition += written;
           }
-          if(writePosition == buffer.length)
+          if(writePosition == capacity)
           {
             writePosition = 0;
           }
@@ -924,9 +1532,9 @@ public class CircularByteBuffer
 
           if(spaceLeft > 0)
           {
-            buffer[writePosition] = (byte) (c & 0xff);
+            putByte(writePosition, (byte) (c & 0xff));
             writePosition++;
-            if(writePosition == buffer.length)
+            if(writePosition == capacity)
             {
               writePosition = 0;
             }
@@ -947,4 +1555,307 @@ public class CircularByteBuffer
       }
     }
   }
+
+  /**
+   * SPSC mode: wake up a parked thread, if any.
+   */
+  private static void unpark(Thread t)
+  {
+    if(t != null)
+      LockSupport.unpark(t);
+  }
+
+  /**
+   * SPSC mode: short wait before parking the thread.
+   * Spinning helps when the other thread is running on another core,
+   * yielding lets it run when there are less cores than threads.
+   */
+  private static void spinWait(int spin)
+  {
+    if(spin < SPSC_SPIN)
+      Thread.onSpinWait();
+    else
+      Thread.yield();
+  }
+
+  /**
+   * SPSC mode: wait until spscTail is different from head
+   * or the OutputStream is closed.
+   *
+   * @return the new value of spscTail (equal to head at end of stream)
+   */
+  private long spscAwaitData(long head)
+     throws IOException
+  {
+    for(int spin = 0;; spin++)
+    {
+      if(inputStreamClosed)
+        throw new IOException("InputStream has been closed; cannot read from a closed InputStream.");
+
+      // closed must be read before tail: the producer closes after the last write
+      boolean eof = outputStreamClosed;
+      long tail = spscTail;
+      if(tail != head || eof)
+        return tail;
+
+      if(spin < SPSC_YIELD)
+      {
+        spinWait(spin);
+        continue;
+      }
+
+      // publish the parked thread and check again to avoid a lost wake up
+      spscReader = Thread.currentThread();
+      if(spscTail == head && !outputStreamClosed && !inputStreamClosed)
+        LockSupport.park(this);
+      spscReader = null;
+
+      if(Thread.interrupted())
+        throw new IOException("Blocking read operation interrupted.");
+    }
+  }
+
+  /**
+   * SPSC mode: wait until there is some space for writing.
+   *
+   * @return the new value of spscHead
+   */
+  private long spscAwaitSpace(long tail)
+     throws IOException
+  {
+    for(int spin = 0;; spin++)
+    {
+      if(inputStreamClosed)
+        throw new IOException("Buffer closed by InputStream; cannot write to a closed buffer.");
+
+      long head = spscHead;
+      if(tail - head < capacity)
+        return head;
+
+      if(spin < SPSC_YIELD)
+      {
+        spinWait(spin);
+        continue;
+      }
+
+      spscWriter = Thread.currentThread();
+      if(tail - spscHead >= capacity && !inputStreamClosed)
+        LockSupport.park(this);
+      spscWriter = null;
+
+      if(Thread.interrupted())
+        throw new IOException("Waiting for available space in buffer interrupted.");
+    }
+  }
+
+  /**
+   * SPSC mode: wait for some bytes to read.
+   * The producer position is read again only if the last
+   * value seen has less than the wanted bytes.
+   *
+   * @return number of bytes available or 0 at end of stream
+   */
+  private int spscReadable(long head, long wanted)
+     throws IOException
+  {
+    if(inputStreamClosed)
+      throw new IOException("InputStream has been closed; cannot read from a closed InputStream.");
+
+    long tail = spscCachedTail;
+    if(tail - head < wanted)
+    {
+      tail = spscTail;
+      if(tail == head)
+        tail = spscAwaitData(head);
+      spscCachedTail = tail;
+    }
+
+    return (int) (tail - head);
+  }
+
+  /**
+   * SPSC mode: move the read position and wake up the producer if waiting for space.
+   */
+  private void spscConsumed(long head)
+  {
+    spscHead = head;
+    unpark(spscWriter);
+  }
+
+  /**
+   * SPSC mode: space available for writing without blocking.
+   */
+  private int spscWritable(long tail)
+     throws IOException
+  {
+    if(outputStreamClosed)
+      throw new IOException("OutputStream has been closed; cannot write to a closed OutputStream.");
+    if(inputStreamClosed)
+      throw new IOException("Buffer closed by InputStream; cannot write to a closed buffer.");
+
+    int space = capacity - (int) (tail - spscCachedHead);
+    if(space == 0)
+      space = capacity - (int) (tail - (spscCachedHead = spscHead));
+
+    return space;
+  }
+
+  /**
+   * SPSC mode: publish the written bytes and wake up the consumer if waiting.
+   */
+  private void spscProduced(long tail)
+  {
+    spscTail = tail;
+    unpark(spscReader);
+  }
+
+  /**
+   * Class for reading from a circular byte buffer
+   * in single producer/single consumer mode.
+   * Only one thread may read from this stream.
+   */
+  protected class SpscInputStream extends InputStream
+  {
+    @Override
+    public int available()
+       throws IOException
+    {
+      if(inputStreamClosed)
+        throw new IOException("InputStream has been closed, it is not ready.");
+      return (int) (spscTail - spscHead);
+    }
+
+    @Override
+    public void close()
+       throws IOException
+    {
+      inputStreamClosed = true;
+      unpark(spscWriter);
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+      return false;
+    }
+
+    @Override
+    public int read()
+       throws IOException
+    {
+      long head = spscHead;
+      if(spscReadable(head, 1) == 0)
+        return -1;
+
+      int result = getByte((int) head & (capacity - 1)) & 0xff;
+      spscConsumed(head + 1);
+      return result;
+    }
+
+    @Override
+    public int read(byte[] cbuf, int off, int len)
+       throws IOException
+    {
+      if(len == 0)
+        return 0;
+
+      long head = spscHead;
+      int available = spscReadable(head, len);
+      if(available == 0)
+        return -1;
+
+      int length = Math.min(len, available);
+      copyOut((int) head & (capacity - 1), cbuf, off, length);
+
+      spscConsumed(head + length);
+      return length;
+    }
+
+    @Override
+    public long skip(long n)
+       throws IOException
+    {
+      if(n <= 0)
+        return 0;
+
+      long head = spscHead;
+      int length = (int) Math.min(n, spscReadable(head, n));
+      if(length > 0)
+        spscConsumed(head + length);
+      return length;
+    }
+  }
+
+  /**
+   * Class for writing to a circular byte buffer
+   * in single producer/single consumer mode.
+   * Only one thread may write to this stream.
+   */
+  protected class SpscOutputStream extends OutputStream
+  {
+    @Override
+    public void close()
+       throws IOException
+    {
+      outputStreamClosed = true;
+      unpark(spscReader);
+    }
+
+    @Override
+    public void flush()
+       throws IOException
+    {
+      if(outputStreamClosed)
+        throw new IOException("OutputStream has been closed; cannot flush a closed OutputStream.");
+      if(inputStreamClosed)
+        throw new IOException("Buffer closed by inputStream; cannot flush.");
+    }
+
+    @Override
+    public void write(int c)
+       throws IOException
+    {
+      long tail = spscTail;
+      if(spscWritable(tail) == 0)
+      {
+        if(!blockingWrite)
+          throw new BufferOverflowException();
+
+        spscCachedHead = spscAwaitSpace(tail);
+      }
+
+      putByte((int) tail & (capacity - 1), (byte) c);
+      spscProduced(tail + 1);
+    }
+
+    @Override
+    public void write(byte[] cbuf, int off, int len)
+       throws IOException
+    {
+      long tail = spscTail;
+      if(!blockingWrite && len > capacity - (int) (tail - (spscCachedHead = spscHead)))
+      {
+        spscWritable(tail);
+        throw new BufferOverflowException();
+      }
+
+      while(len > 0)
+      {
+        int space = spscWritable(tail);
+        if(space == 0)
+        {
+          spscCachedHead = spscAwaitSpace(tail);
+          continue;
+        }
+
+        int length = Math.min(len, space);
+        copyIn((int) tail & (capacity - 1), cbuf, off, length);
+
+        tail += length;
+        spscProduced(tail);
+        off += length;
+        len -= length;
+      }
+    }
+  }
 }
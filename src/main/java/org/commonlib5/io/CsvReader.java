@@ -0,0 +1,636 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Lettore di file CSV secondo RFC 4180.
+ * <ul>
+ * <li>i campi possono essere racchiusi da doppi apici; dentro gli apici
+ * separatori e fine linea fanno parte del campo e "" è un doppio apice;</li>
+ * <li>i record terminano con CRLF, LF o CR;</li>
+ * <li>una linea vuota è un record con un solo campo vuoto;</li>
+ * <li>il BOM iniziale viene ignorato.</li>
+ * </ul>
+ * Il lettore è tollerante: caratteri dopo gli apici di chiusura vengono
+ * accodati al campo e un doppio apice dentro un campo senza apici è un carattere normale.
+ * <p>
+ * Il buffer di lettura viene riutilizzato: i campi sono viste CharSequence
+ * sul buffer, senza allocazioni per campo, e sono valide fino alla
+ * successiva chiamata a next(). Gli apici raddoppiati vengono compattati
+ * direttamente nel buffer.
+ *
+ * <pre><code>
+ * try(CsvReader csv = new CsvReader(is, StandardCharsets.UTF_8))
+ * {
+ *   while(csv.next())
+ *   {
+ *     CharSequence codice = csv.getField(0);
+ *     String descrizione = csv.getString(1);
+ *   }
+ * }
+ * </code></pre>
+ *
+ * parseParallel() analizza un file mappato in memoria su più thread.
+ *
+ * @author Nicola De Nisco
+ */
+public class CsvReader implements Closeable
+{
+  /** dimensione di default del buffer di lettura */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  /** dimensione di default dei blocchi di parseParallel() */
+  public static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+  /** delimitatore dei campi */
+  public static final char QUOTE = '"';
+
+  /**
+   * Ricevitore dei record di parseParallel().
+   */
+  public interface RecordHandler
+  {
+    /**
+     * Riceve un record.
+     * Può essere chiamato contemporaneamente da thread diversi
+     * (ognuno con il suo CsvReader); i campi sono validi solo durante la chiamata.
+     * @param chunk indice del blocco del file (i blocchi seguono l'ordine del file)
+     * @param record lettore posizionato sul record
+     * @throws Exception
+     */
+    public void record(int chunk, CsvReader record)
+       throws Exception;
+  }
+
+  private final Reader in;
+  private final char separator;
+  private char[] buf;
+  private int pos, lim;
+  // inizio del record e del campo correnti, posizione di scrittura del campo
+  private int inizioRecord, inizioCampo, w;
+  private int numCampi;
+  private int[] inizi = new int[16], fini = new int[16];
+  private Campo[] campi = new Campo[16];
+  private long numRecord;
+  private boolean primo = true;
+
+  /**
+   * Legge un CSV separato da virgole.
+   * @param in flusso da leggere
+   */
+  public CsvReader(Reader in)
+  {
+    this(in, ',');
+  }
+
+  /**
+   * Legge un CSV.
+   * @param in flusso da leggere
+   * @param separator separatore dei campi
+   */
+  public CsvReader(Reader in, char separator)
+  {
+    this(in, separator, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Legge un CSV.
+   * @param in flusso da leggere
+   * @param separator separatore dei campi
+   * @param bufferSize dimensione iniziale del buffer (cresce per record più lunghi)
+   */
+  public CsvReader(Reader in, char separator, int bufferSize)
+  {
+    if(separator == QUOTE || separator == '\r' || separator == '\n')
+      throw new IllegalArgumentException("Separatore non valido.");
+
+    this.in = in;
+    this.separator = separator;
+    this.buf = new char[Math.max(bufferSize, 16)];
+  }
+
+  /**
+   * Legge un CSV separato da virgole.
+   * @param in flusso da leggere
+   * @param cs encoding del flusso
+   */
+  public CsvReader(InputStream in, Charset cs)
+  {
+    this(new InputStreamReader(in, cs), ',');
+  }
+
+  /**
+   * Legge un CSV.
+   * @param in flusso da leggere
+   * @param cs encoding del flusso
+   * @param separator separatore dei campi
+   */
+  public CsvReader(InputStream in, Charset cs, char separator)
+  {
+    this(new InputStreamReader(in, cs), separator);
+  }
+
+  /**
+   * Legge un CSV già in memoria.
+   */
+  private CsvReader(char[] dati, int len, char separator, boolean inizio)
+  {
+    this.in = null;
+    this.separator = separator;
+    this.buf = dati;
+    this.lim = len;
+    this.primo = inizio;
+  }
+
+  public char getSeparator()
+  {
+    return separator;
+  }
+
+  /**
+   * Numero di record letti.
+   * @return numero del record corrente (1 per il primo)
+   */
+  public long getRecordNumber()
+  {
+    return numRecord;
+  }
+
+  /**
+   * Numero di campi del record corrente.
+   * @return numero di campi
+   */
+  public int getFieldCount()
+  {
+    return numCampi;
+  }
+
+  /**
+   * Campo del record corrente.
+   * La vista è valida fino alla successiva chiamata a next().
+   * @param i indice del campo (0 per il primo)
+   * @return contenuto del campo
+   */
+  public CharSequence getField(int i)
+  {
+    if(i < 0 || i >= numCampi)
+      throw new IndexOutOfBoundsException("Campo " + i + " di " + numCampi);
+
+    return campi[i];
+  }
+
+  /**
+   * Campo del record corrente come stringa.
+   * @param i indice del campo (0 per il primo)
+   * @return contenuto del campo
+   */
+  public String getString(int i)
+  {
+    return getField(i).toString();
+  }
+
+  /**
+   * Copia di tutti i campi del record corrente.
+   * @return array di campi
+   */
+  public String[] getFields()
+  {
+    String[] rv = new String[numCampi];
+    for(int i = 0; i < numCampi; i++)
+      rv[i] = campi[i].toString();
+    return rv;
+  }
+
+  /**
+   * Legge il record successivo.
+   * @return vero se è stato letto un record, falso a fine file
+   * @throws IOException
+   */
+  public boolean next()
+     throws IOException
+  {
+    numCampi = 0;
+    inizioRecord = pos;
+
+    if(primo)
+    {
+      primo = false;
+      if(pos < lim || riempi())
+      {
+        if(buf[pos] == '\uFEFF')
+          inizioRecord = ++pos;
+      }
+    }
+
+    if(pos == lim && !riempi())
+      return false;
+
+    while(true)
+    {
+      inizioCampo = w = pos;
+      int fine = leggiCampo();
+      aggiungiCampo();
+
+      if(fine != separator)
+      {
+        if(fine == '\r')
+        {
+          if(pos < lim || riempi())
+          {
+            if(buf[pos] == '\n')
+              pos++;
+          }
+        }
+
+        numRecord++;
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Legge un campo compattandolo in buf[inizioCampo, w).
+   * @return carattere che ha terminato il campo o -1 a fine file
+   */
+  private int leggiCampo()
+     throws IOException
+  {
+    if(pos == lim && !riempi())
+      return -1;
+
+    if(buf[pos] == QUOTE)
+    {
+      pos++;
+      while(true)
+      {
+        if(pos == lim && !riempi())
+          return -1;
+
+        char c = buf[pos++];
+        if(c == QUOTE)
+        {
+          if(pos == lim && !riempi())
+            return -1;
+          if(buf[pos] != QUOTE)
+            break;
+          pos++;
+        }
+        buf[w++] = c;
+      }
+    }
+
+    while(true)
+    {
+      if(pos == lim && !riempi())
+        return -1;
+
+      char c = buf[pos++];
+      if(c == separator || c == '\n' || c == '\r')
+        return c;
+      buf[w++] = c;
+    }
+  }
+
+  private void aggiungiCampo()
+  {
+    if(numCampi == campi.length)
+    {
+      int n = campi.length * 2;
+      inizi = Arrays.copyOf(inizi, n);
+      fini = Arrays.copyOf(fini, n);
+      campi = Arrays.copyOf(campi, n);
+    }
+
+    if(campi[numCampi] == null)
+      campi[numCampi] = new Campo(numCampi);
+
+    inizi[numCampi] = inizioCampo;
+    fini[numCampi] = w;
+    numCampi++;
+  }
+
+  /**
+   * Legge altri caratteri conservando il record corrente.
+   * @return falso a fine file
+   */
+  private boolean riempi()
+     throws IOException
+  {
+    if(in == null)
+      return false;
+
+    if(inizioRecord > 0)
+    {
+      // sposta il record corrente all'inizio del buffer
+      int d = inizioRecord;
+      System.arraycopy(buf, d, buf, 0, lim - d);
+      lim -= d;
+      pos -= d;
+      w -= d;
+      inizioCampo -= d;
+      inizioRecord = 0;
+      for(int i = 0; i < numCampi; i++)
+      {
+        inizi[i] -= d;
+        fini[i] -= d;
+      }
+    }
+    else if(lim == buf.length)
+    {
+      // record più lungo del buffer
+      buf = Arrays.copyOf(buf, buf.length * 2);
+    }
+
+    int n = in.read(buf, lim, buf.length - lim);
+    if(n < 0)
+      return false;
+
+    lim += n;
+    return true;
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    if(in != null)
+      in.close();
+  }
+
+  /**
+   * Vista su un campo del record corrente.
+   */
+  private final class Campo implements CharSequence
+  {
+    private final int indice;
+
+    public Campo(int indice)
+    {
+      this.indice = indice;
+    }
+
+    @Override
+    public int length()
+    {
+      return fini[indice] - inizi[indice];
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+      if(index < 0 || index >= length())
+        throw new IndexOutOfBoundsException("Indice " + index);
+
+      return buf[inizi[indice] + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+      if(start < 0 || end > length() || start > end)
+        throw new IndexOutOfBoundsException("Intervallo " + start + "-" + end);
+
+      return new String(buf, inizi[indice] + start, end - start);
+    }
+
+    @Override
+    public String toString()
+    {
+      return new String(buf, inizi[indice], length());
+    }
+  }
+
+  /**
+   * Analisi parallela di un file CSV separato da virgole.
+   * @param file file da leggere
+   * @param cs encoding del file
+   * @param handler ricevitore dei record (chiamato da più thread)
+   * @return numero di record letti
+   * @throws IOException
+   */
+  public static long parseParallel(File file, Charset cs, RecordHandler handler)
+     throws IOException
+  {
+    return parseParallel(file, cs, ',', DEFAULT_CHUNK_SIZE, null, handler);
+  }
+
+  /**
+   * Analisi parallela di un file CSV.
+   * Il file viene mappato in memoria e diviso in blocchi di circa chunkSize bytes.
+   * Una prima passata parallela conta i doppi apici di ogni blocco: la parità
+   * del conteggio dall'inizio del file dice se una posizione è dentro gli apici,
+   * quindi ogni blocco viene tagliato al primo fine linea fuori dagli apici.
+   * I blocchi sono poi decodificati e analizzati in parallelo.
+   * <p>
+   * Richiede un file conforme (doppi apici solo attorno ai campi) e un encoding
+   * in cui doppio apice e fine linea sono bytes singoli non ambigui
+   * (UTF-8 o encoding a singolo byte); negli altri casi il file
+   * viene letto sequenzialmente e tutti i record appartengono al blocco 0.
+   * @param file file da leggere
+   * @param cs encoding del file
+   * @param separator separatore dei campi
+   * @param chunkSize dimensione indicativa dei blocchi in bytes
+   * @param executor pool dei thread di analisi (null per ForkJoinPool.commonPool())
+   * @param handler ricevitore dei record (chiamato da più thread)
+   * @return numero di record letti
+   * @throws IOException
+   */
+  public static long parseParallel(File file, Charset cs, char separator, int chunkSize,
+     ExecutorService executor, RecordHandler handler)
+     throws IOException
+  {
+    if(chunkSize <= 0)
+      throw new IllegalArgumentException("Dimensione non valida: " + chunkSize);
+
+    if(!divisibile(cs) || separator > 127)
+    {
+      try(CsvReader r = new CsvReader(Files.newInputStream(file.toPath()), cs, separator))
+      {
+        while(r.next())
+          chiama(handler, 0, r);
+        return r.getRecordNumber();
+      }
+    }
+
+    ExecutorService pool = executor == null ? ForkJoinPool.commonPool() : executor;
+
+    try(FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      long dimensione = canale.size();
+      int numBlocchi = (int) ((dimensione + chunkSize - 1) / chunkSize);
+      MappedByteBuffer[] blocchi = new MappedByteBuffer[numBlocchi];
+      for(int i = 0; i < numBlocchi; i++)
+      {
+        long inizio = (long) i * chunkSize;
+        blocchi[i] = canale.map(FileChannel.MapMode.READ_ONLY, inizio, Math.min(chunkSize, dimensione - inizio));
+      }
+
+      // conteggio parallelo dei doppi apici
+      ArrayList<Future<Integer>> conteggi = new ArrayList<>();
+      for(MappedByteBuffer b : blocchi)
+        conteggi.add(pool.submit(() -> contaApici(b)));
+
+      // confini dei blocchi al primo fine linea fuori dagli apici
+      long[] confini = new long[numBlocchi + 1];
+      confini[numBlocchi] = dimensione;
+      int parita = 0;
+      for(int i = 1; i < numBlocchi; i++)
+      {
+        parita ^= attendi(conteggi.get(i - 1)) & 1;
+        confini[i] = Math.max(confini[i - 1], confine(blocchi, chunkSize, i, parita, dimensione));
+      }
+
+      ArrayList<Future<Long>> analisi = new ArrayList<>();
+      for(int i = 0; i < numBlocchi; i++)
+      {
+        final int blocco = i;
+        final long inizio = confini[i], lunghezza = confini[i + 1] - confini[i];
+        if(lunghezza > Integer.MAX_VALUE)
+          throw new IOException("Record troppo lungo.");
+
+        analisi.add(pool.submit(()
+           -> analizza(canale, inizio, (int) lunghezza, cs, separator, blocco, handler)));
+      }
+
+      long totale = 0;
+      for(Future<Long> f : analisi)
+        totale += attendi(f);
+      return totale;
+    }
+  }
+
+  private static int contaApici(MappedByteBuffer b)
+  {
+    int n = 0;
+    for(int i = 0, l = b.limit(); i < l; i++)
+    {
+      if(b.get(i) == QUOTE)
+        n++;
+    }
+    return n;
+  }
+
+  /**
+   * Posizione successiva al primo fine linea fuori dagli apici dall'inizio del blocco.
+   */
+  private static long confine(MappedByteBuffer[] blocchi, int chunkSize, int blocco, int parita, long dimensione)
+  {
+    for(int i = blocco; i < blocchi.length; i++)
+    {
+      MappedByteBuffer b = blocchi[i];
+      for(int j = 0, l = b.limit(); j < l; j++)
+      {
+        byte c = b.get(j);
+        if(c == QUOTE)
+          parita ^= 1;
+        else if(c == '\n' && parita == 0)
+          return (long) i * chunkSize + j + 1;
+      }
+    }
+    return dimensione;
+  }
+
+  private static long analizza(FileChannel canale, long inizio, int lunghezza, Charset cs,
+     char separator, int blocco, RecordHandler handler)
+     throws Exception
+  {
+    if(lunghezza == 0)
+      return 0;
+
+    CharBuffer testo = cs.newDecoder()
+       .onMalformedInput(CodingErrorAction.REPLACE)
+       .onUnmappableCharacter(CodingErrorAction.REPLACE)
+       .decode(canale.map(FileChannel.MapMode.READ_ONLY, inizio, lunghezza));
+
+    CsvReader r = new CsvReader(testo.array(), testo.limit(), separator, blocco == 0);
+    while(r.next())
+      handler.record(blocco, r);
+    return r.getRecordNumber();
+  }
+
+  private static void chiama(RecordHandler handler, int blocco, CsvReader r)
+     throws IOException
+  {
+    try
+    {
+      handler.record(blocco, r);
+    }
+    catch(IOException | RuntimeException ex)
+    {
+      throw ex;
+    }
+    catch(Exception ex)
+    {
+      throw new IOException(ex);
+    }
+  }
+
+  private static <T> T attendi(Future<T> f)
+     throws IOException
+  {
+    try
+    {
+      return f.get();
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Analisi interrotta.", ex);
+    }
+    catch(ExecutionException ex)
+    {
+      if(ex.getCause() instanceof IOException)
+        throw (IOException) ex.getCause();
+      throw new IOException("Errore nell'analisi.", ex.getCause());
+    }
+  }
+
+  /**
+   * Verifica se doppio apice e fine linea sono bytes singoli non ambigui nell'encoding.
+   */
+  private static boolean divisibile(Charset cs)
+  {
+    if(StandardCharsets.UTF_8.equals(cs))
+      return true;
+
+    return cs.canEncode() && cs.newEncoder().maxBytesPerChar() == 1
+       && Arrays.equals("\"\n".getBytes(cs), new byte[]
+       {
+         QUOTE, '\n'
+       });
+  }
+}
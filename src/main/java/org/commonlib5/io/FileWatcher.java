@@ -36,6 +36,8 @@ import java.util.logging.Logger;
  * che verranno notificati.
  *
  * Si puo ridefinire doOnChange() o passare un oggetto runnable nel costruttore.
+ * Ogni istanza usa un thread e un WatchService: per osservare molti
+ * file usare FileWatcherRegistry.
  *
  * @author Nicola De Nisco
  */
@@ -0,0 +1,410 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registro condiviso per il monitoraggio di molti file.
+ * Al contrario di FileWatcher, che usa un thread e un WatchService
+ * per ogni file, qui tutti i file sono controllati da un solo
+ * WatchService per file system e da un solo thread di smistamento;
+ * ogni directory viene registrata una sola volta anche se contiene
+ * più file osservati.
+ * <p>
+ * Le modifiche (e le creazioni, per gli editor che sostituiscono il file)
+ * vengono unite: l'handler di un file viene chiamato una sola volta
+ * quando non arrivano altri eventi per il periodo di debounce.
+ * Gli handler sono eseguiti dall'Executor indicato alla costruzione
+ * oppure, in sua assenza, dal thread di smistamento (devono essere veloci).
+ *
+ * <pre><code>
+ * FileWatcherRegistry.Watch w = FileWatcherRegistry.getShared()
+ *    .watch(new File("/etc/app/config.xml"), () -&gt; ricaricaConfigurazione());
+ * ...
+ * w.cancel();
+ * </code></pre>
+ *
+ * @author Nicola De Nisco
+ */
+public class FileWatcherRegistry implements Closeable
+{
+  /** Periodo di debounce di default in millisecondi */
+  public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+  // attesa massima del thread di smistamento in millisecondi
+  private static final long ATTESA = 200;
+
+  private static FileWatcherRegistry shared = null;
+
+  private final long debounceNanos;
+  private final Executor executor;
+  private final Map<FileSystem, WatchService> servizi = new HashMap<>();
+  private final Map<Path, Directory> directory = new HashMap<>();
+  private final Map<WatchKey, Directory> chiavi = new HashMap<>();
+  // osservazioni con eventi in attesa e relativa scadenza
+  private final Map<Watch, Long> inAttesa = new LinkedHashMap<>();
+  private Thread dispatcher = null;
+  private boolean chiuso = false;
+
+  /**
+   * Osservazione di un file.
+   */
+  public class Watch
+  {
+    private final Path path;
+    private final Runnable handler;
+
+    private Watch(Path path, Runnable handler)
+    {
+      this.path = path;
+      this.handler = handler;
+    }
+
+    public File getFile()
+    {
+      return path.toFile();
+    }
+
+    /**
+     * Termina l'osservazione: l'handler non verrà più chiamato.
+     */
+    public void cancel()
+    {
+      rimuovi(this);
+    }
+  }
+
+  private static class Directory
+  {
+    private final WatchKey key;
+    private final Map<String, List<Watch>> files = new HashMap<>();
+
+    private Directory(WatchKey key)
+    {
+      this.key = key;
+    }
+  }
+
+  /**
+   * Costruisce con debounce di default; gli handler sono
+   * eseguiti dal thread di smistamento.
+   */
+  public FileWatcherRegistry()
+  {
+    this(DEFAULT_DEBOUNCE_MILLIS, null);
+  }
+
+  /**
+   * Costruisce con i parametri indicati.
+   * @param debounceMillis periodo senza eventi prima di chiamare l'handler
+   * @param executor esecutore degli handler (null per il thread di smistamento)
+   */
+  public FileWatcherRegistry(long debounceMillis, Executor executor)
+  {
+    this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+    this.executor = executor;
+  }
+
+  /**
+   * Registro condiviso dall'intera applicazione.
+   * @return istanza condivisa con parametri di default
+   */
+  public static synchronized FileWatcherRegistry getShared()
+  {
+    if(shared == null)
+      shared = new FileWatcherRegistry();
+    return shared;
+  }
+
+  public long getDebounceMillis()
+  {
+    return TimeUnit.NANOSECONDS.toMillis(debounceNanos);
+  }
+
+  /**
+   * Inizia l'osservazione di un file.
+   * Lo stesso file può essere osservato più volte con handler diversi.
+   * @param file file da osservare (la directory deve esistere)
+   * @param handler chiamato dopo i cambiamenti del file
+   * @return osservazione, da usare per terminarla
+   * @throws IOException
+   */
+  public synchronized Watch watch(File file, Runnable handler)
+     throws IOException
+  {
+    if(chiuso)
+      throw new IllegalStateException("Registro chiuso.");
+
+    Path path = file.getAbsoluteFile().toPath().normalize();
+    Path dir = path.getParent();
+    Directory d = directory.get(dir);
+    if(d == null)
+    {
+      WatchService ws = servizi.get(dir.getFileSystem());
+      if(ws == null)
+        servizi.put(dir.getFileSystem(), ws = dir.getFileSystem().newWatchService());
+
+      d = new Directory(dir.register(ws,
+         StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE));
+      directory.put(dir, d);
+      chiavi.put(d.key, d);
+    }
+
+    Watch w = new Watch(path, handler);
+    d.files.computeIfAbsent(path.getFileName().toString(), (k) -> new ArrayList<>()).add(w);
+
+    if(dispatcher == null)
+    {
+      dispatcher = new Thread(this::ciclo, "FileWatcherRegistry");
+      dispatcher.setDaemon(true);
+      dispatcher.start();
+    }
+
+    return w;
+  }
+
+  private synchronized void rimuovi(Watch w)
+  {
+    inAttesa.remove(w);
+    Path dir = w.path.getParent();
+    Directory d = directory.get(dir);
+    if(d == null)
+      return;
+
+    String nome = w.path.getFileName().toString();
+    List<Watch> lista = d.files.get(nome);
+    if(lista == null || !lista.remove(w))
+      return;
+
+    if(lista.isEmpty())
+      d.files.remove(nome);
+
+    if(d.files.isEmpty())
+    {
+      d.key.cancel();
+      directory.remove(dir);
+      chiavi.remove(d.key);
+    }
+  }
+
+  /**
+   * Numero di file osservati.
+   * @return numero di osservazioni attive
+   */
+  public synchronized int size()
+  {
+    int rv = 0;
+    for(Directory d : directory.values())
+      for(List<Watch> lista : d.files.values())
+        rv += lista.size();
+    return rv;
+  }
+
+  /**
+   * Termina tutte le osservazioni e il thread di smistamento.
+   * @throws IOException
+   */
+  @Override
+  public void close()
+     throws IOException
+  {
+    Thread t;
+    synchronized(this)
+    {
+      chiuso = true;
+      for(WatchService ws : servizi.values())
+        ws.close();
+      servizi.clear();
+      directory.clear();
+      chiavi.clear();
+      inAttesa.clear();
+      t = dispatcher;
+    }
+
+    if(t != null && t != Thread.currentThread())
+    {
+      try
+      {
+        t.join();
+      }
+      catch(InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void ciclo()
+  {
+    List<Runnable> daEseguire = new ArrayList<>();
+    try
+    {
+      while(true)
+      {
+        WatchService[] ws;
+        long attesa;
+        synchronized(this)
+        {
+          if(chiuso)
+            return;
+
+          ws = servizi.values().toArray(new WatchService[0]);
+          attesa = TimeUnit.MILLISECONDS.toNanos(ATTESA);
+          long ora = System.nanoTime();
+          for(Long scadenza : inAttesa.values())
+            attesa = Math.min(attesa, scadenza - ora);
+        }
+
+        if(attesa > 0)
+        {
+          if(ws.length == 1)
+          {
+            raccogli(ws[0].poll(attesa, TimeUnit.NANOSECONDS));
+          }
+          else
+          {
+            // più file system: controlla a turno senza bloccare
+            boolean trovato = false;
+            for(WatchService s : ws)
+            {
+              WatchKey key;
+              while((key = s.poll()) != null)
+              {
+                raccogli(key);
+                trovato = true;
+              }
+            }
+            if(!trovato)
+              TimeUnit.NANOSECONDS.sleep(Math.min(attesa, TimeUnit.MILLISECONDS.toNanos(20)));
+          }
+        }
+
+        scaduti(daEseguire);
+        for(Runnable r : daEseguire)
+          esegui(r);
+        daEseguire.clear();
+      }
+    }
+    catch(InterruptedException | ClosedWatchServiceException ex)
+    {
+    }
+  }
+
+  /**
+   * Registra gli eventi di una chiave spostando la scadenza dei file interessati.
+   */
+  private synchronized void raccogli(WatchKey key)
+  {
+    if(key == null)
+      return;
+
+    Directory d = chiavi.get(key);
+    long scadenza = System.nanoTime() + debounceNanos;
+    for(WatchEvent<?> event : key.pollEvents())
+    {
+      if(d == null)
+        continue;
+
+      if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+      {
+        // eventi persi: tutti i file della directory possono essere cambiati
+        for(List<Watch> lista : d.files.values())
+          for(Watch w : lista)
+            inAttesa.put(w, scadenza);
+        continue;
+      }
+
+      List<Watch> lista = d.files.get(event.context().toString());
+      if(lista != null)
+        for(Watch w : lista)
+          inAttesa.put(w, scadenza);
+    }
+
+    if(!key.reset() && d != null)
+    {
+      Logger.getLogger(FileWatcherRegistry.class.getName()).log(Level.WARNING,
+         "Directory {0} non più osservabile.", key.watchable());
+      chiavi.remove(key);
+      directory.values().remove(d);
+    }
+  }
+
+  private synchronized void scaduti(List<Runnable> daEseguire)
+  {
+    long ora = System.nanoTime();
+    for(Iterator<Map.Entry<Watch, Long>> itr = inAttesa.entrySet().iterator(); itr.hasNext();)
+    {
+      Map.Entry<Watch, Long> e = itr.next();
+      if(e.getValue() - ora <= 0)
+      {
+        daEseguire.add(e.getKey().handler);
+        itr.remove();
+      }
+    }
+  }
+
+  private void esegui(Runnable handler)
+  {
+    Runnable r = () ->
+    {
+      try
+      {
+        handler.run();
+      }
+      catch(Throwable ex)
+      {
+        Logger.getLogger(FileWatcherRegistry.class.getName()).log(Level.SEVERE, null, ex);
+      }
+    };
+
+    if(executor == null)
+    {
+      r.run();
+      return;
+    }
+
+    try
+    {
+      executor.execute(r);
+    }
+    catch(RejectedExecutionException ex)
+    {
+      Logger.getLogger(FileWatcherRegistry.class.getName()).log(Level.WARNING, "Handler rifiutato.", ex);
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Riproduce come InputStream i dati di una cattura.
+ * Vengono restituiti solo i dati di un tipo (normalmente 'I',
+ * i dati ricevuti dal dispositivo); i commenti sono ignorati.
+ * Con velocità maggiore di 0 ogni record è disponibile solo dopo
+ * l'intervallo trascorso dal primo record nella cattura originale
+ * (diviso per la velocità); con velocità 0 i dati sono restituiti
+ * senza attese. Una lettura non restituisce mai bytes di due record
+ * diversi, in modo da riprodurre anche la suddivisione dei pacchetti.
+ * <p>
+ * Per riprodurre il traffico su una porta:
+ * <pre><code>
+ * FileSystemPort port = new FileSystemPort();
+ * port.setParams(new MonitorCaptureInputStream(new File("/tmp/porta.cap"), 'I', 1.0), null);
+ * port.initComm("replay");
+ * </code></pre>
+ *
+ * @author Nicola De Nisco
+ */
+public class MonitorCaptureInputStream extends InputStream
+{
+  private final MonitorCaptureReader reader;
+  private final int type;
+  private final double speed;
+  private long primoRecord, inizio;
+  private boolean avviato = false, fine = false;
+  private int pos = 0, len = 0;
+
+  /**
+   * Riproduce la serie di file con il nome base indicato.
+   * @param base nome base dei file di cattura
+   * @param type tipo dei record da riprodurre
+   * @param speed velocità di riproduzione (1.0 originale, 0 senza attese)
+   * @throws IOException
+   */
+  public MonitorCaptureInputStream(File base, int type, double speed)
+     throws IOException
+  {
+    this(new MonitorCaptureReader(base), type, speed);
+  }
+
+  /**
+   * Riproduce i record di un lettore già aperto.
+   * @param reader lettore della cattura
+   * @param type tipo dei record da riprodurre
+   * @param speed velocità di riproduzione (1.0 originale, 0 senza attese)
+   */
+  public MonitorCaptureInputStream(MonitorCaptureReader reader, int type, double speed)
+  {
+    if(speed < 0)
+      throw new IllegalArgumentException("Velocità non valida: " + speed);
+
+    this.reader = reader;
+    this.type = type;
+    this.speed = speed;
+  }
+
+  /**
+   * Passa al prossimo record del tipo richiesto attendendone l'orario.
+   * @return falso a fine cattura
+   */
+  private boolean carica()
+     throws IOException
+  {
+    while(pos >= len)
+    {
+      if(fine)
+        return false;
+
+      if(!reader.next())
+      {
+        fine = true;
+        return false;
+      }
+
+      if(reader.isComment() || reader.getType() != type)
+        continue;
+
+      if(!avviato)
+      {
+        avviato = true;
+        primoRecord = reader.getTimestamp();
+        inizio = System.nanoTime();
+      }
+
+      if(speed > 0)
+        attendi(inizio + (long) ((reader.getTimestamp() - primoRecord) / speed));
+
+      pos = 0;
+      len = reader.getLength();
+    }
+
+    return true;
+  }
+
+  private void attendi(long scadenza)
+     throws IOException
+  {
+    long nanos;
+    while((nanos = scadenza - System.nanoTime()) > 0)
+    {
+      try
+      {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+      }
+      catch(InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        throw new IOException("Riproduzione interrotta.", ex);
+      }
+    }
+  }
+
+  @Override
+  public int read()
+     throws IOException
+  {
+    if(!carica())
+      return -1;
+
+    return reader.getBuffer()[pos++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int l)
+     throws IOException
+  {
+    if(l == 0)
+      return 0;
+    if(!carica())
+      return -1;
+
+    int n = Math.min(l, len - pos);
+    System.arraycopy(reader.getBuffer(), pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  /**
+   * Bytes del record corrente ancora da leggere.
+   * @return bytes leggibili senza attesa
+   */
+  @Override
+  public int available()
+  {
+    return len - pos;
+  }
+
+  @Override
+  public void close()
+  {
+    reader.close();
+    fine = true;
+    pos = len = 0;
+  }
+}
@@ -0,0 +1,242 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lettore delle catture prodotte da MonitorStreamOnMappedFile.
+ * I file della serie sono letti in ordine attraverso la memoria mappata.
+ * <pre><code>
+ * try(MonitorCaptureReader rd = new MonitorCaptureReader(new File("/tmp/porta.cap")))
+ * {
+ *   while(rd.next())
+ *     elabora(rd.getType(), rd.getTimestamp(), rd.getBuffer(), rd.getLength());
+ * }
+ * </code></pre>
+ *
+ * @author Nicola De Nisco
+ */
+public class MonitorCaptureReader implements Closeable
+{
+  private final List<File> files;
+  private int indice = 0;
+  private MappedByteBuffer mappa;
+  private int type, length;
+  private long timestamp;
+  private byte[] buffer = new byte[256];
+
+  /**
+   * Apre la serie di file con il nome base indicato.
+   * Se base è un file esistente viene letto solo quello.
+   * @param base nome base dei file (lo stesso usato in scrittura)
+   * @throws IOException
+   */
+  public MonitorCaptureReader(File base)
+     throws IOException
+  {
+    this(base.isFile() ? Arrays.asList(base) : listFiles(base));
+  }
+
+  /**
+   * Apre i file indicati nell'ordine.
+   * @param files elenco dei file di cattura
+   * @throws IOException
+   */
+  public MonitorCaptureReader(List<File> files)
+     throws IOException
+  {
+    if(files.isEmpty())
+      throw new IOException("Nessun file di cattura.");
+
+    this.files = files;
+  }
+
+  /**
+   * Elenca i file esistenti di una serie in ordine di scrittura.
+   * Con la rotazione i primi file possono essere stati cancellati.
+   * @param base nome base dei file
+   * @return elenco dei file (eventualmente vuoto)
+   */
+  public static List<File> listFiles(File base)
+  {
+    // individua l'indice più basso fra i file presenti nella directory
+    String nome = base.getName();
+    int punto = nome.lastIndexOf('.');
+    String prefisso = (punto <= 0 ? nome : nome.substring(0, punto)) + ".";
+    String suffisso = punto <= 0 ? "" : nome.substring(punto);
+    int inizio = prefisso.length();
+
+    int minimo = Integer.MAX_VALUE;
+    String[] nomi = base.getAbsoluteFile().getParentFile().list();
+    for(int i = 0; nomi != null && i < nomi.length; i++)
+    {
+      String n = nomi[i];
+      if(n.length() == inizio + 5 + suffisso.length() && n.startsWith(prefisso) && n.endsWith(suffisso))
+      {
+        try
+        {
+          minimo = Math.min(minimo, Integer.parseInt(n.substring(inizio, inizio + 5)));
+        }
+        catch(NumberFormatException ex)
+        {
+        }
+      }
+    }
+
+    ArrayList<File> rv = new ArrayList<>();
+    for(int i = minimo; i != Integer.MAX_VALUE; i++)
+    {
+      File f = MonitorStreamOnMappedFile.getFile(base, i);
+      if(!f.isFile())
+        break;
+      rv.add(f);
+    }
+
+    return rv;
+  }
+
+  /**
+   * Avanza al record successivo.
+   * @return vero se è disponibile un record, falso a fine cattura
+   * @throws IOException per file non riconosciuti
+   */
+  public boolean next()
+     throws IOException
+  {
+    while(true)
+    {
+      if(mappa == null)
+      {
+        if(indice >= files.size())
+          return false;
+
+        apri(files.get(indice++));
+      }
+
+      if(mappa.remaining() >= MonitorStreamOnMappedFile.RECORD_HEADER_SIZE)
+      {
+        timestamp = mappa.getLong();
+        type = mappa.getInt();
+        length = mappa.getInt();
+        if(type != 0)
+        {
+          if(length < 0 || length > mappa.remaining())
+            throw new IOException("Record non valido in " + files.get(indice - 1));
+
+          if(buffer.length < length)
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+          mappa.get(buffer, 0, length);
+          return true;
+        }
+      }
+
+      mappa = null;
+    }
+  }
+
+  private void apri(File f)
+     throws IOException
+  {
+    try(RandomAccessFile raf = new RandomAccessFile(f, "r"))
+    {
+      FileChannel canale = raf.getChannel();
+      mappa = canale.map(FileChannel.MapMode.READ_ONLY, 0, canale.size());
+    }
+
+    if(mappa.remaining() < MonitorStreamOnMappedFile.HEADER_SIZE
+       || mappa.getInt() != MonitorStreamOnMappedFile.MAGIC)
+      throw new IOException("File di cattura non valido: " + f);
+
+    short versione = mappa.getShort();
+    if(versione > MonitorStreamOnMappedFile.VERSION)
+      throw new IOException("Versione " + versione + " non supportata: " + f);
+
+    mappa.position(MonitorStreamOnMappedFile.HEADER_SIZE);
+  }
+
+  /**
+   * Tipo del record corrente senza il bit di commento.
+   * @return tipo ('I', 'O', ...)
+   */
+  public int getType()
+  {
+    return type & ~MonitorStreamOnMappedFile.COMMENT;
+  }
+
+  /**
+   * Verifica se il record corrente è un commento.
+   * @return vero per i commenti
+   */
+  public boolean isComment()
+  {
+    return (type & MonitorStreamOnMappedFile.COMMENT) != 0;
+  }
+
+  /**
+   * Marca temporale del record corrente.
+   * @return nanosecondi dal 1/1/1970 del primo byte
+   */
+  public long getTimestamp()
+  {
+    return timestamp;
+  }
+
+  /**
+   * Dati del record corrente.
+   * L'array è riutilizzato dai record successivi.
+   * @return array con i dati a partire da 0
+   */
+  public byte[] getBuffer()
+  {
+    return buffer;
+  }
+
+  /**
+   * Lunghezza dei dati del record corrente.
+   * @return numero di bytes validi in getBuffer()
+   */
+  public int getLength()
+  {
+    return length;
+  }
+
+  /**
+   * Copia dei dati del record corrente.
+   * @return nuovo array con i dati
+   */
+  public byte[] getData()
+  {
+    return Arrays.copyOf(buffer, length);
+  }
+
+  @Override
+  public void close()
+  {
+    mappa = null;
+    indice = files.size();
+  }
+}
@@ -52,6 +52,7 @@ public class MonitorStreamData
   protected int t;
   protected Date d;
   protected byte[] b;
+  protected long nanoTime;
 
   public MonitorStreamData(int t, Date d, byte[] b)
   {
@@ -60,6 +61,19 @@ public class MonitorStreamData
     this.b = b;
   }
 
+  /**
+   * Costruttore con marca temporale ad alta risoluzione.
+   * @param t tipo del blocco
+   * @param d data e ora del primo byte
+   * @param nanoTime valore di System.nanoTime() al primo byte
+   * @param b dati del blocco
+   */
+  public MonitorStreamData(int t, Date d, long nanoTime, byte[] b)
+  {
+    this(t, d, b);
+    this.nanoTime = nanoTime;
+  }
+
   public MonitorStreamData(Date d, byte[] b)
   {
     this.t = 0;
@@ -86,4 +100,15 @@ public class MonitorStreamData
   {
     return d;
   }
+
+  /**
+   * Marca temporale ad alta risoluzione.
+   * Utile per misurare gli intervalli fra blocchi; vale 0
+   * se il blocco non è stato generato da MonitorStreamQueue.
+   * @return valore di System.nanoTime() al primo byte del blocco
+   */
+  public long getNanoTime()
+  {
+    return nanoTime;
+  }
 }
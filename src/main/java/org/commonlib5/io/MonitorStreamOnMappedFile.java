@@ -0,0 +1,339 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cattura binaria dei dati osservati su file mappati in memoria.
+ * Ogni blocco viene salvato con tipo (direzione) e marca temporale
+ * in nanosecondi, in un formato compatto simile a pcap:
+ * <pre>
+ * intestazione file (16 bytes):
+ *   int   MAGIC
+ *   short VERSION
+ *   short riservato
+ *   int   indice del file nella serie
+ *   int   riservato
+ * record (RECORD_HEADER_SIZE bytes + dati):
+ *   long  nanosecondi dal 1/1/1970 del primo byte
+ *   int   tipo ('I', 'O', ...; con COMMENT per i commenti)
+ *   int   lunghezza dei dati
+ *   byte[lunghezza] dati
+ * </pre>
+ * Tutti i campi sono big-endian. Un record con tipo 0 oppure la fine
+ * del file indicano la fine dei dati.
+ * <p>
+ * I file formano una serie a rotazione: quando un file raggiunge
+ * la dimensione massima si passa al successivo (base.00000.ext,
+ * base.00001.ext, ...) e, se impostato un numero massimo di file,
+ * il più vecchio viene cancellato. Un record più grande di un file
+ * viene diviso in più record consecutivi con lo stesso tipo e la stessa
+ * marca temporale.
+ * La scrittura avviene direttamente nella memoria mappata, senza
+ * chiamate di sistema per ogni blocco; flush() forza i dati su disco.
+ * I bytes consecutivi dello stesso tipo vengono uniti nello stesso record
+ * con gli stessi limiti di MonitorStreamQueue.
+ * <p>
+ * Per la lettura vedi MonitorCaptureReader e MonitorCaptureInputStream.
+ *
+ * @author Nicola De Nisco
+ */
+public class MonitorStreamOnMappedFile implements MonitorStreamStorage, Closeable
+{
+  /** Identificatore del formato ("CMCF") */
+  public static final int MAGIC = 0x434D4346;
+  /** Versione del formato */
+  public static final short VERSION = 1;
+  /** Dimensione dell'intestazione del file */
+  public static final int HEADER_SIZE = 16;
+  /** Dimensione dell'intestazione di un record */
+  public static final int RECORD_HEADER_SIZE = 16;
+  /** Bit aggiunto al tipo nei record di commento */
+  public static final int COMMENT = 0x10000;
+  /** Dimensione di default di un file della serie */
+  public static final long DEFAULT_FILE_SIZE = 64L * 1024 * 1024;
+
+  private final File base;
+  private final long fileSize;
+  private final int maxFiles;
+  private int indice = -1;
+  private RandomAccessFile raf;
+  private FileChannel canale;
+  private MappedByteBuffer mappa;
+  // posizione dell'ultimo record nella mappa, -1 se non può essere esteso
+  private int posUltimo = -1, tipoUltimo, lungUltimo;
+  private long ultimoByte;
+  private int coalesceSize = MonitorStreamQueue.DEFAULT_COALESCE_SIZE;
+  private long coalesceNanos = TimeUnit.MILLISECONDS.toNanos(MonitorStreamQueue.DEFAULT_COALESCE_MILLIS);
+  // riferimento per convertire nanoTime in tempo assoluto
+  private final long baseEpochNanos, baseNanos;
+
+  /**
+   * Crea una serie di file con dimensione di default e senza limite al numero.
+   * @param base nome base dei file (es. /tmp/porta.cap)
+   * @throws IOException
+   */
+  public MonitorStreamOnMappedFile(File base)
+     throws IOException
+  {
+    this(base, DEFAULT_FILE_SIZE, 0);
+  }
+
+  /**
+   * Crea una serie di file.
+   * Eventuali file esistenti con lo stesso nome vengono sovrascritti.
+   * @param base nome base dei file (es. /tmp/porta.cap)
+   * @param fileSize dimensione massima di ogni file
+   * @param maxFiles numero massimo di file conservati (0 senza limite)
+   * @throws IOException
+   */
+  public MonitorStreamOnMappedFile(File base, long fileSize, int maxFiles)
+     throws IOException
+  {
+    if(fileSize < HEADER_SIZE + RECORD_HEADER_SIZE + 1 || fileSize > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Dimensione file non valida: " + fileSize);
+
+    this.base = base;
+    this.fileSize = fileSize;
+    this.maxFiles = maxFiles;
+    baseEpochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    baseNanos = System.nanoTime();
+    ruota();
+  }
+
+  /**
+   * Nome di un file della serie.
+   * @param base nome base dei file
+   * @param indice indice del file
+   * @return file corrispondente (base.00000.ext)
+   */
+  public static File getFile(File base, int indice)
+  {
+    String nome = base.getName();
+    int punto = nome.lastIndexOf('.');
+    String num = String.format(".%05d", indice);
+    nome = punto <= 0 ? nome + num : nome.substring(0, punto) + num + nome.substring(punto);
+    return new File(base.getAbsoluteFile().getParentFile(), nome);
+  }
+
+  /**
+   * File in scrittura.
+   * @return file corrente della serie
+   */
+  public synchronized File getCurrentFile()
+  {
+    return getFile(base, indice);
+  }
+
+  /**
+   * Imposta i limiti per l'unione dei bytes consecutivi dello stesso tipo.
+   * @param maxSize dimensione massima di un record unito (0 disabilita l'unione)
+   * @param maxMillis intervallo massimo fra l'ultimo byte del record e il nuovo
+   */
+  public synchronized void setCoalesce(int maxSize, long maxMillis)
+  {
+    coalesceSize = maxSize;
+    coalesceNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+  }
+
+  @Override
+  public synchronized void addToStorage(int type, int byteValue)
+     throws IOException
+  {
+    long ora = System.nanoTime();
+    if(estendi(type, ora, 1))
+      mappa.put((byte) byteValue);
+    else
+    {
+      apri(type, ora, 1);
+      mappa.put((byte) byteValue);
+    }
+  }
+
+  @Override
+  public void addToStorage(int type, byte[] b)
+     throws IOException
+  {
+    addToStorage(type, b, 0, b.length);
+  }
+
+  @Override
+  public synchronized void addToStorage(int type, byte[] b, int offset, int len)
+     throws IOException
+  {
+    long ora = System.nanoTime();
+    if(estendi(type, ora, len))
+      mappa.put(b, offset, len);
+    else
+      scrivi(type, ora, b, offset, len);
+  }
+
+  @Override
+  public synchronized void addComment(int type, String comment)
+     throws IOException
+  {
+    byte[] b = comment.getBytes();
+    scrivi(type | COMMENT, System.nanoTime(), b, 0, b.length);
+    posUltimo = -1;
+  }
+
+  /**
+   * Forza su disco i dati del file corrente.
+   * @throws IOException
+   */
+  @Override
+  public synchronized void flush()
+     throws IOException
+  {
+    if(mappa != null)
+      mappa.force();
+  }
+
+  /**
+   * Chiude il file corrente riducendolo alla dimensione effettiva.
+   * @throws IOException
+   */
+  @Override
+  public synchronized void close()
+     throws IOException
+  {
+    chiudiFile();
+  }
+
+  /**
+   * Accoda i bytes all'ultimo record se possibile.
+   * @return vero se il record è stato esteso: i dati vanno scritti in mappa
+   */
+  private boolean estendi(int type, long ora, int len)
+     throws IOException
+  {
+    verificaAperto();
+
+    if(posUltimo < 0 || type != tipoUltimo || lungUltimo + len > coalesceSize
+       || ora - ultimoByte > coalesceNanos || len > mappa.remaining())
+      return false;
+
+    lungUltimo += len;
+    mappa.putInt(posUltimo + 12, lungUltimo);
+    ultimoByte = ora;
+    return true;
+  }
+
+  private void verificaAperto()
+     throws IOException
+  {
+    if(mappa == null)
+      throw new IOException("stream chiuso");
+  }
+
+  /**
+   * Scrive un nuovo record dividendolo fra più file se necessario.
+   */
+  private void scrivi(int type, long ora, byte[] b, int offset, int len)
+     throws IOException
+  {
+    do
+    {
+      int n = apri(type, ora, len);
+      mappa.put(b, offset, n);
+      offset += n;
+      len -= n;
+    }
+    while(len > 0);
+  }
+
+  /**
+   * Scrive l'intestazione di un nuovo record.
+   * Se il record non entra nel file corrente si passa al successivo;
+   * solo i record più grandi di un file vengono divisi.
+   * @return numero di bytes di dati che possono seguire nel file corrente
+   */
+  private int apri(int type, long ora, int len)
+     throws IOException
+  {
+    verificaAperto();
+
+    if(mappa.remaining() < RECORD_HEADER_SIZE + Math.min(len, fileSize - HEADER_SIZE - RECORD_HEADER_SIZE))
+      ruota();
+
+    int n = Math.min(len, mappa.remaining() - RECORD_HEADER_SIZE);
+    posUltimo = mappa.position();
+    tipoUltimo = type;
+    lungUltimo = n;
+    ultimoByte = ora;
+    mappa.putLong(baseEpochNanos + ora - baseNanos);
+    mappa.putInt(type);
+    mappa.putInt(n);
+    return n;
+  }
+
+  private void ruota()
+     throws IOException
+  {
+    chiudiFile();
+
+    indice++;
+    File f = getFile(base, indice);
+    raf = new RandomAccessFile(f, "rw");
+    raf.setLength(0);
+    canale = raf.getChannel();
+    mappa = canale.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+    mappa.putInt(MAGIC);
+    mappa.putShort(VERSION);
+    mappa.putShort((short) 0);
+    mappa.putInt(indice);
+    mappa.putInt(0);
+    posUltimo = -1;
+
+    if(maxFiles > 0 && indice >= maxFiles)
+      getFile(base, indice - maxFiles).delete();
+  }
+
+  private void chiudiFile()
+     throws IOException
+  {
+    if(mappa == null)
+      return;
+
+    int usati = mappa.position();
+    mappa.force();
+    mappa = null;
+    posUltimo = -1;
+
+    try
+    {
+      // su alcuni sistemi un file mappato non può essere ridotto:
+      // resta della dimensione piena con il resto a zero
+      canale.truncate(usati);
+    }
+    catch(IOException ex)
+    {
+    }
+
+    raf.close();
+    raf = null;
+    canale = null;
+  }
+}
@@ -38,6 +38,9 @@ public class MonitorStreamOnWriter implements MonitorStreamStorage
   protected DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
   /** buffer di un carattere per la stampa. */
   protected byte[] b1 = new byte[1];
+  // ultima data formattata: i messaggi nello stesso millisecondo la riutilizzano
+  private long ultimaData = Long.MIN_VALUE;
+  private String ultimaDataFmt = null;
 
   public MonitorStreamOnWriter(PrintWriter wr)
   {
@@ -76,18 +79,35 @@ public class MonitorStreamOnWriter implements MonitorStreamStorage
   protected synchronized void printBuffer(int type, byte[] b, int offset, int len)
      throws IOException
   {
-    wr.println("[" + ((char) (type)) + "] " + df.format(new Date()) + " " + CC.fmtCommBuffer(b, offset, len));
+    wr.println("[" + ((char) (type)) + "] " + formatDate(System.currentTimeMillis()) + " " + CC.fmtCommBuffer(b, offset, len));
     wr.flush();
   }
 
   @Override
-  public void addComment(int type, String comment)
+  public synchronized void addComment(int type, String comment)
      throws IOException
   {
-    wr.println("[" + ((char) (type)) + "] " + df.format(new Date()) + " " + comment);
+    wr.println("[" + ((char) (type)) + "] " + formatDate(System.currentTimeMillis()) + " " + comment);
     wr.flush();
   }
 
+  /**
+   * Formatta la data dei messaggi.
+   * Il risultato viene conservato e riutilizzato per i messaggi
+   * dello stesso millisecondo; da chiamare con il lock acquisito.
+   * @param millis data in millisecondi
+   * @return data formattata con df
+   */
+  protected String formatDate(long millis)
+  {
+    if(millis != ultimaData)
+    {
+      ultimaDataFmt = df.format(new Date(millis));
+      ultimaData = millis;
+    }
+    return ultimaDataFmt;
+  }
+
   @Override
   public void flush()
      throws IOException
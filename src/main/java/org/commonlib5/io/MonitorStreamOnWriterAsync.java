@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.commonlib5.comunication.CC;
+
+/**
+ * Monitor per la scrittura su disco asincrona.
+ * I dati osservati vengono copiati in una MonitorStreamQueue
+ * a dimensione fissa senza formattazione né I/O; un thread in background
+ * preleva i record a lotti, li formatta come MonitorStreamOnWriter
+ * e li scrive sul writer con un solo flush per lotto.
+ * <p>
+ * Il thread del dispositivo non viene mai bloccato dal disco:
+ * se il thread di scrittura non tiene il passo la coda scarta
+ * i record secondo la DropPolicy e getDroppedRecords() ne riporta
+ * il numero. I bytes consecutivi dello stesso tipo vengono uniti
+ * in un unico messaggio (vedi MonitorStreamQueue.setCoalesce()).
+ * <p>
+ * flush() attende la scrittura dei record accodati prima della chiamata;
+ * close() chiude la coda, scrive i record rimasti e termina il thread
+ * di scrittura: i dati ricevuti successivamente vengono scritti
+ * in modo sincrono.
+ *
+ * @author Nicola De Nisco
+ */
+public class MonitorStreamOnWriterAsync extends MonitorStreamOnWriter
+{
+  /** Numero di record di default della coda */
+  public static final int DEFAULT_QUEUE_LENGTH = 4096;
+  /** Dimensione di default dell'anello dati della coda */
+  public static final int DEFAULT_DATA_SIZE = 1024 * 1024;
+  /** Numero massimo di record scritti con un solo flush */
+  public static final int BATCH_SIZE = 256;
+  // attesa massima del thread di scrittura in millisecondi
+  private static final long ATTESA = 100;
+  // bit aggiunto al tipo per distinguere i commenti dai dati
+  private static final int COMMENTO = 0x10000;
+
+  /** La coda dei record da scrivere. */
+  protected final MonitorStreamQueue coda;
+  private final Thread scrittore;
+  private final List<MonitorStreamData> lotto = new ArrayList<>(BATCH_SIZE);
+  private final StringBuilder sb = new StringBuilder(8192);
+  // i produttori accodano con il lock in lettura; close() lo acquisisce
+  // in scrittura: nessun record può entrare in coda dopo lo svuotamento
+  private final ReentrantReadWriteLock chiusura = new ReentrantReadWriteLock();
+  private volatile boolean chiuso = false;
+  // numero progressivo dell'ultimo record scritto (vedi MonitorStreamQueue.getHeadSequence())
+  private long scritti = 0;
+
+  /**
+   * Costruisce con la coda di default: con coda piena vengono
+   * scartati i record nuovi.
+   * @param wr writer per i messaggi di log
+   */
+  public MonitorStreamOnWriterAsync(PrintWriter wr)
+  {
+    this(wr, DEFAULT_QUEUE_LENGTH, DEFAULT_DATA_SIZE, MonitorStreamQueue.DropPolicy.DROP_NEWEST);
+  }
+
+  /**
+   * Costruisce con la coda specificata.
+   * @param wr writer per i messaggi di log
+   * @param queueLength numero massimo di record in attesa di scrittura
+   * @param dataSize dimensione in bytes dei dati in attesa di scrittura
+   * @param dropPolicy comportamento con coda piena
+   */
+  public MonitorStreamOnWriterAsync(PrintWriter wr,
+     int queueLength, int dataSize, MonitorStreamQueue.DropPolicy dropPolicy)
+  {
+    super(wr);
+    coda = new MonitorStreamQueue(queueLength, dataSize, dropPolicy);
+    scrittore = new Thread(this::ciclo, "MonitorStreamOnWriterAsync");
+    scrittore.setDaemon(true);
+    scrittore.start();
+  }
+
+  public MonitorStreamQueue getQueue()
+  {
+    return coda;
+  }
+
+  /**
+   * Numero di record scartati per sovraccarico.
+   * @return contatore
+   */
+  public long getDroppedRecords()
+  {
+    return coda.getDroppedRecords();
+  }
+
+  @Override
+  public void addToStorage(int type, int byteValue)
+     throws IOException
+  {
+    chiusura.readLock().lock();
+    try
+    {
+      if(chiuso)
+        super.addToStorage(type, byteValue);
+      else
+        coda.addToStorage(type, byteValue);
+    }
+    finally
+    {
+      chiusura.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void addToStorage(int type, byte[] b)
+     throws IOException
+  {
+    addToStorage(type, b, 0, b.length);
+  }
+
+  @Override
+  public void addToStorage(int type, byte[] b, int offset, int len)
+     throws IOException
+  {
+    chiusura.readLock().lock();
+    try
+    {
+      if(chiuso)
+        super.printBuffer(type, b, offset, len);
+      else
+        coda.addToStorage(type, b, offset, len);
+    }
+    finally
+    {
+      chiusura.readLock().unlock();
+    }
+  }
+
+  /**
+   * Accoda un blocco come messaggio separato.
+   * @param type tipo di dato memorizzato ('I' 'O' ...)
+   * @param b array di byte
+   * @param offset offset all'interno di b
+   * @param len numero di byte
+   * @throws IOException
+   */
+  @Override
+  protected void printBuffer(int type, byte[] b, int offset, int len)
+     throws IOException
+  {
+    chiusura.readLock().lock();
+    try
+    {
+      if(chiuso)
+        super.printBuffer(type, b, offset, len);
+      else
+        coda.accoda(type, b, offset, len, false);
+    }
+    finally
+    {
+      chiusura.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void addComment(int type, String comment)
+     throws IOException
+  {
+    chiusura.readLock().lock();
+    try
+    {
+      if(chiuso)
+      {
+        super.addComment(type, comment);
+        return;
+      }
+
+      byte[] b = comment.getBytes();
+      coda.accoda(type | COMMENTO, b, 0, b.length, false);
+    }
+    finally
+    {
+      chiusura.readLock().unlock();
+    }
+  }
+
+  /**
+   * Attende la scrittura dei record accodati fino a questo momento.
+   * I record accodati durante l'attesa non vengono attesi:
+   * con produttori continui flush() termina comunque.
+   * @throws IOException
+   */
+  @Override
+  public void flush()
+     throws IOException
+  {
+    long obiettivo = coda.getTailSequence();
+    synchronized(this)
+    {
+      if(!chiuso && Thread.currentThread() != scrittore)
+      {
+        try
+        {
+          while(scritti < obiettivo && scrittore.isAlive())
+            wait(ATTESA);
+        }
+        catch(InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      wr.flush();
+    }
+  }
+
+  /**
+   * Termina il thread di scrittura dopo aver scritto i record accodati.
+   * La coda viene chiusa prima dello svuotamento: i produttori
+   * attendono la fine della chiusura e poi scrivono in modo sincrono.
+   * Il writer non viene chiuso.
+   * @throws IOException
+   */
+  public void close()
+     throws IOException
+  {
+    chiusura.writeLock().lock();
+    try
+    {
+      chiuso = true;
+      try
+      {
+        scrittore.join();
+      }
+      catch(InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+      }
+
+      // record rimasti se il thread di scrittura è stato interrotto
+      synchronized(this)
+      {
+        while(coda.drainTo(lotto, BATCH_SIZE) > 0)
+          scriviLotto();
+        scritti = coda.getHeadSequence();
+        notifyAll();
+        wr.flush();
+      }
+    }
+    finally
+    {
+      chiusura.writeLock().unlock();
+    }
+  }
+
+  private void ciclo()
+  {
+    try
+    {
+      while(true)
+      {
+        MonitorStreamData d = coda.pool(ATTESA, TimeUnit.MILLISECONDS);
+        if(d != null)
+        {
+          lotto.add(d);
+          coda.drainTo(lotto, BATCH_SIZE - 1);
+
+          // i record usciti dalla coda sono nel lotto oppure scartati
+          long usciti = coda.getHeadSequence();
+          synchronized(this)
+          {
+            scriviLotto();
+            scritti = usciti;
+            notifyAll();
+          }
+
+          if(!coda.isEmpty())
+            continue;
+        }
+
+        long usciti = coda.getHeadSequence();
+        synchronized(this)
+        {
+          if(scritti < usciti)
+          {
+            scritti = usciti;
+            notifyAll();
+          }
+
+          if(chiuso && coda.isEmpty())
+          {
+            notifyAll();
+            return;
+          }
+        }
+      }
+    }
+    catch(InterruptedException ex)
+    {
+    }
+  }
+
+  /**
+   * Formatta e scrive il lotto; il lock deve essere acquisito.
+   */
+  private void scriviLotto()
+  {
+    sb.setLength(0);
+    for(MonitorStreamData d : lotto)
+    {
+      int type = d.getType();
+      byte[] b = d.getByte();
+      sb.append('[').append((char) (type & ~COMMENTO)).append("] ")
+         .append(formatDate(d.getDate().getTime())).append(' ');
+
+      if((type & COMMENTO) != 0)
+        sb.append(new String(b));
+      else
+        CC.fmtCommBuffer(sb, b, 0, b.length);
+
+      sb.append(System.lineSeparator());
+    }
+
+    lotto.clear();
+    wr.print(sb);
+    wr.flush();
+  }
+}
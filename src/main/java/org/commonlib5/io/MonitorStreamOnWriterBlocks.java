@@ -19,6 +19,7 @@ package org.commonlib5.io;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import org.commonlib5.utils.BytePattern;
 
 /**
  * Accumulutare di blocchi con ricerca di marcatori.
@@ -37,6 +38,8 @@ public class MonitorStreamOnWriterBlocks extends MonitorStreamOnWriter
 {
   /** La sequenza di byte che marca la fine di un blocco */
   protected byte[] blockBoundary = null;
+  /** blockBoundary precompilato per la ricerca */
+  protected BytePattern boundaryPattern = null;
   /** Buffer per l'accumulo temporaneo prima di inserire nella coda. */
   protected ByteBufferOutputStream bb = new ByteBufferOutputStream();
   /** Memorizza l'ultimo tipo di memorizzazione effettuata. */
@@ -45,13 +48,13 @@ public class MonitorStreamOnWriterBlocks extends MonitorStreamOnWriter
   public MonitorStreamOnWriterBlocks(PrintWriter wr)
   {
     super(wr);
-    blockBoundary = "\r\n".getBytes();
+    setBlockBoundary("\r\n".getBytes());
   }
 
   public MonitorStreamOnWriterBlocks(PrintWriter wr, byte[] blockBoundary)
   {
     super(wr);
-    this.blockBoundary = blockBoundary;
+    setBlockBoundary(blockBoundary);
   }
 
   public byte[] getBlockBoundary()
@@ -62,6 +65,7 @@ public class MonitorStreamOnWriterBlocks extends MonitorStreamOnWriter
   public void setBlockBoundary(byte[] blockBoundary)
   {
     this.blockBoundary = blockBoundary;
+    this.boundaryPattern = new BytePattern(blockBoundary);
   }
 
   /**
@@ -138,7 +142,7 @@ public class MonitorStreamOnWriterBlocks extends MonitorStreamOnWriter
   {
     synchronized(bb)
     {
-      int pos = bb.indexOf(blockBoundary);
+      int pos = bb.indexOf(boundaryPattern);
 
       if(pos != -1)
       {
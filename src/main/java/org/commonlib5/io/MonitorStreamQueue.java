@@ -18,9 +18,11 @@
 package org.commonlib5.io;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Date;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Accumulatore per i blocchi.
@@ -29,19 +31,85 @@ import java.util.concurrent.TimeUnit;
  * marcarli con data e ora.
  * Gli oggetti MonitorStreamData sono accumulati in un
  * MonitorStreamQueue per essere osservati.
- * La coda utilizzata per i blocchi è a dimensione fissa
- * e una volta riempita il flusso viene bloccato.
- * Un thread di ascolto può utilizzare la funzione bloccante
- * della coda per rimanere in attesa.
+ * <p>
+ * La memoria è preallocata alla costruzione: un anello di record
+ * (tipo, System.nanoTime() del primo byte, posizione e lunghezza)
+ * e un anello di bytes dove i dati sono copiati in linea.
+ * L'inserimento non alloca oggetti: i bytes consecutivi dello
+ * stesso tipo vengono accodati all'ultimo record finché non è
+ * stato prelevato, non supera getCoalesceSize() bytes e non è
+ * trascorso più di getCoalesceMillis() dall'ultimo byte.
+ * Gli oggetti MonitorStreamData vengono creati solo al prelievo.
+ * <p>
+ * Quando la coda è piena il flusso monitorato non viene mai bloccato:
+ * secondo la DropPolicy vengono scartati i record più vecchi
+ * oppure i dati nuovi; il numero di scarti è disponibile in
+ * getDroppedRecords() e getDroppedBytes().
+ * Un thread di ascolto può utilizzare pool(long, TimeUnit)
+ * per rimanere in attesa e drainTo() per prelevare più record insieme.
  *
  * @author Nicola De Nisco
  */
 public class MonitorStreamQueue implements MonitorStreamStorage
 {
-  /** La coda dove salvare i blocchi osservati */
-  protected ArrayBlockingQueue<MonitorStreamData> qData = null;
   /** La dimensione di default della coda */
   public static final int DEFAULT_QUEUE_LENGTH = 128;
+  /** Bytes per record riservati nell'anello dati */
+  public static final int DEFAULT_RECORD_SIZE = 256;
+  /** Dimensione massima di default di un record unito */
+  public static final int DEFAULT_COALESCE_SIZE = 4096;
+  /** Intervallo massimo di default fra bytes dello stesso record */
+  public static final long DEFAULT_COALESCE_MILLIS = 50;
+
+  /**
+   * Comportamento con coda piena.
+   */
+  public enum DropPolicy
+  {
+    /** scarta i record più vecchi per fare posto ai nuovi */
+    DROP_OLDEST,
+    /** scarta i dati nuovi lasciando inalterata la coda */
+    DROP_NEWEST
+  }
+
+  /**
+   * Ricevitore dei record per drainTo(RecordConsumer, int).
+   */
+  public interface RecordConsumer
+  {
+    /**
+     * Riceve un record.
+     * L'array è interno alla coda ed è valido solo durante la chiamata.
+     * @param type marcatore del messaggio
+     * @param nanoTime valore di System.nanoTime() al primo byte
+     * @param data array con i dati
+     * @param offset inizio dei dati
+     * @param len numero di bytes
+     */
+    void record(int type, long nanoTime, byte[] data, int offset, int len);
+  }
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition nonVuoto = lock.newCondition();
+  // anello dei record
+  private final int[] recTipo, recInizio, recLung;
+  private final long[] recTempo;
+  private int recTesta = 0, recNum = 0;
+  // anello dei dati
+  private final byte[] slab;
+  private int slabTesta = 0, slabUsati = 0;
+  private byte[] appoggio = new byte[0];
+  // nanoTime dell'ultimo byte aggiunto all'ultimo record e se può essere esteso
+  private long ultimoByte;
+  private boolean ultimoUnibile = false;
+  private final DropPolicy dropPolicy;
+  private int coalesceSize = DEFAULT_COALESCE_SIZE;
+  private long coalesceNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_COALESCE_MILLIS);
+  private long droppedRecords = 0, droppedBytes = 0;
+  // numero di record entrati e usciti (prelevati o scartati) dalla coda
+  private long recEntrati = 0, recUsciti = 0;
+  // riferimento per convertire nanoTime in data
+  private final long baseMillis, baseNanos;
 
   /**
    * Costruttore di default: lunghezza coda DEFAULT_QUEUE_LENGTH.
@@ -53,11 +121,150 @@ public class MonitorStreamQueue implements MonitorStreamStorage
 
   /**
    * Costruisce con la lunghezza della coda specificata.
+   * L'anello dati è di queueLength * DEFAULT_RECORD_SIZE bytes;
+   * con coda piena vengono scartati i record più vecchi.
    * @param queueLength lunghezza della coda (numero blocchi max)
    */
   public MonitorStreamQueue(int queueLength)
   {
-    qData = new ArrayBlockingQueue<MonitorStreamData>(queueLength, true);
+    this(queueLength, queueLength * DEFAULT_RECORD_SIZE, DropPolicy.DROP_OLDEST);
+  }
+
+  /**
+   * Costruisce con dimensioni e comportamento specificati.
+   * @param queueLength lunghezza della coda (numero blocchi max)
+   * @param dataSize dimensione in bytes dell'anello dati
+   * @param dropPolicy comportamento con coda piena
+   */
+  public MonitorStreamQueue(int queueLength, int dataSize, DropPolicy dropPolicy)
+  {
+    if(queueLength <= 0 || dataSize <= 0)
+      throw new IllegalArgumentException("Dimensioni non valide: " + queueLength + "/" + dataSize);
+
+    recTipo = new int[queueLength];
+    recInizio = new int[queueLength];
+    recLung = new int[queueLength];
+    recTempo = new long[queueLength];
+    slab = new byte[dataSize];
+    this.dropPolicy = dropPolicy;
+    baseMillis = System.currentTimeMillis();
+    baseNanos = System.nanoTime();
+  }
+
+  public DropPolicy getDropPolicy()
+  {
+    return dropPolicy;
+  }
+
+  public int getCoalesceSize()
+  {
+    return coalesceSize;
+  }
+
+  public long getCoalesceMillis()
+  {
+    return TimeUnit.NANOSECONDS.toMillis(coalesceNanos);
+  }
+
+  /**
+   * Imposta i limiti per l'unione dei bytes consecutivi dello stesso tipo.
+   * @param maxSize dimensione massima di un record unito (0 disabilita l'unione)
+   * @param maxMillis intervallo massimo fra l'ultimo byte del record e il nuovo
+   */
+  public void setCoalesce(int maxSize, long maxMillis)
+  {
+    lock.lock();
+    try
+    {
+      coalesceSize = maxSize;
+      coalesceNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Numero di record scartati per coda piena.
+   * Con DROP_NEWEST conta gli inserimenti rifiutati.
+   * @return contatore
+   */
+  public long getDroppedRecords()
+  {
+    lock.lock();
+    try
+    {
+      return droppedRecords;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Numero di bytes scartati per coda piena.
+   * @return contatore
+   */
+  public long getDroppedBytes()
+  {
+    lock.lock();
+    try
+    {
+      return droppedBytes;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Converte una marca temporale dei record in data.
+   * @param nanoTime valore di System.nanoTime()
+   * @return data e ora corrispondente
+   */
+  public Date nanoToDate(long nanoTime)
+  {
+    return new Date(baseMillis + TimeUnit.NANOSECONDS.toMillis(nanoTime - baseNanos));
+  }
+
+  /**
+   * Numero progressivo dell'ultimo record entrato nella coda.
+   * I bytes uniti a un record ancora in coda non lo modificano.
+   * @return numero di record entrati dalla creazione della coda
+   */
+  public long getTailSequence()
+  {
+    lock.lock();
+    try
+    {
+      return recEntrati;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Numero di record usciti dalla coda, prelevati o scartati.
+   * Tutti i record con numero progressivo fino a questo valore
+   * non sono più in coda.
+   * @return numero di record usciti dalla creazione della coda
+   */
+  public long getHeadSequence()
+  {
+    lock.lock();
+    try
+    {
+      return recUsciti;
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
 
   /**
@@ -66,17 +273,25 @@ public class MonitorStreamQueue implements MonitorStreamStorage
    */
   public boolean isEmpty()
   {
-    return qData.isEmpty();
+    return size() == 0;
   }
 
   /**
    * Recupera da coda.
-   * La chiamata è bloccante.
-   * @return il prossimo oggetto nella coda
+   * La chiamata non è bloccante.
+   * @return il prossimo oggetto nella coda o null se vuota
    */
   public MonitorStreamData pool()
   {
-    return qData.poll();
+    lock.lock();
+    try
+    {
+      return recNum == 0 ? null : preleva();
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
 
   /**
@@ -90,7 +305,23 @@ public class MonitorStreamQueue implements MonitorStreamStorage
   public MonitorStreamData pool(long timeout, TimeUnit unit)
      throws InterruptedException
   {
-    return qData.poll(timeout, unit);
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try
+    {
+      while(recNum == 0)
+      {
+        if(nanos <= 0)
+          return null;
+        nanos = nonVuoto.awaitNanos(nanos);
+      }
+
+      return preleva();
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
 
   /**
@@ -99,7 +330,15 @@ public class MonitorStreamQueue implements MonitorStreamStorage
    */
   public MonitorStreamData peek()
   {
-    return qData.peek();
+    lock.lock();
+    try
+    {
+      return recNum == 0 ? null : crea(recTesta);
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
 
   /**
@@ -108,7 +347,76 @@ public class MonitorStreamQueue implements MonitorStreamStorage
    */
   public int size()
   {
-    return qData.size();
+    lock.lock();
+    try
+    {
+      return recNum;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Preleva più record in una sola operazione.
+   * @param c collezione dove aggiungere i record
+   * @param maxRecords numero massimo di record da prelevare
+   * @return numero di record prelevati
+   */
+  public int drainTo(Collection<? super MonitorStreamData> c, int maxRecords)
+  {
+    lock.lock();
+    try
+    {
+      int n = 0;
+      for(; n < maxRecords && recNum > 0; n++)
+        c.add(preleva());
+      return n;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Preleva più record senza creare oggetti.
+   * Il consumatore viene chiamato con il lock della coda acquisito:
+   * deve essere veloce perché blocca i produttori.
+   * @param consumer ricevitore dei record
+   * @param maxRecords numero massimo di record da prelevare
+   * @return numero di record prelevati
+   */
+  public int drainTo(RecordConsumer consumer, int maxRecords)
+  {
+    lock.lock();
+    try
+    {
+      int n = 0;
+      for(; n < maxRecords && recNum > 0; n++)
+      {
+        int inizio = recInizio[recTesta], len = recLung[recTesta];
+        if(inizio + len <= slab.length)
+        {
+          consumer.record(recTipo[recTesta], recTempo[recTesta], slab, inizio, len);
+        }
+        else
+        {
+          // record a cavallo della fine dell'anello
+          if(appoggio.length < len)
+            appoggio = new byte[len];
+          copiaDa(inizio, appoggio, 0, len);
+          consumer.record(recTipo[recTesta], recTempo[recTesta], appoggio, 0, len);
+        }
+        rimuovi();
+      }
+      return n;
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
 
   /**
@@ -118,33 +426,39 @@ public class MonitorStreamQueue implements MonitorStreamStorage
    * @throws IOException
    */
   @Override
-  public synchronized void addToStorage(int type, int byteValue)
+  public void addToStorage(int type, int byteValue)
      throws IOException
   {
-    byte[] b = new byte[1];
-    b[0] = (byte) byteValue;
-    qData.add(new MonitorStreamData(type, new Date(), b));
+    lock.lock();
+    try
+    {
+      int pos = riserva(type, System.nanoTime(), 1, true);
+      if(pos >= 0)
+        slab[pos] = (byte) byteValue;
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
 
   /**
    * Riceve i byte da aggiungere alla coda.
-   * I byte vengono copiati generando una nuova
-   * entry nella coda.
+   * I byte vengono copiati nella coda.
    * @param type marcatore del messaggio
    * @param b array di byte da aggiungere
    * @throws java.io.IOException
    */
   @Override
-  public synchronized void addToStorage(int type, byte[] b)
+  public void addToStorage(int type, byte[] b)
      throws IOException
   {
-    qData.add(new MonitorStreamData(type, new Date(), b));
+    accoda(type, b, 0, b.length, true);
   }
 
   /**
    * Riceve i byte da aggiungere alla coda.
-   * I byte vengono copiati generando una nuova
-   * entry nella coda.
+   * I byte vengono copiati nella coda.
    * @param type marcatore del messaggio
    * @param b array di byte da aggiungere
    * @param offset offset all'interno di b
@@ -152,12 +466,10 @@ public class MonitorStreamQueue implements MonitorStreamStorage
    * @throws java.io.IOException
    */
   @Override
-  public synchronized void addToStorage(int type, byte[] b, int offset, int len)
+  public void addToStorage(int type, byte[] b, int offset, int len)
      throws IOException
   {
-    byte[] bb = new byte[len];
-    System.arraycopy(b, offset, bb, 0, len);
-    qData.add(new MonitorStreamData(type, new Date(), bb));
+    accoda(type, b, offset, len, true);
   }
 
   @Override
@@ -170,6 +482,141 @@ public class MonitorStreamQueue implements MonitorStreamStorage
   public void addComment(int type, String comment)
      throws IOException
   {
-    qData.add(new MonitorStreamData(type, new Date(), comment.getBytes()));
+    byte[] b = comment.getBytes();
+    accoda(type, b, 0, b.length, false);
+  }
+
+  /**
+   * Copia dei bytes nella coda.
+   * Se i dati sono più grandi dell'anello dati vengono conservati
+   * solo gli ultimi (DROP_OLDEST) oppure scartati (DROP_NEWEST).
+   * @param type marcatore del messaggio
+   * @param b array di byte da aggiungere
+   * @param offset offset all'interno di b
+   * @param len numero di byte da aggiungere
+   * @param coalesce se vero i dati possono essere uniti all'ultimo record
+   */
+  protected void accoda(int type, byte[] b, int offset, int len, boolean coalesce)
+  {
+    lock.lock();
+    try
+    {
+      if(len > slab.length)
+      {
+        if(dropPolicy == DropPolicy.DROP_NEWEST)
+        {
+          droppedRecords++;
+          droppedBytes += len;
+          return;
+        }
+
+        droppedBytes += len - slab.length;
+        offset += len - slab.length;
+        len = slab.length;
+      }
+
+      int pos = riserva(type, System.nanoTime(), len, coalesce);
+      if(pos < 0)
+        return;
+
+      int primo = Math.min(len, slab.length - pos);
+      System.arraycopy(b, offset, slab, pos, primo);
+      if(len > primo)
+        System.arraycopy(b, offset + primo, slab, 0, len - primo);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Riserva spazio per len bytes; il lock deve essere acquisito.
+   * @return posizione nell'anello dati dove copiare i bytes o -1 se scartati
+   */
+  private int riserva(int type, long ora, int len, boolean coalesce)
+  {
+    if(coalesce && ultimoUnibile && recNum > 0)
+    {
+      int ultimo = (recTesta + recNum - 1) % recTipo.length;
+      if(recTipo[ultimo] == type && recLung[ultimo] + len <= coalesceSize
+         && ora - ultimoByte <= coalesceNanos && len <= slab.length - slabUsati)
+      {
+        int pos = (slabTesta + slabUsati) % slab.length;
+        recLung[ultimo] += len;
+        slabUsati += len;
+        ultimoByte = ora;
+        return pos;
+      }
+    }
+
+    while(recNum == recTipo.length || len > slab.length - slabUsati)
+    {
+      if(dropPolicy == DropPolicy.DROP_NEWEST)
+      {
+        droppedRecords++;
+        droppedBytes += len;
+        return -1;
+      }
+
+      droppedRecords++;
+      droppedBytes += recLung[recTesta];
+      rimuovi();
+    }
+
+    int pos = (slabTesta + slabUsati) % slab.length;
+    int idx = (recTesta + recNum) % recTipo.length;
+    recTipo[idx] = type;
+    recTempo[idx] = ora;
+    recInizio[idx] = pos;
+    recLung[idx] = len;
+    recNum++;
+    recEntrati++;
+    slabUsati += len;
+    ultimoByte = ora;
+    ultimoUnibile = coalesce;
+    nonVuoto.signal();
+    return pos;
+  }
+
+  /**
+   * Rimuove il record in testa; il lock deve essere acquisito.
+   */
+  private void rimuovi()
+  {
+    int len = recLung[recTesta];
+    recTesta = (recTesta + 1) % recTipo.length;
+    slabTesta = (slabTesta + len) % slab.length;
+    slabUsati -= len;
+    recUsciti++;
+
+    // coda vuota: riparte dall'inizio per evitare record a cavallo
+    if(--recNum == 0)
+      recTesta = slabTesta = 0;
+  }
+
+  /**
+   * Crea e rimuove il record in testa; il lock deve essere acquisito.
+   */
+  private MonitorStreamData preleva()
+  {
+    MonitorStreamData rv = crea(recTesta);
+    rimuovi();
+    return rv;
+  }
+
+  private MonitorStreamData crea(int idx)
+  {
+    byte[] b = new byte[recLung[idx]];
+    copiaDa(recInizio[idx], b, 0, b.length);
+    return new MonitorStreamData(recTipo[idx], nanoToDate(recTempo[idx]), recTempo[idx], b);
+  }
+
+  private void copiaDa(int pos, byte[] dest, int offset, int len)
+  {
+    int primo = Math.min(len, slab.length - pos);
+    System.arraycopy(slab, pos, dest, offset, primo);
+    if(len > primo)
+      System.arraycopy(slab, 0, dest, offset + primo, len - primo);
   }
 }
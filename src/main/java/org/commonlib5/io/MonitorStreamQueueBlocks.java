@@ -18,7 +18,6 @@
 package org.commonlib5.io;
 
 import java.io.IOException;
-import java.util.Date;
 
 /**
  * Accumulutare di blocchi con ricerca di marcatori.
@@ -143,9 +142,7 @@ public class MonitorStreamQueueBlocks extends MonitorStreamQueue
           // ho trovato il blocco
           synchronized(bb)
           {
-            byte[] bt = new byte[i + 1];
-            System.arraycopy(b, 0, bt, 0, i + 1);
-            qData.add(new MonitorStreamData(lastType, new Date(), bt));
+            accoda(lastType, b, 0, i + 1, false);
             bb.deleteHead(i + 1);
           }
 
@@ -175,7 +172,7 @@ public class MonitorStreamQueueBlocks extends MonitorStreamQueue
       if(bb.isEmpty())
         return;
 
-      qData.add(new MonitorStreamData(lastType, new Date(), bb.getBytes()));
+      accoda(lastType, bb.array(), 0, bb.position(), false);
       bb.clear();
     }
   }
@@ -0,0 +1,816 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompressione gzip con membri decompressi in parallelo.
+ * I file composti da più membri gzip concatenati (ad esempio i blocchi BGZF,
+ * o file scritti e accodati più volte) vengono divisi in segmenti che sono
+ * decompressi contemporaneamente su un pool di thread, con lettura anticipata
+ * di un numero limitato di segmenti; i dati decompressi sono restituiti
+ * nell'ordine originale.
+ * <p>
+ * I confini dei membri sono ricavati dal campo BSIZE per i blocchi BGZF,
+ * altrimenti cercando la firma dell'intestazione gzip nei dati compressi.
+ * Un confine falso (la firma compare per caso nei dati) viene scoperto
+ * alla verifica del membro (fine del deflate, CRC e lunghezza): in quel caso
+ * e per i membri troppo grandi per un segmento la decompressione prosegue
+ * in sequenza fino alla fine del membro, poi riprende in parallelo.
+ * Un file a membro singolo viene quindi decompresso in sequenza, come
+ * con DtGZIPInputStream. La memoria usata è limitata dalla dimensione
+ * massima dei segmenti e dal numero di segmenti in lettura anticipata.
+ * <p>
+ * index() costruisce l'indice dei membri di un file (senza decompressione
+ * per i blocchi BGZF) e open() lo usa per iniziare la lettura da una
+ * qualsiasi posizione dei dati decompressi.
+ *
+ * @author Nicola De Nisco
+ */
+public class ParallelGZIPInputStream extends InputStream
+{
+  /** Dimensione massima di default di un segmento compresso */
+  public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+  /** Dimensione massima dei dati decompressi di un segmento */
+  public static final int MAX_OUTPUT = 32 * 1024 * 1024;
+
+  private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+  private final Sorgente sorgente;
+  private final ExecutorService executor;
+  private final int segmentSize, maxInCoda;
+  private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+  private final ArrayDeque<Pezzo> inCoda = new ArrayDeque<>();
+  // dati compressi letti e non ancora assegnati a un segmento
+  private byte[] acc;
+  private int accLen = 0, scansionati = 1;
+  private boolean eofSorgente = false, attesaSequenziale = false;
+  // dati decompressi in uscita
+  private byte[] uscita = new byte[0];
+  private int uscitaPos = 0, uscitaLen = 0;
+  private Sequenziale seq = null;
+  private byte[] seqBuf = null;
+  private long membri = 0, paralleli = 0;
+  private boolean fine = false;
+
+  /**
+   * Voce dell'indice dei membri.
+   */
+  public static final class IndexEntry
+  {
+    /** posizione del membro nel file compresso */
+    public final long compressedOffset;
+    /** posizione dei dati del membro nei dati decompressi */
+    public final long uncompressedOffset;
+
+    public IndexEntry(long compressedOffset, long uncompressedOffset)
+    {
+      this.compressedOffset = compressedOffset;
+      this.uncompressedOffset = uncompressedOffset;
+    }
+  }
+
+  /** Segmento di dati compressi in decompressione. */
+  private static final class Pezzo
+  {
+    private final byte[] raw;
+    private final Future<Risultato> futuro;
+
+    private Pezzo(byte[] raw, Future<Risultato> futuro)
+    {
+      this.raw = raw;
+      this.futuro = futuro;
+    }
+  }
+
+  /** Risultato della decompressione di un segmento; dati null se non valido. */
+  private static final class Risultato
+  {
+    private final byte[] dati;
+    private final int len;
+
+    private Risultato(byte[] dati, int len)
+    {
+      this.dati = dati;
+      this.len = len;
+    }
+  }
+
+  /**
+   * Crea con i parametri di default e il pool comune dei thread.
+   * @param in stream compresso
+   */
+  public ParallelGZIPInputStream(InputStream in)
+  {
+    this(in, DEFAULT_SEGMENT_SIZE, null);
+  }
+
+  /**
+   * Crea con i parametri indicati.
+   * @param in stream compresso
+   * @param segmentSize dimensione massima di un segmento compresso (almeno 64KB)
+   * @param executor pool dei thread di decompressione (null per ForkJoinPool.commonPool())
+   */
+  public ParallelGZIPInputStream(InputStream in, int segmentSize, ExecutorService executor)
+  {
+    if(segmentSize < 65536)
+      throw new IllegalArgumentException("Dimensione segmento troppo piccola: " + segmentSize);
+
+    this.sorgente = new Sorgente(in);
+    this.segmentSize = segmentSize;
+    this.executor = executor == null ? ForkJoinPool.commonPool() : executor;
+    int thread = executor == null ? ForkJoinPool.getCommonPoolParallelism() : Runtime.getRuntime().availableProcessors();
+    this.maxInCoda = Math.max(2, 2 * thread);
+    this.acc = new byte[segmentSize];
+  }
+
+  /**
+   * Numero di membri decompressi.
+   * @return membri completati
+   */
+  public long getMembers()
+  {
+    return membri;
+  }
+
+  /**
+   * Numero di membri decompressi in parallelo.
+   * @return membri decompressi dal pool
+   */
+  public long getParallelMembers()
+  {
+    return paralleli;
+  }
+
+  @Override
+  public int read()
+     throws IOException
+  {
+    while(uscitaPos == uscitaLen)
+    {
+      if(!prossimo())
+        return -1;
+    }
+
+    return uscita[uscitaPos++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len)
+     throws IOException
+  {
+    if(len == 0)
+      return 0;
+
+    while(uscitaPos == uscitaLen)
+    {
+      if(!prossimo())
+        return -1;
+    }
+
+    int n = Math.min(len, uscitaLen - uscitaPos);
+    System.arraycopy(uscita, uscitaPos, b, off, n);
+    uscitaPos += n;
+    return n;
+  }
+
+  @Override
+  public int available()
+  {
+    return uscitaLen - uscitaPos;
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    fine = true;
+    for(Pezzo p : inCoda)
+    {
+      if(p.futuro != null)
+        p.futuro.cancel(false);
+    }
+    inCoda.clear();
+
+    if(seq != null)
+      seq.inf.end();
+    seq = null;
+
+    Inflater inf;
+    while((inf = inflaters.poll()) != null)
+      inf.end();
+
+    sorgente.in.close();
+  }
+
+  /**
+   * Prepara in uscita i prossimi dati decompressi.
+   * @return falso a fine stream
+   */
+  private boolean prossimo()
+     throws IOException
+  {
+    if(fine)
+      return false;
+
+    uscitaPos = uscitaLen = 0;
+    if(seq != null)
+    {
+      int n = seq.read(seqBuf, 0, seqBuf.length);
+      if(n >= 0)
+      {
+        uscita = seqBuf;
+        uscitaLen = n;
+        return true;
+      }
+
+      // membro completato: riprende la decompressione parallela
+      seq.inf.end();
+      seq = null;
+      membri++;
+    }
+
+    leggiAvanti();
+    Pezzo p = inCoda.pollFirst();
+    if(p == null)
+    {
+      fine = true;
+      return false;
+    }
+
+    if(p.futuro != null)
+    {
+      Risultato r = attendi(p.futuro);
+      if(r.dati != null)
+      {
+        uscita = r.dati;
+        uscitaLen = r.len;
+        membri++;
+        paralleli++;
+        leggiAvanti();
+        return true;
+      }
+    }
+
+    // confine falso o membro troppo grande: restituisce i dati
+    // compressi alla sorgente e decodifica il membro in sequenza
+    sorgente.unread(acc, 0, accLen);
+    accLen = 0;
+    scansionati = 1;
+    attesaSequenziale = false;
+    while(!inCoda.isEmpty())
+    {
+      Pezzo succ = inCoda.pollLast();
+      if(succ.futuro != null)
+        succ.futuro.cancel(false);
+      sorgente.unread(succ.raw, 0, succ.raw.length);
+    }
+    sorgente.unread(p.raw, 0, p.raw.length);
+
+    seq = new Sequenziale(sorgente);
+    try
+    {
+      if(!seq.leggiHeader())
+        return chiudiSequenziale();
+    }
+    catch(ZipException ex)
+    {
+      // dati estranei dopo l'ultimo membro: ignorati come in GZIPInputStream
+      if(membri > 0)
+        return chiudiSequenziale();
+      throw ex;
+    }
+
+    if(seqBuf == null)
+      seqBuf = new byte[65536];
+    return true;
+  }
+
+  private boolean chiudiSequenziale()
+  {
+    seq.inf.end();
+    seq = null;
+    fine = true;
+    return false;
+  }
+
+  private Risultato attendi(Future<Risultato> f)
+     throws IOException
+  {
+    try
+    {
+      return f.get();
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Decompressione interrotta.", ex);
+    }
+    catch(ExecutionException ex)
+    {
+      throw new IOException("Errore di decompressione.", ex.getCause());
+    }
+  }
+
+  /**
+   * Legge i dati compressi e accoda i segmenti per la decompressione.
+   */
+  private void leggiAvanti()
+     throws IOException
+  {
+    while(!attesaSequenziale && inCoda.size() < maxInCoda)
+    {
+      int taglio = cercaTaglio();
+      if(taglio > 0)
+      {
+        byte[] raw = Arrays.copyOf(acc, taglio);
+        System.arraycopy(acc, taglio, acc, 0, accLen - taglio);
+        accLen -= taglio;
+        scansionati = 1;
+        inCoda.addLast(new Pezzo(raw, executor.submit(() -> decomprimi(raw))));
+        continue;
+      }
+
+      if(eofSorgente)
+        return;
+
+      if(accLen == acc.length)
+      {
+        // nessun confine nel segmento: il membro verrà decodificato in sequenza
+        inCoda.addLast(new Pezzo(Arrays.copyOf(acc, accLen), null));
+        accLen = 0;
+        scansionati = 1;
+        attesaSequenziale = true;
+        return;
+      }
+
+      int n = sorgente.read(acc, accLen, acc.length - accLen);
+      if(n < 0)
+        eofSorgente = true;
+      else
+        accLen += n;
+    }
+  }
+
+  /**
+   * Cerca la fine del membro che inizia in acc[0].
+   * @return lunghezza del segmento o 0 se servono altri dati
+   */
+  private int cercaTaglio()
+  {
+    if(accLen == 0)
+      return 0;
+
+    // BGZF: la dimensione del blocco è nell'intestazione
+    try
+    {
+      int hl = lunghezzaHeader(acc, 0, accLen);
+      if(hl > 0)
+      {
+        int bs = dimensioneBlocco(acc, 0, hl);
+        if(bs > hl + 8 && bs <= acc.length)
+          return accLen >= bs ? bs : (eofSorgente ? accLen : 0);
+      }
+    }
+    catch(ZipException ex)
+    {
+    }
+
+    // altrimenti il primo candidato di intestazione successivo
+    for(int i = scansionati; i + 3 < accLen; i++)
+    {
+      if(acc[i] == 0x1f && acc[i + 1] == (byte) 0x8b && acc[i + 2] == 8 && (acc[i + 3] & 0xe0) == 0)
+        return i;
+    }
+
+    scansionati = Math.max(1, accLen - 3);
+    return eofSorgente ? accLen : 0;
+  }
+
+  /**
+   * Decompressione di un segmento nel pool.
+   */
+  private Risultato decomprimi(byte[] raw)
+  {
+    Inflater inf = inflaters.poll();
+    if(inf == null)
+      inf = new Inflater(true);
+
+    try
+    {
+      int hl = lunghezzaHeader(raw, 0, raw.length);
+      if(hl < 0)
+        return new Risultato(null, 0);
+
+      inf.setInput(raw, hl, raw.length - hl);
+      byte[] out = new byte[Math.max(1024, Math.min(MAX_OUTPUT, raw.length * 4))];
+      int n = 0;
+      while(!inf.finished())
+      {
+        if(n == out.length)
+        {
+          if(out.length >= MAX_OUTPUT)
+            return new Risultato(null, 0);
+          out = Arrays.copyOf(out, Math.min(MAX_OUTPUT, out.length * 2));
+        }
+
+        int k = inf.inflate(out, n, out.length - n);
+        if(k == 0 && (inf.needsInput() || inf.needsDictionary()))
+          return new Risultato(null, 0);
+        n += k;
+      }
+
+      // il membro deve terminare esattamente con la coda gzip
+      if(inf.getRemaining() != 8)
+        return new Risultato(null, 0);
+
+      CRC32 crc = new CRC32();
+      crc.update(out, 0, n);
+      int t = raw.length - 8;
+      if(leggiInt(raw, t) != (int) crc.getValue() || leggiInt(raw, t + 4) != n)
+        return new Risultato(null, 0);
+
+      return new Risultato(out, n);
+    }
+    catch(ZipException | DataFormatException ex)
+    {
+      return new Risultato(null, 0);
+    }
+    finally
+    {
+      inf.reset();
+      inflaters.add(inf);
+    }
+  }
+
+  /**
+   * Costruisce l'indice dei membri di un file gzip.
+   * I blocchi BGZF sono indicizzati leggendo solo intestazione e coda;
+   * gli altri membri vengono decompressi per trovarne la fine.
+   * @param f file compresso
+   * @return voci dell'indice in ordine di posizione
+   * @throws IOException
+   */
+  public static List<IndexEntry> index(File f)
+     throws IOException
+  {
+    ArrayList<IndexEntry> rv = new ArrayList<>();
+    try(RandomAccessFile raf = new RandomAccessFile(f, "r"))
+    {
+      long pos = 0, totale = 0, len = raf.length();
+      byte[] h = new byte[65536];
+      byte[] scarto = new byte[65536];
+
+      while(pos < len)
+      {
+        raf.seek(pos);
+        int n = raf.read(h, 0, (int) Math.min(h.length, len - pos));
+        int hl;
+        try
+        {
+          hl = lunghezzaHeader(h, 0, n);
+        }
+        catch(ZipException ex)
+        {
+          // dati estranei dopo l'ultimo membro
+          if(!rv.isEmpty())
+            break;
+          throw ex;
+        }
+
+        rv.add(new IndexEntry(pos, totale));
+        int bs = hl > 0 ? dimensioneBlocco(h, 0, hl) : -1;
+        if(bs > hl + 8 && pos + bs <= len)
+        {
+          raf.seek(pos + bs - 4);
+          totale += Integer.toUnsignedLong(Integer.reverseBytes(raf.readInt()));
+          pos += bs;
+          continue;
+        }
+
+        raf.seek(pos);
+        Sorgente s = new Sorgente(Channels.newInputStream(raf.getChannel()));
+        Sequenziale sq = new Sequenziale(s);
+        try
+        {
+          sq.leggiHeader();
+          int k;
+          while((k = sq.read(scarto, 0, scarto.length)) >= 0)
+            totale += k;
+        }
+        finally
+        {
+          sq.inf.end();
+        }
+        pos += s.posizione;
+      }
+    }
+
+    return rv;
+  }
+
+  /**
+   * Apre un file compresso posizionandosi nei dati decompressi.
+   * @param f file compresso
+   * @param index indice costruito con index()
+   * @param offset posizione nei dati decompressi
+   * @return stream posizionato
+   * @throws IOException
+   */
+  public static ParallelGZIPInputStream open(File f, List<IndexEntry> index, long offset)
+     throws IOException
+  {
+    int lo = 0, hi = index.size() - 1;
+    while(lo < hi)
+    {
+      int mid = (lo + hi + 1) >>> 1;
+      if(index.get(mid).uncompressedOffset <= offset)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+
+    IndexEntry e = index.isEmpty() ? new IndexEntry(0, 0) : index.get(lo);
+    FileInputStream fis = new FileInputStream(f);
+    fis.getChannel().position(e.compressedOffset);
+    ParallelGZIPInputStream rv = new ParallelGZIPInputStream(fis);
+    long daSaltare = offset - e.uncompressedOffset;
+    while(daSaltare > 0)
+    {
+      long n = rv.skip(daSaltare);
+      if(n <= 0)
+        break;
+      daSaltare -= n;
+    }
+    return rv;
+  }
+
+  /**
+   * Lunghezza dell'intestazione gzip.
+   * @return lunghezza o -1 se servono altri bytes
+   * @throws ZipException se non è un'intestazione gzip
+   */
+  private static int lunghezzaHeader(byte[] b, int off, int len)
+     throws ZipException
+  {
+    if(len >= 1 && b[off] != 0x1f || len >= 2 && b[off + 1] != (byte) 0x8b
+       || len >= 3 && b[off + 2] != 8 || len >= 4 && (b[off + 3] & 0xe0) != 0)
+      throw new ZipException("Not in GZIP format");
+    if(len < 10)
+      return -1;
+
+    int flg = b[off + 3];
+    int p = 10;
+    if((flg & FEXTRA) != 0)
+    {
+      if(len < p + 2)
+        return -1;
+      p += 2 + leggiShort(b, off + p);
+    }
+    if((flg & FNAME) != 0)
+    {
+      do
+      {
+        if(p >= len)
+          return -1;
+      }
+      while(b[off + p++] != 0);
+    }
+    if((flg & FCOMMENT) != 0)
+    {
+      do
+      {
+        if(p >= len)
+          return -1;
+      }
+      while(b[off + p++] != 0);
+    }
+    if((flg & FHCRC) != 0)
+      p += 2;
+
+    return p <= len ? p : -1;
+  }
+
+  /**
+   * Dimensione totale del membro dal campo BSIZE di BGZF.
+   * @return dimensione o -1 se assente
+   */
+  private static int dimensioneBlocco(byte[] b, int off, int hl)
+  {
+    if((b[off + 3] & FEXTRA) == 0)
+      return -1;
+
+    int fine = off + 12 + leggiShort(b, off + 10);
+    for(int p = off + 12; p + 4 <= fine && fine <= off + hl;)
+    {
+      int slen = leggiShort(b, p + 2);
+      if(b[p] == 'B' && b[p + 1] == 'C' && slen == 2)
+        return leggiShort(b, p + 4) + 1;
+      p += 4 + slen;
+    }
+
+    return -1;
+  }
+
+  private static int leggiShort(byte[] b, int p)
+  {
+    return (b[p] & 0xff) | ((b[p + 1] & 0xff) << 8);
+  }
+
+  private static int leggiInt(byte[] b, int p)
+  {
+    return leggiShort(b, p) | (leggiShort(b, p + 2) << 16);
+  }
+
+  /**
+   * Stream compresso con possibilità di restituire dati già letti.
+   */
+  private static final class Sorgente
+  {
+    private final InputStream in;
+    private final ArrayDeque<ByteBuffer> davanti = new ArrayDeque<>();
+    // bytes consumati dall'inizio
+    private long posizione = 0;
+
+    private Sorgente(InputStream in)
+    {
+      this.in = in;
+    }
+
+    private int read(byte[] b, int off, int len)
+       throws IOException
+    {
+      ByteBuffer bb = davanti.peekFirst();
+      int n;
+      if(bb != null)
+      {
+        n = Math.min(len, bb.remaining());
+        bb.get(b, off, n);
+        if(!bb.hasRemaining())
+          davanti.removeFirst();
+      }
+      else if((n = in.read(b, off, len)) < 0)
+        return -1;
+
+      posizione += n;
+      return n;
+    }
+
+    private void readFully(byte[] b, int off, int len)
+       throws IOException
+    {
+      while(len > 0)
+      {
+        int n = read(b, off, len);
+        if(n < 0)
+          throw new EOFException("Unexpected end of ZLIB input stream");
+        off += n;
+        len -= n;
+      }
+    }
+
+    private void unread(byte[] b, int off, int len)
+    {
+      if(len > 0)
+      {
+        davanti.addFirst(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+        posizione -= len;
+      }
+    }
+  }
+
+  /**
+   * Decodifica in sequenza di un singolo membro.
+   */
+  private static final class Sequenziale
+  {
+    private final Sorgente sorgente;
+    private final Inflater inf = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] inBuf = new byte[65536];
+    private int inLen = 0;
+    private long totale = 0;
+    private boolean finito = false;
+
+    private Sequenziale(Sorgente sorgente)
+    {
+      this.sorgente = sorgente;
+    }
+
+    /**
+     * Legge l'intestazione del membro.
+     * @return falso se la sorgente è terminata
+     */
+    private boolean leggiHeader()
+       throws IOException
+    {
+      int n = 0;
+      while(true)
+      {
+        int hl = lunghezzaHeader(inBuf, 0, n);
+        if(hl >= 0)
+        {
+          sorgente.unread(inBuf, hl, n - hl);
+          return true;
+        }
+        if(n == inBuf.length)
+          throw new ZipException("Intestazione gzip troppo lunga.");
+
+        int r = sorgente.read(inBuf, n, inBuf.length - n);
+        if(r < 0)
+        {
+          if(n == 0)
+            return false;
+          throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+        n += r;
+      }
+    }
+
+    private int read(byte[] b, int off, int len)
+       throws IOException
+    {
+      if(finito)
+        return -1;
+
+      try
+      {
+        int n;
+        while((n = inf.inflate(b, off, len)) == 0)
+        {
+          if(inf.finished())
+          {
+            fineMembro();
+            return -1;
+          }
+          if(inf.needsDictionary())
+            throw new ZipException("Dizionario non previsto.");
+
+          inLen = sorgente.read(inBuf, 0, inBuf.length);
+          if(inLen < 0)
+            throw new EOFException("Unexpected end of ZLIB input stream");
+          inf.setInput(inBuf, 0, inLen);
+        }
+
+        crc.update(b, off, n);
+        totale += n;
+        return n;
+      }
+      catch(DataFormatException ex)
+      {
+        throw new ZipException(ex.getMessage());
+      }
+    }
+
+    private void fineMembro()
+       throws IOException
+    {
+      finito = true;
+      int rem = inf.getRemaining();
+      sorgente.unread(inBuf, inLen - rem, rem);
+
+      byte[] coda = new byte[8];
+      sorgente.readFully(coda, 0, 8);
+      if(leggiInt(coda, 0) != (int) crc.getValue())
+        throw new ZipException("Corrupt GZIP trailer");
+      if(leggiInt(coda, 4) != (int) totale)
+        throw new ZipException("Corrupt GZIP trailer");
+    }
+  }
+}
@@ -0,0 +1,390 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Come DtGZIPOutputStream ma con la compressione suddivisa su più thread
+ * (sullo stile di pigz).
+ * I dati sono divisi in blocchi compressi in parallelo; ogni blocco usa
+ * come dizionario gli ultimi 32KB del blocco precedente, per cui il rapporto
+ * di compressione è praticamente quello della compressione sequenziale.
+ * I blocchi sono chiusi con un flush sincrono e concatenati nell'ordine:
+ * il risultato è un normale file gzip a membro singolo, leggibile
+ * da GZIPInputStream o da qualsiasi altro strumento.
+ * <p>
+ * Il CRC viene calcolato dal thread chiamante; il numero di blocchi in
+ * compressione è limitato, per cui la memoria usata non dipende dalla
+ * dimensione dei dati. detach() termina il file senza chiudere
+ * lo stream sottostante.
+ *
+ * @author Nicola De Nisco
+ */
+public class ParallelGZIPOutputStream extends FilterOutputStream
+{
+  /** Dimensione di default dei blocchi */
+  public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+  /** Dimensione del dizionario (finestra di deflate) */
+  public static final int DICT_SIZE = 32 * 1024;
+
+  private static final byte[] HEADER =
+  {
+    0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+  };
+
+  private final int level, blockSize, maxInCoda;
+  private final ExecutorService executor;
+  private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+  private final ArrayDeque<Future<Blocco>> inCoda = new ArrayDeque<>();
+  private final CRC32 crc = new CRC32();
+  private final AtomicLong nanosCompressione = new AtomicLong();
+  private byte[] blocco, precedente = null;
+  private int pos = 0, lenPrecedente = 0;
+  private long totaleIn = 0, totaleOut = 0, inizio = 0, fine = 0;
+  private boolean finito = false, chiuso = false;
+
+  /** Risultato della compressione di un blocco. */
+  private static class Blocco
+  {
+    private final byte[] dati;
+    private final int len;
+
+    private Blocco(byte[] dati, int len)
+    {
+      this.dati = dati;
+      this.len = len;
+    }
+  }
+
+  /**
+   * Crea con compressione di default e il pool comune dei thread.
+   * @param out stream di destinazione
+   * @throws IOException
+   */
+  public ParallelGZIPOutputStream(OutputStream out)
+     throws IOException
+  {
+    this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, null);
+  }
+
+  /**
+   * Crea con i parametri indicati.
+   * @param out stream di destinazione
+   * @param level livello di compressione (Deflater.BEST_SPEED ... Deflater.BEST_COMPRESSION)
+   * @param blockSize dimensione dei blocchi compressi in parallelo
+   * @param executor pool dei thread di compressione (null per ForkJoinPool.commonPool())
+   * @throws IOException
+   */
+  public ParallelGZIPOutputStream(OutputStream out, int level, int blockSize, ExecutorService executor)
+     throws IOException
+  {
+    super(out);
+    if(blockSize < DICT_SIZE)
+      throw new IllegalArgumentException("Dimensione blocco troppo piccola: " + blockSize);
+
+    this.level = level;
+    this.blockSize = blockSize;
+    this.executor = executor == null ? ForkJoinPool.commonPool() : executor;
+    int thread = executor == null ? ForkJoinPool.getCommonPoolParallelism() : Runtime.getRuntime().availableProcessors();
+    this.maxInCoda = Math.max(2, 2 * thread);
+    this.blocco = new byte[blockSize];
+    out.write(HEADER);
+    totaleOut = HEADER.length;
+  }
+
+  @Override
+  public void write(int b)
+     throws IOException
+  {
+    if(finito)
+      throw new IOException("Stream già terminato.");
+
+    if(inizio == 0)
+      inizio = System.nanoTime();
+    if(pos == blockSize)
+      invia(false);
+
+    blocco[pos++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len)
+     throws IOException
+  {
+    if(finito)
+      throw new IOException("Stream già terminato.");
+
+    if(inizio == 0)
+      inizio = System.nanoTime();
+
+    while(len > 0)
+    {
+      if(pos == blockSize)
+        invia(false);
+
+      int n = Math.min(len, blockSize - pos);
+      System.arraycopy(b, off, blocco, pos, n);
+      pos += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Scrive i blocchi già compressi e svuota lo stream sottostante.
+   * Il blocco in preparazione non viene forzato.
+   * @throws IOException
+   */
+  @Override
+  public void flush()
+     throws IOException
+  {
+    while(!inCoda.isEmpty() && inCoda.peekFirst().isDone())
+      scriviPrimo();
+
+    out.flush();
+  }
+
+  /**
+   * Completa la compressione scrivendo tutti i blocchi e la coda gzip
+   * senza chiudere lo stream sottostante.
+   * @throws IOException
+   */
+  public void finish()
+     throws IOException
+  {
+    if(finito)
+      return;
+
+    invia(true);
+    while(!inCoda.isEmpty())
+      scriviPrimo();
+
+    int v = (int) crc.getValue();
+    int n = (int) totaleIn;
+    out.write(new byte[]
+    {
+      (byte) v, (byte) (v >> 8), (byte) (v >> 16), (byte) (v >> 24),
+      (byte) n, (byte) (n >> 8), (byte) (n >> 16), (byte) (n >> 24)
+    });
+    totaleOut += 8;
+    finito = true;
+    fine = System.nanoTime();
+    blocco = precedente = null;
+    rilasciaDeflaters();
+  }
+
+  /**
+   * Flush dello stream sottostante e distacco dallo stream.
+   * Questo consente di continuare ad utilizzare lo stream
+   * dopo che questa classe ha finito il suo utilizzo.
+   *
+   * @throws IOException
+   */
+  public void detach()
+     throws IOException
+  {
+    finish();
+    out.flush();
+    out = null;
+  }
+
+  @Override
+  public void close()
+     throws IOException
+  {
+    if(chiuso)
+      return;
+
+    chiuso = true;
+    try
+    {
+      finish();
+    }
+    finally
+    {
+      rilasciaDeflaters();
+      if(out != null)
+        out.close();
+    }
+  }
+
+  /**
+   * Bytes non compressi ricevuti.
+   * @return numero di bytes
+   */
+  public long getTotalIn()
+  {
+    return totaleIn + pos;
+  }
+
+  /**
+   * Bytes compressi scritti sullo stream sottostante.
+   * @return numero di bytes (intestazione e coda gzip comprese)
+   */
+  public long getTotalOut()
+  {
+    return totaleOut;
+  }
+
+  /**
+   * Tempo speso nella compressione, sommato su tutti i blocchi.
+   * È tempo trascorso (System.nanoTime()) e non tempo di CPU:
+   * comprende le eventuali attese dei thread di compressione
+   * per lo scheduling, per cui con più blocchi in parallelo
+   * può superare il tempo totale di esecuzione.
+   * @return nanosecondi
+   */
+  public long getCompressionNanos()
+  {
+    return nanosCompressione.get();
+  }
+
+  /**
+   * Velocità di compressione.
+   * Calcolata sul tempo trascorso dalla prima scrittura
+   * fino a finish() (o fino ad ora se non ancora terminato).
+   * @return bytes non compressi al secondo
+   */
+  public double getThroughput()
+  {
+    if(inizio == 0)
+      return 0;
+
+    long tempo = (finito ? fine : System.nanoTime()) - inizio;
+    return tempo <= 0 ? 0 : getTotalIn() * 1e9 / tempo;
+  }
+
+  /**
+   * Accoda il blocco corrente per la compressione.
+   */
+  private void invia(boolean ultimo)
+     throws IOException
+  {
+    // limita la memoria: attende il blocco più vecchio
+    while(inCoda.size() >= maxInCoda)
+      scriviPrimo();
+
+    final byte[] dati = blocco, dizionario = precedente;
+    final int len = pos, lenDiz = Math.min(DICT_SIZE, lenPrecedente), offDiz = lenPrecedente - lenDiz;
+    crc.update(dati, 0, len);
+    totaleIn += len;
+
+    inCoda.addLast(executor.submit(() -> comprimi(dati, len, dizionario, offDiz, lenDiz, ultimo)));
+
+    precedente = dati;
+    lenPrecedente = len;
+    blocco = ultimo ? null : new byte[blockSize];
+    pos = 0;
+  }
+
+  private Blocco comprimi(byte[] dati, int len, byte[] dizionario, int offDiz, int lenDiz, boolean ultimo)
+  {
+    long t0 = System.nanoTime();
+    Deflater d = deflaters.poll();
+    if(d == null)
+      d = new Deflater(level, true);
+
+    try
+    {
+      if(lenDiz > 0)
+        d.setDictionary(dizionario, offDiz, lenDiz);
+      d.setInput(dati, 0, len);
+
+      byte[] buf = new byte[len + (len >> 3) + 64];
+      int n = 0;
+      if(ultimo)
+      {
+        d.finish();
+        while(!d.finished())
+        {
+          if(n == buf.length)
+            buf = Arrays.copyOf(buf, buf.length * 2);
+          n += d.deflate(buf, n, buf.length - n);
+        }
+      }
+      else
+      {
+        // il flush sincrono chiude il blocco al limite di byte senza terminare lo stream
+        while(true)
+        {
+          if(n == buf.length)
+            buf = Arrays.copyOf(buf, buf.length * 2);
+          n += d.deflate(buf, n, buf.length - n, Deflater.SYNC_FLUSH);
+          if(n < buf.length)
+            break;
+        }
+      }
+
+      return new Blocco(buf, n);
+    }
+    finally
+    {
+      d.reset();
+      deflaters.add(d);
+      nanosCompressione.addAndGet(System.nanoTime() - t0);
+    }
+  }
+
+  private void scriviPrimo()
+     throws IOException
+  {
+    Blocco b;
+    try
+    {
+      b = inCoda.removeFirst().get();
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Compressione interrotta.", ex);
+    }
+    catch(ExecutionException ex)
+    {
+      throw new IOException("Errore di compressione.", ex.getCause());
+    }
+
+    out.write(b.dati, 0, b.len);
+    totaleOut += b.len;
+  }
+
+  private void rilasciaDeflaters()
+  {
+    // i blocchi ancora in compressione restituiscono il Deflater dopo:
+    // viene rilasciato solo quando nessun blocco è in coda
+    if(!inCoda.isEmpty())
+      return;
+
+    Deflater d;
+    while((d = deflaters.poll()) != null)
+      d.end();
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Valutazione a colonne di un'espressione.
+ * L'espressione viene applicata a tutte le righe di un insieme
+ * di colonne double[] (una per variabile) e il risultato scritto
+ * in un array di uscita. La valutazione procede per blocchi di
+ * righe: ogni operatore viene applicato all'intero blocco con
+ * un ciclo stretto, senza passare per externValoreVariabile
+ * ad ogni riga.
+ * Le variabili per cui non viene fornita una colonna vengono
+ * risolte una sola volta attraverso il calcolatore e usate
+ * come costanti per tutte le righe.
+ *
+ * <pre><code>
+ * BatchEvaluator be = new BatchEvaluator(new Calcolatore(), "prezzo*(1+iva/100)");
+ * Map&lt;String, double[]&gt; colonne = new HashMap&lt;&gt;();
+ * colonne.put("prezzo", prezzi);
+ * colonne.put("iva", aliquote);
+ * double[] out = new double[prezzi.length];
+ * be.evaluateParallel(colonne, out);
+ * </code></pre>
+ *
+ * @author Nicola De Nisco
+ */
+public class BatchEvaluator
+{
+  private final Calcolatore calc;
+  private final CompiledExpression ce;
+  private int blockSize = 1024;
+  private int parallelThreshold = 65536;
+
+  public BatchEvaluator(Calcolatore calc, CompiledExpression ce)
+  {
+    this.calc = calc;
+    this.ce = ce;
+  }
+
+  public BatchEvaluator(Calcolatore calc, String espressione)
+     throws Exception
+  {
+    this(calc, calc.compile(espressione));
+  }
+
+  /**
+   * Frame per la valutazione a colonne.
+   * Contiene le colonne, i valori delle variabili scalari
+   * e i buffer temporanei per i risultati parziali.
+   */
+  static class BatchFrame extends EvaluationFrame
+  {
+    private final Map<String, double[]> colonne;
+    private final Map<String, Double> scalari;
+    private final int blockSize;
+    private final ArrayList<double[]> buffers = new ArrayList<>();
+    private int depth = 0;
+
+    BatchFrame(Calcolatore calc, Map<String, double[]> colonne, Map<String, Double> scalari, int blockSize)
+    {
+      super(calc);
+      this.colonne = colonne;
+      this.scalari = scalari;
+      this.blockSize = blockSize;
+    }
+
+    double[] getColonna(String nome)
+    {
+      return colonne.get(nome);
+    }
+
+    @Override
+    protected double valoreVariabile(String nomeVariabile)
+       throws Exception
+    {
+      Double v = scalari.get(nomeVariabile);
+      if(v == null)
+        calc.reportError(Calcolatore.CalcErrori_NoVar);
+
+      return v;
+    }
+
+    // buffer delle sottoespressioni comuni: stessa logica degli slot di EvaluationFrame
+    private final ArrayList<double[]> tempBlocks = new ArrayList<>();
+    private int tempBlockBase = 0, tempBlockTop = 0;
+
+    int openTempBlocks(int num)
+    {
+      int oldBase = tempBlockBase;
+      tempBlockBase = tempBlockTop;
+      tempBlockTop += num;
+      while(tempBlocks.size() < tempBlockTop)
+        tempBlocks.add(new double[blockSize]);
+
+      return oldBase;
+    }
+
+    void closeTempBlocks(int oldBase)
+    {
+      tempBlockTop = tempBlockBase;
+      tempBlockBase = oldBase;
+    }
+
+    double[] getTempBlock(int indice)
+    {
+      return tempBlocks.get(tempBlockBase + indice);
+    }
+
+    double[] acquire()
+    {
+      if(depth == buffers.size())
+        buffers.add(new double[blockSize]);
+
+      return buffers.get(depth++);
+    }
+
+    void release()
+    {
+      depth--;
+    }
+  }
+
+  /**
+   * Valuta l'espressione su tutte le righe.
+   * @param colonne colonne di valori per variabile
+   * @param out array che riceve i risultati
+   * @throws Exception
+   */
+  public void evaluate(Map<String, double[]> colonne, double[] out)
+     throws Exception
+  {
+    evaluate(colonne, out, 0, out.length);
+  }
+
+  /**
+   * Valuta l'espressione sulle righe da from (incluso) a to (escluso).
+   * @param colonne colonne di valori per variabile
+   * @param out array che riceve i risultati
+   * @param from prima riga
+   * @param to ultima riga (esclusa)
+   * @throws Exception
+   */
+  public void evaluate(Map<String, double[]> colonne, double[] out, int from, int to)
+     throws Exception
+  {
+    checkColonne(colonne, out, from, to);
+    BatchFrame frame = new BatchFrame(calc, colonne, resolveScalari(colonne), blockSize);
+    evaluate(frame, out, from, to);
+  }
+
+  /**
+   * Valuta l'espressione su tutte le righe dividendo
+   * il lavoro sui thread del pool comune fork-join.
+   * @param colonne colonne di valori per variabile
+   * @param out array che riceve i risultati
+   * @throws Exception
+   */
+  public void evaluateParallel(Map<String, double[]> colonne, double[] out)
+     throws Exception
+  {
+    evaluateParallel(colonne, out, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Valuta l'espressione su tutte le righe dividendo
+   * il lavoro sui thread del pool indicato.
+   * Le funzioni esterne del calcolatore devono poter essere
+   * invocate contemporaneamente da più thread.
+   * @param colonne colonne di valori per variabile
+   * @param out array che riceve i risultati
+   * @param pool pool fork-join da utilizzare
+   * @throws Exception
+   */
+  public void evaluateParallel(Map<String, double[]> colonne, double[] out, ForkJoinPool pool)
+     throws Exception
+  {
+    checkColonne(colonne, out, 0, out.length);
+    Map<String, Double> scalari = resolveScalari(colonne);
+
+    try
+    {
+      pool.invoke(new BatchTask(colonne, scalari, out, 0, out.length));
+    }
+    catch(BatchException ex)
+    {
+      Throwable t = ex;
+      while(t instanceof BatchException)
+        t = t.getCause();
+
+      throw (Exception) t;
+    }
+  }
+
+  private void evaluate(BatchFrame frame, double[] out, int from, int to)
+     throws Exception
+  {
+    ExpressionNode root = ce.getRoot();
+    double[] buf = frame.acquire();
+
+    for(int start = from; start < to; start += blockSize)
+    {
+      int len = Math.min(blockSize, to - start);
+      root.evalBlock(frame, start, len, buf);
+      System.arraycopy(buf, 0, out, start, len);
+    }
+
+    frame.release();
+  }
+
+  private void checkColonne(Map<String, double[]> colonne, double[] out, int from, int to)
+     throws Exception
+  {
+    if(from < 0 || to > out.length || from > to)
+      throw new ParserException("Intervallo di righe non valido: " + from + "-" + to);
+
+    for(Map.Entry<String, double[]> e : colonne.entrySet())
+    {
+      if(e.getValue().length < to)
+        throw new ParserException("La colonna " + e.getKey() + " ha meno di " + to + " righe.");
+    }
+  }
+
+  /**
+   * Risolve una sola volta le variabili per cui non è fornita una colonna.
+   */
+  private Map<String, Double> resolveScalari(Map<String, double[]> colonne)
+     throws Exception
+  {
+    Map<String, Double> scalari = new HashMap<>();
+    EvaluationFrame frame = null;
+
+    for(String nome : ce.getVariables())
+    {
+      if(colonne.containsKey(nome))
+        continue;
+
+      if(frame == null)
+        frame = calc.createFrame();
+
+      scalari.put(nome, frame.valoreVariabile(nome));
+    }
+
+    return scalari;
+  }
+
+  /**
+   * Eccezione per trasportare gli errori di valutazione
+   * fuori dai task fork-join.
+   */
+  private static class BatchException extends RuntimeException
+  {
+    private static final long serialVersionUID = 1L;
+
+    public BatchException(Exception cause)
+    {
+      super(cause);
+    }
+  }
+
+  private class BatchTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+    private final Map<String, double[]> colonne;
+    private final Map<String, Double> scalari;
+    private final double[] out;
+    private final int from, to;
+
+    public BatchTask(Map<String, double[]> colonne, Map<String, Double> scalari, double[] out, int from, int to)
+    {
+      this.colonne = colonne;
+      this.scalari = scalari;
+      this.out = out;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if(to - from <= parallelThreshold)
+      {
+        try
+        {
+          evaluate(new BatchFrame(calc, colonne, scalari, blockSize), out, from, to);
+        }
+        catch(Exception ex)
+        {
+          throw new BatchException(ex);
+        }
+        return;
+      }
+
+      // divide a metà allineando al blocco
+      int mid = from + (((to - from) / 2) / blockSize) * blockSize;
+      if(mid == from)
+        mid = from + (to - from) / 2;
+
+      invokeAll(new BatchTask(colonne, scalari, out, from, mid),
+         new BatchTask(colonne, scalari, out, mid, to));
+    }
+  }
+
+  public CompiledExpression getCompiledExpression()
+  {
+    return ce;
+  }
+
+  public int getBlockSize()
+  {
+    return blockSize;
+  }
+
+  /**
+   * Imposta il numero di righe valutate per ogni blocco.
+   * @param blockSize numero di righe (default 1024)
+   */
+  public void setBlockSize(int blockSize)
+  {
+    if(blockSize < 1)
+      throw new IllegalArgumentException("blockSize deve essere positivo.");
+
+    this.blockSize = blockSize;
+  }
+
+  public int getParallelThreshold()
+  {
+    return parallelThreshold;
+  }
+
+  /**
+   * Imposta il numero di righe sotto il quale la
+   * valutazione parallela non divide più il lavoro.
+   * @param parallelThreshold numero di righe (default 65536)
+   */
+  public void setParallelThreshold(int parallelThreshold)
+  {
+    this.parallelThreshold = Math.max(parallelThreshold, 1);
+  }
+}
@@ -22,16 +22,35 @@ import java.util.*;
 /**
  * Contesto per l'elaborazione di espressioni
  * complesse attraverso la classe ContextParser.
+ * Il contenuto è in una Hashtable (sincronizzata): lo stesso contesto
+ * può essere letto e aggiornato da più thread.
+ * Il contesto può inoltre contenere delle formule (vedi
+ * ContextParser.define()): per queste viene mantenuto il grafo
+ * delle dipendenze fra variabili, in modo che alla modifica di
+ * un valore vengano ricalcolate solo le formule che ne dipendono,
+ * in ordine topologico, come in un foglio di calcolo.
+ * Le dipendenze circolari vengono rifiutate al momento
+ * della definizione della formula.
  *
  * @author Nicola De Nisco
  */
 public class CalcContext
 {
-  protected Hashtable htContext = new Hashtable();
+  protected Hashtable<String, Object> htContext = new Hashtable<>();
+  /** formule definite nel contesto */
+  protected final Map<String, CompiledExpression> formule = new HashMap<>();
+  /** per ogni variabile le formule che la utilizzano direttamente */
+  protected final Map<String, Set<String>> dipendenti = new HashMap<>();
 
   public void clear()
   {
     htContext.clear();
+
+    synchronized(this)
+    {
+      formule.clear();
+      dipendenti.clear();
+    }
   }
 
   public void put(String key, double val)
@@ -69,8 +88,178 @@ public class CalcContext
     return htContext.get(key);
   }
 
-  public Enumeration keys()
+  public Enumeration<String> keys()
   {
     return htContext.keys();
   }
+
+  /**
+   * Ritorna la formula associata ad una variabile.
+   * @param key nome della variabile
+   * @return formula compilata oppure null
+   */
+  public synchronized CompiledExpression getFormula(String key)
+  {
+    return formule.get(key);
+  }
+
+  /**
+   * Ritorna i nomi delle variabili definite da una formula.
+   * @return insieme (copia) dei nomi
+   */
+  public synchronized Set<String> getFormuleNames()
+  {
+    return new HashSet<>(formule.keySet());
+  }
+
+  /**
+   * Definisce o sostituisce un gruppo di formule.
+   * Il grafo delle dipendenze viene verificato prima di applicare
+   * le modifiche: in caso di dipendenza circolare il contesto
+   * rimane invariato.
+   * @param nuove formule da definire (nome variabile, formula)
+   * @throws ParserException in caso di dipendenza circolare
+   */
+  public synchronized void setFormule(Map<String, CompiledExpression> nuove)
+     throws ParserException
+  {
+    Map<String, CompiledExpression> tmp = new HashMap<>(formule);
+    tmp.putAll(nuove);
+
+    Map<String, Integer> stato = new HashMap<>();
+    ArrayDeque<String> percorso = new ArrayDeque<>();
+    for(String nome : nuove.keySet())
+      checkCycles(tmp, nome, stato, percorso);
+
+    for(Map.Entry<String, CompiledExpression> e : nuove.entrySet())
+    {
+      removeDipendenze(e.getKey());
+      formule.put(e.getKey(), e.getValue());
+      for(String v : e.getValue().getVariables())
+        dipendenti.computeIfAbsent(v, (k) -> new HashSet<>()).add(e.getKey());
+    }
+  }
+
+  /**
+   * Rimuove la formula associata ad una variabile.
+   * Il valore eventualmente già calcolato resta nel contesto.
+   * @param key nome della variabile
+   */
+  public synchronized void removeFormula(String key)
+  {
+    removeDipendenze(key);
+    formule.remove(key);
+  }
+
+  private void removeDipendenze(String key)
+  {
+    CompiledExpression old = formule.get(key);
+    if(old == null)
+      return;
+
+    for(String v : old.getVariables())
+    {
+      Set<String> s = dipendenti.get(v);
+      if(s != null && s.remove(key) && s.isEmpty())
+        dipendenti.remove(v);
+    }
+  }
+
+  /**
+   * Visita in profondità delle dipendenze per la ricerca di cicli.
+   * stato: assente = non visitato, 1 = in visita, 2 = completato.
+   */
+  private void checkCycles(Map<String, CompiledExpression> grafo, String nome,
+     Map<String, Integer> stato, ArrayDeque<String> percorso)
+     throws ParserException
+  {
+    Integer st = stato.get(nome);
+    if(st != null)
+    {
+      if(st == 1)
+      {
+        StringBuilder sb = new StringBuilder();
+        Iterator<String> itr = percorso.descendingIterator();
+        while(itr.hasNext())
+        {
+          String s = itr.next();
+          if(sb.length() > 0 || s.equals(nome))
+            sb.append(s).append(" -> ");
+        }
+        sb.append(nome);
+        throw new ParserException("Dipendenza circolare fra le variabili: " + sb);
+      }
+      return;
+    }
+
+    CompiledExpression ce = grafo.get(nome);
+    if(ce == null)
+      return;
+
+    stato.put(nome, 1);
+    percorso.push(nome);
+    for(String v : ce.getVariables())
+      checkCycles(grafo, v, stato, percorso);
+    percorso.pop();
+    stato.put(nome, 2);
+  }
+
+  /**
+   * Ritorna le formule da ricalcolare in seguito alla modifica
+   * delle variabili indicate, in ordine topologico: ogni formula
+   * compare dopo tutte le formule da cui dipende.
+   * Le variabili modificate che sono a loro volta formule
+   * sono comprese nel risultato.
+   * @param modificate nomi delle variabili modificate
+   * @return lista ordinata dei nomi delle formule
+   */
+  public synchronized List<String> getRecalcOrder(Collection<String> modificate)
+  {
+    // raccoglie le formule che dipendono transitivamente dalle modifiche
+    Set<String> interessate = new LinkedHashSet<>();
+    ArrayDeque<String> daVisitare = new ArrayDeque<>(modificate);
+    for(String nome : modificate)
+      if(formule.containsKey(nome))
+        interessate.add(nome);
+
+    while(!daVisitare.isEmpty())
+    {
+      Set<String> dip = dipendenti.get(daVisitare.pop());
+      if(dip == null)
+        continue;
+
+      for(String d : dip)
+        if(interessate.add(d))
+          daVisitare.push(d);
+    }
+
+    // ordinamento topologico (post-ordine sulle dipendenze)
+    List<String> ordine = new ArrayList<>(interessate.size());
+    Set<String> visitate = new HashSet<>();
+    for(String nome : interessate)
+      topoSort(nome, interessate, visitate, ordine);
+
+    return ordine;
+  }
+
+  /**
+   * Ritorna tutte le formule del contesto in ordine topologico.
+   * @return lista ordinata dei nomi delle formule
+   */
+  public synchronized List<String> getRecalcOrder()
+  {
+    return getRecalcOrder(formule.keySet());
+  }
+
+  private void topoSort(String nome, Set<String> interessate, Set<String> visitate, List<String> ordine)
+  {
+    if(!visitate.add(nome))
+      return;
+
+    for(String v : formule.get(nome).getVariables())
+      if(interessate.contains(v))
+        topoSort(v, interessate, visitate, ordine);
+
+    ordine.add(nome);
+  }
 }
@@ -20,7 +20,10 @@ package org.commonlib5.parser;
 import java.io.PushbackReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.apache.commons.lang3.mutable.MutableInt;
 
 /**
@@ -31,6 +34,9 @@ import org.apache.commons.lang3.mutable.MutableInt;
  * sempre un argomento fra parentesi), ma in questa implementazione
  * non sono gestite. Vedi Parser.java per una estensione
  * che gestisce variabili e cache.
+ * L'espressione viene prima compilata in un albero (vedi compile())
+ * e poi valutata: per valutare più volte la stessa espressione
+ * conviene conservare il CompiledExpression ottenuto da compile().
  *
  * <pre><code>
  * OPERATORI
@@ -76,6 +82,12 @@ import org.apache.commons.lang3.mutable.MutableInt;
  * truncate2(n) arrotonda troncando i decimali a 2 decimale dopo la virgola
  * truncate3(n) arrotonda troncando i decimali a 3 decimale dopo la virgola
  * round(n)     arrotonda all'intero più vicino
+ * pow(b, e)    ritorna b^e
+ * atan2(y, x)  funzione arco tangente di y/x
+ * min(a, ...)  ritorna il minimo degli argomenti
+ * max(a, ...)  ritorna il massimo degli argomenti
+ *
+ * Altre funzioni possono essere aggiunte con getFunctionRegistry().
  * </code></pre>
  *
  * @author Nicola De Nisco
@@ -90,6 +102,7 @@ public class Calcolatore
   public static final int CalcErrori_OpNotSup = 5;
   public static final int CalcErrori_NoVar = 6;
   public static final int CalcErrori_CacheRankNotExist = 7;
+  public static final int CalcErrori_Argomenti = 8;
   public static final String chOpers = ":?^%/*-+~!|=<>";
   public static final String[] operazioni =
   {
@@ -101,12 +114,16 @@ public class Calcolatore
 
   /**
    * Classe di supporto per implementare lo
-   * stack operazioni.
+   * stack operazioni in fase di compilazione.
    */
   public static class sim
   {
+    /** usato solo da calcStack() e pushStack() deprecati: la compilazione accumula i nodi dell'albero */
+    @Deprecated
     public double val;
     public String op;
+    ExpressionNode nodo;
+    boolean condizione;
   }
 
   private enum Stati
@@ -120,6 +137,40 @@ public class Calcolatore
     waitoperparen
   }
 
+  // applica ExpressionOptimizer alle espressioni compilate
+  private volatile boolean optimize = false;
+  // funzioni disponibili: risolte in fase di compilazione
+  protected final FunctionRegistry funzioni = new FunctionRegistry(FunctionRegistry.BUILTIN);
+  // cache delle espressioni compilate (null per nessuna cache)
+  private volatile ExpressionCache expressionCache = null;
+
+  // testInternalFunction() ridefinito nelle classi derivate: nessuno,
+  // solo quello con nome normalizzato, quello con StringBuilder
+  private static final int TEST_NESSUNO = 0, TEST_STRING = 1, TEST_BUILDER = 2;
+  private static final ClassValue<Integer> TEST_FUNCTION_OVERRIDE = new ClassValue<Integer>()
+  {
+    @Override
+    protected Integer computeValue(Class<?> type)
+    {
+      int rv = TEST_NESSUNO;
+      for(Class<?> c = type; c != Calcolatore.class && c != null; c = c.getSuperclass())
+      {
+        for(Method m : c.getDeclaredMethods())
+        {
+          Class<?>[] par = m.getParameterTypes();
+          if(!m.getName().equals("testInternalFunction") || par.length != 2 || par[1] != double.class)
+            continue;
+
+          if(par[0] == StringBuilder.class)
+            return TEST_BUILDER;
+          if(par[0] == String.class)
+            rv = TEST_STRING;
+        }
+      }
+      return rv;
+    }
+  };
+
   /**
    * Funzione esterna di parsing.
    * L'espressione viene valutata e il valore restituito.
@@ -134,7 +185,7 @@ public class Calcolatore
     if(toParse == null)
       return 0;
 
-    return parse(new StringReader(toParse));
+    return compile(toParse).evaluate(this);
   }
 
   /**
@@ -147,34 +198,152 @@ public class Calcolatore
    */
   public double parse(Reader r)
      throws Exception
+  {
+    return compile(r, null).evaluate(this);
+  }
+
+  /**
+   * Compila l'espressione senza valutarla.
+   * L'espressione compilata può essere valutata ripetutamente,
+   * anche con valori diversi delle variabili, senza ripetere il parsing.
+   * @param toParse stringa con l'espressione da compilare
+   * @return espressione compilata
+   * @throws Exception in caso di errori di sintassi
+   */
+  public CompiledExpression compile(String toParse)
+     throws Exception
+  {
+    ExpressionCache ec = expressionCache;
+    return ec == null ? compileNoCache(toParse) : ec.get(this, toParse);
+  }
+
+  /**
+   * Compila l'espressione senza utilizzare la cache.
+   * @param toParse stringa con l'espressione da compilare
+   * @return espressione compilata
+   * @throws Exception in caso di errori di sintassi
+   */
+  CompiledExpression compileNoCache(String toParse)
+     throws Exception
+  {
+    return compile(new StringReader(toParse), toParse);
+  }
+
+  /**
+   * Compila l'espressione letta dal reader.
+   * @param r reader da cui leggere l'espressione
+   * @param source testo dell'espressione (solo per riferimento; può essere null)
+   * @return espressione compilata
+   * @throws Exception in caso di errori di sintassi
+   */
+  protected CompiledExpression compile(Reader r, String source)
+     throws Exception
   {
     MutableInt pCount = new MutableInt(0);
-    double val = pa(new PushbackReader(r), new StringBuilder(), pCount);
+    ExpressionNode root = pc(new PushbackReader(r), new StringBuilder(), pCount);
 
     if(pCount.intValue() != 0)
       reportError(CalcErrori_Parentesi);
 
-    return val;
+    CompiledExpression ce = new CompiledExpression(source, root);
+    return optimize ? new ExpressionOptimizer(this).optimize(ce) : ce;
+  }
+
+  /**
+   * Ritorna il registro delle funzioni di questo calcolatore.
+   * Le funzioni registrate sono disponibili per le espressioni
+   * compilate successivamente.
+   * @return registro delle funzioni
+   */
+  public FunctionRegistry getFunctionRegistry()
+  {
+    return funzioni;
+  }
+
+  public ExpressionCache getExpressionCache()
+  {
+    return expressionCache;
+  }
+
+  /**
+   * Imposta la cache delle espressioni compilate utilizzata da compile().
+   * Per default Calcolatore non usa cache mentre Parser e ContextParser
+   * usano la cache condivisa ExpressionCache.getShared().
+   * @param expressionCache cache da utilizzare (null per nessuna cache)
+   */
+  public void setExpressionCache(ExpressionCache expressionCache)
+  {
+    this.expressionCache = expressionCache;
+  }
+
+  public boolean isOptimize()
+  {
+    return optimize;
+  }
+
+  /**
+   * Attiva l'ottimizzazione delle espressioni compilate
+   * (vedi ExpressionOptimizer). Per default è disattivata.
+   * @param optimize vero per ottimizzare
+   */
+  public void setOptimize(boolean optimize)
+  {
+    this.optimize = optimize;
   }
 
   /**
    * Funzione interna di parsing.
-   * Puo' essere chiamata ricorsivamente per risolvere
-   * i risultati parziali contenuti all'interno delle parentesi.
+   * Compila l'espressione e la valuta immediatamente.
    * @param r reader per leggere l'espressione
    * @param parsed un accumulatore per riportare il punto di un errore di sintassi
    * @param pCount contatore delle parentesi
    * @return valore dell'espressione
    * @throws Exception
+   * @deprecated usare compile() e CompiledExpression.evaluate()
    */
+  @Deprecated
   protected double pa(PushbackReader r, StringBuilder parsed, MutableInt pCount)
      throws Exception
+  {
+    return pc(r, parsed, pCount).eval(createFrame());
+  }
+
+  /**
+   * Funzione interna di compilazione.
+   * Puo' essere chiamata ricorsivamente per compilare
+   * le espressioni contenute all'interno delle parentesi.
+   * @param r reader per leggere l'espressione
+   * @param parsed un accumulatore per riportare il punto di un errore di sintassi
+   * @param pCount contatore delle parentesi
+   * @return albero dell'espressione
+   * @throws Exception
+   */
+  ExpressionNode pc(PushbackReader r, StringBuilder parsed, MutableInt pCount)
+     throws Exception
+  {
+    return pc(r, parsed, pCount, null);
+  }
+
+  /**
+   * Funzione interna di compilazione.
+   * Se separatori non è null l'espressione è un argomento di funzione:
+   * la virgola termina l'argomento e incrementa separatori.
+   * @param r reader per leggere l'espressione
+   * @param parsed un accumulatore per riportare il punto di un errore di sintassi
+   * @param pCount contatore delle parentesi
+   * @param separatori contatore delle virgole (null se non si tratta di argomenti)
+   * @return albero dell'espressione (null per un argomento vuoto)
+   * @throws Exception
+   */
+  ExpressionNode pc(PushbackReader r, StringBuilder parsed, MutableInt pCount, MutableInt separatori)
+     throws Exception
   {
     StringBuilder bufAlfa = new StringBuilder();
     StringBuilder bufOper = new StringBuilder();
 
     int sign = 1;	// default segno positivo
-    double vPar = 0;
+    ExpressionNode vPar = null;
+    List<ExpressionNode> vArgs = null;
 
     // alloca stack operazioni
     ArrayList<sim> is = new ArrayList<sim>();
@@ -193,6 +362,12 @@ public class Calcolatore
         break;
       }
 
+      if(c == ',' && separatori != null)
+      {
+        separatori.increment();
+        break;
+      }
+
       switch(stato)
       {
         case idle: // inizio parsing espressione
@@ -210,7 +385,7 @@ public class Calcolatore
           {
             // inizio parsing espressione fra parentesi
             pCount.increment();
-            vPar = pa(r, parsed, pCount);
+            vPar = pc(r, parsed, pCount);
             stato = Stati.waitoperparen;
           }
           else if(Character.isDigit(c))
@@ -262,9 +437,9 @@ public class Calcolatore
           }
           else if(c == '(')
           {
-            // parsing argomento funzione
+            // parsing argomenti funzione
             pCount.increment();
-            vPar = pa(r, parsed, pCount);
+            vArgs = pcArgomenti(r, parsed, pCount);
             stato = Stati.waitoperfun;
           }
           else
@@ -333,7 +508,7 @@ public class Calcolatore
             // e salvataggio su stack operazioni
             r.unread(c);
             parsed.deleteCharAt(parsed.length() - 1);
-            pushStack(is, sign, bufAlfa, vPar, bufOper);
+            pushStack(is, sign, bufAlfa, vArgs, bufOper);
 
             sign = 1; // riporta il segno al default
             bufAlfa.delete(0, bufAlfa.length());
@@ -376,7 +551,7 @@ public class Calcolatore
     switch(stato)
     {
       case idle:
-        return 0;
+        return separatori != null ? null : new ExpressionNode.Numero(0);
       case parsealpha: // parsing item alfanumerico (variabile o funzione)
         pushStack(is, sign, bufAlfa, bufOper);
         break;
@@ -389,15 +564,47 @@ public class Calcolatore
         pushStack(is, sign, bufAlfa, bufOper);
         break;
       case waitoperfun: // parsing operazioni dopo funzione
-        pushStack(is, sign, bufAlfa, vPar, bufOper);
+        pushStack(is, sign, bufAlfa, vArgs, bufOper);
         break;
       case waitoperparen: // parsing operazioni dopo espressione fra parentesi
         pushStack(is, sign, vPar, bufOper);
         break;
     }
 
-    // calcolo dello stack operazioni
-    return calcStack(is);
+    // risoluzione dello stack operazioni
+    return risolviStack(is);
+  }
+
+  /**
+   * Compila gli argomenti di una funzione separati da virgole
+   * fino alla parentesi chiusa.
+   * @param r reader per leggere l'espressione
+   * @param parsed un accumulatore per riportare il punto di un errore di sintassi
+   * @param pCount contatore delle parentesi
+   * @return argomenti della funzione (vuoto per f())
+   * @throws Exception
+   */
+  List<ExpressionNode> pcArgomenti(PushbackReader r, StringBuilder parsed, MutableInt pCount)
+     throws Exception
+  {
+    ArrayList<ExpressionNode> rv = new ArrayList<>();
+    MutableInt separatori = new MutableInt(0);
+    int prima;
+
+    do
+    {
+      prima = separatori.intValue();
+      rv.add(pc(r, parsed, pCount, separatori));
+    }
+    while(separatori.intValue() > prima);
+
+    if(rv.size() == 1 && rv.get(0) == null)
+      return Collections.emptyList();
+
+    if(rv.contains(null))
+      reportSyntaxError(parsed);
+
+    return rv;
   }
 
   /**
@@ -445,237 +652,86 @@ public class Calcolatore
   protected double testInternalFunction(StringBuilder valAlfa, double vPar)
      throws Exception
   {
-    double v = 0;
-    String t = valAlfa.toString().trim().toLowerCase();
-
-    switch(t)
-    {
-      case "pi":
-      {
-        v = MathConsts.M_PI;
-        break;
-      }
-
-      case "pi2":
-      {
-        v = MathConsts.M_PI_2;
-        break;
-      }
-
-      case "pi4":
-      {
-        v = MathConsts.M_PI_4;
-        break;
-      }
-
-      case "p1i":
-      {
-        v = MathConsts.M_1_PI;
-        break;
-      }
-
-      case "p2i":
-      {
-        v = MathConsts.M_2_PI;
-        break;
-      }
-
-      case "p1s":
-      {
-        v = MathConsts.M_1_SQRTPI;
-        break;
-      }
-
-      case "p2s":
-      {
-        v = MathConsts.M_2_SQRTPI;
-        break;
-      }
-
-      case "pow10":
-      {
-        v = Math.pow(10.0, vPar);
-        break;
-      }
-
-      case "sin":
-      {
-        v = Math.sin(vPar);
-        break;
-      }
-
-      case "sqr":
-      {
-        v = Math.sqrt(vPar);
-        break;
-      }
-
-      case "sqr2":
-      {
-        v = MathConsts.M_SQRT2;
-        break;
-      }
-
-      case "sqr22":
-      {
-        v = MathConsts.M_SQRT_2;
-        break;
-      }
-
-      case "cos":
-      {
-        v = Math.cos(vPar);
-        break;
-      }
-
-      case "ceil":
-      {
-        v = Math.ceil(vPar);
-        break;
-      }
-
-      case "floor":
-      {
-        v = Math.floor(vPar);
-        break;
-      }
-
-      case "g2r":
-      {
-        v = (vPar * MathConsts.M_PI) / 180.0;
-        break;
-      }
-
-      case "r2g":
-      {
-        v = (vPar * 180.0) / MathConsts.M_PI;
-        break;
-      }
-
-      case "tan":
-      {
-        v = Math.tan(vPar);
-        break;
-      }
-
-      case "asin":
-      {
-        v = Math.asin(vPar);
-        break;
-      }
-
-      case "acos":
-      {
-        v = Math.acos(vPar);
-        break;
-      }
-
-      case "atan":
-      {
-        v = Math.atan(vPar);
-        break;
-      }
-
-      case "abs":
-      {
-        v = Math.abs(vPar);
-        break;
-      }
-
-      case "log":
-      {
-        v = Math.log10(vPar);
-        break;
-      }
-
-      case "ln":
-      {
-        v = Math.log(vPar);
-        break;
-      }
-
-      case "ln2":
-      {
-        v = MathConsts.M_LN2;
-        break;
-      }
-
-      case "ln10":
-      {
-        v = MathConsts.M_LN10;
-        break;
-      }
-
-      case "ne":
-      {
-        v = MathConsts.M_E;
-        break;
-      }
-
-      case "nlog2e":
-      {
-        v = MathConsts.M_LOG2E;
-        break;
-      }
-
-      case "nlog10e":
-      {
-        v = MathConsts.M_LOG10E;
-        break;
-      }
-
-      case "exp":
-      {
-        v = Math.exp(vPar);
-        break;
-      }
-
-      case "truncate1":
-      {
-        v = Math.round(vPar * 10) / 10.0;
-        break;
-      }
+    return testInternalFunction(normalizeFunctionName(valAlfa), vPar);
+  }
 
-      case "truncate2":
-      {
-        v = Math.round(vPar * 100) / 100.0;
-        break;
-      }
+  /**
+   * Normalizza il nome di una funzione (spazi e minuscole).
+   * @param valAlfa nome della funzione come letto dall'espressione
+   * @return nome normalizzato
+   */
+  protected String normalizeFunctionName(StringBuilder valAlfa)
+  {
+    return valAlfa.toString().trim().toLowerCase();
+  }
 
-      case "truncate3":
-      {
-        v = Math.round(vPar * 1000) / 1000.0;
-        break;
-      }
+  /**
+   * Cerca ed elabora il valore per una funzione.
+   * Se una classe derivata ridefinisce uno dei due testInternalFunction()
+   * le chiamate a funzioni con al più un argomento delle espressioni
+   * compilate vengono risolte qui in fase di valutazione, invece che
+   * con il registro in fase di compilazione; le funzioni con più
+   * argomenti restano risolte dal registro.
+   * @param t nome della funzione già normalizzato
+   * @param vPar parametro della funzione
+   * @return valore elaborato
+   * @throws Exception
+   */
+  protected double testInternalFunction(String t, double vPar)
+     throws Exception
+  {
+    FunctionRegistry.Definizione def = funzioni.lookup(t);
+    if(def == null)
+    {
+      // aggancio con eventuali parsing esterni
+      return externValoreFunzione(t, vPar);
+    }
 
-      case "round":
-      {
-        v = Math.round(vPar);
-        break;
-      }
+    if(def.accept(1))
+      return def.apply(vPar);
+    if(def.accept(0))
+      return def.apply(FunctionRegistry.noArgs());
 
-      default:
+    reportError(CalcErrori_Argomenti);
+    return 0;
+  }
 
-        // aggancio con eventuali parsing esterni
-        return externValoreFunzione(t, vPar);
+  /**
+   * Risolve lo stack operazioni calcolandone il valore.
+   * Gli elementi senza nodo vengono presi dal loro sim.val.
+   * @param stack
+   * @return valore calcolato
+   * @throws java.lang.Exception
+   * @deprecated la compilazione non passa di qui:
+   * lo stack viene risolto in un albero di ExpressionNode
+   */
+  @Deprecated
+  protected double calcStack(ArrayList<sim> stack)
+     throws Exception
+  {
+    for(sim s : stack)
+    {
+      if(s.nodo == null)
+        s.nodo = new ExpressionNode.Numero(s.val);
     }
 
-    return v;
+    return risolviStack(stack).eval(createFrame());
   }
 
   /**
-   * calcola il valore dello stack operazioni
+   * Risolve lo stack operazioni costruendo l'albero dell'espressione.
+   * L'ordine di risoluzione degli operatori è quello dell'array operazioni.
    * @param stack
    * @return
    * @throws java.lang.Exception
    */
-  protected double calcStack(ArrayList<sim> stack)
+  ExpressionNode risolviStack(ArrayList<sim> stack)
      throws Exception
   {
     if(stack.size() < 1)
-      return 0;
+      return new ExpressionNode.Numero(0);
     if(stack.size() == 1)
-      return stack.get(0).val;
+      return stack.get(0).nodo;
 
     for(int k = 0; k < operazioni.length; k++)
     {
@@ -687,15 +743,12 @@ public class Calcolatore
 
       for(int i = 0; i < j; i++)
       {
-        sim s1 = (sim) stack.get(i);
-        sim s2 = (sim) stack.get(i + 1);
+        sim s1 = stack.get(i);
+        sim s2 = stack.get(i + 1);
 
         if(!s1.op.equals(oper))
           continue;
 
-        double v1 = s2.val;
-        double v2 = s1.val;
-
         switch(s1.op)
         {
           // ATTENZIONE
@@ -703,114 +756,48 @@ public class Calcolatore
           // DEVE avere la massima priorita' ed in particolare
           // ':' deve avere priorita' piu' alta di '?'
           case ":":
-            if(j < 3 || stack.get(i - 1).op.charAt(0) != '?')
+            if(j < 3 || i < 1 || !stack.get(i - 1).op.startsWith("?"))
               reportError(CalcErrori_Sintassi);
 
-            if(stack.get(i - 1).val != 0)
-            {
-              // se vero il valore corretto e' gia' al suo posto
-              v1 = v2;
-            }
-            else
-            {
-              // se falso il valore corretto viene spostato
-              v2 = v1;
-            }
-
+            sim st = stack.get(i - 1);
+            st.condizione = true;
+            s2.nodo = new ExpressionNode.Condizione(st.nodo, s1.nodo, s2.nodo);
             break;
 
-          // l'operazione e' gia'stata effettuata va solo spostato
+          // il test e' gia' stato utilizzato dall'operatore ':'
+          // se non e' cosi' viene comunque valutato e scartato
           case "?":
-            v2 = v1;
-            break;
-
-          case "+":
-            v1 = v2 + v1;
-            break;
-
-          case "-":
-            v1 = v2 - v1;
-            break;
-
-          case "*":
-            v1 = v2 * v1;
-            break;
-
-          case "/":
-            v1 = v2 / v1;
-            break;
-
-          case "^":
-            v1 = Math.pow(v2, v1);
-            break;
-
-          case "%":
-            v1 = v2 % v1;
-            break;
-
-          case ">":
-            v1 = (v2 > v1) ? 1 : 0;
-            break;
-
-          case "<":
-            v1 = (v2 < v1) ? 1 : 0;
-            break;
-
-          case "=":
-            v1 = (v1 == v2) ? 1 : 0;
-            break;
-
-          case ">=":
-
-            v1 = (v2 >= v1) ? 1 : 0;
-            break;
-
-          case "<=":
-
-            v1 = (v2 <= v1) ? 1 : 0;
-            break;
-
-          case "!=":
-
-            v1 = (v1 != v2) ? 1 : 0;
+            if(!s1.condizione)
+              s2.nodo = new ExpressionNode.Operazione(ExpressionNode.Operatore.SECONDO, s1.nodo, s2.nodo);
             break;
 
-          case "<!":
-
-            v1 = (v1 < v2) ? v1 : v2;
-            break; // funzione _min
-
-          case "!>":
-
-            v1 = (v1 > v2) ? v1 : v2;
-            break; // funzione _max
-
-          case "==":
-
-            v1 = (v1 == v2) ? v1 : 0;
-            break; // funzione _equ
-
           default:
-            // verifica per eventuali operazioni
-            // supportate da classi figlie di questa
-            v1 = externOperazioni(v1, v2, oper);
+            s2.nodo = new ExpressionNode.Operazione(ExpressionNode.Operatore.fromSimbolo(oper), s1.nodo, s2.nodo);
             break;
         }
 
-        s2.val = v1;
         stack.remove(i);
         j--;
         i--;
       }
     }
 
-    // il valore finale e' nell'ultimo elemento rimasto sullo stack
-    sim sv = (sim) stack.get(0);
-    return sv.val;
+    // il valore finale e' nel primo elemento rimasto sullo stack;
+    // gli eventuali altri elementi (operatori non riconosciuti)
+    // vengono comunque valutati e scartati
+    ExpressionNode rv = stack.get(0).nodo;
+    for(int i = 1; i < stack.size(); i++)
+    {
+      sim s = stack.get(i);
+      if(!s.condizione)
+        rv = new ExpressionNode.Operazione(ExpressionNode.Operatore.PRIMO, rv, s.nodo);
+    }
+
+    return rv;
   }
 
   /**
-   * Salva il valore di una variabile sullo stack operazioni.
+   * Salva una variabile sullo stack operazioni.
    * @param stack
    * @param sign
    * @param alpha
@@ -820,24 +807,66 @@ public class Calcolatore
   protected void pushStack(ArrayList<sim> stack, int sign, StringBuilder alpha, StringBuilder oper)
      throws Exception
   {
-    double v = externValoreVariabile(alpha);
-    pushStack(stack, sign, v, oper);
+    pushStack(stack, sign, new ExpressionNode.Variabile(alpha.toString().trim()), oper);
   }
 
   /**
    * Salva il valore di ritorno di una funzione sullo stack operazioni.
+   * La funzione viene valutata subito con testInternalFunction().
    * @param stack
    * @param sign
    * @param alpha
    * @param vPar argomento da passare alla funzione
    * @param oper
    * @throws java.lang.Exception
+   * @deprecated la compilazione non passa di qui:
+   * le funzioni vengono salvate come nodi e valutate con l'espressione
    */
+  @Deprecated
   protected void pushStack(ArrayList<sim> stack, int sign, StringBuilder alpha, double vPar, StringBuilder oper)
      throws Exception
   {
-    double v = testInternalFunction(alpha, vPar);
-    pushStack(stack, sign, v, oper);
+    pushStack(stack, sign, testInternalFunction(alpha, vPar), oper);
+  }
+
+  /**
+   * Salva una funzione sullo stack operazioni.
+   * @param stack
+   * @param sign
+   * @param alpha
+   * @param vPar argomento da passare alla funzione
+   * @param oper
+   * @throws java.lang.Exception
+   */
+  void pushStack(ArrayList<sim> stack, int sign, StringBuilder alpha, ExpressionNode vPar, StringBuilder oper)
+     throws Exception
+  {
+    pushStack(stack, sign, alpha, Collections.singletonList(vPar), oper);
+  }
+
+  /**
+   * Salva una funzione con più argomenti sullo stack operazioni.
+   * La funzione viene risolta con il registro e viene verificato
+   * il numero di argomenti; le funzioni non registrate vengono
+   * girate a invocaFunzione() in fase di valutazione.
+   * @param stack
+   * @param sign
+   * @param alpha
+   * @param args argomenti da passare alla funzione
+   * @param oper
+   * @throws java.lang.Exception
+   */
+  void pushStack(ArrayList<sim> stack, int sign, StringBuilder alpha, List<ExpressionNode> args, StringBuilder oper)
+     throws Exception
+  {
+    String nome = normalizeFunctionName(alpha);
+    FunctionRegistry.Definizione def = args.size() <= 1 && TEST_FUNCTION_OVERRIDE.get(getClass()) != TEST_NESSUNO
+                                          ? null : funzioni.lookup(nome);
+    if(def != null && !def.accept(args.size()))
+      throw new ParserException(getErrDescr(CalcErrori_Argomenti) + " per la funzione " + def);
+
+    ExpressionNode[] arar = args.toArray(new ExpressionNode[args.size()]);
+    pushStack(stack, sign, new ExpressionNode.Funzione(nome, arar, def), oper);
   }
 
   /**
@@ -850,9 +879,24 @@ public class Calcolatore
    */
   protected void pushStack(ArrayList<sim> stack, int sign, double v, StringBuilder oper)
      throws Exception
+  {
+    pushStack(stack, 1, new ExpressionNode.Numero(v * sign), oper);
+    stack.get(stack.size() - 1).val = v * sign;
+  }
+
+  /**
+   * salva il nodo sullo stack operazioni
+   * @param stack
+   * @param sign
+   * @param nodo
+   * @param oper
+   * @throws Exception
+   */
+  void pushStack(ArrayList<sim> stack, int sign, ExpressionNode nodo, StringBuilder oper)
+     throws Exception
   {
     sim sm = new sim();
-    sm.val = v * sign;
+    sm.nodo = sign < 0 ? new ExpressionNode.Negazione(nodo) : nodo;
     sm.op = oper.toString().trim();
     stack.add(sm);
   }
@@ -867,6 +911,7 @@ public class Calcolatore
     "Operatore non supportato",
     "Variabile non trovata",
     "Rank cache non valido",
+    "Numero di argomenti non valido",
     null
   };
 
@@ -941,6 +986,103 @@ public class Calcolatore
     return 0;
   }
 
+  /**
+   * Valuta una funzione non risolta in fase di compilazione.
+   * Se testInternalFunction() è ridefinito le chiamate con al più
+   * un argomento passano di lì, altrimenti da externValoreFunzione().
+   * Il nome è già normalizzato: la versione con StringBuilder viene
+   * usata solo se ridefinita da una classe derivata.
+   * @param nomeFunzione nome normalizzato della funzione
+   * @param args valori degli argomenti
+   * @return valore corrispondente
+   * @throws Exception in caso di funzione non supportata
+   */
+  double invocaFunzione(String nomeFunzione, double[] args)
+     throws Exception
+  {
+    if(args.length <= 1)
+    {
+      double vPar = args.length == 0 ? 0.0 : args[0];
+      switch(TEST_FUNCTION_OVERRIDE.get(getClass()))
+      {
+        case TEST_STRING:
+          return testInternalFunction(nomeFunzione, vPar);
+        case TEST_BUILDER:
+          return testInternalFunction(new StringBuilder(nomeFunzione), vPar);
+      }
+    }
+
+    return externValoreFunzione(nomeFunzione, args);
+  }
+
+  /**
+   * Ridefinibile in classi derivate.
+   * Estende la capacità di creare funzioni con più argomenti.
+   * Viene invocata per le funzioni non presenti nel registro;
+   * l'implementazione di default accetta al massimo un argomento
+   * e richiama externValoreFunzione(String, double).
+   * @param nomeFunzione nome della funzione invocata
+   * @param args valori degli argomenti
+   * @return valore corrispondente
+   * @throws Exception in caso di funzione non supportata
+   */
+  protected double externValoreFunzione(String nomeFunzione, double[] args)
+     throws Exception
+  {
+    switch(args.length)
+    {
+      case 0:
+        return externValoreFunzione(nomeFunzione, 0.0);
+      case 1:
+        return externValoreFunzione(nomeFunzione, args[0]);
+    }
+
+    reportError(CalcErrori_Argomenti);
+    return 0;
+  }
+
+  /**
+   * Crea un frame di valutazione per questo calcolatore.
+   * Le classi derivate che hanno bisogno di uno stato
+   * legato alla singola valutazione ritornano un frame specializzato.
+   * @return nuovo frame di valutazione
+   */
+  protected EvaluationFrame createFrame()
+  {
+    return new EvaluationFrame(this);
+  }
+
+  /**
+   * Ridefinibile in classi derivate.
+   * Estende la capacità di creare variabili.
+   * Viene invocata dalle espressioni compilate con il frame
+   * della valutazione in corso; l'implementazione di default
+   * richiama externValoreVariabile(String).
+   * @param frame frame della valutazione in corso
+   * @param nomeVariabile nome della variabile
+   * @return valore corrispondente alla variabile
+   * @throws Exception in caso di variabile non trovata
+   */
+  protected double externValoreVariabile(EvaluationFrame frame, String nomeVariabile)
+     throws Exception
+  {
+    return externValoreVariabile(nomeVariabile);
+  }
+
+  /**
+   * Ridefinibile in classi derivate.
+   * Estende la capacità di creare variabili.
+   * L'implementazione di default richiama externValoreVariabile(StringBuilder).
+   * @param nomeVariabile nome della variabile
+   * @return valore corrispondente alla variabile
+   * @throws Exception in caso di variabile non trovata
+   */
+  protected double externValoreVariabile(String nomeVariabile)
+     throws Exception
+  {
+    return externValoreVariabile(new StringBuilder(nomeVariabile));
+  }
+
   /**
    * Ridefinibile in classi derivate.
    * Estende la capacità di creare variabili.
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.*;
+
+/**
+ * Espressione compilata.
+ * Viene prodotta da Calcolatore.compile() e contiene l'albero
+ * dell'espressione con operatori, costanti e nomi di funzione
+ * già risolti. E' immutabile e può essere valutata un numero
+ * qualsiasi di volte senza ripetere il parsing del testo.
+ *
+ * <pre><code>
+ * Calcolatore calc = new Calcolatore();
+ * CompiledExpression ce = calc.compile("2*pi()*raggio");
+ * Map&lt;String, Double&gt; vars = new HashMap&lt;&gt;();
+ * vars.put("raggio", 10.0);
+ * double v = ce.evaluate(vars);
+ * </code></pre>
+ *
+ * @author Nicola De Nisco
+ */
+public class CompiledExpression
+{
+  /** calcolatore senza stato usato per le valutazioni con mappa di variabili */
+  private static final Calcolatore calcolatoreBase = new Calcolatore();
+
+  private final String source;
+  private final ExpressionNode root;
+  private final Set<String> variables;
+
+  CompiledExpression(String source, ExpressionNode root)
+  {
+    this.source = source;
+    this.root = root;
+
+    Set<String> nomi = new LinkedHashSet<>();
+    root.collectVariables(nomi);
+    this.variables = Collections.unmodifiableSet(nomi);
+  }
+
+  /**
+   * Valuta l'espressione.
+   * Variabili, funzioni esterne e operatori non gestiti vengono
+   * risolti attraverso i metodi extern* del calcolatore indicato.
+   * @param calc calcolatore di riferimento
+   * @return valore dell'espressione
+   * @throws Exception
+   */
+  public double evaluate(Calcolatore calc)
+     throws Exception
+  {
+    return root.eval(calc.createFrame());
+  }
+
+  /**
+   * Valuta l'espressione all'interno di un frame di valutazione esistente.
+   * @param frame frame di valutazione
+   * @return valore dell'espressione
+   * @throws Exception
+   */
+  public double evaluate(EvaluationFrame frame)
+     throws Exception
+  {
+    return root.eval(frame);
+  }
+
+  /**
+   * Valuta l'espressione con i valori delle variabili indicati.
+   * Può essere invocata contemporaneamente da più thread.
+   * @param variabili valori delle variabili
+   * @return valore dell'espressione
+   * @throws Exception se una variabile non è presente nella mappa
+   */
+  public double evaluate(Map<String, ? extends Number> variabili)
+     throws Exception
+  {
+    return root.eval(new EvaluationFrame(calcolatoreBase)
+    {
+      @Override
+      protected double valoreVariabile(String nomeVariabile)
+         throws Exception
+      {
+        Number n = variabili.get(nomeVariabile);
+        if(n == null)
+          calc.reportError(Calcolatore.CalcErrori_NoVar);
+
+        return n.doubleValue();
+      }
+    });
+  }
+
+  /**
+   * Ritorna il testo da cui è stata compilata l'espressione.
+   * @return testo dell'espressione (può essere null se compilata da un reader)
+   */
+  public String getSource()
+  {
+    return source;
+  }
+
+  /**
+   * Ritorna i nomi delle variabili utilizzate dall'espressione,
+   * nell'ordine in cui compaiono.
+   * @return insieme non modificabile dei nomi
+   */
+  public Set<String> getVariables()
+  {
+    return variables;
+  }
+
+  ExpressionNode getRoot()
+  {
+    return root;
+  }
+
+  @Override
+  public String toString()
+  {
+    return source == null ? super.toString() : source;
+  }
+}
@@ -21,15 +21,45 @@ import java.util.*;
 
 /**
  * Parser di espressioni complesse.
+ * Il contesto e lo stack di risoluzione delle variabili
+ * sono contenuti nel frame di valutazione: la stessa istanza
+ * può essere utilizzata contemporaneamente da più thread,
+ * anche sullo stesso contesto.
  *
  * @author Nicola De Nisco
  */
 public class ContextParser extends Calcolatore
 {
-  private boolean fast = true;
-  protected CalcContext context = null;
+  private volatile boolean fast = true;
+  /** contesto dell'ultima calc(): usato dalle valutazioni senza contesto esplicito (parse()) */
+  protected volatile CalcContext context = null;
+  /**
+   * Non più utilizzato: lo stack di risoluzione è in ContextFrame.
+   * @deprecated vedi ContextFrame.stkVarResolver
+   */
+  @Deprecated
   protected Stack stkVarResolver = new Stack();
 
+  public ContextParser()
+  {
+    setExpressionCache(ExpressionCache.getShared());
+  }
+
+  /**
+   * Frame di valutazione per ContextParser.
+   */
+  protected static class ContextFrame extends EvaluationFrame
+  {
+    protected final CalcContext context;
+    protected final ArrayDeque<String> stkVarResolver = new ArrayDeque<>();
+
+    public ContextFrame(ContextParser parser, CalcContext context)
+    {
+      super(parser);
+      this.context = context;
+    }
+  }
+
   /**
    * <pre>
    * Elabora una expressione complessa:
@@ -38,15 +68,18 @@ public class ContextParser extends Calcolatore
    *
    * Le variabili vengono cercate e create
    * nel context.
+   * Il contesto resta associato al parser e viene usato
+   * dalle successive chiamate a parse().
    * </pre>
    * @param exp
    * @param context
    * @throws Exception
    */
-  public synchronized void calc(String exp, CalcContext context)
+  public void calc(String exp, CalcContext context)
      throws Exception
   {
     this.context = context;
+    ContextFrame frame = new ContextFrame(this, context);
     StringTokenizer stok = new StringTokenizer(exp, ";\n");
     while(stok.hasMoreTokens())
     {
@@ -65,27 +98,145 @@ public class ContextParser extends Calcolatore
       String rval = el.substring(0, pos);
       String lval = el.substring(pos + 1);
 
-      double val = parse(lval);
+      double val = compile(lval).evaluate(frame);
       context.put(rval.trim(), val);
     }
   }
 
-  @Override
-  protected double externValoreVariabile(StringBuilder valAlfa)
+  /**
+   * <pre>
+   * Definisce un insieme di formule nel contesto:
+   * valore1 = 10*27;
+   * valore2 = 14+(valore1*4);
+   *
+   * A differenza di calc() le formule restano memorizzate nel
+   * contesto insieme al grafo delle dipendenze: l'ordine delle
+   * righe non e' significativo, le dipendenze circolari vengono
+   * segnalate prima di qualsiasi calcolo e le successive modifiche
+   * con setValue() ricalcolano solo le formule interessate.
+   * </pre>
+   * @param exp formule separate da ';' o a capo
+   * @param context contesto di destinazione
+   * @return nomi delle formule ricalcolate, in ordine di calcolo
+   * @throws Exception
+   */
+  public List<String> define(String exp, CalcContext context)
      throws Exception
   {
-    synchronized(this)
+    Map<String, CompiledExpression> formule = new LinkedHashMap<>();
+    StringTokenizer stok = new StringTokenizer(exp, ";\n");
+    while(stok.hasMoreTokens())
     {
-      String nomeVariabile = valAlfa.toString().trim();
+      String el = stok.nextToken().trim();
+      if(el.length() == 0 || el.charAt(0) == '#')
+        continue;
 
-      if(stkVarResolver.search(nomeVariabile) != -1)
-        throw new ParserException("Errore di sintassi: l'uso della variabile "
-           + nomeVariabile + " compare nella sua stessa risoluzione.");
+      int pos = el.indexOf('=');
+      if(pos == -1)
+        throw new ParserException("L'espressione [" + el + "] non ha un right-value.");
 
-      stkVarResolver.push(nomeVariabile);
-      double val = contextVariabileResolver(nomeVariabile);
-      stkVarResolver.pop();
-      return val;
+      formule.put(el.substring(0, pos).trim(), compile(el.substring(pos + 1)));
+    }
+
+    context.setFormule(formule);
+    return recalc(context, formule.keySet());
+  }
+
+  /**
+   * Imposta il valore di una variabile e ricalcola, in ordine
+   * topologico, solo le formule che ne dipendono.
+   * Se la variabile era definita da una formula, la formula viene rimossa.
+   * @param context contesto di riferimento
+   * @param nome nome della variabile
+   * @param val nuovo valore
+   * @return nomi delle formule ricalcolate, in ordine di calcolo
+   * @throws Exception
+   */
+  public List<String> setValue(CalcContext context, String nome, double val)
+     throws Exception
+  {
+    context.removeFormula(nome);
+    context.put(nome, val);
+    return recalc(context, Collections.singleton(nome));
+  }
+
+  /**
+   * Ricalcola le formule che dipendono dalle variabili indicate.
+   * @param context contesto di riferimento
+   * @param modificate nomi delle variabili modificate
+   * @return nomi delle formule ricalcolate, in ordine di calcolo
+   * @throws Exception
+   */
+  public List<String> recalc(CalcContext context, Collection<String> modificate)
+     throws Exception
+  {
+    List<String> ordine = context.getRecalcOrder(modificate);
+    ContextFrame frame = new ContextFrame(this, context);
+
+    for(String nome : ordine)
+    {
+      CompiledExpression ce = context.getFormula(nome);
+      if(ce != null)
+        context.put(nome, ce.evaluate(frame));
+    }
+
+    return ordine;
+  }
+
+  /**
+   * Ricalcola tutte le formule del contesto.
+   * @param context contesto di riferimento
+   * @return nomi delle formule ricalcolate, in ordine di calcolo
+   * @throws Exception
+   */
+  public List<String> recalc(CalcContext context)
+     throws Exception
+  {
+    return recalc(context, context.getFormuleNames());
+  }
+
+  /**
+   * Valuta un'espressione compilata utilizzando le variabili del contesto.
+   * Può essere invocata contemporaneamente da più thread.
+   * @param ce espressione compilata
+   * @param context contesto delle variabili
+   * @return valore dell'espressione
+   * @throws Exception
+   */
+  public double evaluate(CompiledExpression ce, CalcContext context)
+     throws Exception
+  {
+    return ce.evaluate(new ContextFrame(this, context));
+  }
+
+  /**
+   * Crea un frame sul contesto dell'ultima calc().
+   * @return frame di valutazione
+   */
+  @Override
+  protected EvaluationFrame createFrame()
+  {
+    return new ContextFrame(this, context);
+  }
+
+  @Override
+  protected double externValoreVariabile(EvaluationFrame frame, String nomeVariabile)
+     throws Exception
+  {
+    ContextFrame cf = frame instanceof ContextFrame ? (ContextFrame) frame : new ContextFrame(this, context);
+
+    if(cf.stkVarResolver.contains(nomeVariabile))
+      throw new ParserException("Errore di sintassi: l'uso della variabile "
+         + nomeVariabile + " compare nella sua stessa risoluzione.");
+
+    cf.stkVarResolver.push(nomeVariabile);
+    try
+    {
+      return contextVariabileResolver(cf, nomeVariabile);
+    }
+    finally
+    {
+      cf.stkVarResolver.pop();
     }
   }
 
@@ -94,23 +245,24 @@ public class ContextParser extends Calcolatore
    * Se la variabile e' un'espressione, verra' valutata e
    * il relativo risultato salvato anch'esso nel context se
    * e' attiva la modalita' fast (default).
+   * @param frame frame della valutazione in corso
    * @param nomeVariabile
    * @return
    * @throws Exception
    */
-  protected synchronized double contextVariabileResolver(String nomeVariabile)
+  protected double contextVariabileResolver(ContextFrame frame, String nomeVariabile)
      throws Exception
   {
-    Object oc = context.getValue(nomeVariabile);
+    Object oc = frame.context == null ? null : frame.context.getValue(nomeVariabile);
     if(oc != null)
     {
       if(oc instanceof Double)
         return ((Double) oc);
 
       String vexp = oc.toString();
-      double val = parse(vexp);
+      double val = compile(vexp).evaluate(frame);
       if(isFast())
-        context.put(nomeVariabile, val);
+        frame.context.put(nomeVariabile, val);
       return val;
     }
 
@@ -118,6 +270,20 @@ public class ContextParser extends Calcolatore
     return 0;
   }
 
+  /**
+   * Risolve una variabile cercandola nel contesto dell'ultima calc().
+   * @param nomeVariabile
+   * @return
+   * @throws Exception
+   * @deprecated usare contextVariabileResolver(ContextFrame, String)
+   */
+  @Deprecated
+  protected double contextVariabileResolver(String nomeVariabile)
+     throws Exception
+  {
+    return contextVariabileResolver(new ContextFrame(this, context), nomeVariabile);
+  }
+
   /**
    * Ritorna vero se la modalita' fast e' attiva.
    * @return the fast
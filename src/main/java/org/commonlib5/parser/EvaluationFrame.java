@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.Arrays;
+
+/**
+ * Frame di valutazione di un'espressione compilata.
+ * Contiene lo stato relativo ad una singola valutazione
+ * (ad esempio il rank di cache di Parser o lo stack di
+ * risoluzione delle variabili di ContextParser), in modo
+ * che lo stesso calcolatore e le stesse espressioni compilate
+ * possano essere utilizzati contemporaneamente da più thread.
+ * Un frame non deve essere condiviso fra thread diversi.
+ *
+ * @author Nicola De Nisco
+ */
+public class EvaluationFrame
+{
+  protected final Calcolatore calc;
+  // slot temporanei per le sottoespressioni comuni (vedi ExpressionOptimizer)
+  private double[] temp = null;
+  private int tempBase = 0, tempTop = 0;
+
+  public EvaluationFrame(Calcolatore calc)
+  {
+    this.calc = calc;
+  }
+
+  /**
+   * Ritorna il calcolatore a cui appartiene questo frame.
+   * @return calcolatore di riferimento
+   */
+  public Calcolatore getCalcolatore()
+  {
+    return calc;
+  }
+
+  /**
+   * Risolve il valore di una variabile.
+   * Per default la richiesta viene girata al calcolatore.
+   * @param nomeVariabile nome della variabile
+   * @return valore della variabile
+   * @throws Exception in caso di variabile non trovata
+   */
+  protected double valoreVariabile(String nomeVariabile)
+     throws Exception
+  {
+    return calc.externValoreVariabile(this, nomeVariabile);
+  }
+
+  /**
+   * Riserva gli slot temporanei per la valutazione di un'espressione.
+   * Le espressioni annidate (ad esempio nella risoluzione di una
+   * variabile) riservano i propri slot sopra quelli correnti.
+   * @param num numero di slot
+   * @return base precedente da passare a closeTemp()
+   */
+  int openTemp(int num)
+  {
+    int oldBase = tempBase;
+    tempBase = tempTop;
+    tempTop += num;
+
+    if(temp == null)
+      temp = new double[Math.max(tempTop, 16)];
+    else if(temp.length < tempTop)
+      temp = Arrays.copyOf(temp, Math.max(tempTop, temp.length * 2));
+
+    return oldBase;
+  }
+
+  void closeTemp(int oldBase)
+  {
+    tempTop = tempBase;
+    tempBase = oldBase;
+  }
+
+  double getTemp(int indice)
+  {
+    return temp[tempBase + indice];
+  }
+
+  void setTemp(int indice, double val)
+  {
+    temp[tempBase + indice] = val;
+  }
+}
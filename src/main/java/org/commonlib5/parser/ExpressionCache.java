@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache limitata di espressioni compilate, indicizzata dal testo.
+ * Può essere condivisa fra più istanze di Calcolatore (e derivati)
+ * anche su thread diversi: le espressioni compilate sono immutabili.
+ * La chiave comprende anche la classe del calcolatore, l'opzione di
+ * ottimizzazione e le funzioni registrate, per cui calcolatori con
+ * funzioni diverse non condividono le espressioni.
+ * La dimensione è misurata in nodi delle espressioni: superato il
+ * limite vengono rimosse le espressioni usate meno di recente.
+ * Parser e ContextParser utilizzano per default la cache condivisa
+ * ritornata da getShared().
+ *
+ * @author Nicola De Nisco
+ */
+public class ExpressionCache
+{
+  public static final long DEFAULT_MAX_PESO = 100000;
+  private static final ExpressionCache shared = new ExpressionCache(DEFAULT_MAX_PESO);
+
+  private final ConcurrentHashMap<Chiave, Voce> cache = new ConcurrentHashMap<>();
+  private final AtomicLong orologio = new AtomicLong();
+  private final AtomicLong peso = new AtomicLong();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private volatile long maxPeso;
+
+  /**
+   * Chiave di una espressione.
+   */
+  private static final class Chiave
+  {
+    final Class<?> tipo;
+    final boolean optimize;
+    final Object ambito;
+    final String source;
+    final int hash;
+
+    Chiave(Calcolatore calc, String source)
+    {
+      this.tipo = calc.getClass();
+      this.optimize = calc.isOptimize();
+      this.ambito = calc.getFunctionRegistry().getAmbito();
+      this.source = source;
+      this.hash = Objects.hash(tipo, optimize, ambito, source);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if(!(obj instanceof Chiave))
+        return false;
+
+      Chiave c = (Chiave) obj;
+      return hash == c.hash && optimize == c.optimize && tipo == c.tipo
+         && source.equals(c.source) && ambito.equals(c.ambito);
+    }
+  }
+
+  /**
+   * Voce della cache: l'ultimo accesso è aggiornato senza lock.
+   */
+  private static final class Voce
+  {
+    final CompiledExpression ce;
+    final int peso;
+    volatile long accesso;
+
+    Voce(CompiledExpression ce, long accesso)
+    {
+      this.ce = ce;
+      this.peso = ExpressionOptimizer.conta(ce.getRoot());
+      this.accesso = accesso;
+    }
+  }
+
+  /**
+   * Costruisce una cache.
+   * @param maxPeso dimensione massima in nodi delle espressioni
+   */
+  public ExpressionCache(long maxPeso)
+  {
+    this.maxPeso = maxPeso;
+  }
+
+  /**
+   * Ritorna la cache condivisa da tutta la JVM.
+   * @return cache condivisa
+   */
+  public static ExpressionCache getShared()
+  {
+    return shared;
+  }
+
+  /**
+   * Ritorna l'espressione compilata dalla cache;
+   * se non presente la compila con il calcolatore indicato.
+   * @param calc calcolatore per la compilazione
+   * @param source testo dell'espressione
+   * @return espressione compilata
+   * @throws Exception in caso di errori di sintassi
+   */
+  public CompiledExpression get(Calcolatore calc, String source)
+     throws Exception
+  {
+    Chiave k = new Chiave(calc, source);
+    Voce v = cache.get(k);
+    if(v != null)
+    {
+      hits.increment();
+      v.accesso = orologio.incrementAndGet();
+      return v.ce;
+    }
+
+    misses.increment();
+    CompiledExpression ce = calc.compileNoCache(source);
+
+    // inserimento e aggiornamento del peso sotto lo stesso lock
+    // di clear() e riduci(): il peso resta coerente con le voci
+    v = new Voce(ce, orologio.incrementAndGet());
+    synchronized(this)
+    {
+      Voce old = cache.putIfAbsent(k, v);
+      if(old != null)
+        return old.ce;
+
+      if(peso.addAndGet(v.peso) > maxPeso)
+        riduci();
+    }
+
+    return ce;
+  }
+
+  /**
+   * Rimuove le voci usate meno di recente fino a scendere
+   * sotto i 3/4 della dimensione massima; la rimozione a blocchi
+   * evita di ordinare la cache ad ogni inserimento.
+   */
+  private synchronized void riduci()
+  {
+    long limite = maxPeso - maxPeso / 4;
+    if(peso.get() <= limite)
+      return;
+
+    ArrayList<Map.Entry<Chiave, Voce>> voci = new ArrayList<>(cache.entrySet());
+    voci.sort((e1, e2) -> Long.compare(e1.getValue().accesso, e2.getValue().accesso));
+
+    for(int i = 0; i < voci.size() && peso.get() > limite; i++)
+    {
+      Map.Entry<Chiave, Voce> e = voci.get(i);
+      if(cache.remove(e.getKey(), e.getValue()))
+      {
+        peso.addAndGet(-e.getValue().peso);
+        evictions.increment();
+      }
+    }
+  }
+
+  /**
+   * Svuota la cache. I contatori non vengono azzerati.
+   * Gli inserimenti concorrenti attendono la fine dello svuotamento.
+   */
+  public synchronized void clear()
+  {
+    cache.clear();
+    peso.set(0);
+  }
+
+  /**
+   * Azzera i contatori hit/miss/eviction.
+   */
+  public void resetStatistiche()
+  {
+    hits.reset();
+    misses.reset();
+    evictions.reset();
+  }
+
+  public long getHits()
+  {
+    return hits.sum();
+  }
+
+  public long getMisses()
+  {
+    return misses.sum();
+  }
+
+  public long getEvictions()
+  {
+    return evictions.sum();
+  }
+
+  /**
+   * Numero di espressioni in cache.
+   * @return numero di espressioni
+   */
+  public int size()
+  {
+    return cache.size();
+  }
+
+  /**
+   * Dimensione corrente in nodi delle espressioni.
+   * @return numero di nodi
+   */
+  public long getPeso()
+  {
+    return peso.get();
+  }
+
+  public long getMaxPeso()
+  {
+    return maxPeso;
+  }
+
+  public void setMaxPeso(long maxPeso)
+  {
+    this.maxPeso = maxPeso;
+    if(peso.get() > maxPeso)
+      riduci();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExpressionCache{" + "size=" + size() + ", peso=" + getPeso() + "/" + maxPeso
+       + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + '}';
+  }
+}
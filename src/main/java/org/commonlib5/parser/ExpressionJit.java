@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+
+/**
+ * Traduzione dell'albero di un'espressione in un albero di MethodHandle.
+ * Il MethodHandle risultante ha tipo (double[])double: le variabili
+ * sono lette dagli slot dell'array. Essendo le costanti e la struttura
+ * dell'albero fisse, HotSpot può espandere in linea l'intera
+ * espressione come se fosse codice scritto a mano.
+ *
+ * @author Nicola De Nisco
+ */
+class ExpressionJit
+{
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+  private static final MethodType TIPO_NODO = MethodType.methodType(double.class, double[].class);
+  private static final MethodType TIPO_UNARIO = MethodType.methodType(double.class, double.class);
+  private static final MethodType TIPO_BINARIO = MethodType.methodType(double.class, double.class, double.class);
+
+  private final Calcolatore calc;
+  private final Map<String, Integer> slots;
+
+  ExpressionJit(Calcolatore calc, Map<String, Integer> slots)
+  {
+    this.calc = calc;
+    this.slots = slots;
+  }
+
+  /**
+   * Costruisce il MethodHandle (double[])double per il nodo.
+   * @param nodo radice dell'espressione
+   * @return method handle equivalente
+   * @throws Exception
+   */
+  MethodHandle compile(ExpressionNode nodo)
+     throws Exception
+  {
+    if(nodo instanceof ExpressionNode.Numero)
+    {
+      MethodHandle mh = MethodHandles.constant(double.class, ((ExpressionNode.Numero) nodo).valore);
+      return MethodHandles.dropArguments(mh, 0, double[].class);
+    }
+
+    if(nodo instanceof ExpressionNode.Variabile)
+    {
+      Integer slot = slots.get(((ExpressionNode.Variabile) nodo).nome);
+      MethodHandle mh = MethodHandles.arrayElementGetter(double[].class);
+      return MethodHandles.insertArguments(mh, 1, slot);
+    }
+
+    if(nodo instanceof ExpressionNode.Negazione)
+    {
+      MethodHandle op = lookup.findStatic(ExpressionJit.class, "neg", TIPO_UNARIO);
+      return MethodHandles.filterReturnValue(compile(((ExpressionNode.Negazione) nodo).operando), op);
+    }
+
+    if(nodo instanceof ExpressionNode.Funzione)
+    {
+      ExpressionNode.Funzione f = (ExpressionNode.Funzione) nodo;
+      int n = f.argomenti.length;
+
+      if(n == 1 && f.definizione != null)
+      {
+        MethodHandle op = lookup.findStatic(ExpressionJit.class, "unaria",
+           MethodType.methodType(double.class, FunctionRegistry.Definizione.class, double.class));
+        op = MethodHandles.insertArguments(op, 0, f.definizione);
+        return MethodHandles.filterReturnValue(compile(f.argomenti[0]), op);
+      }
+
+      // (double, ..., double)double: gli argomenti sono raccolti in un array
+      MethodHandle op = lookup.findStatic(ExpressionJit.class, "funzione",
+         MethodType.methodType(double.class, ExpressionNode.Funzione.class, Calcolatore.class, double[].class));
+      op = MethodHandles.insertArguments(op, 0, f, calc).asCollector(double[].class, n);
+      if(n == 0)
+        return MethodHandles.dropArguments(op, 0, double[].class);
+
+      MethodHandle[] filtri = new MethodHandle[n];
+      for(int i = 0; i < n; i++)
+        filtri[i] = compile(f.argomenti[i]);
+
+      return MethodHandles.permuteArguments(MethodHandles.filterArguments(op, 0, filtri), TIPO_NODO, new int[n]);
+    }
+
+    if(nodo instanceof ExpressionNode.Operazione)
+    {
+      ExpressionNode.Operazione o = (ExpressionNode.Operazione) nodo;
+      MethodHandle op = binario(o.operatore);
+      op = MethodHandles.filterArguments(op, 0, compile(o.sinistro), compile(o.destro));
+      return MethodHandles.permuteArguments(op, TIPO_NODO, 0, 0);
+    }
+
+    if(nodo instanceof ExpressionNode.Condizione)
+    {
+      ExpressionNode.Condizione c = (ExpressionNode.Condizione) nodo;
+      MethodHandle op = lookup.findStatic(ExpressionJit.class, "scegli",
+         MethodType.methodType(double.class, double.class, double.class, double.class));
+      op = MethodHandles.filterArguments(op, 0, compile(c.test), compile(c.vero), compile(c.falso));
+      return MethodHandles.permuteArguments(op, TIPO_NODO, 0, 0, 0);
+    }
+
+    // le sottoespressioni comuni vengono espanse: ci pensa HotSpot
+    if(nodo instanceof ExpressionNode.Blocco)
+      return compile(((ExpressionNode.Blocco) nodo).corpo);
+
+    if(nodo instanceof ExpressionNode.Memo)
+      return compile(((ExpressionNode.Memo) nodo).espressione);
+
+    if(nodo instanceof ExpressionNode.Temp)
+      return compile(((ExpressionNode.Temp) nodo).espressione);
+
+    throw new ParserException("Nodo non supportato: " + nodo.getClass().getName());
+  }
+
+  private MethodHandle binario(ExpressionNode.Operatore operatore)
+     throws Exception
+  {
+    switch(operatore)
+    {
+      case POTENZA:
+        return lookup.findStatic(Math.class, "pow", TIPO_BINARIO);
+      case MODULO:
+        return lookup.findStatic(ExpressionJit.class, "mod", TIPO_BINARIO);
+      case DIVISIONE:
+        return lookup.findStatic(ExpressionJit.class, "div", TIPO_BINARIO);
+      case MOLTIPLICAZIONE:
+        return lookup.findStatic(ExpressionJit.class, "mul", TIPO_BINARIO);
+      case SOMMA:
+        return lookup.findStatic(ExpressionJit.class, "add", TIPO_BINARIO);
+      case SOTTRAZIONE:
+        return lookup.findStatic(ExpressionJit.class, "sub", TIPO_BINARIO);
+      case PRIMO:
+        return lookup.findStatic(ExpressionJit.class, "primo", TIPO_BINARIO);
+      case SECONDO:
+        return lookup.findStatic(ExpressionJit.class, "secondo", TIPO_BINARIO);
+      default:
+        MethodHandle mh = lookup.findStatic(ExpressionJit.class, "operatore",
+           MethodType.methodType(double.class, ExpressionNode.Operatore.class, Calcolatore.class, double.class, double.class));
+        return MethodHandles.insertArguments(mh, 0, operatore, calc);
+    }
+  }
+
+  private static double neg(double v)
+  {
+    return -v;
+  }
+
+  private static double add(double v2, double v1)
+  {
+    return v2 + v1;
+  }
+
+  private static double sub(double v2, double v1)
+  {
+    return v2 - v1;
+  }
+
+  private static double mul(double v2, double v1)
+  {
+    return v2 * v1;
+  }
+
+  private static double div(double v2, double v1)
+  {
+    return v2 / v1;
+  }
+
+  private static double mod(double v2, double v1)
+  {
+    return v2 % v1;
+  }
+
+  private static double primo(double v2, double v1)
+  {
+    return v2;
+  }
+
+  private static double secondo(double v2, double v1)
+  {
+    return v1;
+  }
+
+  private static double scegli(double t, double v, double f)
+  {
+    return t != 0 ? v : f;
+  }
+
+  private static double operatore(ExpressionNode.Operatore op, Calcolatore calc, double v2, double v1)
+     throws Exception
+  {
+    return op.apply(calc, v2, v1);
+  }
+
+  private static double unaria(FunctionRegistry.Definizione def, double v)
+     throws Exception
+  {
+    return def.apply(v);
+  }
+
+  private static double funzione(ExpressionNode.Funzione f, Calcolatore calc, double[] args)
+     throws Exception
+  {
+    return f.apply(calc, args);
+  }
+}
@@ -0,0 +1,632 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Nodo dell'albero di un'espressione compilata.
+ * I nodi sono immutabili: una volta costruiti dal compilatore
+ * di Calcolatore possono essere valutati ripetutamente
+ * senza ripetere il parsing del testo.
+ * Gli operandi vengono sempre valutati tutti e nell'ordine
+ * in cui compaiono nel testo, come avviene nel parsing diretto.
+ *
+ * @author Nicola De Nisco
+ */
+abstract class ExpressionNode
+{
+  /**
+   * Valuta il nodo.
+   * @param frame frame di valutazione che fornisce variabili, funzioni e operatori esterni
+   * @return valore del nodo
+   * @throws Exception
+   */
+  abstract double eval(EvaluationFrame frame)
+     throws Exception;
+
+  /**
+   * Valuta il nodo per un blocco di righe nella valutazione a colonne.
+   * @param frame frame della valutazione a colonne
+   * @param start indice della prima riga del blocco
+   * @param len numero di righe del blocco
+   * @param out buffer di uscita: out[0..len) riceve i valori delle righe
+   * @throws Exception
+   */
+  abstract void evalBlock(BatchEvaluator.BatchFrame frame, int start, int len, double[] out)
+     throws Exception;
+
+  /**
+   * Raccoglie i nomi delle variabili utilizzate dal nodo.
+   * @param nomi collezione da popolare
+   */
+  void collectVariables(Collection<String> nomi)
+  {
+  }
+
+  /**
+   * Operatori binari risolti in fase di compilazione.
+   * PRIMO e SECONDO non hanno una rappresentazione testuale:
+   * valutano entrambi gli operandi e ritornano rispettivamente
+   * il primo o il secondo; sono usati per conservare la
+   * valutazione di operandi che il calcolo dello stack scarta.
+   */
+  enum Operatore
+  {
+    POTENZA("^"),
+    MODULO("%"),
+    DIVISIONE("/"),
+    MOLTIPLICAZIONE("*"),
+    SOMMA("+"),
+    SOTTRAZIONE("-"),
+    MAGGIORE(">"),
+    MINORE("<"),
+    UGUALE("=="),
+    MAGGIORE_UGUALE(">="),
+    MINORE_UGUALE("<="),
+    DIVERSO("!="),
+    MINIMO("<|"),
+    MASSIMO("|>"),
+    PRIMO(null),
+    SECONDO(null);
+
+    final String simbolo;
+
+    Operatore(String simbolo)
+    {
+      this.simbolo = simbolo;
+    }
+
+    static Operatore fromSimbolo(String simbolo)
+    {
+      for(Operatore o : values())
+        if(simbolo.equals(o.simbolo))
+          return o;
+
+      return null;
+    }
+
+    /**
+     * Applica l'operatore.
+     * @param calc calcolatore per gli operatori esterni
+     * @param v2 operando sinistro
+     * @param v1 operando destro
+     * @return risultato
+     * @throws Exception
+     */
+    double apply(Calcolatore calc, double v2, double v1)
+       throws Exception
+    {
+      switch(this)
+      {
+        case POTENZA:
+          return Math.pow(v2, v1);
+        case MODULO:
+          return v2 % v1;
+        case DIVISIONE:
+          return v2 / v1;
+        case MOLTIPLICAZIONE:
+          return v2 * v1;
+        case SOMMA:
+          return v2 + v1;
+        case SOTTRAZIONE:
+          return v2 - v1;
+        case MAGGIORE:
+          return (v2 > v1) ? 1 : 0;
+        case MINORE:
+          return (v2 < v1) ? 1 : 0;
+        case UGUALE:
+          return (v1 == v2) ? v1 : 0;
+        case MAGGIORE_UGUALE:
+          return (v2 >= v1) ? 1 : 0;
+        case MINORE_UGUALE:
+          return (v2 <= v1) ? 1 : 0;
+        case DIVERSO:
+          return (v1 != v2) ? 1 : 0;
+        case PRIMO:
+          return v2;
+        case SECONDO:
+          return v1;
+        default:
+          // operatori non gestiti direttamente: delega alle classi derivate
+          return calc.externOperazioni(v1, v2, simbolo);
+      }
+    }
+
+    /**
+     * Applica l'operatore ad un blocco di valori.
+     * I cicli sono separati per operatore in modo che
+     * il compilatore JIT possa vettorizzarli.
+     * @param calc calcolatore per gli operatori esterni
+     * @param a operandi sinistri; riceve il risultato
+     * @param b operandi destri
+     * @param len numero di valori
+     * @throws Exception
+     */
+    void applyBlock(Calcolatore calc, double[] a, double[] b, int len)
+       throws Exception
+    {
+      switch(this)
+      {
+        case POTENZA:
+          for(int i = 0; i < len; i++)
+            a[i] = Math.pow(a[i], b[i]);
+          break;
+        case MODULO:
+          for(int i = 0; i < len; i++)
+            a[i] = a[i] % b[i];
+          break;
+        case DIVISIONE:
+          for(int i = 0; i < len; i++)
+            a[i] = a[i] / b[i];
+          break;
+        case MOLTIPLICAZIONE:
+          for(int i = 0; i < len; i++)
+            a[i] = a[i] * b[i];
+          break;
+        case SOMMA:
+          for(int i = 0; i < len; i++)
+            a[i] = a[i] + b[i];
+          break;
+        case SOTTRAZIONE:
+          for(int i = 0; i < len; i++)
+            a[i] = a[i] - b[i];
+          break;
+        case PRIMO:
+          break;
+        case SECONDO:
+          System.arraycopy(b, 0, a, 0, len);
+          break;
+        default:
+          for(int i = 0; i < len; i++)
+            a[i] = apply(calc, a[i], b[i]);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Costante numerica.
+   */
+  static class Numero extends ExpressionNode
+  {
+    final double valore;
+
+    Numero(double valore)
+    {
+      this.valore = valore;
+    }
+
+    @Override
+    double eval(EvaluationFrame frame)
+    {
+      return valore;
+    }
+
+    @Override
+    void evalBlock(BatchEvaluator.BatchFrame frame, int start, int len, double[] out)
+    {
+      Arrays.fill(out, 0, len, valore);
+    }
+  }
+
+  /**
+   * Cambio di segno di un operando.
+   */
+  static class Negazione extends ExpressionNode
+  {
+    final ExpressionNode operando;
+
+    Negazione(ExpressionNode operando)
+    {
+      this.operando = operando;
+    }
+
+    @Override
+    double eval(EvaluationFrame frame)
+       throws Exception
+    {
+      return -operando.eval(frame);
+    }
+
+    @Override
+    void evalBlock(BatchEvaluator.BatchFrame frame, int start, int len, double[] out)
+       throws Exception
+    {
+      operando.evalBlock(frame, start, len, out);
+      for(int i = 0; i < len; i++)
+        out[i] = -out[i];
+    }
+
+    @Override
+    void collectVariables(Collection<String> nomi)
+    {
+      operando.collectVariables(nomi);
+    }
+  }
+
+  /**
+   * Variabile: il valore viene richiesto al frame di valutazione.
+   */
+  static class Variabile extends ExpressionNode
+  {
+    final String nome;
+
+    Variabile(String nome)
+    {
+      this.nome = nome;
+    }
+
+    @Override
+    double eval(EvaluationFrame frame)
+       throws Exception
+    {
+      return frame.valoreVariabile(nome);
+    }
+
+    @Override
+    void evalBlock(BatchEvaluator.BatchFrame frame, int start, int len, double[] out)
+       throws Exception
+    {
+      double[] colonna = frame.getColonna(nome);
+      if(colonna != null)
+        System.arraycopy(colonna, start, out, 0, len);
+      else
+        Arrays.fill(out, 0, len, frame.valoreVariabile(nome));
+    }
+
+    @Override
+    void collectVariables(Collection<String> nomi)
+    {
+      nomi.add(nome);
+    }
+  }
+
+  /**
+   * Funzione: il nome è già normalizzato e la definizione
+   * è risolta in fase di compilazione. Se la definizione
+   * non esiste la chiamata viene girata a Calcolatore.invocaFunzione().
+   */
+  static class Funzione extends ExpressionNode
+  {
+    final String nome;
+    final ExpressionNode[] argomenti;
+    final FunctionRegistry.Definizione definizione;
+
+    Funzione(String nome, ExpressionNode[] argomenti, FunctionRegistry.Definizione definizione)
+    {
+      this.nome = nome;
+      this.argomenti = argomenti;
+      this.definizione = definizione;
+    }
+
+    double apply(Calcolatore calc, double[] args)
+       throws Exception
+    {
+      return definizione != null ? definizione.apply(args) : calc.invocaFunzione(nome, args);
+    }
+
+    @Override
+    double eval(EvaluationFrame frame)
+       throws Exception
+    {
+      switch(argomenti.length)
+      {
+        case 0:
+          return apply(frame.calc, FunctionRegistry.noArgs());
+        case 1:
+          double v = argomenti[0].eval(frame);
+          return definizione != null ? definizione.apply(v) : frame.calc.invocaFunzione(nome, new double[]
+          {
+            v
+          });
+      }
+
+      double[] args = new double[argomenti.length];
+      for(int i = 0; i < args.length; i++)
+        args[i] = argomenti[i].eval(frame);
+
+      return apply(frame.calc, args);
+    }
+
+    @Override
+    void evalBlock(BatchEvaluator.BatchFrame frame, int start, int len, double[] out)
+       throws Exception
+    {
+      if(argomenti.length == 0)
+      {
+        Arrays.fill(out, 0, len, apply(frame.calc, FunctionRegistry.noArgs()));
+        return;
+      }
+
+      if(argomenti.length == 1 && definizione != null)
+      {
+        argomenti[0].evalBlock(frame, start, len, out);
+        for(int i = 0; i < len; i++)
+          out[i] = definizione.apply(out[i]);
+        return;
+      }
+
+      // un buffer per ogni argomento; il primo usa out
+      double[][] bufs = new double[argomenti.length][];
+      bufs[0] = out;
+      try
+      {
+        argomenti[0].evalBlock(frame, start, len, out);
+        for(int j = 1; j < argomenti.length; j++)
+        {
+          bufs[j] = frame.acquire();
+          argomenti[j].evalBlock(frame, start, len, bufs[j]);
+        }
+
+        double[] args = new double[argomenti.length];
+        for(int i = 0; i < len; i++)
+        {
+          for(int j = 0; j < args.length; j++)
+            args[j] = bufs[j][i];
+          out[i] = apply(frame.calc, args);
+        }
+      }
+      finally
+      {
+        for(int j = 1; j < bufs.length && bufs[j] != null; j++)
+          frame.release();
+      }
+    }
+
+    @Override
+    void collectVariables(Collection<String> nomi)
+    {
+      for(ExpressionNode a : argomenti)
+        a.collectVariables(nomi);
+    }
+  }
+
+  /**
+   * Operazione binaria.
+   */
+  static class Operazione extends ExpressionNode
+  {
+    final Operatore operatore;
+    final ExpressionNode sinistro, destro;
+
+    Operazione(Operatore operatore, ExpressionNode sinistro, ExpressionNode destro)
+    {
+      this.operatore = operatore;
+      this.sinistro = sinistro;
+      this.destro = destro;
+    }
+
+    @Override
+    double eval(EvaluationFrame frame)
+       throws Exception
+    {
+      double v2 = sinistro.eval(frame);
+      double v1 = destro.eval(frame);
+      return operatore.apply(frame.calc, v2, v1);
+    }
+
+    @Override
+    void evalBlock(BatchEvaluator.BatchFrame frame, int start, int len, double[] out)
+       throws Exception
+    {
+      sinistro.evalBlock(frame, start, len, out);
+      double[] tmp = frame.acquire();
+      try
+      {
+        destro.evalBlock(frame, start, len, tmp);
+        operatore.applyBlock(frame.calc, out, tmp, len);
+      }
+      finally
+      {
+        frame.release();
+      }
+    }
+
+    @Override
+    void collectVariables(Collection<String> nomi)
+    {
+      sinistro.collectVariables(nomi);
+      destro.collectVariables(nomi);
+    }
+  }
+
+  /**
+   * Operatore ternario expTest ? exp1 : exp2.
+   * Come nel parsing diretto tutti e tre gli operandi vengono valutati.
+   */
+  static class Condizione extends ExpressionNode
+  {
+    final ExpressionNode test, vero, falso;
+
+    Condizione(ExpressionNode test, ExpressionNode vero, ExpressionNode falso)
+    {
+      this.test = test;
+      this.vero = vero;
+      this.falso = falso;
+    }
+
+    @Override
+    double eval(EvaluationFrame frame)
+       throws Exception
+    {
+      double t = test.eval(frame);
+      double v = vero.eval(frame);
+      double f = falso.eval(frame);
+      return t != 0 ? v : f;
+    }
+
+    @Override
+    void evalBlock(BatchEvaluator.BatchFrame frame, int start, int len, double[] out)
+       throws Exception
+    {
+      test.evalBlock(frame, start, len, out);
+      double[] tv = frame.acquire();
+      double[] tf = frame.acquire();
+      try
+      {
+        vero.evalBlock(frame, start, len, tv);
+        falso.evalBlock(frame, start, len, tf);
+        for(int i = 0; i < len; i++)
+          out[i] = out[i] != 0 ? tv[i] : tf[i];
+      }
+      finally
+      {
+        frame.release();
+        frame.release();
+      }
+    }
+
+    @Override
+    void collectVariables(Collection<String> nomi)
+    {
+      test.collectVariables(nomi);
+      vero.collectVariables(nomi);
+      falso.collectVariables(nomi);
+    }
+  }
+
+  /**
+   * Blocco di un'espressione ottimizzata con sottoespressioni comuni:
+   * riserva nel frame gli slot temporanei per la durata della valutazione.
+   */
+  static class Blocco extends ExpressionNode
+  {
+    final int numTemp;
+    final ExpressionNode corpo;
+
+    Blocco(int numTemp, ExpressionNode corpo)
+    {
+      this.numTemp = numTemp;
+      this.corpo = corpo;
+    }
+
+    @Override
+    double eval(EvaluationFrame frame)
+       throws Exception
+    {
+      int base = frame.openTemp(numTemp);
+      try
+      {
+        return corpo.eval(frame);
+      }
+      finally
+      {
+        frame.closeTemp(base);
+      }
+    }
+
+    @Override
+    void evalBlock(BatchEvaluator.BatchFrame frame, int start, int len, double[] out)
+       throws Exception
+    {
+      int base = frame.openTempBlocks(numTemp);
+      try
+      {
+        corpo.evalBlock(frame, start, len, out);
+      }
+      finally
+      {
+        frame.closeTempBlocks(base);
+      }
+    }
+
+    @Override
+    void collectVariables(Collection<String> nomi)
+    {
+      corpo.collectVariables(nomi);
+    }
+  }
+
+  /**
+   * Prima occorrenza di una sottoespressione comune:
+   * il valore viene calcolato e conservato nello slot temporaneo.
+   */
+  static class Memo extends ExpressionNode
+  {
+    final int indice;
+    final ExpressionNode espressione;
+
+    Memo(int indice, ExpressionNode espressione)
+    {
+      this.indice = indice;
+      this.espressione = espressione;
+    }
+
+    @Override
+    double eval(EvaluationFrame frame)
+       throws Exception
+    {
+      double v = espressione.eval(frame);
+      frame.setTemp(indice, v);
+      return v;
+    }
+
+    @Override
+    void evalBlock(BatchEvaluator.BatchFrame frame, int start, int len, double[] out)
+       throws Exception
+    {
+      espressione.evalBlock(frame, start, len, out);
+      System.arraycopy(out, 0, frame.getTempBlock(indice), 0, len);
+    }
+
+    @Override
+    void collectVariables(Collection<String> nomi)
+    {
+      espressione.collectVariables(nomi);
+    }
+  }
+
+  /**
+   * Occorrenza successiva di una sottoespressione comune:
+   * il valore viene letto dallo slot temporaneo.
+   * Le occorrenze vengono valutate nell'ordine del testo, per cui
+   * il Memo corrispondente è sempre già stato valutato.
+   */
+  static class Temp extends ExpressionNode
+  {
+    final int indice;
+    /** espressione originale (per chi non gestisce gli slot temporanei) */
+    final ExpressionNode espressione;
+
+    Temp(int indice, ExpressionNode espressione)
+    {
+      this.indice = indice;
+      this.espressione = espressione;
+    }
+
+    @Override
+    double eval(EvaluationFrame frame)
+    {
+      return frame.getTemp(indice);
+    }
+
+    @Override
+    void evalBlock(BatchEvaluator.BatchFrame frame, int start, int len, double[] out)
+    {
+      System.arraycopy(frame.getTempBlock(indice), 0, out, 0, len);
+    }
+
+    @Override
+    void collectVariables(Collection<String> nomi)
+    {
+      espressione.collectVariables(nomi);
+    }
+  }
+}
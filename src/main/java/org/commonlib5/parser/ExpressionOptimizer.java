@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.*;
+import org.commonlib5.parser.ExpressionNode.*;
+
+/**
+ * Ottimizzatore di espressioni compilate.
+ * Applica in sequenza i seguenti passi:
+ * <ul>
+ * <li>costanti: calcola i sottoalberi costanti, comprese le
+ * chiamate alle funzioni pure del registro (sin, sqr, pi, ...);</li>
+ * <li>identita': semplifica le identita' algebriche
+ * (x*1, x/1, x^1, x+0, x-0, --x, ecc.);</li>
+ * <li>comuni: elimina le sottoespressioni comuni, che vengono
+ * calcolate una sola volta per valutazione.</li>
+ * </ul>
+ * Per ogni passo viene riportato il numero di nodi rimossi.
+ * Le funzioni esterne e gli operatori esterni non vengono mai
+ * calcolati in anticipo né eliminati.
+ * Le semplificazioni x+0 e 0+x possono cambiare solo il segno
+ * di un risultato uguale a zero.
+ *
+ * <pre><code>
+ * Calcolatore calc = new Calcolatore();
+ * ExpressionOptimizer eo = new ExpressionOptimizer(calc);
+ * CompiledExpression ce = eo.optimize(calc.compile("a*(pi2()*2/3) + a*(pi2()*2/3)"));
+ * System.out.println(eo.getNodiRimossi());
+ * </code></pre>
+ *
+ * @author Nicola De Nisco
+ */
+public class ExpressionOptimizer
+{
+  public static final String PASSO_COSTANTI = "costanti";
+  public static final String PASSO_IDENTITA = "identita";
+  public static final String PASSO_COMUNI = "comuni";
+
+  private final Calcolatore calc;
+  private final Map<String, Integer> nodiRimossi = new LinkedHashMap<>();
+  private int nodiIniziali, nodiFinali;
+
+  public ExpressionOptimizer(Calcolatore calc)
+  {
+    this.calc = calc;
+  }
+
+  /**
+   * Ottimizza l'espressione applicando tutti i passi.
+   * @param ce espressione da ottimizzare
+   * @return nuova espressione ottimizzata
+   * @throws Exception
+   */
+  public CompiledExpression optimize(CompiledExpression ce)
+     throws Exception
+  {
+    nodiRimossi.clear();
+    ExpressionNode nodo = ce.getRoot();
+    nodiIniziali = conta(nodo);
+
+    int prima = nodiIniziali;
+    nodo = costanti(nodo);
+    prima = registra(PASSO_COSTANTI, prima, nodo);
+
+    nodo = identita(nodo);
+    prima = registra(PASSO_IDENTITA, prima, nodo);
+
+    nodo = comuni(nodo);
+    nodiFinali = registra(PASSO_COMUNI, prima, nodo);
+
+    return new CompiledExpression(ce.getSource(), nodo);
+  }
+
+  private int registra(String passo, int prima, ExpressionNode nodo)
+  {
+    int dopo = conta(nodo);
+    nodiRimossi.put(passo, prima - dopo);
+    return dopo;
+  }
+
+  /**
+   * Ritorna il numero di nodi rimossi da ciascun passo
+   * dell'ultima ottimizzazione.
+   * @return mappa passo -&gt; nodi rimossi
+   */
+  public Map<String, Integer> getNodiRimossi()
+  {
+    return Collections.unmodifiableMap(nodiRimossi);
+  }
+
+  public int getNodiIniziali()
+  {
+    return nodiIniziali;
+  }
+
+  public int getNodiFinali()
+  {
+    return nodiFinali;
+  }
+
+  /**
+   * Conta i nodi dell'albero. Un riferimento ad una
+   * sottoespressione comune conta come un nodo.
+   */
+  static int conta(ExpressionNode n)
+  {
+    if(n instanceof Negazione)
+      return 1 + conta(((Negazione) n).operando);
+    if(n instanceof Funzione)
+    {
+      int rv = 1;
+      for(ExpressionNode a : ((Funzione) n).argomenti)
+        rv += conta(a);
+      return rv;
+    }
+    if(n instanceof Operazione)
+      return 1 + conta(((Operazione) n).sinistro) + conta(((Operazione) n).destro);
+    if(n instanceof Condizione)
+      return 1 + conta(((Condizione) n).test) + conta(((Condizione) n).vero) + conta(((Condizione) n).falso);
+    if(n instanceof Blocco)
+      return conta(((Blocco) n).corpo);
+    if(n instanceof Memo)
+      return conta(((Memo) n).espressione);
+
+    return 1;
+  }
+
+  /**
+   * Ritorna vero se il nodo non ha effetti collaterali:
+   * contiene solo costanti, variabili, operatori interni
+   * e funzioni pure.
+   */
+  boolean isPuro(ExpressionNode n)
+  {
+    if(n instanceof Numero || n instanceof Variabile || n instanceof Temp)
+      return true;
+    if(n instanceof Negazione)
+      return isPuro(((Negazione) n).operando);
+    if(n instanceof Funzione)
+    {
+      Funzione f = (Funzione) n;
+      if(f.definizione == null || !f.definizione.isPura())
+        return false;
+
+      for(ExpressionNode a : f.argomenti)
+        if(!isPuro(a))
+          return false;
+
+      return true;
+    }
+    if(n instanceof Operazione)
+    {
+      // minimo e massimo sono risolti da externOperazioni()
+      Operazione o = (Operazione) n;
+      if(o.operatore == Operatore.MINIMO || o.operatore == Operatore.MASSIMO)
+        return false;
+
+      return isPuro(o.sinistro) && isPuro(o.destro);
+    }
+    if(n instanceof Condizione)
+      return isPuro(((Condizione) n).test) && isPuro(((Condizione) n).vero) && isPuro(((Condizione) n).falso);
+
+    return false;
+  }
+
+  private boolean isCostante(ExpressionNode n)
+  {
+    return n instanceof Numero;
+  }
+
+  private boolean isValore(ExpressionNode n, double v)
+  {
+    return n instanceof Numero && ((Numero) n).valore == v;
+  }
+
+  /**
+   * Passo costanti: i nodi puri con tutti gli operandi
+   * costanti vengono sostituiti dal loro valore.
+   */
+  ExpressionNode costanti(ExpressionNode n)
+     throws Exception
+  {
+    if(n instanceof Negazione)
+    {
+      ExpressionNode op = costanti(((Negazione) n).operando);
+      return isCostante(op) ? new Numero(-((Numero) op).valore) : new Negazione(op);
+    }
+
+    if(n instanceof Funzione)
+    {
+      Funzione f = (Funzione) n;
+      boolean tutteCostanti = true;
+      ExpressionNode[] args = new ExpressionNode[f.argomenti.length];
+      for(int i = 0; i < args.length; i++)
+        tutteCostanti &= isCostante(args[i] = costanti(f.argomenti[i]));
+
+      ExpressionNode rv = new Funzione(f.nome, args, f.definizione);
+      return tutteCostanti && isPuro(rv) ? calcola(rv) : rv;
+    }
+
+    if(n instanceof Operazione)
+    {
+      Operazione o = (Operazione) n;
+      ExpressionNode sx = costanti(o.sinistro), dx = costanti(o.destro);
+      ExpressionNode rv = new Operazione(o.operatore, sx, dx);
+      return isCostante(sx) && isCostante(dx) && isPuro(rv) ? calcola(rv) : rv;
+    }
+
+    if(n instanceof Condizione)
+    {
+      Condizione c = (Condizione) n;
+      ExpressionNode t = costanti(c.test), v = costanti(c.vero), f = costanti(c.falso);
+      ExpressionNode rv = new Condizione(t, v, f);
+      return isCostante(t) && isCostante(v) && isCostante(f) ? calcola(rv) : rv;
+    }
+
+    return n;
+  }
+
+  private ExpressionNode calcola(ExpressionNode n)
+     throws Exception
+  {
+    return new Numero(n.eval(calc.createFrame()));
+  }
+
+  /**
+   * Passo identita': semplificazioni algebriche che non
+   * cambiano il risultato.
+   */
+  ExpressionNode identita(ExpressionNode n)
+  {
+    if(n instanceof Negazione)
+    {
+      ExpressionNode op = identita(((Negazione) n).operando);
+      if(op instanceof Negazione)
+        return ((Negazione) op).operando;
+
+      return new Negazione(op);
+    }
+
+    if(n instanceof Funzione)
+    {
+      Funzione f = (Funzione) n;
+      ExpressionNode[] args = new ExpressionNode[f.argomenti.length];
+      for(int i = 0; i < args.length; i++)
+        args[i] = identita(f.argomenti[i]);
+
+      return new Funzione(f.nome, args, f.definizione);
+    }
+
+    if(n instanceof Operazione)
+    {
+      Operazione o = (Operazione) n;
+      ExpressionNode sx = identita(o.sinistro), dx = identita(o.destro);
+
+      switch(o.operatore)
+      {
+        case SOMMA:
+          if(isValore(dx, 0))
+            return sx;
+          if(isValore(sx, 0))
+            return dx;
+          break;
+
+        case SOTTRAZIONE:
+          if(isValore(dx, 0))
+            return sx;
+          break;
+
+        case MOLTIPLICAZIONE:
+          if(isValore(dx, 1))
+            return sx;
+          if(isValore(sx, 1))
+            return dx;
+          if(isValore(dx, -1))
+            return new Negazione(sx);
+          if(isValore(sx, -1))
+            return new Negazione(dx);
+          break;
+
+        case DIVISIONE:
+          if(isValore(dx, 1))
+            return sx;
+          break;
+
+        case POTENZA:
+          if(isValore(dx, 1))
+            return sx;
+          if(isValore(dx, 0) && isPuro(sx))
+            return new Numero(1);
+          break;
+
+        case PRIMO:
+          if(isPuro(dx))
+            return sx;
+          break;
+
+        case SECONDO:
+          if(isPuro(sx))
+            return dx;
+          break;
+      }
+
+      return new Operazione(o.operatore, sx, dx);
+    }
+
+    if(n instanceof Condizione)
+    {
+      Condizione c = (Condizione) n;
+      ExpressionNode t = identita(c.test), v = identita(c.vero), f = identita(c.falso);
+
+      if(isCostante(t))
+      {
+        if(((Numero) t).valore != 0 && isPuro(f))
+          return v;
+        if(((Numero) t).valore == 0 && isPuro(v))
+          return f;
+      }
+
+      if(isPuro(t) && chiave(v, new IdentityHashMap<>()).equals(chiave(f, new IdentityHashMap<>())) && isPuro(f))
+        return v;
+
+      return new Condizione(t, v, f);
+    }
+
+    return n;
+  }
+
+  /**
+   * Chiave strutturale di un nodo: due nodi con la stessa
+   * chiave calcolano sempre lo stesso valore.
+   */
+  private String chiave(ExpressionNode n, Map<ExpressionNode, String> chiavi)
+  {
+    String k = chiavi.get(n);
+    if(k != null)
+      return k;
+
+    if(n instanceof Numero)
+      k = "#" + Long.toHexString(Double.doubleToLongBits(((Numero) n).valore));
+    else if(n instanceof Variabile)
+      k = "$" + ((Variabile) n).nome.length() + ":" + ((Variabile) n).nome;
+    else if(n instanceof Negazione)
+      k = "(-" + chiave(((Negazione) n).operando, chiavi) + ")";
+    else if(n instanceof Funzione)
+    {
+      StringBuilder sb = new StringBuilder();
+      sb.append('(').append(((Funzione) n).nome.length()).append(':').append(((Funzione) n).nome);
+      for(ExpressionNode a : ((Funzione) n).argomenti)
+        sb.append(' ').append(chiave(a, chiavi));
+      k = sb.append(')').toString();
+    }
+    else if(n instanceof Operazione)
+      k = "(" + ((Operazione) n).operatore.name() + " "
+         + chiave(((Operazione) n).sinistro, chiavi) + " " + chiave(((Operazione) n).destro, chiavi) + ")";
+    else if(n instanceof Condizione)
+      k = "(? " + chiave(((Condizione) n).test, chiavi) + " "
+         + chiave(((Condizione) n).vero, chiavi) + " " + chiave(((Condizione) n).falso, chiavi) + ")";
+    else
+      k = "@" + System.identityHashCode(n);
+
+    chiavi.put(n, k);
+    return k;
+  }
+
+  /**
+   * Stato del passo sottoespressioni comuni.
+   */
+  private class Comuni
+  {
+    final Map<ExpressionNode, String> chiavi = new IdentityHashMap<>();
+    final Map<String, Integer> occorrenze = new HashMap<>();
+    final Map<String, Integer> effettive = new HashMap<>();
+    final Set<String> viste = new HashSet<>();
+    final Map<String, Integer> indici = new HashMap<>();
+
+    boolean isCandidato(ExpressionNode n)
+    {
+      return !(n instanceof Numero || n instanceof Variabile) && isPuro(n);
+    }
+
+    /** conta tutte le occorrenze di ogni sottoalbero */
+    void contaOccorrenze(ExpressionNode n)
+    {
+      occorrenze.merge(chiave(n, chiavi), 1, Integer::sum);
+      for(ExpressionNode c : figli(n))
+        contaOccorrenze(c);
+    }
+
+    /**
+     * conta le occorrenze che restano dopo la sostituzione
+     * delle sottoespressioni comuni più esterne
+     */
+    void contaEffettive(ExpressionNode n)
+    {
+      String k = chiave(n, chiavi);
+      effettive.merge(k, 1, Integer::sum);
+
+      if(isCandidato(n) && occorrenze.get(k) > 1 && !viste.add(k))
+        return;
+
+      for(ExpressionNode c : figli(n))
+        contaEffettive(c);
+    }
+
+    /** sostituisce le occorrenze nell'ordine di valutazione */
+    ExpressionNode sostituisci(ExpressionNode n)
+    {
+      String k = chiave(n, chiavi);
+      if(isCandidato(n) && effettive.get(k) > 1)
+      {
+        Integer idx = indici.get(k);
+        if(idx != null)
+          return new Temp(idx, n);
+
+        idx = indici.size();
+        indici.put(k, idx);
+        return new Memo(idx, ricostruisci(n));
+      }
+
+      return ricostruisci(n);
+    }
+
+    ExpressionNode ricostruisci(ExpressionNode n)
+    {
+      if(n instanceof Negazione)
+        return new Negazione(sostituisci(((Negazione) n).operando));
+      if(n instanceof Funzione)
+      {
+        Funzione f = (Funzione) n;
+        ExpressionNode[] args = new ExpressionNode[f.argomenti.length];
+        for(int i = 0; i < args.length; i++)
+          args[i] = sostituisci(f.argomenti[i]);
+        return new Funzione(f.nome, args, f.definizione);
+      }
+      if(n instanceof Operazione)
+      {
+        Operazione o = (Operazione) n;
+        ExpressionNode sx = sostituisci(o.sinistro);
+        return new Operazione(o.operatore, sx, sostituisci(o.destro));
+      }
+      if(n instanceof Condizione)
+      {
+        Condizione c = (Condizione) n;
+        ExpressionNode t = sostituisci(c.test);
+        ExpressionNode v = sostituisci(c.vero);
+        return new Condizione(t, v, sostituisci(c.falso));
+      }
+
+      return n;
+    }
+  }
+
+  private static List<ExpressionNode> figli(ExpressionNode n)
+  {
+    if(n instanceof Negazione)
+      return Collections.singletonList(((Negazione) n).operando);
+    if(n instanceof Funzione)
+      return Arrays.asList(((Funzione) n).argomenti);
+    if(n instanceof Operazione)
+      return Arrays.asList(((Operazione) n).sinistro, ((Operazione) n).destro);
+    if(n instanceof Condizione)
+      return Arrays.asList(((Condizione) n).test, ((Condizione) n).vero, ((Condizione) n).falso);
+
+    return Collections.emptyList();
+  }
+
+  /**
+   * Passo sottoespressioni comuni: la prima occorrenza (in ordine
+   * di valutazione) calcola e conserva il valore, le successive
+   * lo rileggono.
+   */
+  ExpressionNode comuni(ExpressionNode n)
+  {
+    Comuni c = new Comuni();
+    c.contaOccorrenze(n);
+    c.contaEffettive(n);
+
+    ExpressionNode rv = c.sostituisci(n);
+    return c.indici.isEmpty() ? rv : new Blocco(c.indici.size(), rv);
+  }
+}
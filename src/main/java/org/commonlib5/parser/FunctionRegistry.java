@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro delle funzioni disponibili nelle espressioni.
+ * Le funzioni vengono risolte una sola volta in fase di compilazione:
+ * ogni chiamata nell'espressione compilata conserva il riferimento
+ * diretto alla sua definizione, senza confronti di stringhe
+ * durante la valutazione.
+ * Ogni Calcolatore ha un proprio registro che eredita le funzioni
+ * built-in da BUILTIN; le funzioni registrate dopo la compilazione
+ * non modificano le espressioni già compilate.
+ *
+ * <pre><code>
+ * Calcolatore calc = new Calcolatore();
+ * calc.getFunctionRegistry().register("media", 1, -1, true, (args) -&gt; ...);
+ * calc.parse("media(a, b, c)");
+ * </code></pre>
+ *
+ * @author Nicola De Nisco
+ */
+public class FunctionRegistry
+{
+  /**
+   * Implementazione di una funzione con un numero qualsiasi di argomenti.
+   * L'array degli argomenti può essere riutilizzato dal chiamante:
+   * l'implementazione non deve conservarlo.
+   */
+  @FunctionalInterface
+  public interface Implementazione
+  {
+    double apply(double[] args)
+       throws Exception;
+  }
+
+  /**
+   * Implementazione di una funzione con un solo argomento.
+   */
+  @FunctionalInterface
+  public interface Unaria
+  {
+    double apply(double v)
+       throws Exception;
+  }
+
+  /**
+   * Definizione di una funzione.
+   */
+  public static final class Definizione
+  {
+    private final String nome;
+    private final int minArgs, maxArgs;
+    private final boolean pura;
+    private final Implementazione impl;
+    private final Unaria unaria;
+
+    private Definizione(String nome, int minArgs, int maxArgs, boolean pura, Implementazione impl, Unaria unaria)
+    {
+      this.nome = nome;
+      this.minArgs = minArgs;
+      this.maxArgs = maxArgs;
+      this.pura = pura;
+      this.impl = impl;
+      this.unaria = unaria;
+    }
+
+    public String getNome()
+    {
+      return nome;
+    }
+
+    public int getMinArgs()
+    {
+      return minArgs;
+    }
+
+    /**
+     * Numero massimo di argomenti.
+     * @return massimo numero di argomenti oppure -1 se illimitato
+     */
+    public int getMaxArgs()
+    {
+      return maxArgs;
+    }
+
+    /**
+     * Una funzione pura ritorna sempre lo stesso valore per gli
+     * stessi argomenti e non ha effetti collaterali: può essere
+     * calcolata in anticipo da ExpressionOptimizer.
+     * @return vero se pura
+     */
+    public boolean isPura()
+    {
+      return pura;
+    }
+
+    public boolean accept(int numArgs)
+    {
+      return numArgs >= minArgs && (maxArgs < 0 || numArgs <= maxArgs);
+    }
+
+    /**
+     * Valuta la funzione.
+     * @param args argomenti
+     * @return valore della funzione
+     * @throws Exception
+     */
+    public double apply(double[] args)
+       throws Exception
+    {
+      return unaria != null ? unaria.apply(args[0]) : impl.apply(args);
+    }
+
+    /**
+     * Valuta una funzione con un solo argomento
+     * senza allocare l'array degli argomenti.
+     * @param v argomento
+     * @return valore della funzione
+     * @throws Exception
+     */
+    public double apply(double v)
+       throws Exception
+    {
+      return unaria != null ? unaria.apply(v) : impl.apply(new double[]
+      {
+        v
+      });
+    }
+
+    @Override
+    public String toString()
+    {
+      return nome + "/" + minArgs + (maxArgs == minArgs ? "" : ".." + (maxArgs < 0 ? "n" : maxArgs));
+    }
+  }
+
+  /**
+   * Funzioni built-in (sola lettura): ogni tentativo di modifica
+   * solleva UnsupportedOperationException. Le funzioni aggiuntive
+   * vanno registrate nel registro del singolo Calcolatore
+   * (vedi Calcolatore.getFunctionRegistry()).
+   */
+  public static final FunctionRegistry BUILTIN = new FunctionRegistry(null);
+  private static final double[] NO_ARGS = new double[0];
+
+  static
+  {
+    BUILTIN.registerCostante("pi", MathConsts.M_PI);
+    BUILTIN.registerCostante("pi2", MathConsts.M_PI_2);
+    BUILTIN.registerCostante("pi4", MathConsts.M_PI_4);
+    BUILTIN.registerCostante("p1i", MathConsts.M_1_PI);
+    BUILTIN.registerCostante("p2i", MathConsts.M_2_PI);
+    BUILTIN.registerCostante("p1s", MathConsts.M_1_SQRTPI);
+    BUILTIN.registerCostante("p2s", MathConsts.M_2_SQRTPI);
+    BUILTIN.registerCostante("sqr2", MathConsts.M_SQRT2);
+    BUILTIN.registerCostante("sqr22", MathConsts.M_SQRT_2);
+    BUILTIN.registerCostante("ln2", MathConsts.M_LN2);
+    BUILTIN.registerCostante("ln10", MathConsts.M_LN10);
+    BUILTIN.registerCostante("ne", MathConsts.M_E);
+    BUILTIN.registerCostante("nlog2e", MathConsts.M_LOG2E);
+    BUILTIN.registerCostante("nlog10e", MathConsts.M_LOG10E);
+
+    BUILTIN.register("pow10", true, (v) -> Math.pow(10.0, v));
+    BUILTIN.register("sin", true, Math::sin);
+    BUILTIN.register("sqr", true, Math::sqrt);
+    BUILTIN.register("cos", true, Math::cos);
+    BUILTIN.register("ceil", true, Math::ceil);
+    BUILTIN.register("floor", true, Math::floor);
+    BUILTIN.register("g2r", true, (v) -> (v * MathConsts.M_PI) / 180.0);
+    BUILTIN.register("r2g", true, (v) -> (v * 180.0) / MathConsts.M_PI);
+    BUILTIN.register("tan", true, Math::tan);
+    BUILTIN.register("asin", true, Math::asin);
+    BUILTIN.register("acos", true, Math::acos);
+    BUILTIN.register("atan", true, Math::atan);
+    BUILTIN.register("abs", true, Math::abs);
+    BUILTIN.register("log", true, Math::log10);
+    BUILTIN.register("ln", true, Math::log);
+    BUILTIN.register("exp", true, Math::exp);
+    BUILTIN.register("truncate1", true, (v) -> Math.round(v * 10) / 10.0);
+    BUILTIN.register("truncate2", true, (v) -> Math.round(v * 100) / 100.0);
+    BUILTIN.register("truncate3", true, (v) -> Math.round(v * 1000) / 1000.0);
+    BUILTIN.register("round", true, Math::round);
+
+    BUILTIN.register("pow", 2, 2, true, (args) -> Math.pow(args[0], args[1]));
+    BUILTIN.register("atan2", 2, 2, true, (args) -> Math.atan2(args[0], args[1]));
+    BUILTIN.register("min", 1, -1, true, FunctionRegistry::minimo);
+    BUILTIN.register("max", 1, -1, true, FunctionRegistry::massimo);
+    BUILTIN.readOnly = true;
+  }
+
+  private final FunctionRegistry parent;
+  private final ConcurrentHashMap<String, Definizione> funzioni = new ConcurrentHashMap<>();
+  // cambia ad ogni modifica del registro (vedi getAmbito())
+  private volatile Object versione = new Object();
+  private volatile boolean readOnly = false;
+
+  /**
+   * Costruisce un registro che eredita le funzioni di parent.
+   * @param parent registro da cui ereditare (può essere null)
+   */
+  public FunctionRegistry(FunctionRegistry parent)
+  {
+    this.parent = parent;
+  }
+
+  /**
+   * Registra una funzione.
+   * @param nome nome della funzione (non sensibile a maiuscole/minuscole)
+   * @param minArgs numero minimo di argomenti
+   * @param maxArgs numero massimo di argomenti (-1 per illimitato)
+   * @param pura vero se la funzione è pura (vedi Definizione.isPura())
+   * @param impl implementazione
+   * @return la definizione registrata
+   */
+  public Definizione register(String nome, int minArgs, int maxArgs, boolean pura, Implementazione impl)
+  {
+    if(minArgs < 0 || (maxArgs >= 0 && maxArgs < minArgs))
+      throw new IllegalArgumentException("Numero di argomenti non valido per " + nome);
+
+    return put(new Definizione(normalizza(nome), minArgs, maxArgs, pura, impl, null));
+  }
+
+  /**
+   * Registra una funzione con un solo argomento.
+   * @param nome nome della funzione (non sensibile a maiuscole/minuscole)
+   * @param pura vero se la funzione è pura (vedi Definizione.isPura())
+   * @param impl implementazione
+   * @return la definizione registrata
+   */
+  public Definizione register(String nome, boolean pura, Unaria impl)
+  {
+    return put(new Definizione(normalizza(nome), 1, 1, pura, null, impl));
+  }
+
+  /**
+   * Registra una costante: una funzione senza argomenti.
+   * @param nome nome della costante (non sensibile a maiuscole/minuscole)
+   * @param valore valore della costante
+   * @return la definizione registrata
+   */
+  public Definizione registerCostante(String nome, double valore)
+  {
+    return put(new Definizione(normalizza(nome), 0, 0, true, (args) -> valore, null));
+  }
+
+  private Definizione put(Definizione d)
+  {
+    verificaModificabile();
+    funzioni.put(d.nome, d);
+    versione = new Object();
+    return d;
+  }
+
+  /**
+   * Rimuove una funzione da questo registro.
+   * Le funzioni ereditate non vengono rimosse.
+   * @param nome nome della funzione
+   * @return la definizione rimossa oppure null
+   */
+  public Definizione unregister(String nome)
+  {
+    verificaModificabile();
+    Definizione rv = funzioni.remove(normalizza(nome));
+    versione = new Object();
+    return rv;
+  }
+
+  private void verificaModificabile()
+  {
+    if(readOnly)
+      throw new UnsupportedOperationException("Registro delle funzioni in sola lettura.");
+  }
+
+  /**
+   * Verifica se il registro è in sola lettura.
+   * @return vero se il registro non può essere modificato (BUILTIN)
+   */
+  public boolean isReadOnly()
+  {
+    return readOnly;
+  }
+
+  /**
+   * Ritorna un oggetto che identifica l'insieme delle funzioni
+   * visibili da questo registro: due registri con ambiti uguali
+   * risolvono le funzioni allo stesso modo. Un registro senza
+   * funzioni proprie ha lo stesso ambito del registro ereditato.
+   * Usato da ExpressionCache per condividere le espressioni compilate.
+   * @return identificativo dell'insieme di funzioni
+   */
+  Object getAmbito()
+  {
+    if(funzioni.isEmpty() && parent != null)
+      return parent.getAmbito();
+
+    return parent == null ? versione : Arrays.asList(versione, parent.getAmbito());
+  }
+
+  /**
+   * Cerca una funzione in questo registro e nei registri ereditati.
+   * @param nome nome normalizzato della funzione (minuscolo)
+   * @return la definizione oppure null se non trovata
+   */
+  public Definizione lookup(String nome)
+  {
+    Definizione d = funzioni.get(nome);
+    if(d == null && parent != null)
+      d = parent.lookup(nome);
+
+    return d;
+  }
+
+  /**
+   * Ritorna i nomi di tutte le funzioni disponibili.
+   * @return nomi delle funzioni (ordinati)
+   */
+  public Set<String> getNomi()
+  {
+    TreeSet<String> rv = parent == null ? new TreeSet<>() : new TreeSet<>(parent.getNomi());
+    rv.addAll(funzioni.keySet());
+    return rv;
+  }
+
+  private static String normalizza(String nome)
+  {
+    return nome.trim().toLowerCase();
+  }
+
+  static double[] noArgs()
+  {
+    return NO_ARGS;
+  }
+
+  private static double minimo(double[] args)
+  {
+    double rv = args[0];
+    for(int i = 1; i < args.length; i++)
+      rv = Math.min(rv, args[i]);
+    return rv;
+  }
+
+  private static double massimo(double[] args)
+  {
+    double rv = args[0];
+    for(int i = 1; i < args.length; i++)
+      rv = Math.max(rv, args[i]);
+    return rv;
+  }
+}
@@ -18,24 +18,54 @@
 package org.commonlib5.parser;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Title: Commonlib
  * Description: Libreria di utilizzo comune.
  * Contiene varie funzioni di utilita'
  * quali calcolo matriciale, ecc.
+ * Cache e variabili sono contenute in mappe concorrenti e lo stato
+ * della singola valutazione (rank di cache) nel frame di valutazione:
+ * la stessa istanza può essere utilizzata da più thread senza lock
+ * (le classi derivate che sostituiscono le mappe con mappe non
+ * concorrenti perdono questa proprietà).
  * @author Nicola De Nisco
  * @version 1.0
  */
 public class Parser extends Calcolatore
 {
   protected int numCache = 1;
-  protected HashMap<String, Double> cache[] = null;
-  protected HashMap<String, String> htVars = new HashMap<>();
+  // dichiarate come Map per compatibilità con le classi derivate;
+  // le istanze sono ConcurrentHashMap (vedi setCacheLevels())
+  protected volatile Map<String, Double> cache[] = null;
+  protected Map<String, String> htVars = new ConcurrentHashMap<>();
+  /**
+   * Non più utilizzato: il rank di cache della valutazione
+   * in corso è contenuto in ParserFrame.
+   * @deprecated vedi ParserFrame.cacheRank
+   */
+  @Deprecated
   protected int cacheRank = 0;
 
+  /**
+   * Frame di valutazione per Parser.
+   * Conserva il rank di cache più elevato fra quelli
+   * delle variabili interessate nella computazione.
+   */
+  protected static class ParserFrame extends EvaluationFrame
+  {
+    protected int cacheRank = 0;
+
+    public ParserFrame(Parser parser)
+    {
+      super(parser);
+    }
+  }
+
   public Parser()
   {
+    setExpressionCache(ExpressionCache.getShared());
   }
 
   public void init()
@@ -84,10 +114,13 @@ public class Parser extends Calcolatore
   public void setCacheLevels(int NumLevels)
      throws ParserException
   {
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ConcurrentHashMap<String, Double> tmp[] = new ConcurrentHashMap[NumLevels];
+    for(int i = 0; i < tmp.length; i++)
+      tmp[i] = new ConcurrentHashMap<>();
+
     numCache = NumLevels;
-    cache = new HashMap[numCache];
-    for(int i = 0; i < cache.length; i++)
-      cache[i] = new HashMap<>();
+    cache = tmp;
   }
 
   public int getCacheLevels()
@@ -97,13 +130,34 @@ public class Parser extends Calcolatore
   }
 
   @Override
-  protected synchronized double externValoreVariabile(StringBuilder valAlfa)
+  protected EvaluationFrame createFrame()
+  {
+    return new ParserFrame(this);
+  }
+
+  @Override
+  protected double externValoreVariabile(StringBuilder valAlfa)
+     throws Exception
+  {
+    return externValoreVariabile(valAlfa.toString().trim());
+  }
+
+  @Override
+  protected double externValoreVariabile(String nomeVariabile)
      throws Exception
   {
-    String nomeVariabile = valAlfa.toString().trim();
+    return externValoreVariabile(createFrame(), nomeVariabile);
+  }
+
+  @Override
+  protected double externValoreVariabile(EvaluationFrame frame, String nomeVariabile)
+     throws Exception
+  {
+    ParserFrame pf = frame instanceof ParserFrame ? (ParserFrame) frame : new ParserFrame(this);
+    Map<String, Double> ccache[] = cache;
 
     // tenta il prelievo dalla cache
-    Double val = getFromCache(nomeVariabile);
+    Double val = getFromCache(pf, ccache, nomeVariabile);
     if(val != null)
       return val;
 
@@ -114,9 +168,11 @@ public class Parser extends Calcolatore
     String expVar = getFromVariables(nomeVariabile);
     if(expVar != null)
     {
-      cacheRank = 0;
-      double v = super.parse(expVar);
-      cache[cacheRank].put(nomeVariabile, v);
+      int savedRank = pf.cacheRank;
+      pf.cacheRank = 0;
+      double v = compile(expVar).evaluate(pf);
+      ccache[pf.cacheRank].put(nomeVariabile, v);
+      pf.cacheRank = Math.max(savedRank, pf.cacheRank);
       return v;
     }
 
@@ -124,28 +180,42 @@ public class Parser extends Calcolatore
     return 0;
   }
 
-  protected Double getFromCache(String nomeVariabile)
+  protected Double getFromCache(ParserFrame pf, Map<String, Double> ccache[], String nomeVariabile)
   {
     int i = 0;
     Double val = null;
-    for(i = 0; i < cache.length; i++)
+    for(i = 0; i < ccache.length; i++)
     {
-      HashMap<String, Double> ht = cache[i];
-      if((val = ht.get(nomeVariabile)) != null)
+      if((val = ccache[i].get(nomeVariabile)) != null)
         break;
     }
 
     if(val != null)
     {
-      cacheRank = Math.max(cacheRank, i);
+      pf.cacheRank = Math.max(pf.cacheRank, i);
       return val;
     }
 
     return null;
   }
 
+  /**
+   * Cerca una variabile nella cache.
+   * @param nomeVariabile nome della variabile
+   * @return valore o null se non presente
+   * @deprecated usare getFromCache(ParserFrame, Map[], String)
+   */
+  @Deprecated
+  protected Double getFromCache(String nomeVariabile)
+  {
+    ParserFrame pf = new ParserFrame(this);
+    Double val = getFromCache(pf, cache, nomeVariabile);
+    cacheRank = Math.max(cacheRank, pf.cacheRank);
+    return val;
+  }
+
   protected String getFromVariables(String nomeVariabile)
   {
-    return (String) htVars.get(nomeVariabile);
+    return htVars.get(nomeVariabile);
   }
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.lang.invoke.MethodHandle;
+import java.util.*;
+
+/**
+ * Espressione a più livelli di esecuzione.
+ * Le variabili sono associate a slot di un array double[]
+ * (vedi getVariabili() per l'ordine degli slot).
+ * Le prime valutazioni avvengono interpretando l'albero
+ * dell'espressione compilata; superata la soglia di valutazioni
+ * l'espressione viene tradotta in un albero di MethodHandle che
+ * HotSpot può espandere in linea e ottimizzare come codice Java.
+ * Se la traduzione non riesce si resta sull'interprete.
+ *
+ * <pre><code>
+ * TieredExpression te = new TieredExpression(new Calcolatore(), "prezzo*(1+iva/100)", 1000);
+ * double[] slots = new double[te.getVariabili().length];
+ * ...
+ * double v = te.evaluate(slots);
+ * </code></pre>
+ *
+ * @author Nicola De Nisco
+ */
+public class TieredExpression
+{
+  public static final int TIER_INTERPRETATO = 0;
+  public static final int TIER_METHODHANDLE = 1;
+
+  private final Calcolatore calc;
+  private final CompiledExpression ce;
+  private final String[] variabili;
+  private final Map<String, Integer> slots = new HashMap<>();
+  private final int soglia;
+  // contatore non sincronizzato: e' solo un'indicazione per il passaggio di livello
+  private int contatore = 0;
+  private volatile MethodHandle mh = null;
+  private volatile boolean jitFallito = false;
+
+  public TieredExpression(Calcolatore calc, CompiledExpression ce, int soglia)
+  {
+    this.calc = calc;
+    this.ce = ce;
+    this.soglia = soglia;
+    this.variabili = ce.getVariables().toArray(new String[0]);
+
+    for(int i = 0; i < variabili.length; i++)
+      slots.put(variabili[i], i);
+  }
+
+  public TieredExpression(Calcolatore calc, String espressione, int soglia)
+     throws Exception
+  {
+    this(calc, calc.compile(espressione), soglia);
+  }
+
+  /**
+   * Frame per l'interprete: le variabili sono lette dagli slot.
+   */
+  private class SlotFrame extends EvaluationFrame
+  {
+    private final double[] valori;
+
+    public SlotFrame(double[] valori)
+    {
+      super(TieredExpression.this.calc);
+      this.valori = valori;
+    }
+
+    @Override
+    protected double valoreVariabile(String nomeVariabile)
+       throws Exception
+    {
+      return valori[slots.get(nomeVariabile)];
+    }
+  }
+
+  /**
+   * Ritorna i nomi delle variabili nell'ordine degli slot.
+   * @return nomi delle variabili (copia)
+   */
+  public String[] getVariabili()
+  {
+    return variabili.clone();
+  }
+
+  /**
+   * Ritorna lo slot associato ad una variabile.
+   * @param nome nome della variabile
+   * @return indice dello slot oppure -1 se la variabile non è utilizzata
+   */
+  public int getSlot(String nome)
+  {
+    Integer slot = slots.get(nome);
+    return slot == null ? -1 : slot;
+  }
+
+  /**
+   * Valuta l'espressione con i valori indicati.
+   * @param valori valori delle variabili nell'ordine degli slot
+   * @return valore dell'espressione
+   * @throws Exception
+   */
+  public double evaluate(double[] valori)
+     throws Exception
+  {
+    if(valori.length < variabili.length)
+      throw new ParserException("Sono richiesti " + variabili.length + " valori.");
+
+    MethodHandle m = mh;
+    if(m == null)
+    {
+      if(++contatore > soglia && !jitFallito)
+        m = compileMethodHandle();
+
+      if(m == null)
+        return evaluateInterpreted(valori);
+    }
+
+    try
+    {
+      return (double) m.invokeExact(valori);
+    }
+    catch(Exception | Error ex)
+    {
+      throw ex;
+    }
+    catch(Throwable t)
+    {
+      throw new ParserException(t.getMessage());
+    }
+  }
+
+  /**
+   * Valuta l'espressione con i valori delle variabili indicati.
+   * @param valori valori delle variabili
+   * @return valore dell'espressione
+   * @throws Exception se una variabile non è presente nella mappa
+   */
+  public double evaluate(Map<String, ? extends Number> valori)
+     throws Exception
+  {
+    double[] arv = new double[variabili.length];
+    for(int i = 0; i < variabili.length; i++)
+    {
+      Number n = valori.get(variabili[i]);
+      if(n == null)
+        throw new ParserException(Calcolatore.getErrDescr(Calcolatore.CalcErrori_NoVar), variabili[i]);
+
+      arv[i] = n.doubleValue();
+    }
+
+    return evaluate(arv);
+  }
+
+  /**
+   * Valuta l'espressione sempre con l'interprete.
+   * @param valori valori delle variabili nell'ordine degli slot
+   * @return valore dell'espressione
+   * @throws Exception
+   */
+  public double evaluateInterpreted(double[] valori)
+     throws Exception
+  {
+    return ce.evaluate(new SlotFrame(valori));
+  }
+
+  /**
+   * Forza il passaggio al livello MethodHandle.
+   * @return vero se la traduzione è riuscita
+   */
+  public boolean compileNow()
+  {
+    return compileMethodHandle() != null;
+  }
+
+  private synchronized MethodHandle compileMethodHandle()
+  {
+    if(mh == null && !jitFallito)
+    {
+      try
+      {
+        mh = new ExpressionJit(calc, slots).compile(ce.getRoot());
+      }
+      catch(Exception ex)
+      {
+        // resta sull'interprete
+        jitFallito = true;
+      }
+    }
+
+    return mh;
+  }
+
+  /**
+   * Ritorna il livello di esecuzione corrente.
+   * @return TIER_INTERPRETATO o TIER_METHODHANDLE
+   */
+  public int getTier()
+  {
+    return mh == null ? TIER_INTERPRETATO : TIER_METHODHANDLE;
+  }
+
+  public CompiledExpression getCompiledExpression()
+  {
+    return ce;
+  }
+
+  public int getSoglia()
+  {
+    return soglia;
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Sequenza di bytes precompilata per ricerche ripetute.
+ * La compilazione prepara le tabelle una sola volta; lo stesso
+ * oggetto può essere usato per molte ricerche anche da thread diversi
+ * (è immutabile).
+ * <ul>
+ * <li>ricerca in un array: per sequenze lunghe Boyer-Moore-Horspool,
+ * per sequenze corte scansione del primo byte e confronto con
+ * Arrays.equals (vettorizzato dalla JVM);</li>
+ * <li>ricerca in uno stream: automa KMP che legge ogni byte una sola
+ * volta e non perde le corrispondenze parziali.</li>
+ * </ul>
+ *
+ * <pre><code>
+ * BytePattern fine = new BytePattern(new byte[] {0x0d, 0x0a});
+ * int pos = fine.indexOf(buffer, 0, len, 0);
+ * fine.skip(inputStream);
+ * </code></pre>
+ *
+ * @author Nicola De Nisco
+ */
+public class BytePattern
+{
+  /** lunghezza minima della sequenza per usare Boyer-Moore-Horspool */
+  public static final int MIN_BMH = 4;
+
+  private final byte[] pattern;
+  // Boyer-Moore-Horspool: spostamento per il byte allineato all'ultimo della sequenza
+  private final int[] salto;
+  // KMP: lunghezza del più lungo prefisso che è anche suffisso di pattern[0..i]
+  private final int[] fallimento;
+
+  /**
+   * Compila una sequenza.
+   * @param pattern sequenza da cercare (viene copiata)
+   * @throws IllegalArgumentException se la sequenza è vuota
+   */
+  public BytePattern(byte[] pattern)
+  {
+    this(pattern, 0, pattern.length);
+  }
+
+  /**
+   * Compila una sequenza.
+   * @param pattern array con la sequenza da cercare (viene copiata)
+   * @param offset inizio della sequenza in pattern
+   * @param length lunghezza della sequenza
+   * @throws IllegalArgumentException se la sequenza è vuota
+   */
+  public BytePattern(byte[] pattern, int offset, int length)
+  {
+    if(length <= 0)
+      throw new IllegalArgumentException("Sequenza da cercare vuota.");
+
+    this.pattern = Arrays.copyOfRange(pattern, offset, offset + length);
+    int m = length;
+
+    if(m >= MIN_BMH)
+    {
+      salto = new int[256];
+      Arrays.fill(salto, m);
+      for(int i = 0; i < m - 1; i++)
+        salto[this.pattern[i] & 0xff] = m - 1 - i;
+    }
+    else
+      salto = null;
+
+    fallimento = new int[m];
+    for(int i = 1, k = 0; i < m; i++)
+    {
+      while(k > 0 && this.pattern[i] != this.pattern[k])
+        k = fallimento[k - 1];
+      if(this.pattern[i] == this.pattern[k])
+        k++;
+      fallimento[i] = k;
+    }
+  }
+
+  /**
+   * Lunghezza della sequenza.
+   * @return numero di bytes
+   */
+  public int length()
+  {
+    return pattern.length;
+  }
+
+  /**
+   * Ritorna una copia della sequenza.
+   * @return sequenza di bytes
+   */
+  public byte[] getPattern()
+  {
+    return pattern.clone();
+  }
+
+  /**
+   * Cerca la prima occorrenza della sequenza in un array.
+   * @param source array dove cercare
+   * @return posizione o -1 per non trovato
+   */
+  public int indexOf(byte[] source)
+  {
+    return indexOf(source, 0, source.length, 0);
+  }
+
+  /**
+   * Cerca la prima occorrenza della sequenza in una porzione di array.
+   * Stessa semantica di ByteBufferOutputStream.indexOf(byte[], int, int, byte[], int, int, int).
+   * @param source array dove cercare
+   * @param sourceOffset inizio della porzione in source
+   * @param sourceCount lunghezza della porzione
+   * @param fromIndex indice iniziale (relativo a sourceOffset) da cui incominciare la ricerca
+   * @return posizione relativa a sourceOffset o -1 per non trovato
+   */
+  public int indexOf(byte[] source, int sourceOffset, int sourceCount, int fromIndex)
+  {
+    int m = pattern.length;
+    if(fromIndex >= sourceCount)
+      return -1;
+
+    if(fromIndex < 0)
+      fromIndex = 0;
+
+    int max = sourceOffset + sourceCount - m;
+    int i = sourceOffset + fromIndex;
+
+    if(salto == null)
+    {
+      // sequenza corta: cerca il primo byte e confronta il resto
+      byte first = pattern[0];
+      for(; i <= max; i++)
+      {
+        if(source[i] == first && Arrays.equals(source, i + 1, i + m, pattern, 1, m))
+          return i - sourceOffset;
+      }
+      return -1;
+    }
+
+    int last = m - 1;
+    byte lastByte = pattern[last];
+    while(i <= max)
+    {
+      byte b = source[i + last];
+      if(b == lastByte && Arrays.equals(source, i, i + last, pattern, 0, last))
+        return i - sourceOffset;
+
+      i += salto[b & 0xff];
+    }
+
+    return -1;
+  }
+
+  /**
+   * Avanza l'automa KMP di un byte.
+   * Lo stato è il numero di bytes della sequenza riconosciuti;
+   * la sequenza è trovata quando lo stato è uguale a length().
+   * Dopo una corrispondenza completa si può continuare ad avanzare
+   * (le corrispondenze sovrapposte vengono riconosciute).
+   * @param stato stato corrente (0 all'inizio)
+   * @param b byte letto
+   * @return nuovo stato
+   */
+  public int avanza(int stato, byte b)
+  {
+    if(stato == pattern.length)
+      stato = fallimento[stato - 1];
+
+    while(stato > 0 && pattern[stato] != b)
+      stato = fallimento[stato - 1];
+
+    return pattern[stato] == b ? stato + 1 : stato;
+  }
+
+  /**
+   * Legge lo stream fino a trovare la sequenza.
+   * Se la sequenza viene trovata la posizione dello stream sarà
+   * al byte immediatamente successivo. Ogni byte è letto una sola volta.
+   * @param is stream da leggere
+   * @return vero se la sequenza è stata trovata, falso a fine stream
+   * @throws IOException
+   */
+  public boolean skip(InputStream is)
+     throws IOException
+  {
+    int m = pattern.length;
+    int c, stato = 0;
+    while((c = is.read()) != -1)
+    {
+      if((stato = avanza(stato, (byte) c)) == m)
+        return true;
+    }
+
+    return false;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "BytePattern{" + HexString.bufferToHex(pattern) + '}';
+  }
+}
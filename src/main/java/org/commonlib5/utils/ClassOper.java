@@ -613,7 +613,7 @@ public class ClassOper
   public static ByteBufferOutputStream getBinaryResourceFromClass(Class clz, String name)
      throws Exception
   {
-    ByteBufferOutputStream bb = new ByteBufferOutputStream(1024);
+    ByteBufferOutputStream bb = new ByteBufferOutputStream(1024, true);
     try(InputStream is = getResourceFromClassAsStream(clz, name))
     {
       CommonFileUtils.copyStream(is, bb);
@@ -1393,7 +1393,7 @@ public class CommonFileUtils
   public static byte[] writeObjectToBytes(Serializable toWrite)
      throws Exception
   {
-    ByteBufferOutputStream fos = new ByteBufferOutputStream();
+    ByteBufferOutputStream fos = new ByteBufferOutputStream(BUFFER_SIZE, true);
     try(ObjectOutputStream oos = new ObjectOutputStream(fos))
     {
       oos.writeObject(toWrite);
@@ -1432,7 +1432,7 @@ public class CommonFileUtils
      throws Exception
   {
     byte[] nonCompressi = writeObjectToBytes(toWrite);
-    ByteBufferOutputStream fzs = new ByteBufferOutputStream();
+    ByteBufferOutputStream fzs = new ByteBufferOutputStream(BUFFER_SIZE, true);
     try(GZIPOutputStream zipStream = new GZIPOutputStream(fzs);)
     {
       zipStream.write(nonCompressi);
@@ -1454,7 +1454,7 @@ public class CommonFileUtils
      throws Exception
   {
     ByteBufferInputStream fis = new ByteBufferInputStream(false, array);
-    ByteBufferOutputStream fos = new ByteBufferOutputStream();
+    ByteBufferOutputStream fos = new ByteBufferOutputStream(BUFFER_SIZE, true);
     try(GZIPInputStream zipStream = new GZIPInputStream(fis);)
     {
       copyStream(zipStream, fos);
@@ -1741,22 +1741,27 @@ public class CommonFileUtils
   public static boolean skipPattern(byte[] pattern, InputStream is)
      throws IOException
   {
-    int i = 0, c = 0;
-
-    do
-    {
-      for(i = 0; i < pattern.length; i++)
-      {
-        if((c = is.read()) == -1)
-          return false;
+    // la sequenza vuota è sempre trovata
+    if(pattern.length == 0)
+      return true;
 
-        if(c != pattern[i])
-          break;
-      }
-    }
-    while(i < pattern.length);
+    return new BytePattern(pattern).skip(is);
+  }
 
-    return true;
+  /**
+   * Ricerca di pattern in uno stream.
+   * Lo stream viene letto fino a trovare la pattern indicata.
+   * Se la pattern viene trovata la posizione dello stream sarà al byte immediatamente successivo.
+   * Ogni byte è letto una sola volta anche in caso di corrispondenze parziali.
+   * @param pattern sequenza di byte precompilata
+   * @param is stream da leggere
+   * @return vero se la pattern è stata trovata
+   * @throws IOException
+   */
+  public static boolean skipPattern(BytePattern pattern, InputStream is)
+     throws IOException
+  {
+    return pattern.skip(is);
   }
 
   /**
@@ -1772,9 +1777,27 @@ public class CommonFileUtils
   public static boolean skipPatternRepos(byte[] pattern, PushbackInputStream is)
      throws IOException
   {
-    if(skipPattern(pattern, is))
+    if(pattern.length == 0)
+      return true;
+
+    return skipPatternRepos(new BytePattern(pattern), is);
+  }
+
+  /**
+   * Ricerca di pattern in uno stream con riposizionamento.
+   * Lo stream viene letto fino a trovare la pattern indicata.
+   * Se la pattern viene trovata la posizione dello stream sarà al byte di inizio della pattern.
+   * @param pattern sequenza di byte precompilata
+   * @param is stream da leggere (necessario un pushback stream per reinserire la pattern)
+   * @return vero se la pattern è stata trovata
+   * @throws IOException
+   */
+  public static boolean skipPatternRepos(BytePattern pattern, PushbackInputStream is)
+     throws IOException
+  {
+    if(pattern.skip(is))
     {
-      is.unread(pattern);
+      is.unread(pattern.getPattern());
       return true;
     }
     return false;
@@ -0,0 +1,339 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Conversione di HTML in testo semplice in una sola passata.
+ * Un automa a stati legge il documento un carattere alla volta:
+ * <ul>
+ * <li>le entità (&amp;nome; &amp;#123; &amp;#x7b;) vengono decodificate
+ * usando StringOper.html2UnicodeMap più le entità XML di base;
+ * le entità sconosciute restano invariate;</li>
+ * <li>i tag che interrompono la linea (di default &lt;br&gt;, &lt;/tr&gt; e &lt;/li&gt;)
+ * diventano un separatore di linea;</li>
+ * <li>tutti gli altri tag e i commenti vengono eliminati.</li>
+ * </ul>
+ * Il testo prodotto dalla decodifica delle entità non viene più
+ * interpretato: &amp;lt;b&amp;gt; diventa il testo &lt;b&gt;.
+ * La memoria usata non dipende dalla lunghezza del documento:
+ * viene trattenuto solo il tag o l'entità in corso di lettura.
+ * L'oggetto è immutabile e può essere usato da più thread.
+ *
+ * @author Nicola De Nisco
+ */
+public class HtmlToText
+{
+  /** tag che di default producono un separatore di linea */
+  public static final String[] DEFAULT_LINE_BREAK_TAGS =
+  {
+    "br", "/tr", "/li"
+  };
+
+  /** istanza con i valori di default usata da StringOper.cvtHtml2Text() */
+  public static final HtmlToText DEFAULT = new HtmlToText();
+
+  // lunghezza massima di un'entità fra '&' e ';'
+  private static final int MAX_ENTITA = 32;
+  // lunghezza massima di un tag: oltre non è un tag ma testo con un '<'
+  private static final int MAX_TAG = 4096;
+  private static final Map<String, Character> entita = createEntityMap();
+
+  private final Set<String> lineBreakTags;
+  private final String lineSeparator;
+
+  /**
+   * Converte con i tag di default e separatore "\r\n".
+   */
+  public HtmlToText()
+  {
+    this(Arrays.asList(DEFAULT_LINE_BREAK_TAGS), "\r\n");
+  }
+
+  /**
+   * Converte con tag e separatore di linea specifici.
+   * @param lineBreakTags nomi dei tag che producono un separatore
+   * di linea (con '/' iniziale per i tag di chiusura, ES: "/p")
+   * @param lineSeparator separatore di linea
+   */
+  public HtmlToText(Collection<String> lineBreakTags, String lineSeparator)
+  {
+    HashSet<String> tags = new HashSet<>();
+    for(String t : lineBreakTags)
+      tags.add(t.toLowerCase(Locale.ROOT));
+
+    this.lineBreakTags = tags;
+    this.lineSeparator = lineSeparator;
+  }
+
+  private static Map<String, Character> createEntityMap()
+  {
+    HashMap<String, Character> m = new HashMap<>();
+    for(Map.Entry<String, Character> e : StringOper.html2UnicodeMap.entrySet())
+    {
+      String k = e.getKey();
+      m.put(k.substring(1, k.length() - 1), e.getValue());
+    }
+
+    m.put("nbsp", ' ');
+    m.put("lt", '<');
+    m.put("gt", '>');
+    m.put("quot", '"');
+    m.put("apos", '\'');
+    return m;
+  }
+
+  /**
+   * Converte un documento in testo.
+   * @param html documento HTML
+   * @return testo
+   */
+  public String convert(CharSequence html)
+  {
+    try
+    {
+      StringBuilder sb = new StringBuilder(html.length());
+      convert(html, sb);
+      return sb.toString();
+    }
+    catch(IOException ex)
+    {
+      // impossibile con StringBuilder
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Converte un documento in testo.
+   * @param html documento HTML
+   * @param out destinazione del testo
+   * @throws IOException
+   */
+  public void convert(CharSequence html, Appendable out)
+     throws IOException
+  {
+    Conversione c = new Conversione(out);
+    int len = html.length();
+    for(int i = 0; i < len; i++)
+      c.carattere(html.charAt(i));
+    c.fine();
+  }
+
+  /**
+   * Converte un documento in testo.
+   * @param html flusso del documento HTML
+   * @param out destinazione del testo
+   * @throws IOException
+   */
+  public void convert(Reader html, Appendable out)
+     throws IOException
+  {
+    Conversione c = new Conversione(out);
+    char[] buf = new char[8192];
+    int n;
+    while((n = html.read(buf)) != -1)
+    {
+      for(int i = 0; i < n; i++)
+        c.carattere(buf[i]);
+    }
+    c.fine();
+  }
+
+  /**
+   * Stato di una conversione.
+   */
+  private final class Conversione
+  {
+    private static final int TESTO = 0, ENTITA = 1, TAG = 2, COMMENTO = 3;
+
+    private final Appendable out;
+    // testo semplice accumulato e non ancora scritto
+    private final StringBuilder testo = new StringBuilder(1024);
+    // entità o tag in corso di lettura (senza '&' o '<' iniziale)
+    private final StringBuilder corrente = new StringBuilder(64);
+    private int stato = TESTO, lenNome = -1;
+
+    public Conversione(Appendable out)
+    {
+      this.out = out;
+    }
+
+    public void carattere(char c)
+       throws IOException
+    {
+      switch(stato)
+      {
+        case TESTO:
+          testoCarattere(c);
+          break;
+
+        case ENTITA:
+          if(c == ';')
+          {
+            fineEntita();
+          }
+          else if(corrente.length() < MAX_ENTITA && (Character.isLetterOrDigit(c) || (c == '#' && corrente.length() == 0)))
+          {
+            corrente.append(c);
+          }
+          else
+          {
+            // non è un'entità: resta come testo
+            testo.append('&').append(corrente);
+            stato = TESTO;
+            testoCarattere(c);
+          }
+          break;
+
+        case TAG:
+          if(c == '>')
+          {
+            fineTag();
+            break;
+          }
+
+          if(corrente.length() >= MAX_TAG)
+          {
+            // '<' non terminato: resta come testo senza accumulare il resto del documento
+            testo.append('<').append(corrente);
+            stato = TESTO;
+            svuota();
+            testoCarattere(c);
+            break;
+          }
+
+          // il nome termina al primo separatore dopo l'eventuale '/' iniziale
+          if(lenNome < 0 && (Character.isWhitespace(c) || (c == '/' && corrente.length() > 0)))
+            lenNome = corrente.length();
+          corrente.append(c);
+
+          if(lenNome < 0 && corrente.length() == 3 && corrente.indexOf("!--") == 0)
+          {
+            stato = COMMENTO;
+            corrente.setLength(0);
+          }
+          break;
+
+        case COMMENTO:
+          // conserva solo gli ultimi due caratteri per riconoscere "-->"
+          if(c == '>' && corrente.length() == 2 && corrente.charAt(0) == '-' && corrente.charAt(1) == '-')
+          {
+            stato = TESTO;
+            corrente.setLength(0);
+          }
+          else
+          {
+            if(corrente.length() == 2)
+              corrente.deleteCharAt(0);
+            corrente.append(c);
+          }
+          break;
+      }
+    }
+
+    private void testoCarattere(char c)
+       throws IOException
+    {
+      if(c == '&')
+      {
+        stato = ENTITA;
+        corrente.setLength(0);
+      }
+      else if(c == '<')
+      {
+        stato = TAG;
+        lenNome = -1;
+        corrente.setLength(0);
+      }
+      else
+      {
+        testo.append(c);
+        if(testo.length() >= 1024)
+          svuota();
+      }
+    }
+
+    private void fineEntita()
+    {
+      stato = TESTO;
+      int cp = -1;
+
+      if(corrente.length() > 1 && corrente.charAt(0) == '#')
+      {
+        boolean esa = corrente.charAt(1) == 'x' || corrente.charAt(1) == 'X';
+        try
+        {
+          cp = Integer.parseInt(corrente, esa ? 2 : 1, corrente.length(), esa ? 16 : 10);
+        }
+        catch(NumberFormatException ex)
+        {
+          cp = -1;
+        }
+      }
+      else
+      {
+        Character ch = entita.get(corrente.toString());
+        if(ch != null)
+          cp = ch;
+      }
+
+      if(Character.isValidCodePoint(cp))
+        testo.appendCodePoint(cp);
+      else
+        testo.append('&').append(corrente).append(';');
+    }
+
+    private void fineTag()
+    {
+      stato = TESTO;
+      int len = lenNome < 0 ? corrente.length() : lenNome;
+      String nome = corrente.substring(0, len).toLowerCase(Locale.ROOT);
+      if(lineBreakTags.contains(nome))
+        testo.append(lineSeparator);
+    }
+
+    private void svuota()
+       throws IOException
+    {
+      out.append(testo);
+      testo.setLength(0);
+    }
+
+    public void fine()
+       throws IOException
+    {
+      // un tag o un'entità non terminati restano come testo
+      if(stato == ENTITA)
+        testo.append('&').append(corrente);
+      else if(stato == TAG)
+        testo.append('<').append(corrente);
+
+      svuota();
+    }
+  }
+}
@@ -143,7 +143,7 @@ public class JsonHelper implements Closeable
   protected Pair<Integer, String> processResponse(HttpURLConnection conn)
      throws Exception
   {
-    ByteBufferOutputStream bos = new ByteBufferOutputStream();
+    ByteBufferOutputStream bos = new ByteBufferOutputStream(ByteBufferOutputStream.BUFFER_SIZE, true);
 
     try(InputStream is = conn.getInputStream())
     {
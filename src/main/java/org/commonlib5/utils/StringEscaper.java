@@ -0,0 +1,314 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Map;
+
+/**
+ * Conversione dei caratteri speciali con tabelle precalcolate.
+ * Ogni convertitore ha una tabella indicizzata per carattere (0-255)
+ * con la sostituzione di ogni carattere (null se invariato, stringa vuota
+ * se eliminato) e una regola per i caratteri oltre la tabella.
+ * <p>
+ * La stringa viene scandita fino al primo carattere da convertire:
+ * se non ce ne sono viene restituita la stringa originale senza copie.
+ * I tratti invariati sono copiati in blocco nella destinazione,
+ * anche verso un Writer durante la generazione di documenti di grandi dimensioni.
+ * <p>
+ * Le istanze sono immutabili e possono essere usate da più thread.
+ *
+ * @author Nicola De Nisco
+ */
+public class StringEscaper
+{
+  private static final int DIM_TABELLA = 256;
+
+  /** regola per i caratteri oltre la tabella */
+  private enum Oltre
+  {
+    /** invariati */
+    KEEP,
+    /** eliminati */
+    DROP,
+    /** riferimento numerico decimale &amp;#nnn; */
+    DECIMAL,
+    /** riferimento numerico esadecimale &amp;#xhhh; */
+    HEX
+  }
+
+  // entità HTML per carattere ricavate da StringOper.unicode2HtmlMap
+  private static final String[] entitaHtml = createEntityTable();
+
+  /** apostrofo raddoppiato e doppio apice con backslash (StringOper.appendSQLchar()) */
+  public static final StringEscaper SQL;
+  /** apice e doppio apice con backslash (StringOper.appendJavascriptChar()) */
+  public static final StringEscaper JAVASCRIPT;
+  /**
+   * Entità di StringOper.unicode2HtmlMap; CR, LF e ASCII stampabili invariati;
+   * altri caratteri di controllo eliminati; oltre 128 riferimento decimale.
+   */
+  public static final StringEscaper WEB;
+  /**
+   * Come SQL quindi come WEB, ma i caratteri oltre 128
+   * senza entità vengono eliminati.
+   */
+  public static final StringEscaper SQL_WEB;
+  /**
+   * &amp; &lt; &gt; " e ' con le entità XML; TAB, CR, LF e ASCII
+   * stampabili invariati; gli altri caratteri con riferimento esadecimale.
+   */
+  public static final StringEscaper XML;
+
+  static
+  {
+    String[] t = new String[DIM_TABELLA];
+    t['\''] = "''";
+    t['\"'] = "\\\"";
+    SQL = new StringEscaper(t, Oltre.KEEP);
+
+    t = new String[DIM_TABELLA];
+    t['\''] = "\\'";
+    t['\"'] = "\\\"";
+    JAVASCRIPT = new StringEscaper(t, Oltre.KEEP);
+
+    t = new String[DIM_TABELLA];
+    for(int c = 0; c < DIM_TABELLA; c++)
+    {
+      if(entitaHtml[c] != null)
+        t[c] = entitaHtml[c];
+      else if(!isWebChar(c))
+        t[c] = c > 128 ? "&#" + c + ";" : "";
+    }
+    WEB = new StringEscaper(t, Oltre.DECIMAL);
+
+    t = new String[DIM_TABELLA];
+    for(int c = 0; c < DIM_TABELLA; c++)
+    {
+      if(SQL.tabella[c] != null)
+        t[c] = SQL.tabella[c];
+      else if(entitaHtml[c] != null)
+        t[c] = entitaHtml[c];
+      else if(!isWebChar(c))
+        t[c] = "";
+    }
+    SQL_WEB = new StringEscaper(t, Oltre.DROP);
+
+    t = new String[DIM_TABELLA];
+    for(int c = 0; c < DIM_TABELLA; c++)
+    {
+      if(c != '\t' && c != '\n' && c != '\r' && (c < 32 || c > 126))
+        t[c] = "&#x" + Integer.toHexString(c) + ";";
+    }
+    t['&'] = "&amp;";
+    t['<'] = "&lt;";
+    t['>'] = "&gt;";
+    t['\"'] = "&quot;";
+    t['\''] = "&apos;";
+    XML = new StringEscaper(t, Oltre.HEX);
+  }
+
+  private final String[] tabella;
+  private final Oltre oltre;
+
+  private StringEscaper(String[] tabella, Oltre oltre)
+  {
+    this.tabella = tabella;
+    this.oltre = oltre;
+  }
+
+  private static String[] createEntityTable()
+  {
+    String[] rv = new String[DIM_TABELLA];
+    for(Map.Entry<Character, String> e : StringOper.unicode2HtmlMap.entrySet())
+    {
+      if(e.getKey() < DIM_TABELLA)
+        rv[e.getKey()] = e.getValue();
+    }
+    return rv;
+  }
+
+  private static boolean isWebChar(int c)
+  {
+    return c == 10 || c == 13 || (c >= 32 && c <= 128);
+  }
+
+  /**
+   * Entità HTML di un carattere.
+   * @param c carattere
+   * @return entità (ES: &amp;egrave;) o null se il carattere non ha entità
+   */
+  public static String getHtmlEntity(int c)
+  {
+    return c >= 0 && c < DIM_TABELLA ? entitaHtml[c] : null;
+  }
+
+  private boolean daConvertire(char c)
+  {
+    return c < DIM_TABELLA ? tabella[c] != null : oltre != Oltre.KEEP;
+  }
+
+  /**
+   * Posizione del primo carattere da convertire.
+   * @param s stringa da esaminare
+   * @return posizione o -1 se la stringa non richiede conversioni
+   */
+  public int indexOfEscape(CharSequence s)
+  {
+    int len = s.length();
+    for(int i = 0; i < len; i++)
+    {
+      if(daConvertire(s.charAt(i)))
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Converte una stringa.
+   * @param s stringa originale
+   * @return stringa convertita (la stessa se non ci sono caratteri da convertire)
+   */
+  public String escape(String s)
+  {
+    int primo = indexOfEscape(s);
+    if(primo < 0)
+      return s;
+
+    try
+    {
+      StringBuilder sb = new StringBuilder(s.length() + 16);
+      sb.append(s, 0, primo);
+      converti(s, primo, s.length(), sb);
+      return sb.toString();
+    }
+    catch(IOException ex)
+    {
+      // impossibile con StringBuilder
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Converte una stringa accodando il risultato.
+   * @param s stringa originale
+   * @param out destinazione della stringa convertita
+   * @throws IOException
+   */
+  public void escape(CharSequence s, Appendable out)
+     throws IOException
+  {
+    converti(s, 0, s.length(), out);
+  }
+
+  /**
+   * Converte un flusso di caratteri.
+   * @param in testo originale
+   * @param out destinazione del testo convertito
+   * @throws IOException
+   */
+  public void escape(Reader in, Writer out)
+     throws IOException
+  {
+    char[] buf = new char[8192];
+    int len = 0, n;
+    while((n = in.read(buf, len, buf.length - len)) != -1)
+    {
+      len += n;
+
+      // un surrogato alto in fondo attende il carattere successivo
+      int fine = Character.isHighSurrogate(buf[len - 1]) ? len - 1 : len;
+      converti(CharBuffer.wrap(buf, 0, fine), 0, fine, out);
+      if(fine < len)
+        buf[0] = buf[fine];
+      len -= fine;
+    }
+
+    converti(CharBuffer.wrap(buf, 0, len), 0, len, out);
+  }
+
+  private void converti(CharSequence s, int from, int to, Appendable out)
+     throws IOException
+  {
+    int inizio = from;
+    for(int i = from; i < to; i++)
+    {
+      char c = s.charAt(i);
+      if(!daConvertire(c))
+        continue;
+
+      copia(s, inizio, i, out);
+      inizio = i + 1;
+
+      if(c < DIM_TABELLA)
+      {
+        out.append(tabella[c]);
+        continue;
+      }
+
+      if(oltre == Oltre.DROP)
+        continue;
+
+      int cp = c;
+      if(Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1)))
+      {
+        cp = Character.toCodePoint(c, s.charAt(++i));
+        inizio = i + 1;
+      }
+
+      if(oltre == Oltre.HEX)
+        out.append("&#x").append(Integer.toHexString(cp)).append(';');
+      else
+        out.append("&#").append(Integer.toString(cp)).append(';');
+    }
+
+    copia(s, inizio, to, out);
+  }
+
+  /**
+   * Copia un tratto invariato evitando stringhe intermedie verso un Writer.
+   */
+  private static void copia(CharSequence s, int from, int to, Appendable out)
+     throws IOException
+  {
+    if(from == to)
+      return;
+
+    if(out instanceof Writer)
+    {
+      if(s instanceof String)
+      {
+        ((Writer) out).write((String) s, from, to - from);
+        return;
+      }
+
+      if(s instanceof CharBuffer && ((CharBuffer) s).hasArray())
+      {
+        CharBuffer cb = (CharBuffer) s;
+        ((Writer) out).write(cb.array(), cb.arrayOffset() + cb.position() + from, to - from);
+        return;
+      }
+    }
+
+    out.append(s, from, to);
+  }
+}
@@ -18,6 +18,7 @@
 package org.commonlib5.utils;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -274,7 +275,7 @@ public class StringOper
    */
   public static boolean appendWEBstring(StringBuilder sb, int c)
   {
-    String tmp = unicode2HtmlMap.get((char) c);
+    String tmp = StringEscaper.getHtmlEntity(c);
     if(tmp != null)
       sb.append(tmp);
     return tmp != null;
@@ -300,108 +301,123 @@ public class StringOper
   }
 
   /**
-   * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in SQL.
-   * @return
+   * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in Javascript.
+   * @param s stringa originale
+   * @return stringa convertita (la stessa se non ci sono caratteri da convertire)
+   * @see StringEscaper#JAVASCRIPT
    */
   public static String CvtJavascriptString(String s)
   {
-    int len = s.length();
-    char[] arChar = s.toCharArray();
-    StringBuilder sb = new StringBuilder(len);
-
-    for(int i = 0; i < len; i++)
-    {
-      int c = arChar[i];
-      if(!appendJavascriptChar(sb, c))
-        sb.append(arChar[i]);
-    }
+    return StringEscaper.JAVASCRIPT.escape(s);
+  }
 
-    return sb.toString();
+  /**
+   * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in Javascript.
+   * @param s stringa originale
+   * @param out destinazione della stringa convertita
+   * @throws IOException
+   * @see StringEscaper#JAVASCRIPT
+   */
+  public static void CvtJavascriptString(CharSequence s, Appendable out)
+     throws IOException
+  {
+    StringEscaper.JAVASCRIPT.escape(s, out);
   }
 
   /**
    * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in SQL.
-   * @return
+   * @param s stringa originale
+   * @return stringa convertita (la stessa se non ci sono caratteri da convertire)
+   * @see StringEscaper#SQL
    */
   public static String CvtSQLstring(String s)
   {
-    int len = s.length();
-    char[] arChar = s.toCharArray();
-    StringBuilder sb = new StringBuilder(len);
-
-    for(int i = 0; i < len; i++)
-    {
-      int c = arChar[i];
-      if(!appendSQLchar(sb, c))
-        sb.append(arChar[i]);
-    }
+    return StringEscaper.SQL.escape(s);
+  }
 
-    return sb.toString();
+  /**
+   * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in SQL.
+   * @param s stringa originale
+   * @param out destinazione della stringa convertita
+   * @throws IOException
+   * @see StringEscaper#SQL
+   */
+  public static void CvtSQLstring(CharSequence s, Appendable out)
+     throws IOException
+  {
+    StringEscaper.SQL.escape(s, out);
   }
 
   /**
    * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in HTML.
-   * @return
+   * @param s stringa originale
+   * @return stringa convertita (la stessa se non ci sono caratteri da convertire)
+   * @see StringEscaper#WEB
    */
   public static String CvtWEBstring(String s)
   {
-    int len = s.length();
-    char[] arChar = s.toCharArray();
-    StringBuilder sb = new StringBuilder(len);
-
-    for(int i = 0; i < len; i++)
-    {
-      int c = arChar[i];
-      if(!appendWEBstring(sb, c))
-        if(c == 10 || c == 13 || (c >= 32 && c <= 128))
-          sb.append(arChar[i]);
-        else if(c > 128)
-          sb.append("&#").append(Integer.toString(arChar[i])).append(";");
-    }
+    return StringEscaper.WEB.escape(s);
+  }
 
-    return sb.toString();
+  /**
+   * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in HTML.
+   * @param s stringa originale
+   * @param out destinazione della stringa convertita
+   * @throws IOException
+   * @see StringEscaper#WEB
+   */
+  public static void CvtWEBstring(CharSequence s, Appendable out)
+     throws IOException
+  {
+    StringEscaper.WEB.escape(s, out);
   }
 
   /**
-   * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in SQL.
-   * @return
+   * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in SQL e HTML.
+   * @param s stringa originale
+   * @return stringa convertita (la stessa se non ci sono caratteri da convertire)
+   * @see StringEscaper#SQL_WEB
    */
   public static String CvtSQLWEBstring(String s)
   {
-    int len = s.length();
-    char[] arChar = s.toCharArray();
-    StringBuilder sb = new StringBuilder(len);
-
-    for(int i = 0; i < len; i++)
-    {
-      int c = arChar[i];
-      if(!appendSQLchar(sb, c))
-        if(!appendWEBstring(sb, c))
-          if(c == 10 || c == 13 || (c >= 32 && c <= 128))
-            sb.append(arChar[i]);
-    }
+    return StringEscaper.SQL_WEB.escape(s);
+  }
 
-    return sb.toString();
+  /**
+   * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in SQL e HTML.
+   * @param s stringa originale
+   * @param out destinazione della stringa convertita
+   * @throws IOException
+   * @see StringEscaper#SQL_WEB
+   */
+  public static void CvtSQLWEBstring(CharSequence s, Appendable out)
+     throws IOException
+  {
+    StringEscaper.SQL_WEB.escape(s, out);
   }
 
   /**
    * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in XML.
-   * @return
+   * @param s stringa originale
+   * @return stringa convertita (la stessa se non ci sono caratteri da convertire)
+   * @see StringEscaper#XML
    */
   public static String CvtXMLstring(String s)
   {
-    int len = s.length();
-    char[] arChar = s.toCharArray();
-    StringBuilder sb = new StringBuilder(len);
-
-    for(int i = 0; i < len; i++)
-    {
-      int c = arChar[i];
-      if(!appendXMLstring(sb, c))
-        sb.append("&#x").append(Integer.toString(c, 16)).append(";");
-    }
+    return StringEscaper.XML.escape(s);
+  }
 
-    return sb.toString();
+  /**
+   * Converte la stringa rimuovendo o convertendo i caratteri non inseribili in XML.
+   * @param s stringa originale
+   * @param out destinazione della stringa convertita
+   * @throws IOException
+   * @see StringEscaper#XML
+   */
+  public static void CvtXMLstring(CharSequence s, Appendable out)
+     throws IOException
+  {
+    StringEscaper.XML.escape(s, out);
   }
 
   /**
@@ -799,21 +815,16 @@ public class StringOper
   /**
    * Cerca e cambia.
    * Cerca in origine le coppie di sostituzioni.
+   * Tutte le sostituzioni sono eseguite in una sola passata
+   * (vedi StringReplacer); per sostituzioni ripetute conviene
+   * compilare una volta sola uno StringReplacer.
    * @param Origine
    * @param sostituzioni
    * @return la nuova stringa ottenuta da Origine
    */
   public static String strReplace(String Origine, Map<String, String> sostituzioni)
   {
-    for(Map.Entry<String, String> entry : sostituzioni.entrySet())
-    {
-      String cerca = entry.getKey();
-      String cambia = entry.getValue();
-
-      Origine = strReplace(Origine, cerca, cambia);
-    }
-
-    return Origine;
+    return new StringReplacer(sostituzioni).replace(Origine);
   }
 
   /**
@@ -825,10 +836,7 @@ public class StringOper
    */
   public static String strReplace(String Origine, Collection<Pair<String, String>> sostituzioni)
   {
-    for(Pair<String, String> subs : sostituzioni)
-      Origine = strReplace(Origine, subs.first, subs.second);
-
-    return Origine;
+    return new StringReplacer(sostituzioni).replace(Origine);
   }
 
   /**
@@ -841,18 +849,7 @@ public class StringOper
    */
   public static String strReplace(String Origine, String... sostituzioni)
   {
-    if((sostituzioni.length & 1) != 0)
-      throw new IllegalArgumentException("Sostituzioni di lunghezza dispari.");
-
-    for(int i = 0; i < sostituzioni.length; i += 2)
-    {
-      String cerca = sostituzioni[i];
-      String cambia = sostituzioni[i + 1];
-
-      Origine = strReplace(Origine, cerca, cambia);
-    }
-
-    return Origine;
+    return new StringReplacer(sostituzioni).replace(Origine);
   }
 
   /**
@@ -2650,29 +2647,16 @@ public class StringOper
     return defVal;
   }
 
+  /**
+   * Converte HTML in testo semplice.
+   * Decodifica le entità, trasforma &lt;br&gt;, &lt;/tr&gt; e &lt;/li&gt;
+   * in "\r\n" ed elimina gli altri tag in una sola passata (vedi HtmlToText).
+   * @param html documento HTML
+   * @return testo
+   */
   public static String cvtHtml2Text(String html)
   {
-    // converte le sequenze html
-    html = CvtWEB2Unicode(html);
-
-    // cambia i tag significativi
-    html = strReplace(html, "<br />", "\r\n");
-    html = strReplace(html, "<br/>", "\r\n");
-    html = strReplace(html, "<br>", "\r\n");
-    html = strReplace(html, "</tr>", "\r\n");
-    html = strReplace(html, "</li>", "\r\n");
-
-    // applico l'espressione regolare,
-    // sostituendo i caratteri speciali con la stringa vuota
-    Matcher m = htmlRemovePattern.matcher(html);
-    StringBuilder sb = new StringBuilder();
-    while(m.find())
-    {
-      m.appendReplacement(sb, "");
-    }
-    m.appendTail(sb);
-
-    return sb.toString();
+    return HtmlToText.DEFAULT.convert(html);
   }
 
   public static Map<Character, String> createUnicode2HtmlMap()
@@ -3049,6 +3033,8 @@ public class StringOper
    * Split di una linea CSV.
    * Riconosce automaticamente campi racchiusi da doppi apici:<br>
    * <b>M,"1","A/S","Amp/Sulbactam","16/8",N , "I","I" , , , , , , , , , , , , , , , , ,N</b>
+   * Per leggere file interi (anche con fine linea dentro gli apici)
+   * usare org.commonlib5.io.CsvReader.
    * @param linea linea da splittare
    * @return array di campi equivalenti
    * @throws Exception
@@ -20,24 +20,48 @@ package org.commonlib5.utils;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import org.commonlib5.io.ByteBufferOutputStream;
 
 /**
  * Utility per cerca e cambia di un pacchetto di stringhe in un file di testo.
+ * <ul>
+ * <li>replaceStream(): a finestre di dimensione fissa, memoria costante
+ * qualunque sia la dimensione del file; consigliata per file lunghi;</li>
+ * <li>replaceParallel(): come replaceStream() ma i blocchi del file
+ * sono elaborati in parallelo;</li>
+ * <li>replaceByLine(): una linea per volta; non trova le stringhe
+ * a cavallo di più linee e il terminatore di linea diventa sempre '\n';</li>
+ * <li>replaceInMemory(): tutto il file in memoria.</li>
+ * </ul>
  *
  * @author Nicola De Nisco
  */
 public class StringReplaceInFile
 {
+  /** dimensione di default dei blocchi di elaborazione */
+  public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
   private final File inFile;
   private final InputStream inStream;
   private final Charset incharset;
   private final Map<String, String> substMap = new ArrayMap<>();
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
 
   /**
    * Costruttore.
@@ -84,9 +108,184 @@ public class StringReplaceInFile
     substMap.clear();
   }
 
+  public int getChunkSize()
+  {
+    return chunkSize;
+  }
+
+  /**
+   * Imposta la dimensione dei blocchi di elaborazione.
+   * Per replaceStream() è la finestra di lettura in caratteri,
+   * per replaceParallel() la dimensione in bytes dei blocchi elaborati in parallelo.
+   * @param chunkSize dimensione del blocco
+   */
+  public void setChunkSize(int chunkSize)
+  {
+    if(chunkSize <= 0)
+      throw new IllegalArgumentException("Dimensione non valida: " + chunkSize);
+
+    this.chunkSize = chunkSize;
+  }
+
+  private InputStream apri()
+     throws IOException
+  {
+    return inFile != null ? Files.newInputStream(inFile.toPath()) : inStream;
+  }
+
+  /**
+   * Sostituzione di stringhe a finestre di dimensione fissa.
+   * Il file è letto una sola volta; fra una finestra e la successiva
+   * è trattenuta solo l'eventuale occorrenza incompleta, per cui vengono
+   * trovate anche le stringhe a cavallo delle finestre o di più linee.
+   * I terminatori di linea sono conservati.
+   * La memoria usata non dipende dalla dimensione del file.
+   * @param nuovoFile il file da scrivere con le sostituzioni
+   * @param outcharset encoding file da scrivere
+   * @throws Exception
+   */
+  public void replaceStream(File nuovoFile, Charset outcharset)
+     throws Exception
+  {
+    StringReplacer sr = new StringReplacer(substMap);
+
+    try(Reader ir = new InputStreamReader(apri(), incharset);
+       Writer ow = Files.newBufferedWriter(nuovoFile.toPath(), outcharset))
+    {
+      sr.replace(ir, ow, chunkSize);
+    }
+  }
+
+  /**
+   * Sostituzione di stringhe con elaborazione parallela.
+   * Il file è letto in blocchi di circa getChunkSize() bytes tagliati
+   * dopo un fine linea: nessuna stringa da cercare contiene il fine linea,
+   * quindi nessuna occorrenza può essere a cavallo di due blocchi.
+   * I blocchi sono elaborati in parallelo e scritti nell'ordine originale;
+   * i blocchi in memoria sono limitati a due per thread.
+   * Il risultato è identico a replaceStream(). Se una stringa da cercare
+   * contiene '\n' o gli encoding non permettono il taglio a livello di bytes
+   * (sono ammessi UTF-8 e gli encoding a singolo byte) viene usata replaceStream().
+   * Una linea più lunga del blocco viene elaborata tutta insieme.
+   * @param nuovoFile il file da scrivere con le sostituzioni
+   * @param outcharset encoding file da scrivere
+   * @param executor pool dei thread di elaborazione (null per ForkJoinPool.commonPool())
+   * @throws Exception
+   */
+  public void replaceParallel(File nuovoFile, Charset outcharset, ExecutorService executor)
+     throws Exception
+  {
+    if(!divisibile(incharset) || !divisibile(outcharset)
+       || substMap.keySet().stream().anyMatch((k) -> k.indexOf('\n') != -1))
+    {
+      replaceStream(nuovoFile, outcharset);
+      return;
+    }
+
+    StringReplacer sr = new StringReplacer(substMap);
+    ExecutorService pool = executor == null ? ForkJoinPool.commonPool() : executor;
+    int thread = executor == null ? ForkJoinPool.getCommonPoolParallelism() : Runtime.getRuntime().availableProcessors();
+    int maxInCoda = Math.max(2, 2 * thread);
+    ArrayDeque<Future<byte[]>> inCoda = new ArrayDeque<>();
+
+    try(InputStream is = apri();
+       OutputStream os = Files.newOutputStream(nuovoFile.toPath()))
+    {
+      try
+      {
+        byte[] buf = new byte[chunkSize];
+        int len = 0;
+        boolean fine = false;
+        while(!fine)
+        {
+          int n = is.readNBytes(buf, len, buf.length - len);
+          fine = len + n < buf.length;
+          len += n;
+
+          int taglio = fine ? len : ultimoCapo(buf, len);
+          if(taglio == 0)
+          {
+            // linea più lunga del blocco
+            if(!fine)
+              buf = Arrays.copyOf(buf, buf.length * 2);
+            continue;
+          }
+
+          while(inCoda.size() >= maxInCoda)
+            scriviPrimo(inCoda, os);
+
+          final byte[] dati = buf;
+          final int lenDati = taglio;
+          inCoda.addLast(pool.submit(()
+             -> sr.replace(new String(dati, 0, lenDati, incharset)).getBytes(outcharset)));
+
+          buf = new byte[buf.length];
+          len -= taglio;
+          System.arraycopy(dati, taglio, buf, 0, len);
+        }
+
+        while(!inCoda.isEmpty())
+          scriviPrimo(inCoda, os);
+      }
+      finally
+      {
+        for(Future<byte[]> f : inCoda)
+          f.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Verifica se un encoding può essere tagliato dopo il byte di fine linea.
+   */
+  private static boolean divisibile(Charset cs)
+  {
+    if(StandardCharsets.UTF_8.equals(cs))
+      return true;
+
+    return cs.canEncode() && cs.newEncoder().maxBytesPerChar() == 1
+       && Arrays.equals("\n".getBytes(cs), new byte[]
+       {
+         '\n'
+       });
+  }
+
+  /**
+   * Posizione successiva all'ultimo fine linea.
+   * @return posizione o 0 se non ci sono fine linea
+   */
+  private static int ultimoCapo(byte[] buf, int len)
+  {
+    for(int i = len - 1; i >= 0; i--)
+    {
+      if(buf[i] == '\n')
+        return i + 1;
+    }
+    return 0;
+  }
+
+  private static void scriviPrimo(ArrayDeque<Future<byte[]>> inCoda, OutputStream os)
+     throws IOException
+  {
+    try
+    {
+      os.write(inCoda.removeFirst().get());
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Sostituzione interrotta.", ex);
+    }
+    catch(ExecutionException ex)
+    {
+      throw new IOException("Errore nella sostituzione.", ex.getCause());
+    }
+  }
+
   /**
    * Sostituzione di stringhe una linea per volta.
-   * Basso impatto di memoria; consigliata per file lunghi.
+   * Basso impatto di memoria; non trova le stringhe a cavallo di più linee
+   * e scrive sempre '\n' come terminatore: per file lunghi è preferibile replaceStream().
    * @param nuovoFile il file da scrivere con le sostituzioni
    * @param outcharset encoding file da scrivere
    * @throws Exception
@@ -94,6 +293,8 @@ public class StringReplaceInFile
   public void replaceByLine(File nuovoFile, Charset outcharset)
      throws Exception
   {
+    StringReplacer sr = new StringReplacer(substMap);
+
     if(inFile != null)
     {
       try(BufferedReader ir = Files.newBufferedReader(inFile.toPath(), incharset);
@@ -102,7 +303,7 @@ public class StringReplaceInFile
         String linea;
         while((linea = ir.readLine()) != null)
         {
-          String str = StringOper.strReplace(linea, substMap);
+          String str = sr.replace(linea);
           ow.write(str);
           ow.write('\n');
         }
@@ -116,7 +317,7 @@ public class StringReplaceInFile
         String linea;
         while((linea = ir.readLine()) != null)
         {
-          String str = StringOper.strReplace(linea, substMap);
+          String str = sr.replace(linea);
           ow.write(str);
           ow.write('\n');
         }
@@ -143,7 +344,7 @@ public class StringReplaceInFile
     }
     else if(inStream != null)
     {
-      ByteBufferOutputStream os = new ByteBufferOutputStream();
+      ByteBufferOutputStream os = new ByteBufferOutputStream(ByteBufferOutputStream.BUFFER_SIZE, true);
       CommonFileUtils.copyStream(inStream, os);
       contenuto = os.getBytes();
     }
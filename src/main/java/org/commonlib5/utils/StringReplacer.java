@@ -0,0 +1,384 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sostituzione di molte stringhe in una sola passata.
+ * Le stringhe da cercare sono compilate una sola volta in un automa
+ * di Aho-Corasick; il testo viene letto da sinistra a destra una sola
+ * volta qualunque sia il numero delle sostituzioni.
+ * <p>
+ * Semantica: fra le occorrenze viene scelta quella che inizia più a sinistra
+ * e, a parità di inizio, la più lunga; la ricerca riprende dopo la sostituzione.
+ * Il testo sostituito non viene più esaminato: a differenza di sostituzioni
+ * applicate una dopo l'altra, una sostituzione non può generare il testo
+ * cercato da un'altra.
+ * Una sostituzione null produce la stringa "null", come la
+ * concatenazione usata da StringOper.strReplace().
+ * L'oggetto è immutabile e può essere usato da più thread.
+ *
+ * <pre><code>
+ * StringReplacer r = new StringReplacer("&amp;lt;", "&lt;", "&amp;gt;", "&gt;", "&amp;amp;", "&amp;");
+ * String s = r.replace(html);
+ * r.replace(reader, writer);
+ * </code></pre>
+ *
+ * @author Nicola De Nisco
+ */
+public class StringReplacer
+{
+  /** dimensione di default della finestra di lettura da Reader */
+  public static final int DEFAULT_WINDOW_SIZE = 8192;
+
+  // limite per la tabella diretta delle transizioni
+  private static final int ASCII = 128;
+
+  private final String[] cerca, cambia;
+  private final int maxLen;
+  // automa: figli ordinati per carattere, collegamento di fallimento,
+  // profondità e sequenza più lunga riconosciuta (-1 nessuna)
+  private final char[][] chiavi;
+  private final int[][] figli;
+  private final int[] fallimento, profondita, riconosciuta;
+  // transizioni dalla radice per i caratteri ASCII
+  private final int[] radice = new int[ASCII];
+
+  /**
+   * Compila le sostituzioni di una mappa.
+   * @param sostituzioni coppie stringa da cercare / sostituzione
+   */
+  public StringReplacer(Map<String, String> sostituzioni)
+  {
+    this(new ArrayList<>(sostituzioni.keySet()), new ArrayList<>(sostituzioni.values()));
+  }
+
+  /**
+   * Compila le sostituzioni di un elenco di coppie.
+   * A parità di stringa da cercare vale la prima coppia.
+   * @param sostituzioni coppie stringa da cercare / sostituzione
+   */
+  public StringReplacer(Collection<Pair<String, String>> sostituzioni)
+  {
+    this(primi(sostituzioni));
+  }
+
+  /**
+   * Compila le sostituzioni da un array di coppie.
+   * A parità di stringa da cercare vale la prima coppia.
+   * @param sostituzioni stringa da cercare, sostituzione, stringa da cercare, ...
+   * @throws IllegalArgumentException se sostituzioni è di lunghezza dispari
+   */
+  public StringReplacer(String... sostituzioni)
+  {
+    this(primi(sostituzioni));
+  }
+
+  private static Map<String, String> primi(Collection<Pair<String, String>> sostituzioni)
+  {
+    LinkedHashMap<String, String> rv = new LinkedHashMap<>();
+    for(Pair<String, String> p : sostituzioni)
+      rv.putIfAbsent(p.first, p.second);
+    return rv;
+  }
+
+  private static Map<String, String> primi(String... sostituzioni)
+  {
+    if((sostituzioni.length & 1) != 0)
+      throw new IllegalArgumentException("Sostituzioni di lunghezza dispari.");
+
+    LinkedHashMap<String, String> rv = new LinkedHashMap<>();
+    for(int i = 0; i < sostituzioni.length; i += 2)
+      rv.putIfAbsent(sostituzioni[i], sostituzioni[i + 1]);
+    return rv;
+  }
+
+  private StringReplacer(ArrayList<String> chiave, ArrayList<String> valore)
+  {
+    int n = chiave.size();
+    cerca = new String[n];
+    cambia = new String[n];
+    int max = 0;
+    for(int i = 0; i < n; i++)
+    {
+      String s = chiave.get(i);
+      if(s == null || s.isEmpty())
+        throw new IllegalArgumentException("Stringa da cercare vuota.");
+
+      cerca[i] = s;
+      cambia[i] = String.valueOf(valore.get(i));
+      max = Math.max(max, s.length());
+    }
+    maxLen = max;
+
+    // trie con i figli in mappe ordinate
+    ArrayList<TreeMap<Character, Integer>> trie = new ArrayList<>();
+    ArrayList<Integer> fine = new ArrayList<>();
+    trie.add(new TreeMap<>());
+    fine.add(-1);
+    for(int i = 0; i < n; i++)
+    {
+      int stato = 0;
+      for(int j = 0; j < cerca[i].length(); j++)
+      {
+        Integer f = trie.get(stato).get(cerca[i].charAt(j));
+        if(f == null)
+        {
+          f = trie.size();
+          trie.get(stato).put(cerca[i].charAt(j), f);
+          trie.add(new TreeMap<>());
+          fine.add(-1);
+        }
+        stato = f;
+      }
+      fine.set(stato, i);
+    }
+
+    int numStati = trie.size();
+    chiavi = new char[numStati][];
+    figli = new int[numStati][];
+    fallimento = new int[numStati];
+    profondita = new int[numStati];
+    riconosciuta = new int[numStati];
+    for(int s = 0; s < numStati; s++)
+    {
+      TreeMap<Character, Integer> m = trie.get(s);
+      chiavi[s] = new char[m.size()];
+      figli[s] = new int[m.size()];
+      int i = 0;
+      for(Map.Entry<Character, Integer> e : m.entrySet())
+      {
+        chiavi[s][i] = e.getKey();
+        figli[s][i++] = e.getValue();
+      }
+    }
+
+    for(char c = 0; c < ASCII; c++)
+      radice[c] = figlio(0, c);
+
+    // collegamenti di fallimento in ampiezza
+    int[] coda = new int[numStati];
+    int testa = 0, ultimo = 0;
+    coda[ultimo++] = 0;
+    riconosciuta[0] = -1;
+    while(testa < ultimo)
+    {
+      int u = coda[testa++];
+      for(int i = 0; i < chiavi[u].length; i++)
+      {
+        char c = chiavi[u][i];
+        int v = figli[u][i];
+        profondita[v] = profondita[u] + 1;
+        fallimento[v] = u == 0 ? 0 : transizione(fallimento[u], c);
+        riconosciuta[v] = fine.get(v) >= 0 ? fine.get(v) : riconosciuta[fallimento[v]];
+        coda[ultimo++] = v;
+      }
+    }
+  }
+
+  /**
+   * Numero di sostituzioni compilate.
+   * @return numero di stringhe da cercare
+   */
+  public int size()
+  {
+    return cerca.length;
+  }
+
+  private int figlio(int stato, char c)
+  {
+    int i = Arrays.binarySearch(chiavi[stato], c);
+    return i < 0 ? (stato == 0 ? 0 : -1) : figli[stato][i];
+  }
+
+  private int transizione(int stato, char c)
+  {
+    while(true)
+    {
+      if(stato == 0)
+        return c < ASCII ? radice[c] : figlio(0, c);
+
+      int f = figlio(stato, c);
+      if(f >= 0)
+        return f;
+      stato = fallimento[stato];
+    }
+  }
+
+  /**
+   * Esegue le sostituzioni su una stringa.
+   * @param s stringa originale
+   * @return stringa con le sostituzioni (la stessa se non ci sono occorrenze)
+   */
+  public String replace(String s)
+  {
+    if(s == null || cerca.length == 0)
+      return s;
+
+    try
+    {
+      StringBuilder sb = new StringBuilder(s.length() + 16);
+      int[] conta = new int[1];
+      esegui(s, 0, s.length(), true, sb, conta);
+      return conta[0] == 0 ? s : sb.toString();
+    }
+    catch(IOException ex)
+    {
+      // impossibile con StringBuilder
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Esegue le sostituzioni accodando il risultato.
+   * @param s testo originale
+   * @param out destinazione del testo con le sostituzioni
+   * @return numero di sostituzioni effettuate
+   * @throws IOException
+   */
+  public int replace(CharSequence s, Appendable out)
+     throws IOException
+  {
+    int[] conta = new int[1];
+    esegui(s, 0, s.length(), true, out, conta);
+    return conta[0];
+  }
+
+  /**
+   * Esegue le sostituzioni su un flusso di caratteri.
+   * La memoria usata non dipende dalla lunghezza del testo.
+   * @param in testo originale
+   * @param out destinazione del testo con le sostituzioni
+   * @return numero di sostituzioni effettuate
+   * @throws IOException
+   */
+  public int replace(Reader in, Writer out)
+     throws IOException
+  {
+    return replace(in, out, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Esegue le sostituzioni su un flusso di caratteri.
+   * Il testo viene elaborato in finestre di dimensione fissa; fra una
+   * finestra e la successiva vengono trattenuti solo i caratteri di
+   * un'occorrenza non ancora completa (al più la stringa da cercare più lunga).
+   * @param in testo originale
+   * @param out destinazione del testo con le sostituzioni
+   * @param windowSize dimensione in caratteri della finestra di lettura
+   * @return numero di sostituzioni effettuate
+   * @throws IOException
+   */
+  public int replace(Reader in, Writer out, int windowSize)
+     throws IOException
+  {
+    char[] buf = new char[Math.max(Math.max(windowSize, 16), 2 * maxLen)];
+    int len = 0, n;
+    int[] conta = new int[1];
+
+    while((n = in.read(buf, len, buf.length - len)) != -1)
+    {
+      len += n;
+      if(len < buf.length)
+        continue;
+
+      int fatti = esegui(CharBuffer.wrap(buf, 0, len), 0, len, false, out, conta);
+      System.arraycopy(buf, fatti, buf, 0, len - fatti);
+      len -= fatti;
+      if(len == buf.length)
+        buf = Arrays.copyOf(buf, buf.length * 2);
+    }
+
+    esegui(CharBuffer.wrap(buf, 0, len), 0, len, true, out, conta);
+    return conta[0];
+  }
+
+  /**
+   * Scansione del testo.
+   * @param s testo
+   * @param from inizio della scansione
+   * @param to fine dei caratteri disponibili
+   * @param ultimo vero se il testo termina a to
+   * @param out destinazione
+   * @param conta contatore delle sostituzioni
+   * @return posizione fino alla quale il testo è stato scritto in out
+   */
+  private int esegui(CharSequence s, int from, int to, boolean ultimo, Appendable out, int[] conta)
+     throws IOException
+  {
+    int scritto = from, stato = 0, i = from;
+    int candInizio = -1, candFine = 0, candId = 0;
+
+    while(true)
+    {
+      if(i == to)
+      {
+        if(candInizio < 0)
+        {
+          // nessuna occorrenza in sospeso: il prefisso in corso può continuare
+          int sospeso = ultimo ? to : to - profondita[stato];
+          out.append(s, scritto, sospeso);
+          return sospeso;
+        }
+
+        if(!ultimo)
+        {
+          out.append(s, scritto, candInizio);
+          return candInizio;
+        }
+      }
+      else
+      {
+        stato = transizione(stato, s.charAt(i++));
+        int m = riconosciuta[stato];
+        if(m >= 0)
+        {
+          // la più lunga fra le occorrenze che terminano qui è anche quella che inizia prima
+          int inizio = i - cerca[m].length();
+          if(candInizio < 0 || inizio < candInizio || (inizio == candInizio && i > candFine))
+          {
+            candInizio = inizio;
+            candFine = i;
+            candId = m;
+          }
+        }
+
+        // un'occorrenza futura non può iniziare prima del prefisso in corso
+        if(candInizio < 0 || i - profondita[stato] <= candInizio)
+          continue;
+      }
+
+      out.append(s, scritto, candInizio).append(cambia[candId]);
+      conta[0]++;
+      scritto = i = candFine;
+      stato = 0;
+      candInizio = -1;
+    }
+  }
+}
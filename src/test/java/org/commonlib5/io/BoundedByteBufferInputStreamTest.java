@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.nio.BufferOverflowException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per BoundedByteBufferInputStream.
+ *
+ * @author Nicola De Nisco
+ */
+public class BoundedByteBufferInputStreamTest
+{
+  @Test
+  public void testTrasferimento()
+     throws Exception
+  {
+    final int numBytes = 2 * 1024 * 1024;
+    BoundedByteBufferInputStream bis = new BoundedByteBufferInputStream(1000);
+    CRC32 crcScritto = new CRC32();
+
+    Thread produttore = new Thread(() ->
+    {
+      Random rnd = new Random(1234);
+      byte[] buf = new byte[3000];
+      int totale = 0;
+      while(totale < numBytes)
+      {
+        int len = Math.min(numBytes - totale, rnd.nextInt(buf.length) + 1);
+        rnd.nextBytes(buf);
+        crcScritto.update(buf, 0, len);
+        bis.addToBuffer(buf, 0, len);
+        totale += len;
+      }
+    });
+    produttore.start();
+
+    CRC32 crcLetto = new CRC32();
+    Random rnd = new Random(4321);
+    byte[] buf = new byte[700];
+    int totale = 0;
+    while(totale < numBytes)
+    {
+      if(rnd.nextInt(10) == 0)
+      {
+        crcLetto.update(bis.read());
+        totale++;
+      }
+      else
+      {
+        int letti = bis.read(buf, 0, rnd.nextInt(buf.length) + 1);
+        crcLetto.update(buf, 0, letti);
+        totale += letti;
+      }
+    }
+
+    produttore.join();
+    assertEquals(crcScritto.getValue(), crcLetto.getValue());
+    assertEquals(0, bis.available());
+  }
+
+  @Test
+  public void testNonBloccante()
+     throws Exception
+  {
+    BoundedByteBufferInputStream bis = new BoundedByteBufferInputStream(8, false, false);
+    assertEquals(-1, bis.read());
+
+    bis.addToBuffer("abcdef".getBytes(StandardCharsets.US_ASCII));
+    try
+    {
+      bis.addToBuffer("xyz".getBytes(StandardCharsets.US_ASCII));
+      fail("Overflow non segnalato");
+    }
+    catch(BufferOverflowException ex)
+    {
+      assertEquals(6, bis.available());
+    }
+
+    // il dato aggiunto occupa lo spazio liberato in testa
+    assertEquals(4, bis.skip(4));
+    bis.addToBuffer("ghijk".getBytes(StandardCharsets.US_ASCII));
+    assertEquals("efghijk", bis.toString());
+    assertEquals(1, bis.getSpaceLeft());
+
+    bis.unread('d');
+    byte[] letti = new byte[10];
+    assertEquals(8, bis.read(letti, 0, 10));
+    assertEquals("defghijk", new String(letti, 0, 8, StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testTimeout()
+     throws Exception
+  {
+    BoundedByteBufferInputStream bis = new BoundedByteBufferInputStream(16);
+    byte[] letti = new byte[4];
+    long inizio = System.nanoTime();
+    assertEquals(0, bis.read(letti, 0, 4, 50, TimeUnit.MILLISECONDS));
+    assertTrue(System.nanoTime() - inizio >= TimeUnit.MILLISECONDS.toNanos(50));
+
+    bis.addToBuffer(7);
+    assertEquals(1, bis.read(letti, 0, 4, 50, TimeUnit.MILLISECONDS));
+    assertEquals(7, letti[0]);
+
+    ByteBufferInputStream illimitato = new ByteBufferInputStream(false);
+    assertEquals(0, illimitato.read(letti, 0, 4, 10, TimeUnit.MILLISECONDS));
+    illimitato.addToBuffer(9);
+    assertEquals(1, illimitato.read(letti, 0, 4, 10, TimeUnit.MILLISECONDS));
+    assertEquals(9, letti[0]);
+  }
+
+  @Test
+  public void testChiusura()
+     throws Exception
+  {
+    // la chiusura sveglia lettore e produttore in attesa
+    BoundedByteBufferInputStream bis = new BoundedByteBufferInputStream(4);
+    AtomicInteger letto = new AtomicInteger(0);
+    Thread lettore = new Thread(() -> letto.set(bis.read()));
+    lettore.start();
+    Thread.sleep(50);
+    bis.close();
+    lettore.join(5000);
+    assertFalse(lettore.isAlive());
+    assertEquals(-1, letto.get());
+
+    bis.addToBuffer(new byte[4]);
+    Thread produttore = new Thread(() -> bis.addToBuffer(new byte[4]));
+    produttore.start();
+    Thread.sleep(50);
+    assertTrue(produttore.isAlive());
+    bis.close();
+    produttore.join(5000);
+    assertFalse(produttore.isAlive());
+    assertEquals(4, bis.available());
+  }
+
+  @Test
+  public void testPassaggioNonBloccante()
+     throws Exception
+  {
+    // il passaggio a non bloccante sveglia i lettori in attesa
+    BoundedByteBufferInputStream bis = new BoundedByteBufferInputStream(4);
+    ByteBufferInputStream illimitato = new ByteBufferInputStream(true);
+    AtomicInteger letto = new AtomicInteger(0), lettoIllimitato = new AtomicInteger(0);
+    Thread lettore = new Thread(() -> letto.set(bis.read()));
+    Thread lettoreIllimitato = new Thread(() -> lettoIllimitato.set(illimitato.read()));
+    lettore.start();
+    lettoreIllimitato.start();
+    Thread.sleep(50);
+    assertTrue(lettore.isAlive());
+    assertTrue(lettoreIllimitato.isAlive());
+
+    bis.setBlocking(false);
+    illimitato.setBlocking(false);
+    lettore.join(5000);
+    lettoreIllimitato.join(5000);
+    assertFalse(lettore.isAlive());
+    assertFalse(lettoreIllimitato.isAlive());
+    assertEquals(-1, letto.get());
+    assertEquals(-1, lettoIllimitato.get());
+  }
+}
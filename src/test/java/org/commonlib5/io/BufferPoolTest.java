@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per BufferPool.
+ *
+ * @author Nicola De Nisco
+ */
+public class BufferPoolTest
+{
+  @Test
+  public void testClassi()
+  {
+    BufferPool pool = new BufferPool(1024 * 1024);
+    assertEquals(BufferPool.MIN_SIZE, pool.acquire(1).length);
+    assertEquals(BufferPool.MIN_SIZE, pool.acquire(BufferPool.MIN_SIZE).length);
+    assertEquals(512, pool.acquire(BufferPool.MIN_SIZE + 1).length);
+    assertEquals(BufferPool.MAX_SIZE, pool.acquire(BufferPool.MAX_SIZE).length);
+    // oltre MAX_SIZE dimensione esatta e non riutilizzabile
+    byte[] grande = pool.acquire(BufferPool.MAX_SIZE + 1);
+    assertEquals(BufferPool.MAX_SIZE + 1, grande.length);
+    pool.release(grande);
+    assertEquals(0, pool.getRetained());
+    assertEquals(5, pool.getMisses());
+    assertEquals(0, pool.getHits());
+  }
+
+  @Test
+  public void testRiutilizzo()
+  {
+    BufferPool pool = new BufferPool(1024 * 1024);
+    byte[] b = pool.acquire(3000);
+    assertEquals(4096, b.length);
+    pool.release(b);
+    assertEquals(4096, pool.getRetained());
+
+    assertSame(b, pool.acquire(2049));
+    assertEquals(1, pool.getHits());
+    assertEquals(0, pool.getRetained());
+
+    // array estranei al pool ignorati
+    pool.release(new byte[1000]);
+    assertEquals(0, pool.getRetained());
+  }
+
+  @Test
+  public void testLimite()
+  {
+    BufferPool pool = new BufferPool(10000);
+    pool.release(pool.acquire(4096));
+    pool.release(pool.acquire(4096));
+    assertEquals(4096, pool.getRetained());
+    pool.release(new byte[4096]);
+    assertEquals(8192, pool.getRetained());
+    pool.release(new byte[4096]);
+    assertEquals(8192, pool.getRetained());
+    assertEquals(1, pool.getDiscarded());
+
+    pool.clear();
+    assertEquals(0, pool.getRetained());
+  }
+
+  @Test
+  public void testOutputStream()
+     throws Exception
+  {
+    BufferPool pool = new BufferPool(16 * 1024 * 1024);
+    for(int i = 0; i < 10; i++)
+    {
+      ByteBufferOutputStream bos = new ByteBufferOutputStream(pool, 100, i % 2 == 0);
+      for(int j = 0; j < 1000; j++)
+        bos.write("0123456789".getBytes(StandardCharsets.US_ASCII));
+      assertEquals(10000, bos.position());
+      assertEquals(10000, bos.getBytes().length);
+      assertEquals(10, bos.indexOf((byte) '0', 1));
+      bos.close();
+      assertEquals(0, bos.position());
+
+      // scrittura dopo la chiusura
+      bos.write('x');
+      assertEquals("x", bos.toString());
+      bos.close();
+    }
+
+    assertTrue(pool.getHits() > pool.getMisses());
+    assertTrue(pool.getRetained() > 0);
+  }
+
+  @Test
+  public void testInputStream()
+     throws Exception
+  {
+    BufferPool pool = new BufferPool(1024 * 1024);
+    ByteBufferInputStream bis = new ByteBufferInputStream(false, pool);
+    bis.addToBuffer("abc".getBytes(StandardCharsets.US_ASCII));
+    assertEquals('a', bis.read());
+    bis.addToBuffer("def".getBytes(StandardCharsets.US_ASCII));
+    assertEquals("bcdef", bis.toString());
+
+    byte[] letti = new byte[10];
+    assertEquals(5, bis.read(letti));
+    assertEquals(-1, bis.read());
+
+    // oltre la dimensione della classe: riallocazione
+    bis.addToBuffer(new byte[300]);
+    assertEquals(300, bis.available());
+    assertEquals(BufferPool.MIN_SIZE, pool.getRetained());
+
+    bis.close();
+    assertEquals(BufferPool.MIN_SIZE + 512, pool.getRetained());
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per ByteBufferOutputStream.
+ *
+ * @author Nicola De Nisco
+ */
+public class ByteBufferOutputStreamTest
+{
+  /**
+   * Scrive dati casuali alternando byte singoli e blocchi.
+   */
+  private byte[] riempi(ByteBufferOutputStream bos, int numBytes)
+     throws Exception
+  {
+    byte[] dati = new byte[numBytes];
+    new Random(1234).nextBytes(dati);
+
+    Random rnd = new Random(4321);
+    int pos = 0;
+    while(pos < numBytes)
+    {
+      if(rnd.nextInt(10) == 0)
+      {
+        bos.write(dati[pos++]);
+      }
+      else
+      {
+        int len = Math.min(numBytes - pos, rnd.nextInt(70000) + 1);
+        bos.write(dati, pos, len);
+        pos += len;
+      }
+    }
+
+    assertEquals(numBytes, bos.position());
+    return dati;
+  }
+
+  @Test
+  public void testSegmentato()
+     throws Exception
+  {
+    ByteBufferOutputStream bos = new ByteBufferOutputStream(100, true);
+    assertTrue(bos.isSegmented());
+    byte[] dati = riempi(bos, 3 * 1024 * 1024 + 17);
+    assertFalse(bos.segmenti.isEmpty());
+
+    assertArrayEquals(dati, bos.getBytes());
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    bos.writeTo(os);
+    assertArrayEquals(dati, os.toByteArray());
+    // writeTo e getBytes non compattano
+    assertFalse(bos.segmenti.isEmpty());
+  }
+
+  @Test
+  public void testGathering()
+     throws Exception
+  {
+    ByteBufferOutputStream bos = new ByteBufferOutputStream(16, true);
+    byte[] dati = riempi(bos, 200 * 1024);
+
+    Path tmp = Files.createTempFile("bbos", ".bin");
+    try
+    {
+      try(FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE))
+      {
+        assertEquals(dati.length, bos.writeTo(fc));
+      }
+      assertArrayEquals(dati, Files.readAllBytes(tmp));
+    }
+    finally
+    {
+      Files.delete(tmp);
+    }
+  }
+
+  @Test
+  public void testGatheringNonBloccante()
+     throws Exception
+  {
+    ByteBufferOutputStream bos = new ByteBufferOutputStream(16, true);
+    riempi(bos, 1024);
+
+    Pipe pipe = Pipe.open();
+    try
+    {
+      pipe.sink().configureBlocking(false);
+      bos.writeTo(pipe.sink());
+      fail("Canale non bloccante accettato");
+    }
+    catch(IllegalBlockingModeException ex)
+    {
+      // corretto
+    }
+    finally
+    {
+      pipe.sink().close();
+      pipe.source().close();
+    }
+  }
+
+  @Test
+  public void testCompatta()
+     throws Exception
+  {
+    ByteBufferOutputStream bos = new ByteBufferOutputStream(16, true);
+    bos.write("uno due tre quattro cinque sei".getBytes(StandardCharsets.US_ASCII));
+    assertFalse(bos.segmenti.isEmpty());
+
+    assertEquals(8, bos.indexOf("tre".getBytes(StandardCharsets.US_ASCII)));
+    assertTrue(bos.segmenti.isEmpty());
+
+    // dopo la compattazione la scrittura prosegue a segmenti
+    bos.write(" sette otto nove dieci undici dodici".getBytes(StandardCharsets.US_ASCII));
+    bos.deleteHead(4);
+    assertEquals("due tre quattro cinque sei sette otto nove dieci undici dodici", bos.toString());
+
+    bos.clear();
+    assertTrue(bos.isEmpty());
+    bos.write('x');
+    assertEquals("x", bos.toString());
+  }
+
+  @Test
+  public void testContiguo()
+     throws Exception
+  {
+    ByteBufferOutputStream bos = new ByteBufferOutputStream();
+    assertFalse(bos.isSegmented());
+    byte[] dati = riempi(bos, 1024 * 1024);
+    assertArrayEquals(dati, bos.getBytes());
+    assertArrayEquals(dati, Arrays.copyOf(bos.array(), bos.position()));
+  }
+}
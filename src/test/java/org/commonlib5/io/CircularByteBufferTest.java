@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per CircularByteBuffer.
+ *
+ * @author Nicola De Nisco
+ */
+public class CircularByteBufferTest
+{
+  /**
+   * Trasferisce dati casuali fra due thread con blocchi
+   * di dimensione variabile e confronta i CRC.
+   */
+  private void trasferimento(CircularByteBuffer cb, int numBytes)
+     throws Exception
+  {
+    CRC32 crcScritto = new CRC32();
+    AtomicReference<Throwable> errore = new AtomicReference<>();
+
+    Thread produttore = new Thread(() ->
+    {
+      try(OutputStream os = cb.getOutputStream())
+      {
+        Random rnd = new Random(1234);
+        byte[] buf = new byte[3000];
+        int totale = 0;
+        while(totale < numBytes)
+        {
+          int len = Math.min(numBytes - totale, rnd.nextInt(buf.length) + 1);
+          rnd.nextBytes(buf);
+          crcScritto.update(buf, 0, len);
+          if(len == 1)
+            os.write(buf[0]);
+          else
+            os.write(buf, 0, len);
+          totale += len;
+        }
+      }
+      catch(Throwable t)
+      {
+        errore.set(t);
+      }
+    });
+    produttore.start();
+
+    CRC32 crcLetto = new CRC32();
+    InputStream is = cb.getInputStream();
+    Random rnd = new Random(4321);
+    byte[] buf = new byte[2500];
+    int letti, totale = 0;
+    while(true)
+    {
+      if(rnd.nextInt(10) == 0)
+      {
+        if((letti = is.read()) == -1)
+          break;
+        crcLetto.update(letti);
+        totale++;
+      }
+      else
+      {
+        if((letti = is.read(buf, 0, rnd.nextInt(buf.length) + 1)) == -1)
+          break;
+        crcLetto.update(buf, 0, letti);
+        totale += letti;
+      }
+    }
+
+    produttore.join();
+    assertNull(errore.get());
+    assertEquals(numBytes, totale);
+    assertEquals(crcScritto.getValue(), crcLetto.getValue());
+  }
+
+  @Test
+  public void testTrasferimento()
+     throws Exception
+  {
+    // la modalità sincronizzata attende con sleep di 100ms: buffer ampio e pochi dati
+    trasferimento(new CircularByteBuffer(1024 * 1024), 256 * 1024);
+  }
+
+  @Test
+  public void testTrasferimentoSpsc()
+     throws Exception
+  {
+    CircularByteBuffer cb = new CircularByteBuffer(1000, true, true);
+    assertTrue(cb.isSpsc());
+    assertEquals(1024, cb.getSize());
+    trasferimento(cb, 4 * 1024 * 1024);
+  }
+
+  @Test
+  public void testSpscNonBloccante()
+     throws Exception
+  {
+    CircularByteBuffer cb = new CircularByteBuffer(16, false, true);
+    OutputStream os = cb.getOutputStream();
+    InputStream is = cb.getInputStream();
+
+    os.write(new byte[10]);
+    assertEquals(10, cb.getAvailable());
+    assertEquals(6, cb.getSpaceLeft());
+
+    try
+    {
+      os.write(new byte[7]);
+      fail("Overflow non segnalato");
+    }
+    catch(BufferOverflowException ex)
+    {
+      // nessun dato scritto
+      assertEquals(10, is.available());
+    }
+
+    assertEquals(4, is.skip(4));
+    os.write(new byte[10]);
+    assertEquals(16, is.read(new byte[20]));
+
+    os.close();
+    assertEquals(-1, is.read());
+  }
+
+  @Test
+  public void testSpscChiusura()
+     throws Exception
+  {
+    // la chiusura del lettore sblocca lo scrittore in attesa di spazio
+    CircularByteBuffer cb = new CircularByteBuffer(16, true, true);
+    AtomicReference<Throwable> errore = new AtomicReference<>();
+    Thread produttore = new Thread(() ->
+    {
+      try
+      {
+        cb.getOutputStream().write(new byte[64]);
+      }
+      catch(Throwable t)
+      {
+        errore.set(t);
+      }
+    });
+    produttore.start();
+
+    while(cb.getAvailable() < 16)
+      Thread.sleep(1);
+
+    cb.getInputStream().close();
+    produttore.join(5000);
+    assertFalse(produttore.isAlive());
+    assertTrue(errore.get() instanceof IOException);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSpscInfinito()
+  {
+    new CircularByteBuffer(CircularByteBuffer.INFINITE_SIZE, true, true);
+  }
+
+  @Test
+  public void testTrasferimentoDirect()
+     throws Exception
+  {
+    CircularByteBuffer cb = new CircularByteBuffer(1000, true, true, true);
+    assertTrue(cb.isDirect());
+    trasferimento(cb, 4 * 1024 * 1024);
+
+    cb = new CircularByteBuffer(1024 * 1024, true, false, true);
+    assertTrue(cb.isDirect());
+    trasferimento(cb, 256 * 1024);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDirectInfinito()
+  {
+    new CircularByteBuffer(CircularByteBuffer.INFINITE_SIZE, true, false, true);
+  }
+
+  /**
+   * Lettura e scrittura con ByteBuffer a cavallo della fine del buffer.
+   */
+  private void byteBuffer(CircularByteBuffer cb)
+     throws Exception
+  {
+    byte[] dati = new byte[10];
+    for(int i = 0; i < dati.length; i++)
+      dati[i] = (byte) i;
+
+    // sposta la posizione di scrittura vicino alla fine
+    cb.getOutputStream().write(new byte[12]);
+    assertEquals(12, cb.getInputStream().skip(12));
+
+    ByteBuffer src = ByteBuffer.wrap(dati, 1, 9);
+    assertEquals(9, cb.write(src));
+    assertFalse(src.hasRemaining());
+    assertEquals(9, cb.getAvailable());
+
+    ByteBuffer dst = ByteBuffer.allocateDirect(6);
+    assertEquals(6, cb.read(dst));
+    dst.flip();
+    for(int i = 1; i <= 6; i++)
+      assertEquals(i, dst.get());
+
+    dst = ByteBuffer.allocate(20);
+    assertEquals(3, cb.read(dst));
+    assertEquals(9, dst.get(2));
+
+    cb.getWritableChannel().close();
+    assertEquals(-1, cb.getReadableChannel().read(dst));
+  }
+
+  @Test
+  public void testByteBuffer()
+     throws Exception
+  {
+    byteBuffer(new CircularByteBuffer(16, false, false, false));
+    byteBuffer(new CircularByteBuffer(16, false, false, true));
+    byteBuffer(new CircularByteBuffer(16, false, true, false));
+    byteBuffer(new CircularByteBuffer(16, false, true, true));
+  }
+
+  @Test
+  public void testByteBufferNonBloccante()
+     throws Exception
+  {
+    CircularByteBuffer cb = new CircularByteBuffer(16, false, true, true);
+    ByteBuffer src = ByteBuffer.allocate(17);
+    try
+    {
+      cb.write(src);
+      fail("Overflow non segnalato");
+    }
+    catch(BufferOverflowException ex)
+    {
+      assertEquals(17, src.remaining());
+      assertEquals(0, cb.getAvailable());
+    }
+  }
+
+  /**
+   * Copia da un canale a un altro attraverso il buffer.
+   */
+  private void canali(CircularByteBuffer cb)
+     throws Exception
+  {
+    byte[] dati = new byte[300 * 1024];
+    new Random(1234).nextBytes(dati);
+
+    ReadableByteChannel sorgente = Channels.newChannel(new ByteArrayInputStream(dati));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WritableByteChannel destinazione = Channels.newChannel(bos);
+    AtomicReference<Throwable> errore = new AtomicReference<>();
+
+    Thread produttore = new Thread(() ->
+    {
+      try
+      {
+        while(cb.fillFrom(sorgente) != -1)
+          ;
+        cb.getOutputStream().close();
+      }
+      catch(Throwable t)
+      {
+        errore.set(t);
+      }
+    });
+    produttore.start();
+
+    while(cb.drainTo(destinazione) != -1)
+      ;
+
+    produttore.join();
+    assertNull(errore.get());
+    assertArrayEquals(dati, bos.toByteArray());
+  }
+
+  @Test
+  public void testCanali()
+     throws Exception
+  {
+    canali(new CircularByteBuffer(4096, true, true, true));
+    canali(new CircularByteBuffer(4096, true, true, false));
+    // la modalità sincronizzata attende con sleep di 100ms: buffer ampio
+    canali(new CircularByteBuffer(1024 * 1024, true, false, true));
+  }
+}
@@ -0,0 +1,159 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per CsvReader.
+ *
+ * @author Nicola De Nisco
+ */
+public class CsvReaderTest
+{
+  private static List<List<String>> leggi(CsvReader r)
+     throws Exception
+  {
+    List<List<String>> rv = new ArrayList<>();
+    while(r.next())
+      rv.add(Arrays.asList(r.getFields()));
+    return rv;
+  }
+
+  @Test
+  public void testRfc4180()
+     throws Exception
+  {
+    String csv = "\uFEFFa,b,c\r\n"
+       + "\"x,y\",\"riga1\nriga2\",\"con \"\"apici\"\"\"\n"
+       + "\n"
+       + ",vuoto,\r"
+       + "\"\"\"\",\"\"\r\n"
+       + "fine,\"senza fine linea";
+
+    List<List<String>> r = leggi(new CsvReader(new StringReader(csv)));
+    assertEquals(6, r.size());
+    assertEquals(Arrays.asList("a", "b", "c"), r.get(0));
+    assertEquals(Arrays.asList("x,y", "riga1\nriga2", "con \"apici\""), r.get(1));
+    assertEquals(Arrays.asList(""), r.get(2));
+    assertEquals(Arrays.asList("", "vuoto", ""), r.get(3));
+    assertEquals(Arrays.asList("\"", ""), r.get(4));
+    assertEquals(Arrays.asList("fine", "senza fine linea"), r.get(5));
+
+    // tolleranza: testo dopo gli apici e apici dentro un campo senza apici
+    CsvReader c = new CsvReader(new ByteArrayInputStream(
+       "\"ab\"c;d\"e\n".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, ';');
+    assertTrue(c.next());
+    assertEquals(2, c.getFieldCount());
+    assertEquals("abc", c.getString(0));
+    CharSequence campo = c.getField(1);
+    assertEquals(3, campo.length());
+    assertEquals('"', campo.charAt(1));
+    assertEquals("e", campo.subSequence(2, 3));
+    assertFalse(c.next());
+    assertEquals(1, c.getRecordNumber());
+  }
+
+  @Test
+  public void testBufferPiccolo()
+     throws Exception
+  {
+    // record e campi a cavallo del buffer e più lunghi del buffer
+    Random rnd = new Random(1234);
+    StringBuilder csv = new StringBuilder();
+    List<List<String>> atteso = generaCsv(rnd, 2000, csv);
+    assertEquals(atteso, leggi(new CsvReader(new StringReader(csv.toString()), ',', 16)));
+  }
+
+  @Test
+  public void testParallelo()
+     throws Exception
+  {
+    Random rnd = new Random(4321);
+    StringBuilder csv = new StringBuilder();
+    List<List<String>> atteso = generaCsv(rnd, 20000, csv);
+    File tmp = File.createTempFile("csvreader", ".csv");
+    try
+    {
+      Files.write(tmp.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+      ConcurrentHashMap<Integer, List<List<String>>> blocchi = new ConcurrentHashMap<>();
+      long n = CsvReader.parseParallel(tmp, StandardCharsets.UTF_8, ',', 4096, null,
+         (blocco, r) -> blocchi.computeIfAbsent(blocco, (k) -> new ArrayList<>()).add(Arrays.asList(r.getFields())));
+      assertEquals(atteso.size(), n);
+      assertTrue(blocchi.size() > 10);
+
+      List<List<String>> letti = new ArrayList<>();
+      blocchi.keySet().stream().sorted().forEach((k) -> letti.addAll(blocchi.get(k)));
+      assertEquals(atteso, letti);
+
+      // encoding non divisibile: lettura sequenziale
+      Files.write(tmp.toPath(), csv.toString().getBytes(StandardCharsets.UTF_16));
+      List<List<String>> sequenziale = new ArrayList<>();
+      n = CsvReader.parseParallel(tmp, StandardCharsets.UTF_16, ',', 4096, null,
+         (blocco, r) -> sequenziale.add(Arrays.asList(r.getFields())));
+      assertEquals(atteso.size(), n);
+      assertEquals(atteso, sequenziale);
+    }
+    finally
+    {
+      tmp.delete();
+    }
+  }
+
+  private static List<List<String>> generaCsv(Random rnd, int numRecord, StringBuilder csv)
+  {
+    String[] pezzi =
+    {
+      "a", "bb", "città", ",", "\"", "\n", "\r\n", " ", "€", "xyz"
+    };
+
+    List<List<String>> rv = new ArrayList<>();
+    for(int i = 0; i < numRecord; i++)
+    {
+      List<String> record = new ArrayList<>();
+      int numCampi = 1 + rnd.nextInt(6);
+      for(int j = 0; j < numCampi; j++)
+      {
+        StringBuilder campo = new StringBuilder();
+        int len = rnd.nextInt(50) == 0 ? 40 : rnd.nextInt(5);
+        for(int k = 0; k < len; k++)
+          campo.append(pezzi[rnd.nextInt(pezzi.length)]);
+        record.add(campo.toString());
+
+        if(j > 0)
+          csv.append(',');
+        csv.append('"').append(campo.toString().replace("\"", "\"\"")).append('"');
+      }
+      csv.append(rnd.nextBoolean() ? "\r\n" : "\n");
+      rv.add(record);
+    }
+    return rv;
+  }
+}
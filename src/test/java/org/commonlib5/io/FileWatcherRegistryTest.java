@@ -0,0 +1,119 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test per FileWatcherRegistry.
+ *
+ * @author Nicola De Nisco
+ */
+public class FileWatcherRegistryTest
+{
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static void scrivi(File f, String s)
+     throws Exception
+  {
+    Files.write(f.toPath(), s.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Attende che il contatore raggiunga il valore atteso.
+   */
+  private static void attendi(AtomicInteger contatore, int atteso)
+     throws Exception
+  {
+    long fine = System.currentTimeMillis() + 20000;
+    while(contatore.get() < atteso && System.currentTimeMillis() < fine)
+      Thread.sleep(20);
+  }
+
+  @Test
+  public void testDebounce()
+     throws Exception
+  {
+    File a = tmp.newFile("a.conf"), b = tmp.newFile("b.conf"), c = tmp.newFile("c.conf");
+    AtomicInteger ca = new AtomicInteger(), cb = new AtomicInteger(), cc = new AtomicInteger();
+    ExecutorService exec = Executors.newSingleThreadExecutor();
+
+    try(FileWatcherRegistry reg = new FileWatcherRegistry(500, exec))
+    {
+      reg.watch(a, ca::incrementAndGet);
+      reg.watch(b, cb::incrementAndGet);
+      FileWatcherRegistry.Watch wc = reg.watch(c, cc::incrementAndGet);
+      assertEquals(3, reg.size());
+      wc.cancel();
+      assertEquals(2, reg.size());
+
+      // raffica di modifiche: una sola notifica
+      for(int i = 0; i < 5; i++)
+      {
+        scrivi(a, "valore=" + i);
+        Thread.sleep(20);
+      }
+      scrivi(c, "ignorato");
+
+      attendi(ca, 1);
+      Thread.sleep(700);
+      assertEquals(1, ca.get());
+      assertEquals(0, cb.get());
+      assertEquals(0, cc.get());
+
+      scrivi(b, "x");
+      attendi(cb, 1);
+      assertEquals(1, cb.get());
+      assertEquals(1, ca.get());
+    }
+    finally
+    {
+      exec.shutdown();
+    }
+  }
+
+  @Test
+  public void testDirectoryDiverse()
+     throws Exception
+  {
+    File a = tmp.newFile("uno.conf");
+    File b = new File(tmp.newFolder("sub"), "due.conf");
+    scrivi(b, "");
+    AtomicInteger conta = new AtomicInteger();
+
+    try(FileWatcherRegistry reg = new FileWatcherRegistry(50, null))
+    {
+      reg.watch(a, conta::incrementAndGet);
+      reg.watch(b, conta::incrementAndGet);
+      scrivi(a, "1");
+      scrivi(b, "2");
+      attendi(conta, 2);
+      assertEquals(2, conta.get());
+    }
+  }
+}
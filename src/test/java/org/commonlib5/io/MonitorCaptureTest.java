@@ -0,0 +1,207 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.commonlib5.comunication.port.FileSystemPort;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test per MonitorStreamOnMappedFile, MonitorCaptureReader e MonitorCaptureInputStream.
+ *
+ * @author Nicola De Nisco
+ */
+public class MonitorCaptureTest
+{
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testScritturaLettura()
+     throws Exception
+  {
+    File base = new File(tmp.getRoot(), "porta.cap");
+    try(MonitorStreamOnMappedFile cap = new MonitorStreamOnMappedFile(base))
+    {
+      cap.setCoalesce(4096, 60000);
+      for(byte b : "AT\r".getBytes(StandardCharsets.US_ASCII))
+        cap.addToStorage('O', b);
+      cap.addComment('C', "risposta");
+      cap.addToStorage('I', "OK\r".getBytes(StandardCharsets.US_ASCII));
+      cap.addToStorage('I', new byte[]
+      {
+        (byte) 0xff, 0
+      });
+    }
+
+    File f = MonitorStreamOnMappedFile.getFile(base, 0);
+    assertEquals("porta.00000.cap", f.getName());
+    assertEquals(MonitorStreamOnMappedFile.HEADER_SIZE + 3 * MonitorStreamOnMappedFile.RECORD_HEADER_SIZE + 3 + 8 + 5,
+       f.length());
+
+    try(MonitorCaptureReader rd = new MonitorCaptureReader(base))
+    {
+      assertTrue(rd.next());
+      assertEquals('O', rd.getType());
+      assertFalse(rd.isComment());
+      assertEquals("AT\r", new String(rd.getData(), StandardCharsets.US_ASCII));
+      long t0 = rd.getTimestamp();
+      assertTrue(Math.abs(t0 / 1000000L - System.currentTimeMillis()) < 60000);
+
+      assertTrue(rd.next());
+      assertTrue(rd.isComment());
+      assertEquals('C', rd.getType());
+      assertEquals("risposta", new String(rd.getData(), StandardCharsets.US_ASCII));
+
+      assertTrue(rd.next());
+      assertEquals('I', rd.getType());
+      assertArrayEquals(new byte[]
+      {
+        'O', 'K', '\r', (byte) 0xff, 0
+      }, rd.getData());
+      assertTrue(rd.getTimestamp() >= t0);
+      assertFalse(rd.next());
+    }
+  }
+
+  @Test
+  public void testScritturaDopoChiusura()
+     throws Exception
+  {
+    File base = new File(tmp.getRoot(), "chiusa.cap");
+    MonitorStreamOnMappedFile cap = new MonitorStreamOnMappedFile(base);
+    cap.addComment('C', "inizio");
+    cap.close();
+
+    try
+    {
+      cap.addComment('C', "dopo");
+      fail("Commento accettato dopo la chiusura");
+    }
+    catch(IOException ex)
+    {
+      assertEquals("stream chiuso", ex.getMessage());
+    }
+
+    try
+    {
+      cap.addToStorage('O', new byte[100]);
+      fail("Dati accettati dopo la chiusura");
+    }
+    catch(IOException ex)
+    {
+      assertEquals("stream chiuso", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testRotazione()
+     throws Exception
+  {
+    File base = new File(tmp.getRoot(), "rot.cap");
+    byte[] blocco = new byte[100];
+    try(MonitorStreamOnMappedFile cap = new MonitorStreamOnMappedFile(base, 1000, 3))
+    {
+      cap.setCoalesce(0, 0);
+      for(int i = 0; i < 50; i++)
+      {
+        blocco[0] = (byte) i;
+        cap.addToStorage('I', blocco);
+      }
+    }
+
+    List<File> files = MonitorCaptureReader.listFiles(base);
+    assertEquals(3, files.size());
+    assertFalse(MonitorStreamOnMappedFile.getFile(base, 0).exists());
+
+    // 8 record per file: restano gli ultimi 3 file
+    int primoI = -1, ultimoI = -1;
+    try(MonitorCaptureReader rd = new MonitorCaptureReader(base))
+    {
+      while(rd.next())
+      {
+        ultimoI = rd.getBuffer()[0];
+        if(primoI == -1)
+          primoI = ultimoI;
+      }
+    }
+
+    assertEquals(32, primoI);
+    assertEquals(49, ultimoI);
+
+    // record più grande di un file: diviso su più file
+    base = new File(tmp.getRoot(), "split.cap");
+    try(MonitorStreamOnMappedFile cap = new MonitorStreamOnMappedFile(base, 1000, 0))
+    {
+      cap.addToStorage('O', new byte[2500]);
+    }
+
+    int totale = 0;
+    try(MonitorCaptureReader rd = new MonitorCaptureReader(base))
+    {
+      while(rd.next())
+        totale += rd.getLength();
+    }
+    assertEquals(2500, totale);
+    assertEquals(3, MonitorCaptureReader.listFiles(base).size());
+  }
+
+  @Test
+  public void testRiproduzione()
+     throws Exception
+  {
+    File base = new File(tmp.getRoot(), "replay.cap");
+    try(MonitorStreamOnMappedFile cap = new MonitorStreamOnMappedFile(base))
+    {
+      cap.addToStorage('O', "PING\r".getBytes(StandardCharsets.US_ASCII));
+      cap.addToStorage('I', "PO".getBytes(StandardCharsets.US_ASCII));
+      Thread.sleep(200);
+      cap.addToStorage('I', "NG\r".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // velocità originale: il secondo pacchetto arriva dopo circa 200ms
+    File out = new File(tmp.getRoot(), "tx.bin");
+    FileSystemPort port = new FileSystemPort();
+    port.setParams(new MonitorCaptureInputStream(base, 'I', 1.0), out);
+    port.initComm("test");
+    long inizio = System.nanoTime();
+    byte[] buf = new byte[10];
+    assertEquals(2, port.getRxArrayBlocking(buf, 0, 10));
+    assertEquals(3, port.getRxArrayBlocking(buf, 2, 8));
+    assertTrue(System.nanoTime() - inizio >= 150000000L);
+    assertEquals("PONG\r", new String(buf, 0, 5, StandardCharsets.US_ASCII));
+    port.putTxString("PING\r");
+    port.closeComm();
+    assertEquals("PING\r", new String(Files.readAllBytes(out.toPath()), StandardCharsets.US_ASCII));
+
+    // senza attese
+    try(MonitorCaptureInputStream is = new MonitorCaptureInputStream(base, 'I', 0))
+    {
+      inizio = System.nanoTime();
+      assertEquals("PONG\r", new String(is.readAllBytes(), StandardCharsets.US_ASCII));
+      assertTrue(System.nanoTime() - inizio < 150000000L);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per MonitorStreamOnWriterAsync.
+ *
+ * @author Nicola De Nisco
+ */
+public class MonitorStreamOnWriterAsyncTest
+{
+  @Test
+  public void testScrittura()
+     throws Exception
+  {
+    StringWriter sw = new StringWriter();
+    MonitorStreamOnWriterAsync mon = new MonitorStreamOnWriterAsync(new PrintWriter(sw));
+    mon.getQueue().setCoalesce(4096, 60000);
+    for(byte b : "AT\r".getBytes(StandardCharsets.US_ASCII))
+      mon.addToStorage('O', b);
+    mon.addComment('C', "attesa risposta");
+    mon.addToStorage('I', "OK".getBytes(StandardCharsets.US_ASCII));
+    mon.flush();
+
+    // il thread di scrittura può prelevare un record prima che sia completo:
+    // ricompone i messaggi di ogni tipo
+    StringBuilder out = new StringBuilder(), in = new StringBuilder(), commenti = new StringBuilder();
+    for(String riga : sw.toString().split(System.lineSeparator()))
+    {
+      // [T] yyyy-MM-dd HH:mm:ss.SSS messaggio
+      String msg = riga.substring(28);
+      switch(riga.charAt(1))
+      {
+        case 'O':
+          out.append(msg);
+          break;
+        case 'I':
+          in.append(msg);
+          break;
+        case 'C':
+          commenti.append(msg);
+          break;
+      }
+    }
+
+    assertEquals("AT[Cr]", out.toString());
+    assertEquals("OK", in.toString());
+    assertEquals("attesa risposta", commenti.toString());
+
+    // dopo la chiusura la scrittura è sincrona
+    mon.close();
+    mon.addComment('C', "fine");
+    assertTrue(sw.toString().endsWith("fine" + System.lineSeparator()));
+    assertEquals(0, mon.getDroppedRecords());
+  }
+
+  @Test(timeout = 20000)
+  public void testFlushConProduttore()
+     throws Exception
+  {
+    StringWriter sw = new StringWriter();
+    MonitorStreamOnWriterAsync mon = new MonitorStreamOnWriterAsync(new PrintWriter(sw));
+    AtomicBoolean fine = new AtomicBoolean(false);
+    Thread produttore = new Thread(() ->
+    {
+      try
+      {
+        while(!fine.get())
+          mon.addComment('C', "continuo");
+      }
+      catch(IOException ex)
+      {
+      }
+    });
+    produttore.start();
+
+    // con un produttore continuo la coda non è mai vuota
+    mon.addComment('C', "prima del flush");
+    mon.flush();
+    assertTrue(sw.toString().contains("prima del flush"));
+
+    fine.set(true);
+    produttore.join();
+    mon.close();
+  }
+
+  @Test(timeout = 20000)
+  public void testChiusuraConProduttori()
+     throws Exception
+  {
+    StringWriter sw = new StringWriter();
+    MonitorStreamOnWriterAsync mon = new MonitorStreamOnWriterAsync(new PrintWriter(sw),
+       100000, 8 * 1024 * 1024, MonitorStreamQueue.DropPolicy.DROP_NEWEST);
+    int num = 5000;
+    Thread[] th = new Thread[4];
+    for(int t = 0; t < th.length; t++)
+    {
+      th[t] = new Thread(() ->
+      {
+        try
+        {
+          for(int i = 0; i < num; i++)
+            mon.addComment('C', "messaggio " + i);
+        }
+        catch(IOException ex)
+        {
+        }
+      });
+      th[t].start();
+    }
+
+    Thread.sleep(5);
+    mon.close();
+    for(Thread t : th)
+      t.join();
+
+    // nessun record perso a cavallo della chiusura
+    assertEquals(0, mon.getDroppedRecords());
+    assertEquals(num * th.length, sw.toString().split(System.lineSeparator()).length);
+  }
+
+  @Test
+  public void testSovraccarico()
+     throws Exception
+  {
+    // writer lento: il produttore non deve essere rallentato
+    Writer lento = new StringWriter()
+    {
+      @Override
+      public void flush()
+      {
+        try
+        {
+          Thread.sleep(20);
+        }
+        catch(InterruptedException ex)
+        {
+        }
+      }
+    };
+
+    MonitorStreamOnWriterAsync mon = new MonitorStreamOnWriterAsync(new PrintWriter(lento),
+       16, 1024, MonitorStreamQueue.DropPolicy.DROP_NEWEST);
+    long inizio = System.nanoTime();
+    for(int i = 0; i < 2000; i++)
+      mon.addComment('C', "messaggio " + i);
+    assertTrue(System.nanoTime() - inizio < 1000000000L);
+    assertTrue(mon.getDroppedRecords() > 0);
+    mon.close();
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per MonitorStreamQueue.
+ *
+ * @author Nicola De Nisco
+ */
+public class MonitorStreamQueueTest
+{
+  private static String testo(MonitorStreamData d)
+  {
+    return new String(d.getByte(), StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void testUnione()
+     throws Exception
+  {
+    MonitorStreamQueue q = new MonitorStreamQueue(8);
+    q.setCoalesce(4096, 60000);
+    MonitorOutputStream mos = new MonitorOutputStream(new ByteArrayOutputStream(), q);
+    for(byte b : "ciao".getBytes(StandardCharsets.US_ASCII))
+      mos.write(b);
+    mos.write(" mondo".getBytes(StandardCharsets.US_ASCII));
+    q.addToStorage('I', 'x');
+    q.addComment('O', "commento");
+    q.addToStorage('O', 'y');
+
+    assertEquals(4, q.size());
+    MonitorStreamData d = q.pool();
+    assertEquals('O', d.getType());
+    assertEquals("ciao mondo", testo(d));
+    assertTrue(d.getNanoTime() != 0);
+    assertEquals("x", testo(q.pool()));
+    assertEquals("commento", testo(q.pool()));
+    assertEquals("y", testo(q.peek()));
+
+    // record prelevato: i bytes successivi aprono un nuovo record
+    q.pool();
+    q.addToStorage('O', 'z');
+    assertEquals("z", testo(q.pool()));
+    assertNull(q.pool());
+    assertTrue(q.isEmpty());
+
+    q.setCoalesce(0, 0);
+    q.addToStorage('O', 'a');
+    q.addToStorage('O', 'b');
+    assertEquals(2, q.size());
+  }
+
+  @Test
+  public void testDropOldest()
+     throws Exception
+  {
+    MonitorStreamQueue q = new MonitorStreamQueue(4, 10, MonitorStreamQueue.DropPolicy.DROP_OLDEST);
+    q.setCoalesce(0, 0);
+    for(int i = 0; i < 6; i++)
+      q.addToStorage('O', '0' + i);
+    assertEquals(4, q.size());
+    assertEquals(2, q.getDroppedRecords());
+    assertEquals("2", testo(q.peek()));
+
+    // dati oltre l'anello: restano gli ultimi
+    q.addToStorage('I', "abcdefghijkl".getBytes(StandardCharsets.US_ASCII));
+    assertEquals(1, q.size());
+    assertEquals("cdefghijkl", testo(q.pool()));
+    assertEquals(6, q.getDroppedRecords());
+    assertEquals(2 + 2 + 4, q.getDroppedBytes());
+  }
+
+  @Test
+  public void testDropNewest()
+     throws Exception
+  {
+    MonitorStreamQueue q = new MonitorStreamQueue(4, 10, MonitorStreamQueue.DropPolicy.DROP_NEWEST);
+    q.addToStorage('O', "0123456".getBytes(StandardCharsets.US_ASCII));
+    q.addToStorage('I', "abcd".getBytes(StandardCharsets.US_ASCII));
+    q.addToStorage('I', "xyz".getBytes(StandardCharsets.US_ASCII));
+    assertEquals(2, q.size());
+    assertEquals(1, q.getDroppedRecords());
+    assertEquals(4, q.getDroppedBytes());
+    assertEquals("0123456", testo(q.pool()));
+    assertEquals("xyz", testo(q.pool()));
+  }
+
+  @Test
+  public void testDrain()
+     throws Exception
+  {
+    // record a cavallo della fine dell'anello dati
+    MonitorStreamQueue q = new MonitorStreamQueue(16, 16, MonitorStreamQueue.DropPolicy.DROP_OLDEST);
+    q.setCoalesce(0, 0);
+    q.addToStorage('O', "0123456789".getBytes(StandardCharsets.US_ASCII));
+    q.addToStorage('I', "abc".getBytes(StandardCharsets.US_ASCII));
+    q.pool();
+    q.addToStorage('O', "ABCDEFGH".getBytes(StandardCharsets.US_ASCII));
+    q.addToStorage('I', "!".getBytes(StandardCharsets.US_ASCII));
+
+    StringBuilder sb = new StringBuilder();
+    assertEquals(2, q.drainTo((type, nanoTime, data, offset, len)
+       -> sb.append((char) type).append(new String(data, offset, len, StandardCharsets.US_ASCII)), 2));
+    assertEquals("IabcOABCDEFGH", sb.toString());
+
+    List<MonitorStreamData> lista = new ArrayList<>();
+    assertEquals(1, q.drainTo(lista, 10));
+    assertEquals("!", testo(lista.get(0)));
+    assertEquals(0, q.drainTo(lista, 10));
+  }
+
+  @Test
+  public void testAttesa()
+     throws Exception
+  {
+    MonitorStreamQueue q = new MonitorStreamQueue();
+    assertNull(q.pool(20, TimeUnit.MILLISECONDS));
+
+    Thread produttore = new Thread(() ->
+    {
+      try
+      {
+        Thread.sleep(30);
+        q.addToStorage('I', 'k');
+      }
+      catch(Exception ex)
+      {
+      }
+    });
+    produttore.start();
+    MonitorStreamData d = q.pool(5, TimeUnit.SECONDS);
+    produttore.join();
+    assertNotNull(d);
+    assertEquals("k", testo(d));
+  }
+
+  @Test
+  public void testBlocchi()
+     throws Exception
+  {
+    MonitorStreamQueueBlocks q = new MonitorStreamQueueBlocks();
+    q.addToStorage('O', "AT\r\nOK".getBytes(StandardCharsets.US_ASCII));
+    q.addToStorage('O', '\r');
+    q.addToStorage('O', '\n');
+    q.addToStorage('I', "ERR".getBytes(StandardCharsets.US_ASCII));
+    q.addToStorage('O', 'Z');
+    assertEquals("AT\r\n", testo(q.pool()));
+    assertEquals("OK\r\n", testo(q.pool()));
+    assertEquals("ERR", testo(q.pool()));
+    assertNull(q.pool());
+  }
+}
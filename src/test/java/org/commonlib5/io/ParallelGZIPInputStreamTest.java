@@ -0,0 +1,227 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test per ParallelGZIPInputStream.
+ *
+ * @author Nicola De Nisco
+ */
+public class ParallelGZIPInputStreamTest
+{
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static byte[] testo(int len, Random rnd)
+  {
+    byte[] rv = new byte[len];
+    for(int i = 0; i < len; i++)
+      rv[i] = (byte) ('a' + rnd.nextInt(4));
+    return rv;
+  }
+
+  /**
+   * Scrive un membro gzip, eventualmente con il campo BSIZE di BGZF.
+   */
+  private static void membro(ByteArrayOutputStream bos, byte[] dati, int off, int len, int level, boolean bgzf)
+  {
+    Deflater d = new Deflater(level, true);
+    d.setInput(dati, off, len);
+    d.finish();
+    byte[] buf = new byte[len + 1024];
+    int n = 0;
+    while(!d.finished())
+      n += d.deflate(buf, n, buf.length - n);
+    d.end();
+
+    CRC32 crc = new CRC32();
+    crc.update(dati, off, len);
+    if(bgzf)
+    {
+      int bsize = 18 + n + 8 - 1;
+      bos.write(new byte[]
+      {
+        0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+        (byte) bsize, (byte) (bsize >> 8)
+      }, 0, 18);
+    }
+    else
+    {
+      bos.write(new byte[]
+      {
+        0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff
+      }, 0, 10);
+    }
+
+    bos.write(buf, 0, n);
+    int v = (int) crc.getValue();
+    bos.write(new byte[]
+    {
+      (byte) v, (byte) (v >> 8), (byte) (v >> 16), (byte) (v >> 24),
+      (byte) len, (byte) (len >> 8), (byte) (len >> 16), (byte) (len >> 24)
+    }, 0, 8);
+  }
+
+  private static byte[] leggi(InputStream is)
+     throws Exception
+  {
+    try(InputStream i = is)
+    {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buf = new byte[7000];
+      int n;
+      while((n = i.read(buf)) != -1)
+        bos.write(buf, 0, n);
+      return bos.toByteArray();
+    }
+  }
+
+  @Test
+  public void testMultiMembro()
+     throws Exception
+  {
+    Random rnd = new Random(1234);
+    byte[] dati = testo(2000000, rnd);
+    // sequenza che produce confini falsi nei membri non compressi
+    for(int i = 1000; i < dati.length; i += 50000)
+      System.arraycopy(new byte[]
+      {
+        0x1f, (byte) 0x8b, 8, 0
+      }, 0, dati, i, 4);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    int pos = 0, numMembri = 0;
+    while(pos < dati.length)
+    {
+      // alcuni membri grandi oltre la dimensione del segmento
+      int len = Math.min(dati.length - pos, rnd.nextInt(5) == 0 ? 300000 : rnd.nextInt(60000));
+      membro(bos, dati, pos, len, rnd.nextInt(3) == 0 ? Deflater.NO_COMPRESSION : 6, false);
+      pos += len;
+      numMembri++;
+    }
+    byte[] gz = bos.toByteArray();
+
+    ExecutorService exec = Executors.newFixedThreadPool(3);
+    try
+    {
+      ParallelGZIPInputStream pis = new ParallelGZIPInputStream(new ByteArrayInputStream(gz), 65536, exec);
+      assertArrayEquals(dati, leggi(pis));
+      assertEquals(numMembri, pis.getMembers());
+      assertTrue(pis.getParallelMembers() > 0);
+      assertArrayEquals(leggi(new GZIPInputStream(new ByteArrayInputStream(gz))), dati);
+    }
+    finally
+    {
+      exec.shutdown();
+    }
+  }
+
+  @Test
+  public void testMembroSingolo()
+     throws Exception
+  {
+    byte[] dati = testo(3000000, new Random(99));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try(ParallelGZIPOutputStream gz = new ParallelGZIPOutputStream(bos))
+    {
+      gz.write(dati);
+    }
+    // dati estranei in coda ignorati
+    bos.write(new byte[]
+    {
+      1, 2, 3
+    });
+
+    ParallelGZIPInputStream pis = new ParallelGZIPInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    assertArrayEquals(dati, leggi(pis));
+    assertEquals(1, pis.getMembers());
+
+    try
+    {
+      leggi(new ParallelGZIPInputStream(new ByteArrayInputStream(new byte[]
+      {
+        1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11
+      })));
+      fail("Formato non valido non segnalato");
+    }
+    catch(java.util.zip.ZipException ex)
+    {
+    }
+  }
+
+  @Test
+  public void testBgzfIndice()
+     throws Exception
+  {
+    Random rnd = new Random(4321);
+    byte[] dati = testo(1000000, rnd);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    for(int pos = 0; pos < dati.length; pos += 60000)
+      membro(bos, dati, pos, Math.min(60000, dati.length - pos), 6, true);
+    // blocco vuoto di fine file
+    membro(bos, dati, 0, 0, 6, true);
+    // un membro normale in coda
+    membro(bos, "coda".getBytes(), 0, 4, 6, false);
+
+    File f = tmp.newFile("log.gz");
+    Files.write(f.toPath(), bos.toByteArray());
+
+    ParallelGZIPInputStream pis = new ParallelGZIPInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    byte[] atteso = Arrays.copyOf(dati, dati.length + 4);
+    System.arraycopy("coda".getBytes(), 0, atteso, dati.length, 4);
+    assertArrayEquals(atteso, leggi(pis));
+    assertEquals(19, pis.getParallelMembers());
+
+    List<ParallelGZIPInputStream.IndexEntry> indice = ParallelGZIPInputStream.index(f);
+    assertEquals(19, indice.size());
+    assertEquals(60000, indice.get(1).uncompressedOffset);
+    assertEquals(dati.length, indice.get(18).uncompressedOffset);
+
+    for(long offset : new long[]
+    {
+      0, 59999, 60000, 123456, 999999, dati.length + 2
+    })
+    {
+      try(ParallelGZIPInputStream is = ParallelGZIPInputStream.open(f, indice, offset))
+      {
+        byte[] letti = is.readNBytes(2);
+        assertEquals(2, letti.length);
+        assertEquals(atteso[(int) offset], letti[0]);
+        assertEquals(atteso[(int) offset + 1], letti[1]);
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per ParallelGZIPOutputStream.
+ *
+ * @author Nicola De Nisco
+ */
+public class ParallelGZIPOutputStreamTest
+{
+  /**
+   * Dati comprimibili: parole casuali da un vocabolario ridotto.
+   */
+  private static byte[] testo(int len, long seme)
+  {
+    String[] parole =
+    {
+      "alfa ", "beta ", "gamma ", "delta ", "epsilon ", "zeta\n", "eta ", "theta "
+    };
+    Random rnd = new Random(seme);
+    StringBuilder sb = new StringBuilder(len + 10);
+    while(sb.length() < len)
+      sb.append(parole[rnd.nextInt(parole.length)]).append(rnd.nextInt(100));
+    sb.setLength(len);
+    return sb.toString().getBytes();
+  }
+
+  private static byte[] decomprimi(byte[] gz, int off)
+     throws Exception
+  {
+    try(GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(gz, off, gz.length - off)))
+    {
+      return is.readAllBytes();
+    }
+  }
+
+  @Test
+  public void testCompressione()
+     throws Exception
+  {
+    byte[] dati = testo(1500000, 1234);
+    ExecutorService exec = Executors.newFixedThreadPool(4);
+    try
+    {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ParallelGZIPOutputStream gz = new ParallelGZIPOutputStream(bos, 6, 64 * 1024, exec);
+      Random rnd = new Random(4321);
+      for(int i = 0; i < dati.length;)
+      {
+        if(rnd.nextInt(10) == 0)
+          gz.write(dati[i++]);
+        else
+        {
+          int n = Math.min(dati.length - i, rnd.nextInt(100000));
+          gz.write(dati, i, n);
+          i += n;
+        }
+      }
+      gz.close();
+
+      byte[] compresso = bos.toByteArray();
+      assertArrayEquals(dati, decomprimi(compresso, 0));
+      assertEquals(dati.length, gz.getTotalIn());
+      assertEquals(compresso.length, gz.getTotalOut());
+      assertTrue(gz.getThroughput() > 0);
+
+      // con il dizionario il risultato è vicino alla compressione sequenziale
+      ByteArrayOutputStream seq = new ByteArrayOutputStream();
+      try(DtGZIPOutputStream dgz = new DtGZIPOutputStream(seq))
+      {
+        dgz.write(dati);
+      }
+      assertTrue(compresso.length + " / " + seq.size(), compresso.length < seq.size() * 1.02);
+    }
+    finally
+    {
+      exec.shutdown();
+    }
+  }
+
+  @Test
+  public void testVuotoEDetach()
+     throws Exception
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ParallelGZIPOutputStream gz = new ParallelGZIPOutputStream(bos);
+    gz.close();
+    assertEquals(0, decomprimi(bos.toByteArray(), 0).length);
+
+    // lo stream resta utilizzabile dopo detach()
+    bos.reset();
+    bos.write('#');
+    byte[] dati = testo(3 * ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE + 17, 99);
+    gz = new ParallelGZIPOutputStream(bos);
+    gz.write(dati);
+    gz.detach();
+    bos.write('!');
+    byte[] risultato = bos.toByteArray();
+    assertEquals('#', risultato[0]);
+    assertEquals('!', risultato[risultato.length - 1]);
+    assertArrayEquals(dati, decomprimi(risultato, 1));
+  }
+}
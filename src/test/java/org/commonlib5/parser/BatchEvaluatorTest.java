@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per BatchEvaluator.
+ *
+ * @author Nicola De Nisco
+ */
+public class BatchEvaluatorTest
+{
+  public static final double epsilon = 0.00001;
+  public static final String EXPR = "prezzo*(1+iva/100)-sconto>100 ? 1 : 0 + sqr(prezzo)*fattore";
+
+  @Test
+  public void testColonne()
+     throws Exception
+  {
+    int numRighe = 200000;
+    Random rnd = new Random(1234);
+    double[] prezzo = new double[numRighe];
+    double[] iva = new double[numRighe];
+    double[] sconto = new double[numRighe];
+    for(int i = 0; i < numRighe; i++)
+    {
+      prezzo[i] = rnd.nextDouble() * 200;
+      iva[i] = rnd.nextInt(4) * 5 + 4;
+      sconto[i] = rnd.nextDouble() * 10;
+    }
+
+    Parser pa = new Parser();
+    pa.init();
+    pa.AddCacheEntry(0, "fattore", 0.5);
+
+    Map<String, double[]> colonne = new HashMap<>();
+    colonne.put("prezzo", prezzo);
+    colonne.put("iva", iva);
+    colonne.put("sconto", sconto);
+
+    BatchEvaluator be = new BatchEvaluator(pa, EXPR);
+    be.setParallelThreshold(10000);
+    double[] out1 = new double[numRighe];
+    double[] out2 = new double[numRighe];
+    be.evaluate(colonne, out1);
+    be.evaluateParallel(colonne, out2);
+
+    CompiledExpression ce = be.getCompiledExpression();
+    Map<String, Double> vars = new HashMap<>();
+    vars.put("fattore", 0.5);
+    for(int i = 0; i < numRighe; i += 97)
+    {
+      vars.put("prezzo", prezzo[i]);
+      vars.put("iva", iva[i]);
+      vars.put("sconto", sconto[i]);
+      double atteso = ce.evaluate(vars);
+      assertEquals(atteso, out1[i], epsilon);
+      assertEquals(atteso, out2[i], epsilon);
+    }
+  }
+
+  @Test(expected = ParserException.class)
+  public void testVariabileMancante()
+     throws Exception
+  {
+    Map<String, double[]> colonne = new HashMap<>();
+    colonne.put("a", new double[10]);
+    new BatchEvaluator(new Calcolatore(), "a+b").evaluate(colonne, new double[10]);
+  }
+}
@@ -17,8 +17,11 @@
  */
 package org.commonlib5.parser;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
-import static junit.framework.Assert.assertEquals;
+import java.util.List;
+import static junit.framework.Assert.*;
 import org.junit.Test;
 
 /**
@@ -107,6 +110,56 @@ public class CalcolatoreTest
     dumpContext(context);
   }
 
+  @Test
+  public void testIncrementale()
+     throws Exception
+  {
+    ContextParser parser = new ContextParser();
+    CalcContext context = new CalcContext();
+
+    context.put("raggio", 100);
+    context.put("arco", 25);
+    context.put("altezza", 700);
+
+    // l'ordine delle righe non e' significativo
+    String formule
+       = "lunarco=circonferenza*arco/360\n"
+       + "circonferenza= 2 * pi()*raggio\n"
+       + "areacerchio=pi()*(raggio^2)\n"
+       + "volumecilindro=areacerchio*altezza\n";
+
+    List<String> ricalcolate = parser.define(formule, context);
+    assertEquals(4, ricalcolate.size());
+    assertTrue(ricalcolate.indexOf("circonferenza") < ricalcolate.indexOf("lunarco"));
+    assertEquals(2 * Math.PI * 100 * 25 / 360, context.get("lunarco"), epsilon);
+
+    // solo le formule che dipendono da arco
+    ricalcolate = parser.setValue(context, "arco", 50);
+    assertEquals(Arrays.asList("lunarco"), ricalcolate);
+    assertEquals(2 * Math.PI * 100 * 50 / 360, context.get("lunarco"), epsilon);
+
+    ricalcolate = parser.setValue(context, "altezza", 10);
+    assertEquals(Arrays.asList("volumecilindro"), ricalcolate);
+    assertEquals(Math.PI * 100 * 100 * 10, context.get("volumecilindro"), epsilon);
+
+    ricalcolate = parser.setValue(context, "raggio", 1);
+    assertEquals(4, ricalcolate.size());
+    assertTrue(ricalcolate.indexOf("areacerchio") < ricalcolate.indexOf("volumecilindro"));
+    assertEquals(Math.PI * 10, context.get("volumecilindro"), epsilon);
+
+    // dipendenza circolare: il contesto resta invariato
+    try
+    {
+      parser.define("circonferenza=lunarco*2", context);
+      fail("dipendenza circolare non rilevata");
+    }
+    catch(ParserException ex)
+    {
+    }
+
+    assertEquals(Arrays.asList("lunarco"), parser.setValue(context, "arco", 25));
+  }
+
   public static void dumpContext(CalcContext context)
   {
     Enumeration eKeys = context.keys();
@@ -116,4 +169,53 @@ public class CalcolatoreTest
       System.out.println(key + "=" + context.getValue(key));
     }
   }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testStackDeprecato()
+     throws Exception
+  {
+    // API a stack di valori mantenuta per le classi derivate
+    Calcolatore calc = new Calcolatore();
+    ArrayList<Calcolatore.sim> stack = new ArrayList<>();
+    calc.pushStack(stack, 1, 2, new StringBuilder("+"));
+    calc.pushStack(stack, 1, new StringBuilder("sqr"), 9, new StringBuilder("*"));
+    calc.pushStack(stack, -1, 4, new StringBuilder(""));
+    assertEquals(-4.0, stack.get(2).val);
+    assertEquals(-10.0, calc.calcStack(stack), 0.00001);
+
+    // sim costruiti dalla classe derivata con il solo valore
+    stack.clear();
+    Calcolatore.sim s1 = new Calcolatore.sim(), s2 = new Calcolatore.sim();
+    s1.val = 7;
+    s1.op = "-";
+    s2.val = 3;
+    s2.op = "";
+    stack.add(s1);
+    stack.add(s2);
+    assertEquals(4.0, calc.calcStack(stack), 0.00001);
+  }
+
+  @Test
+  public void testFrameEsterno()
+     throws Exception
+  {
+    // un frame generico non deve causare ClassCastException
+    Parser parser = new Parser();
+    parser.init();
+    parser.AddVariabile("x", "2*3");
+    assertEquals(6.0, parser.compile("x+0").evaluate(new EvaluationFrame(parser)
+    {
+    }), epsilon);
+
+    ContextParser cp = new ContextParser();
+    CalcContext ctx = new CalcContext();
+    cp.calc("a=4", ctx);
+    assertEquals(8.0, cp.compile("a*2").evaluate(new EvaluationFrame(cp)
+    {
+    }), epsilon);
+
+    // parse() usa il contesto dell'ultima calc()
+    assertEquals(5.0, cp.parse("a+1"), epsilon);
+  }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per CompiledExpression.
+ *
+ * @author Nicola De Nisco
+ */
+public class CompiledExpressionTest
+{
+  public static final double epsilon = 0.00001;
+
+  /**
+   * Le priorità degli operatori devono restare quelle del calcolatore.
+   */
+  @Test
+  public void testPriorita()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore();
+
+    assertEquals(5.0, calc.compile("10-2+3").evaluate(calc), epsilon);
+    assertEquals(64.0, calc.compile("2^3^2").evaluate(calc), epsilon);
+    assertEquals(4.0, calc.compile("-2^2").evaluate(calc), epsilon);
+    assertEquals(3.0, calc.compile("1+1?2:3").evaluate(calc), epsilon);
+    assertEquals(4.0, calc.compile("1+0?2:3").evaluate(calc), epsilon);
+    assertEquals(16.0, calc.compile("2*(1+1?7:9)").evaluate(calc), epsilon);
+    assertEquals(0.0, calc.compile("").evaluate(calc), epsilon);
+    assertEquals(Math.PI * 0.0915 + 2.15, calc.compile("(pi()*0.0915)+2.15").evaluate(calc), epsilon);
+  }
+
+  @Test
+  public void testVariabili()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore();
+    CompiledExpression ce = calc.compile("2 * pi()*raggio + altezza");
+
+    assertEquals(2, ce.getVariables().size());
+    assertTrue(ce.getVariables().contains("raggio"));
+    assertTrue(ce.getVariables().contains("altezza"));
+
+    Map<String, Double> vars = new HashMap<>();
+    vars.put("altezza", 1.0);
+    for(int i = 0; i < 10; i++)
+    {
+      vars.put("raggio", (double) i);
+      assertEquals(2 * Math.PI * i + 1, ce.evaluate(vars), epsilon);
+    }
+
+    vars.remove("altezza");
+    try
+    {
+      ce.evaluate(vars);
+      fail("variabile mancante non segnalata");
+    }
+    catch(ParserException ex)
+    {
+    }
+  }
+
+  @Test
+  public void testParser()
+     throws Exception
+  {
+    Parser pa = new Parser();
+    pa.init();
+    pa.AddCacheEntry(0, "mia", 125);
+    pa.AddVariabile("tua", "mia*2");
+
+    CompiledExpression ce = pa.compile("tua*10");
+    assertEquals(2500.0, ce.evaluate(pa), epsilon);
+
+    pa.FlushAllCache();
+    pa.AddCacheEntry(0, "mia", 10);
+    assertEquals(200.0, ce.evaluate(pa), epsilon);
+  }
+
+  /**
+   * Più thread valutano sulla stessa istanza e sullo stesso contesto.
+   */
+  @Test
+  public void testConcorrente()
+     throws Exception
+  {
+    ContextParser parser = new ContextParser();
+    parser.setFast(false);
+    CalcContext context = new CalcContext();
+    context.put("raggio", 100);
+    context.put("diametro", "raggio*2");
+
+    Parser pa = new Parser();
+    pa.init();
+    pa.AddCacheEntry(0, "mia", 125);
+    pa.AddVariabile("tua", "mia*2");
+
+    CompiledExpression ce1 = parser.compile("diametro*pi()");
+    CompiledExpression ce2 = pa.compile("tua+1");
+
+    ExecutorService exec = Executors.newFixedThreadPool(4);
+    List<Future<Boolean>> lsf = new ArrayList<>();
+    for(int i = 0; i < 8; i++)
+    {
+      lsf.add(exec.submit(() ->
+      {
+        for(int j = 0; j < 10000; j++)
+        {
+          if(Math.abs(parser.evaluate(ce1, context) - 200 * Math.PI) > epsilon)
+            return false;
+          if(Math.abs(ce2.evaluate(pa) - 251) > epsilon)
+            return false;
+        }
+        return true;
+      }));
+    }
+
+    for(Future<Boolean> f : lsf)
+      assertTrue(f.get());
+
+    exec.shutdown();
+  }
+
+  @Test(expected = ParserException.class)
+  public void testParentesi()
+     throws Exception
+  {
+    new Calcolatore().compile("(1+2");
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per ExpressionCache.
+ *
+ * @author Nicola De Nisco
+ */
+public class ExpressionCacheTest
+{
+  public static final double epsilon = 0.00001;
+
+  private Parser creaParser(ExpressionCache ec)
+     throws Exception
+  {
+    Parser pa = new Parser();
+    pa.init();
+    pa.setExpressionCache(ec);
+    pa.AddVariabile("imponibile", "prezzo*quantita");
+    pa.AddVariabile("totale", "imponibile*(1+iva/100)");
+    pa.AddCacheEntry(0, "prezzo", 10);
+    pa.AddCacheEntry(0, "quantita", 3);
+    pa.AddCacheEntry(0, "iva", 20);
+    return pa;
+  }
+
+  @Test
+  public void testCondivisa()
+     throws Exception
+  {
+    ExpressionCache ec = new ExpressionCache(1000);
+
+    // un parser per richiesta: le definizioni non vengono ricompilate
+    for(int i = 0; i < 10; i++)
+      assertEquals(36, creaParser(ec).parse("totale"), epsilon);
+
+    assertEquals(3, ec.getMisses());
+    assertEquals(27, ec.getHits());
+    assertEquals(3, ec.size());
+    assertEquals(0, ec.getEvictions());
+
+    assertTrue(new Parser().getExpressionCache() == ExpressionCache.getShared());
+    assertTrue(new ContextParser().getExpressionCache() == ExpressionCache.getShared());
+    assertNull(new Calcolatore().getExpressionCache());
+  }
+
+  @Test
+  public void testEviction()
+     throws Exception
+  {
+    // ogni espressione "a+N" pesa 3 nodi
+    ExpressionCache ec = new ExpressionCache(30);
+    Calcolatore calc = new Calcolatore();
+    calc.setExpressionCache(ec);
+
+    for(int i = 0; i < 10; i++)
+      calc.compile("a+" + i);
+    assertEquals(0, ec.getEvictions());
+    assertEquals(30, ec.getPeso());
+
+    // la prima espressione è la più recente: non viene rimossa
+    calc.compile("a+0");
+    calc.compile("a+10");
+    assertTrue(ec.getEvictions() > 0);
+    assertTrue(ec.getPeso() <= 30);
+
+    long misses = ec.getMisses();
+    calc.compile("a+0");
+    assertEquals(misses, ec.getMisses());
+    calc.compile("a+1");
+    assertEquals(misses + 1, ec.getMisses());
+
+    ec.clear();
+    assertEquals(0, ec.size());
+    assertEquals(0, ec.getPeso());
+  }
+
+  @Test
+  public void testClearConcorrente()
+     throws Exception
+  {
+    ExpressionCache ec = new ExpressionCache(1000000);
+    Thread[] th = new Thread[4];
+    Exception[] errori = new Exception[th.length];
+    for(int t = 0; t < th.length; t++)
+    {
+      final int nt = t;
+      th[t] = new Thread(() ->
+      {
+        try
+        {
+          Calcolatore calc = new Calcolatore();
+          calc.setExpressionCache(ec);
+          for(int i = 0; i < 2000; i++)
+            calc.compile("a+" + nt + "*" + i);
+        }
+        catch(Exception ex)
+        {
+          errori[nt] = ex;
+        }
+      });
+      th[t].start();
+    }
+
+    for(int i = 0; i < 200; i++)
+      ec.clear();
+
+    for(int t = 0; t < th.length; t++)
+    {
+      th[t].join();
+      assertNull(errori[t]);
+    }
+
+    // ogni espressione "a+N*M" pesa 5 nodi
+    assertEquals(ec.size() * 5L, ec.getPeso());
+    ec.clear();
+    assertEquals(0, ec.getPeso());
+  }
+
+  @Test
+  public void testAmbito()
+     throws Exception
+  {
+    ExpressionCache ec = new ExpressionCache(1000);
+    Calcolatore c1 = new Calcolatore();
+    Calcolatore c2 = new Calcolatore();
+    c1.setExpressionCache(ec);
+    c2.setExpressionCache(ec);
+
+    // stesse funzioni: espressione condivisa
+    assertSame(c1.compile("sin(a)"), c2.compile("sin(a)"));
+
+    // funzioni diverse: espressioni distinte
+    c2.getFunctionRegistry().register("doppio", true, (v) -> v * 2);
+    c1.getFunctionRegistry().register("doppio", true, (v) -> v * 3);
+    assertEquals(6, c2.parse("doppio(3)"), epsilon);
+    assertEquals(9, c1.parse("doppio(3)"), epsilon);
+
+    // l'opzione di ottimizzazione fa parte della chiave
+    c1.setOptimize(true);
+    assertNotSame(c1.compile("sin(a)"), c2.compile("sin(a)"));
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per ExpressionOptimizer.
+ *
+ * @author Nicola De Nisco
+ */
+public class ExpressionOptimizerTest
+{
+  public static final double epsilon = 0.00001;
+  public static final String[] ESPRESSIONI =
+  {
+    "a*(pi2()*2/3)",
+    "sqr(a*a+b*b) + sqr(a*a+b*b)*2 - (a*a+b*b)",
+    "a*1 + 0 + b/1 - 0 + c^1 + --a",
+    "a*-1 + (a+b)^0",
+    "a>b ? (a*b) : (a*b)",
+    "1>2 ? a : b",
+    "sin(a)*sin(a) + cos(a)*cos(a)",
+    "(a+b)*(a+b) > 10 ? (a+b) : c",
+    "a <| b + (a+b) |> c + (a+b)",
+  };
+
+  /**
+   * Calcolatore con gli operatori esterni minimo e massimo.
+   */
+  public static class CalcolatoreMinMax extends Calcolatore
+  {
+    @Override
+    protected double externOperazioni(double v1, double v2, String oper)
+       throws Exception
+    {
+      return oper.equals("<|") ? Math.min(v1, v2) : Math.max(v1, v2);
+    }
+  }
+
+  private Map<String, Double> valori(double a, double b, double c)
+  {
+    Map<String, Double> vars = new HashMap<>();
+    vars.put("a", a);
+    vars.put("b", b);
+    vars.put("c", c);
+    return vars;
+  }
+
+  private double valuta(Calcolatore calc, CompiledExpression ce, Map<String, Double> vars)
+     throws Exception
+  {
+    return ce.evaluate(new EvaluationFrame(calc)
+    {
+      @Override
+      protected double valoreVariabile(String nomeVariabile)
+         throws Exception
+      {
+        return vars.get(nomeVariabile);
+      }
+    });
+  }
+
+  @Test
+  public void testEquivalenza()
+     throws Exception
+  {
+    Calcolatore calc = new CalcolatoreMinMax();
+    ExpressionOptimizer eo = new ExpressionOptimizer(calc);
+
+    for(String s : ESPRESSIONI)
+    {
+      CompiledExpression ce = calc.compile(s);
+      CompiledExpression ceo = eo.optimize(ce);
+      assertTrue(s, eo.getNodiFinali() <= eo.getNodiIniziali());
+
+      for(double a = -3; a <= 3; a += 1.5)
+        for(double b = -2; b <= 2; b += 2)
+        {
+          Map<String, Double> vars = valori(a, b, 7);
+          assertEquals(s, valuta(calc, ce, vars), valuta(calc, ceo, vars), epsilon);
+        }
+    }
+  }
+
+  @Test
+  public void testPassi()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore();
+    ExpressionOptimizer eo = new ExpressionOptimizer(calc);
+
+    CompiledExpression ce = eo.optimize(calc.compile("a*(pi2()*2/3)"));
+    assertEquals(4, (int) eo.getNodiRimossi().get(ExpressionOptimizer.PASSO_COSTANTI));
+    assertEquals(3, eo.getNodiFinali());
+    assertEquals(Math.PI / 3, ce.evaluate(valori(1, 0, 0)), epsilon);
+
+    eo.optimize(calc.compile("a*1 + b/1"));
+    assertEquals(4, (int) eo.getNodiRimossi().get(ExpressionOptimizer.PASSO_IDENTITA));
+    assertEquals(3, eo.getNodiFinali());
+
+    eo.optimize(calc.compile("sqr(a*a+b*b) + sqr(a*a+b*b)"));
+    assertTrue(eo.getNodiRimossi().get(ExpressionOptimizer.PASSO_COMUNI) > 0);
+    assertEquals(3, eo.getNodiRimossi().size());
+  }
+
+  @Test
+  public void testCalcolatore()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore();
+    calc.setOptimize(true);
+    assertEquals(7, calc.parse("1+2 * (1+2)"), epsilon);
+    assertEquals(Math.sqrt(2) * 2, calc.parse("sqr(2)+sqr(2)"), epsilon);
+    assertEquals(5, calc.parse("10-2+3"), epsilon);
+  }
+
+  @Test
+  public void testParserAnnidato()
+     throws Exception
+  {
+    // espressioni ottimizzate annidate nella risoluzione delle variabili
+    Parser pa = new Parser();
+    pa.init();
+    pa.setOptimize(true);
+    pa.AddVariabile("x", "sqr(y*y)+sqr(y*y)");
+    pa.AddCacheEntry(0, "y", 3.0);
+    assertEquals((6 + 1) * (6 + 1), pa.parse("(x+1)*(x+1)"), epsilon);
+  }
+
+  @Test
+  public void testBatchTiered()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore();
+    String s = "sqr(a*a+b*b) + sqr(a*a+b*b)*2 - (a*a+b*b)";
+    CompiledExpression ce = calc.compile(s);
+    CompiledExpression ceo = new ExpressionOptimizer(calc).optimize(ce);
+
+    int num = 3000;
+    double[] a = new double[num], b = new double[num], out = new double[num];
+    for(int i = 0; i < num; i++)
+    {
+      a[i] = i * 0.01;
+      b[i] = 5 - i * 0.003;
+    }
+
+    Map<String, double[]> colonne = new HashMap<>();
+    colonne.put("a", a);
+    colonne.put("b", b);
+    new BatchEvaluator(calc, ceo).evaluate(colonne, out);
+
+    TieredExpression te = new TieredExpression(calc, ceo, 0);
+    assertTrue(te.compileNow());
+
+    for(int i = 0; i < num; i += 7)
+    {
+      Map<String, Double> vars = valori(a[i], b[i], 0);
+      double atteso = ce.evaluate(vars);
+      assertEquals(atteso, out[i], epsilon);
+      assertEquals(atteso, te.evaluate(vars), epsilon);
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per FunctionRegistry.
+ *
+ * @author Nicola De Nisco
+ */
+public class FunctionRegistryTest
+{
+  public static final double epsilon = 0.00001;
+
+  @Test
+  public void testArgomenti()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore();
+    assertEquals(8, calc.parse("pow(2, 3)"), epsilon);
+    assertEquals(1, calc.parse("min(3, 1, 2)"), epsilon);
+    assertEquals(7, calc.parse("max(3, 1+6, 2) "), epsilon);
+    assertEquals(Math.atan2(1, 2), calc.parse("atan2(1, 2)"), epsilon);
+    assertEquals(4, calc.parse("max(1, min(4, 5), (1+2))"), epsilon);
+    assertEquals(Math.PI + 1, calc.parse("PI() + 1"), epsilon);
+    assertEquals(Math.sqrt(16), calc.parse("sqr(min(16, 25))"), epsilon);
+  }
+
+  @Test
+  public void testArita()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore();
+    String[] errate =
+    {
+      "pow(2)", "sin(1, 2)", "pi(1)", "min()", "max(1,)", "pow(,2)"
+    };
+
+    for(String s : errate)
+    {
+      try
+      {
+        calc.compile(s);
+        fail("Compilazione riuscita: " + s);
+      }
+      catch(ParserException ex)
+      {
+        // corretto
+      }
+    }
+  }
+
+  @Test
+  public void testRegistrazione()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore();
+    calc.getFunctionRegistry().register("media", 1, -1, true, (args) ->
+    {
+      double tot = 0;
+      for(double v : args)
+        tot += v;
+      return tot / args.length;
+    });
+    calc.getFunctionRegistry().register("doppio", false, (v) -> v * 2);
+    calc.getFunctionRegistry().registerCostante("dieci", 10);
+
+    assertEquals(2, calc.parse("media(1, 2, 3)"), epsilon);
+    assertEquals(12, calc.parse("doppio(dieci()) - 8"), epsilon);
+
+    // le espressioni già compilate conservano la definizione
+    CompiledExpression ce = calc.compile("doppio(3)");
+    calc.getFunctionRegistry().register("doppio", false, (v) -> v * 3);
+    assertEquals(6, ce.evaluate(calc), epsilon);
+    assertEquals(9, calc.parse("doppio(3)"), epsilon);
+
+    // il registro non è condiviso fra calcolatori
+    assertNull(new Calcolatore().getFunctionRegistry().lookup("media"));
+    assertNotNull(new Calcolatore().getFunctionRegistry().lookup("sin"));
+  }
+
+  @Test
+  public void testEsterne()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore()
+    {
+      @Override
+      protected double externValoreFunzione(String nomeFunzione, double vPar)
+         throws Exception
+      {
+        return nomeFunzione.equals("inc") ? vPar + 1 : super.externValoreFunzione(nomeFunzione, vPar);
+      }
+    };
+
+    assertEquals(3, calc.parse("inc(2)"), epsilon);
+    assertEquals(1, calc.parse("inc()"), epsilon);
+
+    try
+    {
+      calc.parse("inc(1, 2)");
+      fail("Argomenti non controllati");
+    }
+    catch(ParserException ex)
+    {
+      // corretto
+    }
+  }
+
+  @Test
+  public void testBuiltinSolaLettura()
+     throws Exception
+  {
+    assertTrue(FunctionRegistry.BUILTIN.isReadOnly());
+
+    try
+    {
+      FunctionRegistry.BUILTIN.register("sin", true, (v) -> 0);
+      fail("BUILTIN modificabile");
+    }
+    catch(UnsupportedOperationException ex)
+    {
+      // corretto
+    }
+
+    try
+    {
+      FunctionRegistry.BUILTIN.unregister("cos");
+      fail("BUILTIN modificabile");
+    }
+    catch(UnsupportedOperationException ex)
+    {
+      // corretto
+    }
+
+    Calcolatore calc = new Calcolatore();
+    assertFalse(calc.getFunctionRegistry().isReadOnly());
+    calc.getFunctionRegistry().register("sin", true, (v) -> 42);
+    assertEquals(42, calc.parse("sin(1)"), epsilon);
+    assertEquals(Math.sin(1), new Calcolatore().parse("sin(1)"), epsilon);
+  }
+
+  @Test
+  public void testInternalFunctionRidefinita()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore()
+    {
+      @Override
+      protected double testInternalFunction(String t, double vPar)
+         throws Exception
+      {
+        return t.equals("sin") ? -vPar : super.testInternalFunction(t, vPar);
+      }
+    };
+
+    assertEquals(-2, calc.parse("sin(2)"), epsilon);
+    assertEquals(Math.cos(2), calc.parse("cos(2)"), epsilon);
+    assertEquals(Math.PI, calc.parse("pi()"), epsilon);
+    assertEquals(8, calc.parse("pow(2, 3)"), epsilon);
+
+    CompiledExpression ce = calc.compile("sin(a) + 1");
+    Map<String, double[]> colonne = new HashMap<>();
+    colonne.put("a", new double[]
+    {
+      1, 2, 3
+    });
+    double[] out = new double[3];
+    new BatchEvaluator(calc, ce).evaluate(colonne, out);
+    assertArrayEquals(new double[]
+    {
+      0, -1, -2
+    }, out, epsilon);
+
+    // funzione con due argomenti chiamata con uno solo
+    try
+    {
+      calc.parse("pow(2)");
+      fail("Argomenti non controllati");
+    }
+    catch(ParserException ex)
+    {
+      // corretto
+    }
+
+    // ridefinizione della versione con StringBuilder: riceve il nome normalizzato
+    Calcolatore calcSb = new Calcolatore()
+    {
+      @Override
+      protected double testInternalFunction(StringBuilder valAlfa, double vPar)
+         throws Exception
+      {
+        return valAlfa.toString().equals("abs") ? 100 + vPar : super.testInternalFunction(valAlfa, vPar);
+      }
+    };
+
+    assertEquals(101, calcSb.parse("ABS(1)"), epsilon);
+    assertEquals(Math.sin(1), calcSb.parse("sin(1)"), epsilon);
+  }
+
+  @Test
+  public void testLivelli()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore();
+    String s = "max(a, b, 2) + pow(a, 2) + pi() + sin(b)";
+    CompiledExpression ce = calc.compile(s);
+
+    int num = 2500;
+    double[] a = new double[num], b = new double[num], out = new double[num];
+    for(int i = 0; i < num; i++)
+    {
+      a[i] = i * 0.003 - 2;
+      b[i] = 3 - i * 0.002;
+    }
+
+    Map<String, double[]> colonne = new HashMap<>();
+    colonne.put("a", a);
+    colonne.put("b", b);
+    new BatchEvaluator(calc, ce).evaluate(colonne, out);
+
+    TieredExpression te = new TieredExpression(calc, ce, 0);
+    assertTrue(te.compileNow());
+
+    Map<String, Double> vars = new HashMap<>();
+    for(int i = 0; i < num; i += 11)
+    {
+      double atteso = Math.max(Math.max(a[i], b[i]), 2) + a[i] * a[i] + Math.PI + Math.sin(b[i]);
+      vars.put("a", a[i]);
+      vars.put("b", b[i]);
+      assertEquals(atteso, ce.evaluate(vars), epsilon);
+      assertEquals(atteso, out[i], epsilon);
+      assertEquals(atteso, te.evaluate(vars), epsilon);
+    }
+  }
+}
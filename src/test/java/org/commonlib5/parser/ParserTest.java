@@ -18,6 +18,7 @@
 package org.commonlib5.parser;
 
 import java.util.Date;
+import java.util.HashMap;
 import static junit.framework.Assert.assertEquals;
 import org.junit.Test;
 
@@ -127,4 +128,28 @@ public class ParserTest
     pa.destroy();
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testCacheDerivata()
+     throws Exception
+  {
+    // classe derivata scritta per le mappe non concorrenti
+    Parser pa = new Parser()
+    {
+      @Override
+      public void setCacheLevels(int NumLevels)
+         throws ParserException
+      {
+        cache = new HashMap[NumLevels];
+        for(int i = 0; i < NumLevels; i++)
+          cache[i] = new HashMap<>();
+        htVars = new HashMap<>();
+        numCache = NumLevels;
+      }
+    };
+    pa.init();
+    pa.AddVariabile("doppio", "a*2");
+    pa.AddCacheEntry(0, "a", 21);
+    assertEquals(42.0, pa.parse("doppio"), epsilon);
+  }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.parser;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per TieredExpression.
+ *
+ * @author Nicola De Nisco
+ */
+public class TieredExpressionTest
+{
+  public static final double epsilon = 0.00001;
+
+  @Test
+  public void testLivelli()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore();
+    TieredExpression te = new TieredExpression(calc,
+       "-a*(1+b/100)-c>100 ? 1 : 0 + sqr(a)%7 + 10-2+3 + round(b)^2", 10);
+
+    int sa = te.getSlot("a"), sb = te.getSlot("b"), sc = te.getSlot("c");
+    assertEquals(3, te.getVariabili().length);
+    assertEquals(-1, te.getSlot("d"));
+
+    double[] valori = new double[3];
+    for(int i = 0; i < 100; i++)
+    {
+      valori[sa] = i * 1.5;
+      valori[sb] = i % 13;
+      valori[sc] = i / 3.0;
+
+      double atteso = te.evaluateInterpreted(valori);
+      assertEquals(atteso, te.evaluate(valori), epsilon);
+      assertEquals(i < 10 ? TieredExpression.TIER_INTERPRETATO : TieredExpression.TIER_METHODHANDLE, te.getTier());
+    }
+  }
+
+  @Test
+  public void testOperatoriEsterni()
+     throws Exception
+  {
+    Calcolatore calc = new Calcolatore()
+    {
+      @Override
+      protected double externOperazioni(double v1, double v2, String oper)
+         throws Exception
+      {
+        return "<|".equals(oper) ? Math.min(v1, v2) : Math.max(v1, v2);
+      }
+    };
+
+    TieredExpression te = new TieredExpression(calc, "(a<|b)+(a|>b)*10", 0);
+    assertTrue(te.compileNow());
+    double[] valori = new double[2];
+    valori[te.getSlot("a")] = 3;
+    valori[te.getSlot("b")] = 5;
+    assertEquals(53.0, te.evaluate(valori), epsilon);
+    assertEquals(53.0, te.evaluateInterpreted(valori), epsilon);
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.test;
+
+import java.io.*;
+import org.commonlib5.io.CircularByteBuffer;
+
+/**
+ * Benchmark di CircularByteBuffer come pipe fra due thread.
+ * Confronta la modalità sincronizzata, la modalità single
+ * producer/single consumer e PipedInputStream/PipedOutputStream:
+ * <ul>
+ * <li>throughput: il produttore scrive blocchi da 512 bytes;</li>
+ * <li>latenza: ping-pong di un byte fra due pipe.</li>
+ * </ul>
+ *
+ * @author Nicola De Nisco
+ */
+public class testCircularByteBuffer
+{
+  public static final int SIZE = 64 * 1024;
+  public static final long NUM_BYTES = 256L * 1024 * 1024;
+  public static final int NUM_PING = 20000;
+
+  public interface Pipe
+  {
+    InputStream getInputStream();
+
+    OutputStream getOutputStream();
+  }
+
+  public static Pipe circular(boolean spsc)
+  {
+    CircularByteBuffer cb = new CircularByteBuffer(SIZE, true, spsc);
+    return new Pipe()
+    {
+      @Override
+      public InputStream getInputStream()
+      {
+        return cb.getInputStream();
+      }
+
+      @Override
+      public OutputStream getOutputStream()
+      {
+        return cb.getOutputStream();
+      }
+    };
+  }
+
+  public static Pipe piped()
+     throws IOException
+  {
+    PipedInputStream pis = new PipedInputStream(SIZE);
+    PipedOutputStream pos = new PipedOutputStream(pis);
+    return new Pipe()
+    {
+      @Override
+      public InputStream getInputStream()
+      {
+        return pis;
+      }
+
+      @Override
+      public OutputStream getOutputStream()
+      {
+        return pos;
+      }
+    };
+  }
+
+  public static Pipe crea(String tipo)
+     throws IOException
+  {
+    switch(tipo)
+    {
+      case "synchronized":
+        return circular(false);
+      case "spsc":
+        return circular(true);
+      default:
+        return piped();
+    }
+  }
+
+  public static void main(String[] args)
+  {
+    try
+    {
+      String[] tipi =
+      {
+        "synchronized", "spsc", "piped"
+      };
+
+      // riscaldamento
+      for(String tipo : tipi)
+      {
+        throughput(crea(tipo), NUM_BYTES / 256);
+        latenza(crea(tipo), crea(tipo), NUM_PING / 100);
+      }
+
+      for(String tipo : tipi)
+      {
+        // la modalità sincronizzata attende con sleep di 100ms quando il buffer è pieno
+        double mbs = throughput(crea(tipo), tipo.equals("synchronized") ? NUM_BYTES / 64 : NUM_BYTES);
+        System.out.printf("%-14s throughput %10.1f MB/s\n", tipo, mbs);
+      }
+
+      for(String tipo : tipi)
+      {
+        // la modalità sincronizzata e PipedInputStream attendono con sleep: pochi round trip
+        int num = tipo.equals("spsc") ? NUM_PING : NUM_PING / 1000;
+        double us = latenza(crea(tipo), crea(tipo), num);
+        System.out.printf("%-14s round trip %10.1f us\n", tipo, us);
+      }
+    }
+    catch(Exception ex)
+    {
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+   * Throughput della pipe.
+   * @return MB/s
+   */
+  public static double throughput(Pipe p, long numBytes)
+     throws Exception
+  {
+    Thread produttore = new Thread(() ->
+    {
+      try(OutputStream os = p.getOutputStream())
+      {
+        byte[] buf = new byte[512];
+        for(long i = 0; i < numBytes; i += buf.length)
+          os.write(buf);
+      }
+      catch(IOException ex)
+      {
+        ex.printStackTrace();
+      }
+    });
+
+    long inizio = System.nanoTime();
+    produttore.start();
+
+    InputStream is = p.getInputStream();
+    byte[] buf = new byte[8192];
+    long totale = 0;
+    int letti;
+    while((letti = is.read(buf)) != -1)
+      totale += letti;
+
+    produttore.join();
+    long nanos = System.nanoTime() - inizio;
+    return (totale / (1024.0 * 1024.0)) / (nanos / 1e9);
+  }
+
+  /**
+   * Latenza di un round trip di un byte.
+   * @return microsecondi per round trip
+   */
+  public static double latenza(Pipe andata, Pipe ritorno, int num)
+     throws Exception
+  {
+    Thread eco = new Thread(() ->
+    {
+      try
+      {
+        InputStream is = andata.getInputStream();
+        OutputStream os = ritorno.getOutputStream();
+        int c;
+        while((c = is.read()) != -1)
+        {
+          os.write(c);
+          os.flush();
+        }
+        os.close();
+      }
+      catch(IOException ex)
+      {
+        ex.printStackTrace();
+      }
+    });
+    eco.start();
+
+    OutputStream os = andata.getOutputStream();
+    InputStream is = ritorno.getInputStream();
+    long inizio = System.nanoTime();
+    for(int i = 0; i < num; i++)
+    {
+      os.write(i);
+      os.flush();
+      is.read();
+    }
+    long nanos = System.nanoTime() - inizio;
+
+    os.close();
+    eco.join();
+    return nanos / 1000.0 / num;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import org.commonlib5.parser.CalcContext;
+import org.commonlib5.parser.CompiledExpression;
+import org.commonlib5.parser.ContextParser;
+
+/**
+ * Benchmark della valutazione concorrente.
+ * Più thread valutano la stessa espressione compilata con la
+ * stessa istanza di ContextParser e lo stesso contesto;
+ * viene stampato il numero di valutazioni al secondo
+ * al crescere del numero di thread.
+ *
+ * @author Nicola De Nisco
+ */
+public class testParserConcorrente
+{
+  public static final int NUM_ITER = 500000;
+
+  public static void main(String[] args)
+  {
+    try
+    {
+      ContextParser parser = new ContextParser();
+      CalcContext context = new CalcContext();
+
+      context.put("raggio", 100);
+      context.put("arco", 25);
+      context.put("altezza", 700);
+      context.put("diametro", "raggio*2");
+
+      CompiledExpression ce = parser.compile("(2*pi()*raggio*arco/360)+diametro*altezza/3");
+      int maxThread = Runtime.getRuntime().availableProcessors();
+
+      // riscaldamento
+      bench(parser, ce, context, 1);
+
+      for(int nt = 1; nt <= maxThread; nt *= 2)
+      {
+        long nanos = bench(parser, ce, context, nt);
+        double opsec = (double) NUM_ITER * nt * 1000000000.0 / nanos;
+        System.out.printf("thread=%2d valutazioni=%d tempo=%d ms valutazioni/sec=%.0f%n",
+           nt, NUM_ITER * nt, nanos / 1000000, opsec);
+      }
+    }
+    catch(Exception ex)
+    {
+      ex.printStackTrace();
+    }
+  }
+
+  public static long bench(ContextParser parser, CompiledExpression ce, CalcContext context, int numThread)
+     throws Exception
+  {
+    ExecutorService exec = Executors.newFixedThreadPool(numThread);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Double>> lsf = new ArrayList<>();
+
+    for(int i = 0; i < numThread; i++)
+    {
+      lsf.add(exec.submit(() ->
+      {
+        start.await();
+        double v = 0;
+        for(int j = 0; j < NUM_ITER; j++)
+          v += parser.evaluate(ce, context);
+        return v;
+      }));
+    }
+
+    long t = System.nanoTime();
+    start.countDown();
+    for(Future<Double> f : lsf)
+      f.get();
+    t = System.nanoTime() - t;
+
+    exec.shutdown();
+    return t;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.test;
+
+import org.commonlib5.parser.Calcolatore;
+import org.commonlib5.parser.TieredExpression;
+
+/**
+ * Confronto fra i livelli di esecuzione di un'espressione:
+ * parsing ad ogni valutazione, albero compilato interpretato
+ * e albero di MethodHandle.
+ *
+ * @author Nicola De Nisco
+ */
+public class testTieredExpression
+{
+  public static final String EXPR = "(2*pi()*raggio*arco/360)+raggio*2*altezza/3-sqr(arco)";
+  public static final int NUM_ITER = 2000000;
+
+  public static void main(String[] args)
+  {
+    try
+    {
+      Calcolatore calc = new Calcolatore();
+      TieredExpression te = new TieredExpression(calc, EXPR, Integer.MAX_VALUE);
+      TieredExpression tm = new TieredExpression(calc, EXPR, 0);
+      tm.compileNow();
+
+      double[] valori = new double[te.getVariabili().length];
+      int sr = te.getSlot("raggio"), sa = te.getSlot("arco"), sh = te.getSlot("altezza");
+
+      for(int giro = 0; giro < 3; giro++)
+      {
+        double v = 0;
+        long t = System.nanoTime();
+        for(int i = 0; i < NUM_ITER / 20; i++)
+          v += calc.parse("(2*pi()*" + i + "*25/360)+" + i + "*2*700/3-sqr(25)");
+        stampa("parse", NUM_ITER / 20, System.nanoTime() - t, v);
+
+        v = 0;
+        t = System.nanoTime();
+        for(int i = 0; i < NUM_ITER; i++)
+        {
+          valori[sr] = i;
+          valori[sa] = 25;
+          valori[sh] = 700;
+          v += te.evaluateInterpreted(valori);
+        }
+        stampa("interpretato", NUM_ITER, System.nanoTime() - t, v);
+
+        v = 0;
+        t = System.nanoTime();
+        for(int i = 0; i < NUM_ITER; i++)
+        {
+          valori[sr] = i;
+          valori[sa] = 25;
+          valori[sh] = 700;
+          v += tm.evaluate(valori);
+        }
+        stampa("methodhandle", NUM_ITER, System.nanoTime() - t, v);
+      }
+    }
+    catch(Exception ex)
+    {
+      ex.printStackTrace();
+    }
+  }
+
+  private static void stampa(String livello, int numIter, long nanos, double v)
+  {
+    System.out.printf("%-14s valutazioni=%8d ns/valutazione=%8.1f (%g)%n",
+       livello, numIter, (double) nanos / numIter, v);
+  }
+}
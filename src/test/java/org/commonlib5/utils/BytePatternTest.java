@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.commonlib5.io.ByteBufferOutputStream;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per BytePattern.
+ *
+ * @author Nicola De Nisco
+ */
+public class BytePatternTest
+{
+  /**
+   * Ricerca di riferimento.
+   */
+  private static int ingenuo(byte[] source, int off, int len, byte[] target, int fromIndex)
+  {
+    for(int i = Math.max(fromIndex, 0); i <= len - target.length; i++)
+    {
+      int j = 0;
+      while(j < target.length && source[off + i + j] == target[j])
+        j++;
+      if(j == target.length)
+        return i;
+    }
+    return -1;
+  }
+
+  @Test
+  public void testIndexOfCasuale()
+  {
+    // alfabeto ridotto per avere molte corrispondenze parziali
+    Random rnd = new Random(1234);
+    byte[] source = new byte[5000];
+    for(int i = 0; i < source.length; i++)
+      source[i] = (byte) (0xfd + rnd.nextInt(3));
+
+    for(int n = 0; n < 2000; n++)
+    {
+      byte[] target = new byte[1 + rnd.nextInt(9)];
+      for(int i = 0; i < target.length; i++)
+        target[i] = (byte) (0xfd + rnd.nextInt(3));
+
+      int off = rnd.nextInt(100);
+      int len = rnd.nextInt(source.length - off);
+      int from = rnd.nextInt(200) - 10;
+      BytePattern p = new BytePattern(target);
+      assertEquals(ingenuo(source, off, len, target, from), p.indexOf(source, off, len, from));
+      assertEquals(ingenuo(source, off, len, target, from),
+         ByteBufferOutputStream.indexOf(source, off, len, target, 0, target.length, from));
+    }
+  }
+
+  @Test
+  public void testIndexOf()
+     throws Exception
+  {
+    byte[] s = "abcabcabdabcabcabcd".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(9, new BytePattern("abcabcabcd".getBytes(StandardCharsets.US_ASCII)).indexOf(s));
+    assertEquals(-1, new BytePattern("abd".getBytes(StandardCharsets.US_ASCII)).indexOf(s, 0, s.length, 7));
+
+    try
+    {
+      new BytePattern(new byte[0]);
+      fail("Sequenza vuota accettata");
+    }
+    catch(IllegalArgumentException ex)
+    {
+      // corretto
+    }
+
+    ByteBufferOutputStream bos = new ByteBufferOutputStream(16, true);
+    bos.write(s);
+    assertEquals(6, bos.indexOf(new BytePattern("abd".getBytes(StandardCharsets.US_ASCII))));
+  }
+
+  @Test
+  public void testSkip()
+     throws Exception
+  {
+    // corrispondenza parziale seguita dalla sequenza: la vecchia
+    // implementazione perdeva il byte che interrompeva la corrispondenza
+    byte[] pattern = "aab".getBytes(StandardCharsets.US_ASCII);
+    ByteArrayInputStream is = new ByteArrayInputStream("xaaabz".getBytes(StandardCharsets.US_ASCII));
+    assertTrue(CommonFileUtils.skipPattern(pattern, is));
+    assertEquals('z', is.read());
+    assertFalse(CommonFileUtils.skipPattern(pattern, is));
+
+    // bytes oltre 0x7f
+    byte[] frame = new byte[]
+    {
+      (byte) 0xaa, (byte) 0x55
+    };
+    is = new ByteArrayInputStream(new byte[]
+    {
+      1, (byte) 0xaa, (byte) 0xaa, (byte) 0x55, 7
+    });
+    assertTrue(new BytePattern(frame).skip(is));
+    assertEquals(7, is.read());
+
+    PushbackInputStream pis = new PushbackInputStream(
+       new ByteArrayInputStream("--aab--".getBytes(StandardCharsets.US_ASCII)), 8);
+    assertTrue(CommonFileUtils.skipPatternRepos(new BytePattern(pattern), pis));
+    assertEquals('a', pis.read());
+
+    // la sequenza vuota è sempre trovata senza leggere
+    assertTrue(CommonFileUtils.skipPattern(new byte[0], pis));
+    assertTrue(CommonFileUtils.skipPatternRepos(new byte[0], pis));
+    assertEquals('a', pis.read());
+  }
+
+  @Test
+  public void testAvanza()
+  {
+    // corrispondenze sovrapposte
+    BytePattern p = new BytePattern("aa".getBytes(StandardCharsets.US_ASCII));
+    int stato = 0, trovati = 0;
+    for(byte b : "aaaa".getBytes(StandardCharsets.US_ASCII))
+    {
+      if((stato = p.avanza(stato, b)) == p.length())
+        trovati++;
+    }
+    assertEquals(3, trovati);
+  }
+}
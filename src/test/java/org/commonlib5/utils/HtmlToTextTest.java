@@ -0,0 +1,90 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.utils;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per HtmlToText.
+ *
+ * @author Nicola De Nisco
+ */
+public class HtmlToTextTest
+{
+  @Test
+  public void testTag()
+  {
+    assertEquals("uno\r\ndue\r\ntre\r\nquattro",
+       StringOper.cvtHtml2Text("<p class=\"x\">uno<br>due<BR />tre<br/>quattro</p>"));
+    assertEquals("a\tb\r\nc\r\n",
+       StringOper.cvtHtml2Text("<table><tr><td>a</td>\t<td>b</td></tr><tr><td>c</td></TR></table>"));
+    assertEquals("x\r\n", StringOper.cvtHtml2Text("<ul><li>x</li></ul>"));
+    assertEquals("ab", StringOper.cvtHtml2Text("a<!-- <br> -- > -->b"));
+
+    HtmlToText cvt = new HtmlToText(Arrays.asList("/p", "br"), "\n");
+    assertEquals("uno\ndue\n\n", cvt.convert("<p>uno</p><p>due<br></p>"));
+  }
+
+  @Test
+  public void testEntita()
+  {
+    assertEquals("città & più", StringOper.cvtHtml2Text("citt&agrave; &amp; pi&ugrave;"));
+    assertEquals("AZ€😀", StringOper.cvtHtml2Text("&#65;&#x5a;&#X20AC;&#x1F600;"));
+    assertEquals("a b", StringOper.cvtHtml2Text("a&nbsp;b"));
+
+    // le entità decodificate non sono tag
+    assertEquals("<b>", StringOper.cvtHtml2Text("&lt;b&gt;"));
+
+    // entità sconosciute o non valide restano invariate
+    assertEquals("&pippo; & x &#xZZ; a&b", StringOper.cvtHtml2Text("&pippo; & x &#xZZ; a&b"));
+    assertEquals("&amp<", StringOper.cvtHtml2Text("&amp&lt;"));
+    assertEquals("fine <tag", StringOper.cvtHtml2Text("fine <tag"));
+  }
+
+  @Test
+  public void testTagNonTerminato()
+  {
+    // un '<' isolato non accumula il resto del documento
+    StringBuilder html = new StringBuilder("a < b ");
+    for(int i = 0; i < 1000; i++)
+      html.append("testo ").append(i).append(' ');
+    String coda = html.substring(2);
+    html.append("<br>fine");
+
+    assertEquals("a " + coda + "\r\nfine", StringOper.cvtHtml2Text(html.toString()));
+  }
+
+  @Test
+  public void testReader()
+     throws Exception
+  {
+    StringBuilder html = new StringBuilder(), atteso = new StringBuilder();
+    for(int i = 0; i < 5000; i++)
+    {
+      html.append("<li class='riga'>riga ").append(i).append(" &egrave;</li>");
+      atteso.append("riga ").append(i).append(" è\r\n");
+    }
+
+    StringBuilder sb = new StringBuilder();
+    HtmlToText.DEFAULT.convert(new StringReader(html.toString()), sb);
+    assertEquals(atteso.toString(), sb.toString());
+  }
+}
@@ -0,0 +1,83 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.utils;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per StringEscaper.
+ *
+ * @author Nicola De Nisco
+ */
+public class StringEscaperTest
+{
+  @Test
+  public void testNessunaConversione()
+  {
+    String s = "nessun carattere speciale 123";
+    assertSame(s, StringOper.CvtSQLstring(s));
+    assertSame(s, StringOper.CvtJavascriptString(s));
+    assertSame(s, StringOper.CvtWEBstring(s));
+    assertSame(s, StringOper.CvtSQLWEBstring(s));
+    assertSame(s, StringOper.CvtXMLstring(s));
+    assertEquals(-1, StringEscaper.XML.indexOfEscape(s));
+    assertEquals(2, StringEscaper.XML.indexOfEscape("ab<"));
+  }
+
+  @Test
+  public void testTabelle()
+  {
+    assertEquals("l''uva \\\"bianca\\\"", StringOper.CvtSQLstring("l'uva \"bianca\""));
+    assertEquals("l\\'uva", StringOper.CvtJavascriptString("l'uva"));
+
+    // entità, controlli eliminati, oltre 128 riferimento decimale
+    assertEquals("perch&eacute; &amp; l&rsquo;\r\nx&#8364;&#128512;",
+       StringOper.CvtWEBstring("perché & l'\r\n\u0001x€😀"));
+    assertEquals("l''&agrave;x", StringOper.CvtSQLWEBstring("l'à€x"));
+
+    assertEquals("&lt;a href=&quot;x&quot;&gt;&amp;&apos;\t&#xe8;&#x1;&#x1f600;",
+       StringOper.CvtXMLstring("<a href=\"x\">&'\tè\u0001😀"));
+  }
+
+  @Test
+  public void testStream()
+     throws Exception
+  {
+    StringBuilder s = new StringBuilder(), atteso = new StringBuilder();
+    for(int i = 0; i < 5000; i++)
+    {
+      s.append("<riga n='").append(i).append("'>😀</riga>\n");
+      atteso.append("&lt;riga n=&apos;").append(i).append("&apos;&gt;&#x1f600;&lt;/riga&gt;\n");
+    }
+
+    StringWriter sw = new StringWriter();
+    StringEscaper.XML.escape(new StringReader(s.toString()), sw);
+    assertEquals(atteso.toString(), sw.toString());
+
+    sw = new StringWriter();
+    StringOper.CvtXMLstring(s.toString(), sw);
+    assertEquals(atteso.toString(), sw.toString());
+
+    StringBuilder sb = new StringBuilder();
+    StringOper.CvtXMLstring(s, sb);
+    assertEquals(atteso.toString(), sb.toString());
+  }
+}
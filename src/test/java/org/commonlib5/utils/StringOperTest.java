@@ -233,15 +233,16 @@ public class StringOperTest
     assertEquals(expResult, result);
   }
 
-//  @Test
-//  public void testCvtXMLstring()
-//  {
-//    System.out.println("CvtXMLstring");
-//    String s = "fagioli & cavoli";
-//    String expResult = "fagioli &amp; cavoli";
-//    String result = StringOper.CvtXMLstring(s);
-//    assertEquals(expResult, result);
-//  }
+  @Test
+  public void testCvtXMLstring()
+  {
+    System.out.println("CvtXMLstring");
+    String s = "fagioli & cavoli";
+    String expResult = "fagioli &amp; cavoli";
+    String result = StringOper.CvtXMLstring(s);
+    assertEquals(expResult, result);
+  }
+
   @Test
   public void testCvtWEB2Ascii()
   {
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Random;
 import static junit.framework.TestCase.*;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -165,4 +166,80 @@ public class StringReplaceInFileTest
     String contenuto = CommonFileUtils.readFileTxt(nuovoFile, "UTF-8");
     assertEquals(aspettato, contenuto);
   }
+
+  @Test
+  public void testReplaceStream()
+     throws Exception
+  {
+    System.out.println("replaceStream");
+
+    File tmp = OsIdent.getSystemTemp();
+    File vecchioFile = new File(tmp, "input.txt");
+    File nuovoFile = new File(tmp, "output.txt");
+
+    // terminatori misti e sostituzione a cavallo di due linee
+    CommonFileUtils.writeFileTxt(vecchioFile, "fine\r\ninizio e fine\ninizio\r\n", "UTF-8");
+    StringReplaceInFile instance = new StringReplaceInFile(vecchioFile, StandardCharsets.UTF_8);
+    instance.addSubstituion("fine\r\ninizio", "X");
+    instance.addSubstituion("inizio", "I");
+    instance.setChunkSize(16);
+    instance.replaceStream(nuovoFile, StandardCharsets.UTF_8);
+    assertEquals("X e fine\nI\r\n", CommonFileUtils.readFileTxt(nuovoFile, "UTF-8"));
+
+    // con il fine linea nelle stringhe cercate replaceParallel() equivale a replaceStream()
+    instance.replaceParallel(nuovoFile, StandardCharsets.UTF_8, null);
+    assertEquals("X e fine\nI\r\n", CommonFileUtils.readFileTxt(nuovoFile, "UTF-8"));
+  }
+
+  @Test
+  public void testReplaceParallel()
+     throws Exception
+  {
+    System.out.println("replaceParallel");
+
+    File tmp = OsIdent.getSystemTemp();
+    File vecchioFile = new File(tmp, "input.txt");
+    File nuovoFile = new File(tmp, "output.txt");
+    File attesoFile = new File(tmp, "atteso.txt");
+
+    // caratteri multibyte e linee di lunghezza variabile, anche oltre il blocco
+    String[] parole =
+    {
+      "città", "perché", "così", "uno", "due", "€", " ", "\r\n", "\n"
+    };
+    Random rnd = new Random(1234);
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < 20000; i++)
+    {
+      sb.append(parole[rnd.nextInt(parole.length)]);
+      if(i % 5000 == 0)
+        sb.append(new String(new char[3000]).replace('\0', 'x'));
+    }
+    CommonFileUtils.writeFileTxt(vecchioFile, sb.toString(), "UTF-8");
+
+    StringReplaceInFile instance = new StringReplaceInFile(vecchioFile, StandardCharsets.UTF_8);
+    instance.addSubstituion("città", "paese");
+    instance.addSubstituion("uno due", "tre");
+    instance.addSubstituion("€", "EUR");
+    instance.addSubstituion("xx", "y");
+    instance.setChunkSize(1000);
+    instance.replaceParallel(nuovoFile, StandardCharsets.UTF_8, null);
+    instance.replaceInMemory(attesoFile, StandardCharsets.UTF_8);
+
+    String atteso = CommonFileUtils.readFileTxt(attesoFile, "UTF-8");
+    assertEquals(atteso, CommonFileUtils.readFileTxt(nuovoFile, "UTF-8"));
+    assertFalse(atteso.contains("città"));
+
+    try(InputStream is = new FileInputStream(vecchioFile))
+    {
+      instance = new StringReplaceInFile(is, StandardCharsets.UTF_8);
+      instance.addSubstituion("città", "paese");
+      instance.addSubstituion("uno due", "tre");
+      instance.addSubstituion("€", "EUR");
+      instance.addSubstituion("xx", "y");
+      instance.setChunkSize(777);
+      instance.replaceParallel(nuovoFile, StandardCharsets.ISO_8859_1, null);
+    }
+    assertEquals(atteso, CommonFileUtils.readFileTxt(nuovoFile, "ISO-8859-1"));
+  }
 }
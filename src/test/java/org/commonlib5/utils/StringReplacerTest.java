@@ -0,0 +1,201 @@
+/* 
+ * Copyright (C) 2025 Nicola De Nisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.commonlib5.utils;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test per StringReplacer.
+ *
+ * @author Nicola De Nisco
+ */
+public class StringReplacerTest
+{
+  /**
+   * Sostituzione di riferimento: a ogni posizione la sequenza più lunga.
+   */
+  private static String ingenuo(String s, Map<String, String> sost)
+  {
+    StringBuilder sb = new StringBuilder();
+    int i = 0;
+    while(i < s.length())
+    {
+      String trovata = null;
+      for(String k : sost.keySet())
+      {
+        if(s.startsWith(k, i) && (trovata == null || k.length() > trovata.length()))
+          trovata = k;
+      }
+
+      if(trovata == null)
+        sb.append(s.charAt(i++));
+      else
+      {
+        sb.append(sost.get(trovata));
+        i += trovata.length();
+      }
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testSemantica()
+  {
+    // a parità di inizio vince la più lunga
+    StringReplacer r = new StringReplacer("a", "1", "ab", "2", "abc", "3");
+    assertEquals("3 2 1x", r.replace("abc ab ax"));
+
+    // vince l'occorrenza più a sinistra anche se un'altra termina prima
+    r = new StringReplacer("bcd", "X", "abcdef", "Y");
+    assertEquals("Y", r.replace("abcdef"));
+    assertEquals("aXeg", r.replace("abcdeg"));
+
+    // il testo sostituito non viene riesaminato
+    r = new StringReplacer("a", "b", "b", "a");
+    assertEquals("baab", r.replace("abba"));
+
+    String s = "nessuna occorrenza";
+    assertSame(s, new StringReplacer("zz", "y").replace(s));
+    // sostituzione null come la concatenazione di stringhe
+    assertEquals("xnullx", new StringReplacer("a", null).replace("xax"));
+    assertEquals(StringOper.strReplace("xax", "a", null), StringOper.strReplace("xax", "a", (String) null, "b", "c"));
+  }
+
+  @Test
+  public void testCasuale()
+     throws Exception
+  {
+    Random rnd = new Random(1234);
+    for(int n = 0; n < 500; n++)
+    {
+      // alfabeto ridotto per avere molte corrispondenze parziali
+      Map<String, String> sost = new LinkedHashMap<>();
+      int numSost = 1 + rnd.nextInt(8);
+      for(int i = 0; i < numSost; i++)
+        sost.put(casuale(rnd, 1 + rnd.nextInt(5)), casuale(rnd, rnd.nextInt(4)).toUpperCase());
+
+      // alcuni testi più lunghi del buffer di lettura
+      String s = casuale(rnd, n % 10 == 0 ? 20000 + rnd.nextInt(5000) : rnd.nextInt(300));
+      String atteso = ingenuo(s, sost);
+      StringReplacer r = new StringReplacer(sost);
+      assertEquals(atteso, r.replace(s));
+
+      StringBuilder sb = new StringBuilder();
+      r.replace(s, sb);
+      assertEquals(atteso, sb.toString());
+
+      // lettura a blocchi di lunghezza variabile
+      StringWriter sw = new StringWriter();
+      r.replace(new Spezzato(s, rnd), sw);
+      assertEquals(atteso, sw.toString());
+    }
+  }
+
+  @Test
+  public void testStream()
+     throws Exception
+  {
+    // occorrenze a cavallo dei blocchi di lettura
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < 10000; i++)
+      sb.append("&lt;tag&gt;&amp;");
+    StringReplacer r = new StringReplacer("&lt;", "<", "&gt;", ">", "&amp;", "&");
+    StringWriter sw = new StringWriter();
+    assertEquals(30000, r.replace(new StringReader(sb.toString()), sw));
+    assertEquals(sb.toString().replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&"), sw.toString());
+  }
+
+  @Test
+  public void testStringOper()
+  {
+    List<Pair<String, String>> coppie = new ArrayList<>();
+    coppie.add(new Pair<>("uno", "1"));
+    coppie.add(new Pair<>("uno", "X"));
+    coppie.add(new Pair<>("due", "2"));
+    assertEquals("1 2 tre", StringOper.strReplace("uno due tre", coppie));
+    assertEquals("1 2", StringOper.strReplace("uno due", "uno", "1", "due", "2"));
+
+    try
+    {
+      new StringReplacer("a", "b", "");
+      fail("Lunghezza dispari non segnalata");
+    }
+    catch(IllegalArgumentException ex)
+    {
+    }
+
+    try
+    {
+      new StringReplacer("", "b");
+      fail("Stringa vuota non segnalata");
+    }
+    catch(IllegalArgumentException ex)
+    {
+    }
+  }
+
+  private static String casuale(Random rnd, int len)
+  {
+    char[] c = new char[len];
+    for(int i = 0; i < len; i++)
+      c[i] = (char) ('a' + rnd.nextInt(3));
+    return new String(c);
+  }
+
+  /**
+   * Reader che restituisce blocchi di lunghezza casuale.
+   */
+  private static class Spezzato extends Reader
+  {
+    private final String s;
+    private final Random rnd;
+    private int pos = 0;
+
+    public Spezzato(String s, Random rnd)
+    {
+      this.s = s;
+      this.rnd = rnd;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len)
+    {
+      if(pos == s.length())
+        return -1;
+
+      int n = Math.min(Math.min(len, 1 + rnd.nextInt(7)), s.length() - pos);
+      s.getChars(pos, pos + n, cbuf, off);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+}